@@ -251,7 +251,7 @@ public class App {
 		}
 
 		// Generate the JWT and perform the handshake with the NM
-		nmConnector = new NeighbourhoodManagerConnector(config, logger);
+		nmConnector = NeighbourhoodManagerConnector.getInstance(config, logger);
 		nmConnector.handshake();
 
 		// Initialize counters
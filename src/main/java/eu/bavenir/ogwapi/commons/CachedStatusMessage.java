@@ -0,0 +1,89 @@
+package eu.bavenir.ogwapi.commons;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import eu.bavenir.ogwapi.commons.messages.StatusMessage;
+
+/**
+ * Content of a {@link StatusMessage StatusMessage} kept in one of the caches. A status message can only be built once,
+ * so the caches keep its content instead and make a new status message for each caller.
+ *
+ * @author sulfo
+ *
+ */
+class CachedStatusMessage {
+
+	/* === FIELDS === */
+
+	private final int statusCode;
+
+	private final String statusCodeReason;
+
+	private final String contentType;
+
+	private final JsonArray messages;
+
+	/**
+	 * When the content was cached (ms since epoch).
+	 */
+	private final long createdAt;
+
+
+	/* === METHODS === */
+
+	/**
+	 * Constructor, takes the content of the status message. The status message can't be used afterwards.
+	 *
+	 * @param statusMessage Status message to be cached.
+	 */
+	CachedStatusMessage(StatusMessage statusMessage) {
+
+		statusCode = statusMessage.getStatusCode();
+		statusCodeReason = statusMessage.getStatusCodeReason();
+		contentType = statusMessage.getContentType();
+		messages = statusMessage.getCurrentMessageArray();
+		createdAt = System.currentTimeMillis();
+	}
+
+
+	/**
+	 * Returns the time the content was cached.
+	 *
+	 * @return Time in ms since epoch.
+	 */
+	long getCreatedAt() {
+		return createdAt;
+	}
+
+
+	/**
+	 * Whether the cached messages are the same as in the other one.
+	 *
+	 * @param other The other cached status message.
+	 * @return True if the messages are equal.
+	 */
+	boolean hasSameMessages(CachedStatusMessage other) {
+		return other != null && messages.equals(other.messages);
+	}
+
+
+	/**
+	 * Makes a new status message with the cached content.
+	 *
+	 * @return Status message.
+	 */
+	StatusMessage toStatusMessage() {
+
+		StatusMessage statusMessage = new StatusMessage(false, statusCode, statusCodeReason, contentType);
+
+		for (JsonValue message : messages) {
+			if (message instanceof JsonObject) {
+				statusMessage.addMessageJson((JsonObject) message);
+			}
+		}
+
+		return statusMessage;
+	}
+}
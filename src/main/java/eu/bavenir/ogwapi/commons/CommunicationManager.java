@@ -2,14 +2,30 @@ package eu.bavenir.ogwapi.commons;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.json.Json;
@@ -27,6 +43,7 @@ import eu.bavenir.ogwapi.commons.connectors.NeighbourhoodManagerConnector;
 import eu.bavenir.ogwapi.commons.messages.CodesAndReasons;
 import eu.bavenir.ogwapi.commons.messages.StatusMessage;
 import eu.bavenir.ogwapi.commons.monitoring.MessageCounter;
+import eu.bavenir.ogwapi.commons.search.SemanticIndex;
 
 /*
  * STRUCTURE:
@@ -56,13 +73,14 @@ import eu.bavenir.ogwapi.commons.monitoring.MessageCounter;
  * This class serves as a connection manager for OGWAPI's communication over P2P network. There is usually only need
  * for a single instance of this class, even if there are several devices connecting through the OGWAPI. The 
  * instance of this class maintains a pool of connection descriptors, where each descriptor represents one separate 
- * client connection. The thread safe pool is based on a synchronised {@link java.util.HashMap HashMap} implementation.
+ * client connection. The thread safe pool is based on a {@link java.util.concurrent.ConcurrentHashMap ConcurrentHashMap}.
  * 
  *  It is important that the private methods for operations over the descriptor pool {@link #descriptorPoolClear() descriptorPoolClear},
  *  {@link #descriptorPoolGet(String) descriptorPoolGet}, {@link #descriptorPoolPut(String, ConnectionDescriptor) descriptorPoolPut},
  *  {@link #descriptorPoolRemove(String) descriptorPoolRemove}) are used when extending or 
- *  modifying this class instead of the direct approach to the descriptorPool's HashMap (which can cause significant 
- *  race conditions).
+ *  modifying this class instead of the direct approach to the descriptorPool's map. The pool is a 
+ *  {@link java.util.concurrent.ConcurrentHashMap ConcurrentHashMap}, so these methods do not need any locking, but 
+ *  they are the single place where the access to the pool can be changed or instrumented.
  *  
  *  Usual modus operandi of this class is as follows:
  *  
@@ -180,6 +198,21 @@ public class CommunicationManager {
 	 */
 	private static final int SESSIONRECOVERYPOLICY_INT_PROACTIVE = 3;
 	
+	/**
+	 * Result of a connection attempt - the object is connected, or its password was verified.
+	 */
+	private static final int CONNECTION_INT_ESTABLISHED = 0;
+	
+	/**
+	 * Result of a connection attempt - the credentials were refused. Only this result is remembered as a failed login.
+	 */
+	private static final int CONNECTION_INT_CREDENTIALSREJECTED = 1;
+	
+	/**
+	 * Result of a connection attempt - it failed for another reason, e.g. the network or the server is unavailable.
+	 */
+	private static final int CONNECTION_INT_FAILED = 2;
+	
 	/**
 	 * Session recovery policy string, one of the valid values that are to be entered in the configuration file.
 	 */
@@ -227,6 +260,81 @@ public class CommunicationManager {
 	 */
 	private static final String ATTR_TDS = "thingDescriptions";
 	
+	/**
+	 * Name of the attribute that is true if some pages of thing descriptions could not be retrieved. 
+	 */
+	private static final String ATTR_PARTIAL = "partial";
+	
+	/**
+	 * Name of the attribute with the objects whose thing descriptions could not be retrieved. 
+	 */
+	private static final String ATTR_MISSINGOBJECTS = "missingObjects";
+	
+	/**
+	 * Name of the Property ID attribute.
+	 */
+	private static final String ATTR_PID = "pid";
+	
+	/**
+	 * Name of the attribute with the status message of one property in a batch.
+	 */
+	private static final String ATTR_STATUS = "status";
+	
+	/**
+	 * Name of the attribute with the number of requests in progress.
+	 */
+	private static final String ATTR_INPROGRESS = "inProgress";
+	
+	/**
+	 * Name of the attribute with the number of requests waiting to be sent.
+	 */
+	private static final String ATTR_WAITING = "waiting";
+	
+	/**
+	 * Name of the attribute with the maximum number of requests in progress.
+	 */
+	private static final String ATTR_LIMIT = "limit";
+	
+	/**
+	 * Name of the attribute with the numbers of requests of the whole OGWAPI.
+	 */
+	private static final String ATTR_GATEWAY = "gateway";
+	
+	/**
+	 * Name of the attribute with the statistics of the priority lanes.
+	 */
+	private static final String ATTR_LANES = "lanes";
+	
+	/**
+	 * Name of the attribute with the number of messages taken from a lane.
+	 */
+	private static final String ATTR_TAKEN = "taken";
+	
+	/**
+	 * Name of the attribute with the average time a message waited in a lane.
+	 */
+	private static final String ATTR_AVERAGEDELAY = "averageDelayMillis";
+	
+	/**
+	 * Name of the attribute with the longest time a message waited in a lane.
+	 */
+	private static final String ATTR_MAXDELAY = "maxDelayMillis";
+	
+	/**
+	 * Name of the attribute with the statistics of joined identical requests.
+	 */
+	private static final String ATTR_COALESCING = "coalescing";
+	
+	/**
+	 * Name of the attribute with the number of requests that joined an identical request on its way.
+	 */
+	private static final String ATTR_HITS = "hits";
+	
+	/**
+	 * Name of the attribute with the number of requests that had to be sent.
+	 */
+	private static final String ATTR_MISSES = "misses";
+	
 	/**
 	 * TODO
 	 */
@@ -237,6 +345,35 @@ public class CommunicationManager {
 	 */
 	private static final int CONFIG_DEF_PAGE_SIZE = 5;
 	
+	/**
+	 * Name of the configuration parameter for the number of pages of thing descriptions that are retrieved from the
+	 * Neighbourhood Manager at the same time.
+	 */
+	private static final String CONFIG_PARAM_TDPARALLELPAGES = "general.tdParallelPages";
+	
+	/**
+	 * Default value for {@link #CONFIG_PARAM_TDPARALLELPAGES CONFIG_PARAM_TDPARALLELPAGES} parameter.
+	 */
+	private static final int CONFIG_DEF_TDPARALLELPAGES = 4;
+	
+	/**
+	 * Number of seconds during which a failed login attempt is remembered. Another attempt to log in with the same 
+	 * object ID and the same password during this period is refused right away, without contacting the network. 
+	 * Setting it to 0 turns this feature off.
+	 */
+	private static final String CONFIG_PARAM_FAILEDLOGINEXPIRATION = "general.failedLoginExpiration";
+	
+	/**
+	 * Default value for {@link #CONFIG_PARAM_FAILEDLOGINEXPIRATION CONFIG_PARAM_FAILEDLOGINEXPIRATION} parameter. 
+	 */
+	private static final int CONFIG_DEF_FAILEDLOGINEXPIRATION = 5;
+	
+	/**
+	 * Algorithm used to make digests of passwords from failed login attempts, so they are not kept in memory in 
+	 * plain text.
+	 */
+	private static final String FAILEDLOGIN_DIGEST_ALGORITHM = "SHA-256";
+	
 	/* === FIELDS === */
 	
 	/**
@@ -244,6 +381,11 @@ public class CommunicationManager {
 	 */
 	private Map<String, ConnectionDescriptor> descriptorPool;
 	
+	/**
+	 * Threads for processing of incoming messages, shared by all descriptors. 
+	 */
+	private WorkerThreads workerThreads;
+	
 	/**
 	 * Indicates the policy that the OGWAPI should take during session recovery.
 	 */
@@ -279,6 +421,74 @@ public class CommunicationManager {
 	 */
 	private MessageCounter messageCounter;
 	
+	/**
+	 * Connection attempts that are currently in progress, by object ID. Concurrent logins of the same object wait for
+	 * the attempt that is already running, instead of tearing each other's connections down.  
+	 */
+	private Map<String, CompletableFuture<Integer>> connectionAttemptsInFlight;
+	
+	/**
+	 * Recently failed login attempts. The key is made of object ID and a digest of the password, the value is the 
+	 * time (ms) when the record expires.
+	 */
+	private Map<String, Long> failedLogins;
+	
+	/**
+	 * How long a failed login attempt is remembered (ms).
+	 */
+	private long failedLoginExpiration;
+	
+	/**
+	 * Scheduler for the timeouts of requests sent to remote objects. It is shared by all connection descriptors, 
+	 * so no thread has to sit and wait for a response.
+	 */
+	private ScheduledThreadPoolExecutor timeoutScheduler;
+	
+	/**
+	 * Index of semantic interfaces of objects in rosters, used by semantic search.
+	 */
+	private SemanticIndex semanticIndex;
+	
+	/**
+	 * Thing descriptions of objects in rosters, retrieved from the Neighbourhood Manager.
+	 */
+	private ThingDescriptionCache thingDescriptionCache;
+	
+	/**
+	 * Capability documents of remote objects, shared by all connection descriptors.
+	 */
+	private RemoteCapabilityCache remoteCapabilityCache;
+	
+	/**
+	 * Property values of remote objects, shared by all connection descriptors.
+	 */
+	private PropertyValueCache propertyValueCache;
+	
+	/**
+	 * Read requests to remote objects on their way, shared by all connection descriptors.
+	 */
+	private InFlightRequests inFlightRequests;
+	
+	/**
+	 * Timeouts of requests sent to remote objects, derived from the latencies of their responses.
+	 */
+	private RequestTimeouts requestTimeouts;
+	
+	/**
+	 * Limits of requests to remote objects in progress, shared by all connection descriptors.
+	 */
+	private RequestAdmission requestAdmission;
+	
+	/**
+	 * Priority lanes of the messages between objects, shared by all connection descriptors.
+	 */
+	private MessageLanes messageLanes;
+	
+	/**
+	 * Threads that retrieve pages of thing descriptions from the Neighbourhood Manager.
+	 */
+	private ExecutorService thingDescriptionExecutor;
+	
 	/* === PUBLIC METHODS === */
 	
 	
@@ -293,13 +503,61 @@ public class CommunicationManager {
 		
 		logger.config("OGWAPI version: " + OGWAPI_VERSION);
 		
-		this.descriptorPool = Collections.synchronizedMap(new HashMap<String, ConnectionDescriptor>());
+		this.descriptorPool = new ConcurrentHashMap<String, ConnectionDescriptor>();
+		
+		this.workerThreads = new WorkerThreads(config, logger);
 		
-		this.nmConnector = new NeighbourhoodManagerConnector(config, logger);		
+		this.semanticIndex = new SemanticIndex(config, logger);
+		
+		this.connectionAttemptsInFlight = new ConcurrentHashMap<String, CompletableFuture<Integer>>();
+		this.failedLogins = new ConcurrentHashMap<String, Long>();
+		
+		int failedLoginExpirationSeconds = config.getInt(CONFIG_PARAM_FAILEDLOGINEXPIRATION, 
+				CONFIG_DEF_FAILEDLOGINEXPIRATION);
+		
+		if (failedLoginExpirationSeconds < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_FAILEDLOGINEXPIRATION 
+					+ " in the configuration file: " + failedLoginExpirationSeconds + ". Setting to default: " 
+					+ CONFIG_DEF_FAILEDLOGINEXPIRATION);
+			failedLoginExpirationSeconds = CONFIG_DEF_FAILEDLOGINEXPIRATION;
+		}
+		
+		this.failedLoginExpiration = failedLoginExpirationSeconds * 1000L;
+		
+		this.timeoutScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "ogwapi-request-timeouts");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timeoutScheduler.setRemoveOnCancelPolicy(true);
+		
+		this.nmConnector = NeighbourhoodManagerConnector.getInstance(config, logger);		
 		
 		// load the configuration for the pageSize param
 		pageSize = config.getInt(CONFIG_PARAM_PAGE_SIZE, CONFIG_DEF_PAGE_SIZE);
 		
+		this.thingDescriptionCache = new ThingDescriptionCache(config, logger);
+		this.remoteCapabilityCache = new RemoteCapabilityCache(config, logger);
+		this.propertyValueCache = new PropertyValueCache(config, logger);
+		this.inFlightRequests = new InFlightRequests(config, logger);
+		this.requestTimeouts = new RequestTimeouts(config, logger);
+		this.requestAdmission = new RequestAdmission(config, logger, workerThreads);
+		this.messageLanes = new MessageLanes(config, logger, workerThreads);
+		
+		int tdParallelPages = config.getInt(CONFIG_PARAM_TDPARALLELPAGES, CONFIG_DEF_TDPARALLELPAGES);
+		if (tdParallelPages <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_TDPARALLELPAGES + " in the configuration file: " 
+					+ tdParallelPages + ". Setting to default: " + CONFIG_DEF_TDPARALLELPAGES);
+			
+			tdParallelPages = CONFIG_DEF_TDPARALLELPAGES;
+		}
+		
+		this.thingDescriptionExecutor = Executors.newFixedThreadPool(tdParallelPages, runnable -> {
+			Thread thread = new Thread(runnable, "ogwapi-td-retrieval");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
 		this.sessionExpiration = 0;
 		
 		this.config = config;
@@ -434,6 +692,55 @@ public class CommunicationManager {
 	}
 	
 	
+	/**
+	 * Returns the number of requests to remote objects the object has in progress and waiting to be sent, together
+	 * with the same numbers for all objects of this OGWAPI, see {@link RequestAdmission RequestAdmission}. If the 
+	 * {@link MessageLanes priority lanes} are used, the numbers of messages waiting in them and their delays are 
+	 * added as well, together with the numbers of requests that joined an identical request on its way and that had
+	 * to be sent, see {@link InFlightRequests InFlightRequests}.
+	 * 
+	 * @param objectId Object ID in question.
+	 * @return Status message with the numbers.
+	 */
+	public StatusMessage getRequestsInProgress(String objectId) {
+		
+		StatusMessage statusMessage = new StatusMessage(false, CodesAndReasons.CODE_200_OK, 
+				CodesAndReasons.REASON_200_OK, StatusMessage.CONTENTTYPE_APPLICATIONJSON);
+		
+		JsonObjectBuilder gatewayBuilder = Json.createObjectBuilder()
+				.add(ATTR_INPROGRESS, requestAdmission.getInProgress())
+				.add(ATTR_WAITING, requestAdmission.getWaiting());
+		
+		if (messageLanes.isEnabled()) {
+			
+			JsonObjectBuilder lanesBuilder = Json.createObjectBuilder();
+			
+			for (int lane = 0; lane < MessageLanes.LANE_NAMES.length; lane++) {
+				lanesBuilder.add(MessageLanes.LANE_NAMES[lane], Json.createObjectBuilder()
+						.add(ATTR_WAITING, messageLanes.getWaiting(lane))
+						.add(ATTR_TAKEN, messageLanes.getTaken(lane))
+						.add(ATTR_AVERAGEDELAY, messageLanes.getAverageDelay(lane))
+						.add(ATTR_MAXDELAY, messageLanes.getMaxDelay(lane)));
+			}
+			
+			gatewayBuilder.add(ATTR_LANES, lanesBuilder);
+		}
+		
+		gatewayBuilder.add(ATTR_COALESCING, Json.createObjectBuilder()
+				.add(ATTR_HITS, inFlightRequests.getHits())
+				.add(ATTR_MISSES, inFlightRequests.getMisses()));
+		
+		statusMessage.addMessageJson(Json.createObjectBuilder()
+				.add(ATTR_OID, objectId)
+				.add(ATTR_INPROGRESS, requestAdmission.getInProgress(objectId))
+				.add(ATTR_WAITING, requestAdmission.getWaiting(objectId))
+				.add(ATTR_LIMIT, requestAdmission.getMaxPerSource())
+				.add(ATTR_GATEWAY, gatewayBuilder));
+		
+		return statusMessage;
+	}
+	
+	
 	/**
 	 * Closes all open connections to network. It will also clear these connection handlers off the connection 
 	 * descriptor pool table, (they have to be reconfigured to be opened again, thus this should be done 
@@ -470,6 +777,10 @@ public class CommunicationManager {
 	 * 
 	 * If the connection descriptor for given object already exists, it get terminated, discarded and then recreated.
 	 * 
+	 * Only one connection attempt per object ID is in progress at any time. If another thread is already connecting 
+	 * the same object, this call waits for its result instead of starting a new attempt. Credentials that failed
+	 * recently are refused without contacting the network (see {@link #CONFIG_PARAM_FAILEDLOGINEXPIRATION 
+	 * CONFIG_PARAM_FAILEDLOGINEXPIRATION}).
 	 * 
 	 * @param objectId Object ID.
 	 * @param password Password.
@@ -478,57 +789,26 @@ public class CommunicationManager {
 	 */
 	public StatusMessage establishConnection(String objectId, String password){
 		
-		ConnectionDescriptor descriptor;
 		boolean verifiedOrConnected;
 		StatusMessage statusMessage;
 		
-		if (sessionRecoveryPolicy == SESSIONRECOVERYPOLICY_INT_PASSIVE) {
-			descriptor = descriptorPoolGet(objectId);
-			
-			if (descriptor != null) {
-				if (descriptor.isConnected()) {
-					
-					if (descriptor.verifyPassword(password)) {
-						descriptor.resetConnectionTimer();
-						verifiedOrConnected = true;
-					} else {
-						verifiedOrConnected = false;
-					}
-					
-				} else {
-					verifiedOrConnected = descriptor.connect();
-				}
-			} else {
-				verifiedOrConnected = false;
-			}
+		if (objectId == null || password == null) {
+			logger.warning("CommunicationManager.establishConnection: Invalid object ID or password.");
+			verifiedOrConnected = false;
 			
+		} else if (isRecentlyFailedLogin(objectId, password)) {
+			logger.info("Login of '" + objectId + "' with these credentials failed recently. Not attempting again.");
+			verifiedOrConnected = false;
 			
 		} else {
-			// if there is a previous descriptor we should close the connection first, before reopening it again
-			descriptor = descriptorPoolRemove(objectId);
-			if (descriptor != null){
-		
-				descriptor.disconnect();
-				
-				logger.info("Reconnecting '" + objectId + "' to network.");
-			}
-			
-			descriptor = new ConnectionDescriptor(objectId, password, config, logger, this, messageCounter);
-			
-			verifiedOrConnected = descriptor.connect();
+			verifiedOrConnected = connectSingleFlight(objectId, password);
 		}
 		
 		if (verifiedOrConnected){
-			logger.info("Connection for '" + objectId +"' was established.");
-			
-			// insert the connection descriptor into the pool
-			descriptorPoolPut(objectId, descriptor);
-			
 			statusMessage = new StatusMessage(false, CodesAndReasons.CODE_200_OK, 
 					CodesAndReasons.REASON_200_OK + "Login successfull.", StatusMessage.CONTENTTYPE_APPLICATIONJSON);
 			
 		} else {
-			logger.info("Connection for '" + objectId +"' was not established.");
 			statusMessage = new StatusMessage(true, CodesAndReasons.CODE_401_UNAUTHORIZED, 
 					CodesAndReasons.REASON_401_UNAUTHORIZED + "Login unsuccessfull.", 
 					StatusMessage.CONTENTTYPE_APPLICATIONJSON);
@@ -560,6 +840,8 @@ public class CommunicationManager {
 			logger.info("Attempting to terminate nonexisting connection. Object ID: '" + objectId + "'.");
 		}
 		
+		semanticIndex.invalidate(objectId);
+		
 		if (destroyConnectionDescriptor){
 			descriptorPoolRemove(objectId);
 			logger.info("Connection for object ID '" + objectId + "' destroyed.");
@@ -736,24 +1018,43 @@ public class CommunicationManager {
 	public StatusMessage getPropertyOfRemoteObject(String sourceOid, String destinationOid, String propertyId, 
 			String body, Map<String, String> parameters) {
 		
+		return getPropertyOfRemoteObjectAsync(sourceOid, destinationOid, propertyId, body, parameters).join();
+	}
+	
+	
+	/**
+	 * Retrieves a property of a remote object. The source object must be logged in first. The calling thread is not 
+	 * blocked while waiting for the response, the returned future is completed when the response arrives or when 
+	 * the request times out. 
+	 * 
+	 * @param sourceOid ID of the source object.
+	 * @param destinationOid ID of the object that owns the property. 
+	 * @param propertyId ID of the property.
+	 * @param parameters Any parameters to be sent with the request (if needed).
+	 * @param body Body to be sent (if needed).
+	 * @return Future status message. 
+	 */
+	public CompletableFuture<StatusMessage> getPropertyOfRemoteObjectAsync(String sourceOid, String destinationOid, 
+			String propertyId, String body, Map<String, String> parameters) {
+		
 		if (sourceOid == null){
 			logger.warning("Error when getting property of remote object. Source object ID is null.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		if (destinationOid == null){
 			logger.warning("Error when getting property of remote object. Destination object ID is null. "
 					+ "Source object: '" + sourceOid + "'.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		if (propertyId == null){
 			logger.warning("Error when getting property of remote object. The property ID is null. "
 					+ "Source object: '" + sourceOid + "', destination object: '" + destinationOid);
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		ConnectionDescriptor descriptor = descriptorPoolGet(sourceOid);
@@ -761,11 +1062,99 @@ public class CommunicationManager {
 		if (descriptor == null){
 			logger.warning("Null record in the connection descriptor pool. Object ID: '" + sourceOid + "'.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
+		} 
+		
+		return descriptor.getPropertyOfRemoteObjectAsync(destinationOid, propertyId, parameters, body);
+		
+	}
+	
+	
+	/**
+	 * Retrieves a batch of properties of remote objects. The properties are grouped by the objects that own them and 
+	 * all the groups are retrieved in parallel. The source object must be logged in first. The calling thread is not 
+	 * blocked while waiting for the responses. 
+	 * 
+	 * The returned status message carries one JSON for each requested property, in the order of the request, with 
+	 * the object ID, property ID and the status message of that property:
+	 * 
+	 * {
+	 *     "oid": "...",
+	 *     "pid": "...",
+	 *     "status": {status message of the property}
+	 * }
+	 * 
+	 * @param sourceOid ID of the source object.
+	 * @param properties Pairs of object ID and property ID.
+	 * @param parameters Any parameters to be sent with the requests (if needed).
+	 * @return Future status message. 
+	 */
+	public CompletableFuture<StatusMessage> getPropertiesOfRemoteObjectsAsync(String sourceOid, 
+			List<Map.Entry<String, String>> properties, Map<String, String> parameters) {
+		
+		if (sourceOid == null){
+			logger.warning("Error when getting properties of remote objects. Source object ID is null.");
+			
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		ConnectionDescriptor descriptor = descriptorPoolGet(sourceOid);
+		
+		if (descriptor == null){
+			logger.warning("Null record in the connection descriptor pool. Object ID: '" + sourceOid + "'.");
+			
+			return CompletableFuture.completedFuture(null);
 		} 
 		
-		return descriptor.getPropertyOfRemoteObject(destinationOid, propertyId, parameters, body);
+		// group the property IDs by their objects
+		Map<String, Set<String>> groups = new LinkedHashMap<String, Set<String>>();
+		
+		for (Map.Entry<String, String> property : properties) {
+			groups.computeIfAbsent(property.getKey(), key -> new LinkedHashSet<String>()).add(property.getValue());
+		}
+		
+		Map<String, CompletableFuture<Map<String, StatusMessage>>> futures 
+				= new LinkedHashMap<String, CompletableFuture<Map<String, StatusMessage>>>();
 		
+		for (Map.Entry<String, Set<String>> group : groups.entrySet()) {
+			futures.put(group.getKey(), 
+					descriptor.getPropertiesOfRemoteObjectAsync(group.getKey(), group.getValue(), parameters));
+		}
+		
+		logger.info("Object '" + sourceOid + "' requested " + properties.size() + " properties of " + groups.size() 
+				+ " remote objects.");
+		
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(done -> {
+					
+					// a status message can only be built once, and a property can be requested more than once
+					Map<String, Map<String, JsonObject>> results = new HashMap<String, Map<String, JsonObject>>();
+					
+					for (Map.Entry<String, CompletableFuture<Map<String, StatusMessage>>> entry : futures.entrySet()) {
+						
+						Map<String, JsonObject> groupResults = new HashMap<String, JsonObject>();
+						
+						for (Map.Entry<String, StatusMessage> result : entry.getValue().join().entrySet()) {
+							groupResults.put(result.getKey(), buildPropertyStatus(entry.getKey(), result.getKey(), 
+									result.getValue()));
+						}
+						
+						results.put(entry.getKey(), groupResults);
+					}
+					
+					StatusMessage statusMessage = new StatusMessage(false, CodesAndReasons.CODE_200_OK, 
+							CodesAndReasons.REASON_200_OK, StatusMessage.CONTENTTYPE_APPLICATIONJSON);
+					
+					for (Map.Entry<String, String> property : properties) {
+						
+						statusMessage.addMessageJson(Json.createObjectBuilder()
+								.add(ATTR_OID, property.getKey())
+								.add(ATTR_PID, property.getValue())
+								.add(ATTR_STATUS, results.get(property.getKey()).get(property.getValue())));
+					}
+					
+					return statusMessage;
+				});
 	}
 	
 	
@@ -782,24 +1171,43 @@ public class CommunicationManager {
 	public StatusMessage setPropertyOfRemoteObject(String sourceOid, String destinationOid, String propertyId, 
 			String body, Map<String, String> parameters) {
 		
+		return setPropertyOfRemoteObjectAsync(sourceOid, destinationOid, propertyId, body, parameters).join();
+	}
+	
+	
+	/**
+	 * Sets a new value of a property on a remote object. The source object must be logged in first. The calling thread is not 
+	 * blocked while waiting for the response, the returned future is completed when the response arrives or when 
+	 * the request times out. 
+	 * 
+	 * @param sourceOid ID of the source object.
+	 * @param destinationOid ID of the object that owns the property. 
+	 * @param propertyId ID of the property.
+	 * @param parameters Any parameters to be sent with the request (if needed).
+	 * @param body Body to be sent (a new value will probably be stored here).
+	 * @return Future status message. 
+	 */
+	public CompletableFuture<StatusMessage> setPropertyOfRemoteObjectAsync(String sourceOid, String destinationOid, 
+			String propertyId, String body, Map<String, String> parameters) {
+		
 		if (sourceOid == null){
 			logger.warning("Error when setting property of remote object. Source object ID is null.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		if (destinationOid == null){
 			logger.warning("Error when setting property of remote object. Destination object ID is null. "
 					+ "Source object: '" + sourceOid + "'.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		if (propertyId == null){
 			logger.warning("Error when setting property of remote object. The property ID is null. "
 					+ "Source object: '" + sourceOid + "', destination object: '" + destinationOid);
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		ConnectionDescriptor descriptor = descriptorPoolGet(sourceOid);
@@ -807,10 +1215,10 @@ public class CommunicationManager {
 		if (descriptor == null){
 			logger.warning("Null record in the connection descriptor pool. Object ID: '" + sourceOid + "'.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		} 
 		
-		return descriptor.setPropertyOfRemoteObject(destinationOid, propertyId, body, parameters);
+		return descriptor.setPropertyOfRemoteObjectAsync(destinationOid, propertyId, body, parameters);
 	}
 	
 	
@@ -827,24 +1235,43 @@ public class CommunicationManager {
 	public StatusMessage startAction(String sourceOid, String destinationOid, String actionId, String body, 
 			Map<String, String> parameters) {
 		
-		if (sourceOid == null){
-			logger.warning("Error when starting action. Source object ID is null.");
+		return startActionAsync(sourceOid, destinationOid, actionId, body, parameters).join();
+	}
+	
+	
+	/**
+	 * Starts an action on a remote object. The source object must be logged in first. The calling thread is not 
+	 * blocked while waiting for the response, the returned future is completed when the response arrives or when 
+	 * the request times out. 
+	 * 
+	 * @param sourceOid ID of the source object.
+	 * @param destinationOid ID of the remote object.
+	 * @param actionId ID of the action.
+	 * @param body Body that will be transported to the object via its {@link eu.bavenir.ogwapi.commons.connectors.AgentConnector AgentConnector}.
+	 * @param parameters Parameters that will be transported along the body. 
+	 * @return Future status message.
+	 */
+	public CompletableFuture<StatusMessage> startActionAsync(String sourceOid, String destinationOid, String actionId, 
+			String body, Map<String, String> parameters) {
+		
+		if (sourceOid == null){
+			logger.warning("Error when starting action. Source object ID is null.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		if (destinationOid == null){
 			logger.warning("Error when starting action. Destination object ID is null. "
 					+ "Source object: '" + sourceOid + "'.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		if (actionId == null){
 			logger.warning("Error when starting action of remote object. The action ID is null. "
 					+ "Source object: '" + sourceOid + "', destination object: '" + destinationOid);
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		ConnectionDescriptor descriptor = descriptorPoolGet(sourceOid);
@@ -852,10 +1279,10 @@ public class CommunicationManager {
 		if (descriptor == null){
 			logger.warning("Null record in the connection descriptor pool. Object ID: '" + sourceOid + "'.");
 			
-			return null;
+			return CompletableFuture.completedFuture(null);
 		} 
 		
-		return descriptor.startAction(destinationOid, actionId, body, parameters);
+		return descriptor.startActionAsync(destinationOid, actionId, body, parameters);
 		
 	}
 	
@@ -1059,7 +1486,15 @@ public class CommunicationManager {
 	}
 	
 	/**
-	 * TODO
+	 * Retrieves one page of roster entries for object ID. The pages are sliced from a sorted snapshot of the roster 
+	 * (see {@link #getRosterSnapshotForObject(String) getRosterSnapshotForObject}), so they don't overlap as long
+	 * as the roster does not change.
+	 * 
+	 * @param objectId Object ID the roster is to be retrieved for.
+	 * @param pageNumber Number of the page, starting with 0. Each page has {@link #CONFIG_PARAM_PAGE_SIZE pageSize}
+	 * entries.
+	 * @return Set of roster entries in sorted order, or null if there is no such page. If no connection is 
+	 * established for the object ID, the collection is empty.
 	 */
 	public Set<String> getRosterEntriesForObject(String objectId, int pageNumber){
 		
@@ -1076,28 +1511,16 @@ public class CommunicationManager {
 			return Collections.emptySet();
 		}
 		
-		Set<String> entries = descriptor.getRoster();
+		List<String> page = descriptor.getRosterSnapshot().getPage(pageNumber, pageSize);
 		
-		if (entries == null || entries.size() == 0) {
-			return null;
-		}
-		
-		Set<String> set = new HashSet<String>();
-		
-		//range 
-		int min = pageNumber * pageSize;
-		int max = min + pageSize;
-			
-		if (min+1 <= entries.size()) {
-			for (int i = min; i < max && i < entries.size(); i++) {
-				set.add(entries.toArray()[i].toString());
-			}
-		} else {
+		if (page.isEmpty()) {
 			logger.warning("There are no avaliable object for objectId: " + objectId + " and page number: " + pageNumber);
 			
 			return null;
 		}
 		
+		Set<String> set = new LinkedHashSet<String>(page);
+		
 		// log it
 		logger.fine("-- Roster for '" + objectId +"' -- page number: " + pageNumber);
 		for (String entry : set) {
@@ -1109,6 +1532,32 @@ public class CommunicationManager {
 	}
 	
 	
+	/**
+	 * Retrieves a sorted snapshot of the roster for object ID. The snapshot stays the same as long as the roster does
+	 * not change, so it can be paged through with cursors, see {@link RosterSnapshot RosterSnapshot}.
+	 * 
+	 * @param objectId Object ID the roster is to be retrieved for.
+	 * @return Snapshot of the roster, or null if there is no connection established for the object ID.
+	 */
+	public RosterSnapshot getRosterSnapshotForObject(String objectId) {
+		
+		if (objectId == null){
+			logger.warning("Error when retrieving contact list. Object ID is null.");
+			
+			return null;
+		}
+		
+		ConnectionDescriptor descriptor = descriptorPoolGet(objectId);
+		
+		if (descriptor == null){
+			logger.warning("Null record in the connection descriptor pool. Object ID: '" + objectId + "'.");
+			return null;
+		}
+		
+		return descriptor.getRosterSnapshot();
+	}
+	
+	
 	
 	
 	// EXPOSING INTERFACE
@@ -1413,6 +1862,10 @@ public class CommunicationManager {
 			return null;
 		}
 		
+		// the thing descriptions of local objects changed
+		semanticIndex.invalidateAll();
+		thingDescriptionCache.invalidateAll();
+		
 		return nmConnector.storeObjects(json);
 		
 	}
@@ -1435,6 +1888,10 @@ public class CommunicationManager {
 			return null;
 		}
 		
+		// the thing descriptions of local objects changed
+		semanticIndex.invalidateAll();
+		thingDescriptionCache.invalidateAll();
+		
 		return nmConnector.heavyweightUpdate(json);
 	}
 	
@@ -1455,6 +1912,10 @@ public class CommunicationManager {
 			return null;
 		}
 		
+		// the thing descriptions of local objects changed
+		semanticIndex.invalidateAll();
+		thingDescriptionCache.invalidateAll();
+		
 		return nmConnector.lightweightUpdate(json);
 	}
 	
@@ -1474,6 +1935,10 @@ public class CommunicationManager {
 			return null;
 		}
 		
+		// the thing descriptions of local objects changed
+		semanticIndex.invalidateAll();
+		thingDescriptionCache.invalidateAll();
+		
 		return nmConnector.deleteObjects(json);
 	}
 	
@@ -1525,12 +1990,39 @@ public class CommunicationManager {
 	/**
 	 * getThingDescriptions - Return all pages of the thing descriptions of IoT object(s).
 	 * 
+	 * The thing descriptions that are cached are not retrieved again. The rest is split into pages of 
+	 * {@link #CONFIG_PARAM_PAGE_SIZE pageSize} objects and up to {@link #CONFIG_PARAM_TDPARALLELPAGES tdParallelPages}
+	 * pages are retrieved from the Neighbourhood Manager at the same time.
+	 * 
+	 * If some of the pages can't be retrieved, the result contains the rest, the {@link #ATTR_PARTIAL partial} 
+	 * attribute is set to true and the objects from the failed pages are listed in the 
+	 * {@link #ATTR_MISSINGOBJECTS missingObjects} attribute.
+	 * 
 	 * @param sourceObjectId 
 	 * 
-	 * @return The list of thing descriptions 
+	 * @return The list of thing descriptions, or null if the roster of the object could not be retrieved.
 	 */
 	public Representation getThingDescriptions(String sourceObjectId) {
 		
+		JsonObject json = retrieveAllThingDescriptions(sourceObjectId);
+		
+		if (json == null) {
+			return null;
+		}
+		
+		return new JsonRepresentation(json.toString());
+	}
+	
+	
+	/**
+	 * Retrieves all thing descriptions of objects in the roster of the given object, see 
+	 * {@link #getThingDescriptions(String) getThingDescriptions}.
+	 * 
+	 * @param sourceObjectId ID of the object whose roster is to be used.
+	 * @return JSON with the thing descriptions, or null if the roster of the object could not be retrieved.
+	 */
+	private JsonObject retrieveAllThingDescriptions(String sourceObjectId) {
+		
 		if (sourceObjectId == null || sourceObjectId.isEmpty()) {
 			logger.warning("Method parameter sourceObjectId can't be null nor empty.");
 			
@@ -1540,28 +2032,104 @@ public class CommunicationManager {
 		JsonObjectBuilder mainObjectBuilder = Json.createObjectBuilder();
 		JsonArrayBuilder mainArrayBuilder = Json.createArrayBuilder();
 		
-		Representation r = null;
-		int i = 0;
+		RosterSnapshot snapshot = getRosterSnapshotForObject(sourceObjectId);
+		
+		if (snapshot == null) {
+			logger.warning("Can't retrieve the roster of '" + sourceObjectId + "', no thing descriptions returned.");
+			
+			return null;
+		}
+		
+		List<String> objectIds = snapshot.getEntries();
+		
+		thingDescriptionCache.removeExpired();
+		
+		Map<String, JsonObject> thingDescriptions = new HashMap<String, JsonObject>();
+		List<String> missingObjectIds = new ArrayList<String>();
+		
+		for (String objectId : objectIds) {
+			JsonObject td = thingDescriptionCache.get(objectId);
+			if (td != null) {
+				thingDescriptions.put(objectId, td);
+			} else {
+				missingObjectIds.add(objectId);
+			}
+		}
+		
+		// retrieve the rest page by page, several pages at once
+		List<List<String>> pageObjectIds = new ArrayList<List<String>>();
+		List<CompletableFuture<JsonArray>> pages = new ArrayList<CompletableFuture<JsonArray>>();
+		int step = Math.max(1, pageSize);
 		
-		do {
+		for (int i = 0; i < missingObjectIds.size(); i += step) {
+			List<String> page = missingObjectIds.subList(i, Math.min(i + step, missingObjectIds.size()));
 			
-			r = getThingDescriptions(sourceObjectId, i++);
+			pageObjectIds.add(page);
+			pages.add(CompletableFuture.supplyAsync(() -> retrieveThingDescriptions(page), thingDescriptionExecutor));
+		}
+		
+		List<JsonObject> withoutOid = new ArrayList<JsonObject>();
+		List<String> failedObjectIds = new ArrayList<String>();
+		
+		for (int i = 0; i < pages.size(); i++) {
 			
-			if (r == null) {
-				break;
+			JsonArray tds;
+			try {
+				tds = pages.get(i).join();
+			} catch (CompletionException e) {
+				logger.warning("Can't retrieve a page of thing descriptions. Exception: " + e.getMessage());
+				tds = null;
+			}
+			
+			if (tds == null) {
+				failedObjectIds.addAll(pageObjectIds.get(i));
+				continue;
 			}
 			
-			JsonArray tds = parseThingDescriptionsFromRepresentation(r);
 			tds.forEach(item -> {
-				mainArrayBuilder.add(item);
+				if (!(item instanceof JsonObject)) {
+					return;
+				}
+				
+				JsonObject td = (JsonObject) item;
+				String objectId = td.getString(ATTR_OID, null);
+				
+				if (objectId == null) {
+					withoutOid.add(td);
+				} else {
+					thingDescriptions.put(objectId, td);
+					
+					// a new version of the thing description makes the cached capabilities of the object obsolete
+					if (thingDescriptionCache.put(objectId, td)) {
+						remoteCapabilityCache.invalidate(objectId);
+					}
+				}
 			});
 		}
-		while (true);
+		
+		// keep the order of the roster
+		for (String objectId : objectIds) {
+			JsonObject td = thingDescriptions.get(objectId);
+			if (td != null) {
+				mainArrayBuilder.add(td);
+			}
+		}
+		withoutOid.forEach(td -> mainArrayBuilder.add(td));
+		
+		// tell the caller which objects are not in the result
+		JsonArrayBuilder missingArrayBuilder = Json.createArrayBuilder();
+		failedObjectIds.forEach(objectId -> missingArrayBuilder.add(Json.createObjectBuilder().add(ATTR_OID, objectId)));
+		
+		if (!failedObjectIds.isEmpty()) {
+			logger.warning("Thing descriptions of " + failedObjectIds.size() + " objects from the roster of '" 
+					+ sourceObjectId + "' could not be retrieved.");
+		}
 		
 		mainObjectBuilder.add(ATTR_TDS, mainArrayBuilder);
-		JsonObject json = mainObjectBuilder.build();
+		mainObjectBuilder.add(ATTR_PARTIAL, !failedObjectIds.isEmpty());
+		mainObjectBuilder.add(ATTR_MISSINGOBJECTS, missingArrayBuilder);
 		
-		return new JsonRepresentation(json.toString());
+		return mainObjectBuilder.build();
 	}
 	
 	public JsonArray parseThingDescriptionsFromRepresentation(Representation tds) {
@@ -1682,10 +2250,23 @@ public class CommunicationManager {
 			return null;
 		}
 		
-		Representation r = getThingDescriptions(sourceObjectId);
-		JsonArray tds = parseThingDescriptionsFromRepresentation(r);
+		Set<String> roster = descriptor.getRoster();
 		
-		return descriptor.performSemanticQuery(sourceObjectId, semanticQuery, parameters, tds);
+		// the thing descriptions are only retrieved when there is no valid index for the current roster
+		Map<String, Set<String>> index = semanticIndex.get(sourceObjectId, roster);
+		
+		if (index == null) {
+			JsonObject json = retrieveAllThingDescriptions(sourceObjectId);
+			
+			if (json == null || json.getBoolean(ATTR_PARTIAL, false)) {
+				// an index built from incomplete thing descriptions serves this search only and is not kept
+				index = semanticIndex.build(json == null ? null : json.getJsonArray(ATTR_TDS));
+			} else {
+				index = semanticIndex.build(sourceObjectId, roster, json.getJsonArray(ATTR_TDS));
+			}
+		}
+		
+		return descriptor.performSemanticQuery(sourceObjectId, semanticQuery, parameters, index);
 	}
 	
 	
@@ -1705,7 +2286,7 @@ public class CommunicationManager {
 	boolean tryToSendLocalMessage(String sourceObjectId, String destinationObjectId, String message) {
 		
 		// is the object connected through this CommunicationManager?
-		if (!descriptorPool.containsKey(destinationObjectId)) {	
+		if (destinationObjectId == null || !descriptorPool.containsKey(destinationObjectId)) {	
 			
 			logger.fine("Can't send the message locally, the destination OID is not from this infrastructure.");
 			return false;
@@ -1727,79 +2308,423 @@ public class CommunicationManager {
 	}
 	
 	
+	/**
+	 * Schedules a task that handles a timeout of a request sent to a remote object. Used by 
+	 * {@link ConnectionDescriptor ConnectionDescriptor} to expire pending responses.
+	 * 
+	 * @param timeoutTask Task to be run when the timeout is reached.
+	 * @param timeoutMillis Timeout in milliseconds.
+	 * @return Future that can be used to cancel the task, if the response arrives in time.
+	 */
+	ScheduledFuture<?> scheduleTimeout(Runnable timeoutTask, long timeoutMillis) {
+		
+		return timeoutScheduler.schedule(timeoutTask, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	/**
+	 * Returns the threads used for processing of incoming messages. See {@link WorkerThreads WorkerThreads}.
+	 * 
+	 * @return Worker threads shared by all descriptors.
+	 */
+	WorkerThreads getWorkerThreads() {
+		
+		return workerThreads;
+	}
+	
+	
+	/**
+	 * Returns the cache of capability documents of remote objects, shared by all 
+	 * {@link ConnectionDescriptor ConnectionDescriptors}.
+	 * 
+	 * @return The cache.
+	 */
+	RemoteCapabilityCache getRemoteCapabilityCache() {
+		
+		return remoteCapabilityCache;
+	}
+	
+	
+	/**
+	 * Returns the cache of property values of remote objects, shared by all 
+	 * {@link ConnectionDescriptor ConnectionDescriptors}.
+	 * 
+	 * @return The cache.
+	 */
+	PropertyValueCache getPropertyValueCache() {
+		
+		return propertyValueCache;
+	}
+	
+	
+	/**
+	 * Returns the read requests to remote objects that are on their way, shared by all 
+	 * {@link ConnectionDescriptor ConnectionDescriptors}.
+	 * 
+	 * @return The requests.
+	 */
+	InFlightRequests getInFlightRequests() {
+		
+		return inFlightRequests;
+	}
+	
+	
+	/**
+	 * Returns the timeouts of requests sent to remote objects, shared by all 
+	 * {@link ConnectionDescriptor ConnectionDescriptors}.
+	 * 
+	 * @return The timeouts.
+	 */
+	RequestTimeouts getRequestTimeouts() {
+		
+		return requestTimeouts;
+	}
+	
+	
+	/**
+	 * Returns the limits of requests to remote objects in progress, shared by all 
+	 * {@link ConnectionDescriptor ConnectionDescriptors}.
+	 * 
+	 * @return The limits.
+	 */
+	RequestAdmission getRequestAdmission() {
+		
+		return requestAdmission;
+	}
+	
+	
+	/**
+	 * Returns the priority lanes of the messages between objects, shared by all 
+	 * {@link ConnectionDescriptor ConnectionDescriptors}.
+	 * 
+	 * @return The lanes.
+	 */
+	MessageLanes getMessageLanes() {
+		
+		return messageLanes;
+	}
+	
+	
 	
 	/* === PRIVATE METHODS === */
 	
 	/**
-	 * Thread-safe method for inserting an object ID (K) and a descriptor (V) into the descriptor pool. This is a
-	 * synchronised equivalent for {@link java.util.HashMap#put(Object, Object) put()} method of HashMap table.
+	 * Thread-safe method for inserting an object ID (K) and a descriptor (V) into the descriptor pool. This is an
+	 * equivalent for {@link java.util.Map#put(Object, Object) put()} method of the map.
 	 * 
 	 *    IMPORTANT: It is imperative to use only this method to interact with the descriptor pool when adding
-	 *    or modifying functionality of this class and avoid the original HashMap's
-	 *    {@link java.util.HashMap#put(Object, Object) put()} method. 
+	 *    or modifying functionality of this class and avoid the original map's
+	 *    {@link java.util.Map#put(Object, Object) put()} method. 
 	 *    
-	 * @param objectId The key part of the {@link java.util.HashMap HashMap} key-value pair in the descriptor pool.
-	 * @param descriptor The value part of the {@link java.util.HashMap HashMap} key-value pair in the descriptor pool.
+	 * @param objectId The key part of the key-value pair in the descriptor pool.
+	 * @param descriptor The value part of the key-value pair in the descriptor pool.
 	 * @return The previous value associated with key, or null if there was no mapping for key. 
-	 * (A null return can also indicate that the map previously associated null with key, if the implementation 
-	 * supports null values.)
 	 */
 	private ConnectionDescriptor descriptorPoolPut(String objectId, ConnectionDescriptor descriptor){
-		synchronized (descriptorPool){
-			return descriptorPool.put(objectId, descriptor);
-		}
+		
+		return descriptorPool.put(objectId, descriptor);
 	}
 	
 	
 	/**
 	 * Thread-safe method for retrieving a connection descriptor (V) from the descriptor pool by object ID (K). 
-	 * This is a synchronised equivalent for {@link java.util.HashMap#get(Object) get()} method of HashMap table.
+	 * This is an equivalent for {@link java.util.Map#get(Object) get()} method of the map, that also tolerates
+	 * null object ID.
 	 * 
 	 *    IMPORTANT: It is imperative to use only this method to interact with the descriptor pool when adding
-	 *    or modifying functionality of this class and avoid the original HashMap's
-	 *    {@link java.util.HashMap#get(Object) get()} method. 
+	 *    or modifying functionality of this class and avoid the original map's
+	 *    {@link java.util.Map#get(Object) get()} method. 
 	 *    
-	 * @param objectId The key part of the {@link java.util.HashMap HashMap} key-value pair in the descriptor pool.
+	 * @param objectId The key part of the key-value pair in the descriptor pool.
 	 * @return The value to which the specified key is mapped, or null if this map contains no mapping for the key.
 	 */
 	private ConnectionDescriptor descriptorPoolGet(String objectId){
-		synchronized (descriptorPool){
-			
-			return descriptorPool.get(objectId);
+		
+		if (objectId == null) {
+			return null;
 		}
+		
+		return descriptorPool.get(objectId);
 	}
 	
 	
 	/**
 	 * Thread-safe method for removing a connection descriptor (V) for the object ID (K) from the descriptor pool. 
-	 * This is a synchronised equivalent for {@link java.util.HashMap#remove(Object) remove()} method of HashMap table.
+	 * This is an equivalent for {@link java.util.Map#remove(Object) remove()} method of the map, that also 
+	 * tolerates null object ID.
 	 * 
 	 *    IMPORTANT: It is imperative to use only this method to interact with the descriptor pool when adding
-	 *    or modifying functionality of this class and avoid the original HashMap's
-	 *    {@link java.util.HashMap#remove(Object) remove()} method.
+	 *    or modifying functionality of this class and avoid the original map's
+	 *    {@link java.util.Map#remove(Object) remove()} method.
 	 *    
-	 * @param objectId The key part of the {@link java.util.HashMap HashMap} key-value pair in the descriptor pool.
+	 * @param objectId The key part of the key-value pair in the descriptor pool.
 	 * @return The previous value associated with key, or null if there was no mapping for key.
 	 */
 	private ConnectionDescriptor descriptorPoolRemove(String objectId){
-		synchronized (descriptorPool){
-			
-			return descriptorPool.remove(objectId);
+		
+		if (objectId == null) {
+			return null;
 		}
+		
+		return descriptorPool.remove(objectId);
 	}
 	
 	
 	/**
-	 * Thread-safe method for clearing the descriptor pool. This is a synchronised equivalent for 
-	 * {@link java.util.HashMap#clear() clear()} method of HashMap table.
+	 * Thread-safe method for clearing the descriptor pool. This is an equivalent for 
+	 * {@link java.util.Map#clear() clear()} method of the map.
 	 * 
 	 *    IMPORTANT: It is imperative to use only this method to interact with the descriptor pool when adding
-	 *    or modifying functionality of this class and avoid the original HashMap's
-	 *    {@link java.util.HashMap#clear() clear()} method. 
+	 *    or modifying functionality of this class and avoid the original map's
+	 *    {@link java.util.Map#clear() clear()} method. 
 	 */
 	private void descriptorPoolClear(){
-		synchronized (descriptorPool){
-			descriptorPool.clear();
+		
+		descriptorPool.clear();
+	}
+	
+	
+	/**
+	 * Makes sure that only one connection attempt for given object ID runs at a time. The first caller performs the 
+	 * attempt via {@link #connectDescriptor(String, String) connectDescriptor}, others wait for it to finish. If 
+	 * that attempt succeeds, the waiting callers only have their password verified against the new descriptor. If its 
+	 * credentials were refused, a waiting caller with different credentials makes its own attempt. If it failed for 
+	 * another reason, the waiting callers fail too. Only refused credentials are remembered as a failed login, a 
+	 * failure of the network does not lock the object out.
+	 * 
+	 * @param objectId Object ID.
+	 * @param password Password.
+	 * @return True if the object is connected and the password is valid, false otherwise.
+	 */
+	private boolean connectSingleFlight(String objectId, String password) {
+		
+		while (true) {
+			
+			CompletableFuture<Integer> attempt = new CompletableFuture<Integer>();
+			CompletableFuture<Integer> attemptInFlight = connectionAttemptsInFlight.putIfAbsent(objectId, attempt);
+			
+			if (attemptInFlight == null) {
+				
+				// nobody else is connecting this object, it is up to us
+				int result = CONNECTION_INT_FAILED;
+				
+				try {
+					result = connectDescriptor(objectId, password);
+					
+					if (result == CONNECTION_INT_ESTABLISHED) {
+						forgetFailedLogin(objectId, password);
+					} else if (result == CONNECTION_INT_CREDENTIALSREJECTED) {
+						rememberFailedLogin(objectId, password);
+					}
+					
+				} finally {
+					connectionAttemptsInFlight.remove(objectId, attempt);
+					attempt.complete(result);
+				}
+				
+				return result == CONNECTION_INT_ESTABLISHED;
+			}
+			
+			logger.fine("Connection attempt for '" + objectId + "' is already in progress. Waiting for its result.");
+			
+			int resultInFlight;
+			try {
+				resultInFlight = attemptInFlight.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				
+				return false;
+			} catch (ExecutionException e) {
+				resultInFlight = CONNECTION_INT_FAILED;
+			}
+			
+			if (resultInFlight == CONNECTION_INT_ESTABLISHED) {
+				return verifyPassword(objectId, password);
+			}
+			
+			// the network is not available, another attempt would fail the same way
+			if (resultInFlight == CONNECTION_INT_FAILED || isRecentlyFailedLogin(objectId, password)) {
+				return false;
+			}
+			
+			// the other attempt failed with different credentials, let's try ours
+		}
+	}
+	
+	
+	/**
+	 * Does the actual connecting of an object. Depending on the session recovery policy it either reuses the existing
+	 * connection descriptor, or terminates it and creates a new one. Successfully connected descriptor is stored in
+	 * the descriptor pool. 
+	 * 
+	 * This should only be called from {@link #connectSingleFlight(String, String) connectSingleFlight}.
+	 * 
+	 * @param objectId Object ID.
+	 * @param password Password.
+	 * @return {@link #CONNECTION_INT_ESTABLISHED CONNECTION_INT_ESTABLISHED} if the connection was established or 
+	 * verified, {@link #CONNECTION_INT_CREDENTIALSREJECTED CONNECTION_INT_CREDENTIALSREJECTED} if the credentials were
+	 * refused, {@link #CONNECTION_INT_FAILED CONNECTION_INT_FAILED} otherwise.
+	 */
+	private int connectDescriptor(String objectId, String password) {
+		
+		ConnectionDescriptor descriptor;
+		boolean verifiedOrConnected;
+		boolean credentialsRejected = false;
+		
+		if (sessionRecoveryPolicy == SESSIONRECOVERYPOLICY_INT_PASSIVE) {
+			descriptor = descriptorPoolGet(objectId);
+			
+			if (descriptor != null) {
+				if (descriptor.isConnected()) {
+					
+					if (descriptor.verifyPassword(password)) {
+						descriptor.resetConnectionTimer();
+						verifiedOrConnected = true;
+					} else {
+						verifiedOrConnected = false;
+						credentialsRejected = true;
+					}
+					
+				} else {
+					verifiedOrConnected = descriptor.connect();
+					credentialsRejected = descriptor.wereCredentialsRejected();
+				}
+			} else {
+				verifiedOrConnected = false;
+			}
+			
+			
+		} else {
+			// if there is a previous descriptor we should close the connection first, before reopening it again
+			descriptor = descriptorPoolRemove(objectId);
+			if (descriptor != null){
+		
+				descriptor.disconnect();
+				
+				logger.info("Reconnecting '" + objectId + "' to network.");
+			}
+			
+			descriptor = new ConnectionDescriptor(objectId, password, config, logger, this, messageCounter);
+			
+			verifiedOrConnected = descriptor.connect();
+			credentialsRejected = descriptor.wereCredentialsRejected();
+		}
+		
+		if (verifiedOrConnected){
+			logger.info("Connection for '" + objectId +"' was established.");
+			
+			// insert the connection descriptor into the pool
+			descriptorPoolPut(objectId, descriptor);
+			
+			return CONNECTION_INT_ESTABLISHED;
+		}
+		
+		logger.info("Connection for '" + objectId +"' was not established.");
+		
+		return credentialsRejected ? CONNECTION_INT_CREDENTIALSREJECTED : CONNECTION_INT_FAILED;
+	}
+	
+	
+	/**
+	 * Checks whether a login with given credentials failed recently.
+	 * 
+	 * @param objectId Object ID.
+	 * @param password Password.
+	 * @return True if the same credentials failed and the record has not expired yet.
+	 */
+	private boolean isRecentlyFailedLogin(String objectId, String password) {
+		
+		if (failedLoginExpiration == 0) {
+			return false;
+		}
+		
+		String key = failedLoginKey(objectId, password);
+		if (key == null) {
+			return false;
+		}
+		
+		Long expiresAt = failedLogins.get(key);
+		if (expiresAt == null) {
+			return false;
+		}
+		
+		if (expiresAt < System.currentTimeMillis()) {
+			failedLogins.remove(key, expiresAt);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Remembers failed credentials for the time set by {@link #CONFIG_PARAM_FAILEDLOGINEXPIRATION 
+	 * CONFIG_PARAM_FAILEDLOGINEXPIRATION}. Expired records are removed along the way, so the table does not grow 
+	 * beyond the number of failures within one expiration period.
+	 * 
+	 * @param objectId Object ID.
+	 * @param password Password.
+	 */
+	private void rememberFailedLogin(String objectId, String password) {
+		
+		if (failedLoginExpiration == 0) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		for (Map.Entry<String, Long> entry : failedLogins.entrySet()) {
+			if (entry.getValue() < now) {
+				failedLogins.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		String key = failedLoginKey(objectId, password);
+		if (key != null) {
+			failedLogins.put(key, now + failedLoginExpiration);
+		}
+	}
+	
+	
+	/**
+	 * Removes the record of failed credentials, if there is any.
+	 * 
+	 * @param objectId Object ID.
+	 * @param password Password.
+	 */
+	private void forgetFailedLogin(String objectId, String password) {
+		
+		if (failedLoginExpiration == 0 || failedLogins.isEmpty()) {
+			return;
+		}
+		
+		String key = failedLoginKey(objectId, password);
+		if (key != null) {
+			failedLogins.remove(key);
+		}
+	}
+	
+	
+	/**
+	 * Creates a key into the table of failed logins. The password is not stored, only its digest.
+	 * 
+	 * @param objectId Object ID.
+	 * @param password Password.
+	 * @return The key, or null if the digest could not be computed.
+	 */
+	private String failedLoginKey(String objectId, String password) {
+		
+		try {
+			MessageDigest digest = MessageDigest.getInstance(FAILEDLOGIN_DIGEST_ALGORITHM);
+			byte[] hash = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+			
+			return objectId + ":" + Base64.getEncoder().encodeToString(hash);
+			
+		} catch (NoSuchAlgorithmException e) {
+			logger.warning("Digest algorithm " + FAILEDLOGIN_DIGEST_ALGORITHM + " is not available. Failed logins "
+					+ "will not be remembered.");
+			
+			return null;
 		}
 	}
 	
@@ -1870,4 +2795,53 @@ public class CommunicationManager {
 		
 		
 	}
+	
+	
+	/**
+	 * Retrieves one page of thing descriptions from the Neighbourhood Manager.
+	 * 
+	 * @param objectIds IDs of objects on the page.
+	 * @return Thing descriptions, or null if they could not be retrieved.
+	 */
+	private JsonArray retrieveThingDescriptions(List<String> objectIds) {
+		
+		JsonArrayBuilder mainArrayBuilder = Json.createArrayBuilder();
+		
+		objectIds.forEach(item -> {
+			mainArrayBuilder.add(
+					Json.createObjectBuilder().add(ATTR_OID, item)
+				);
+		});
+		
+		JsonObject json = Json.createObjectBuilder().add(ATTR_OBJECTS, mainArrayBuilder).build();
+		
+		Representation r = nmConnector.getThingDescriptions(new JsonRepresentation(json.toString()));
+		
+		if (r == null) {
+			return null;
+		}
+		
+		return parseThingDescriptionsFromRepresentation(r);
+	}
+	
+	
+	/**
+	 * Builds the status message of one property in a batch, see {@link #getPropertiesOfRemoteObjectsAsync(String, List, 
+	 * Map) getPropertiesOfRemoteObjectsAsync}.
+	 * 
+	 * @param destinationOid ID of the object that owns the property.
+	 * @param propertyId ID of the property.
+	 * @param statusMessage Status message of the property, can be null.
+	 * @return JSON of the status message.
+	 */
+	private JsonObject buildPropertyStatus(String destinationOid, String propertyId, StatusMessage statusMessage) {
+		
+		if (statusMessage == null) {
+			statusMessage = new StatusMessage(true, CodesAndReasons.CODE_404_NOTFOUND, 
+					CodesAndReasons.REASON_404_NOTFOUND + "Property " + propertyId + " of object " + destinationOid 
+					+ " could not be retrieved.", StatusMessage.CONTENTTYPE_APPLICATIONJSON);
+		}
+		
+		return statusMessage.buildMessage();
+	}
 }
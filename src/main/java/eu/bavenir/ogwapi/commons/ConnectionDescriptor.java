@@ -1,18 +1,38 @@
 package eu.bavenir.ogwapi.commons;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 
 import javax.json.Json;
 import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonBuilderFactory;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
 
 import org.apache.commons.configuration2.XMLConfiguration;
 
@@ -72,6 +92,31 @@ public class ConnectionDescriptor {
 	 */
 	private static final long THREAD_SLEEP_MILLIS = 100;
 	
+	/**
+	 * Name of the configuration parameter for the maximum number of events an event channel can retain.
+	 */
+	private static final String CONFIG_PARAM_MAXRETAINEDEVENTS = "general.maxRetainedEvents";
+	
+	/**
+	 * Default value of {@link #CONFIG_PARAM_MAXRETAINEDEVENTS CONFIG_PARAM_MAXRETAINEDEVENTS} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_MAXRETAINEDEVENTS = 100;
+	
+	/**
+	 * Attribute of a retained event with its time stamp.
+	 */
+	private static final String ATTR_TIMESTAMP = "timeStamp";
+	
+	/**
+	 * Attribute of a retained event with its body.
+	 */
+	private static final String ATTR_EVENT = "event";
+	
+	/**
+	 * Attribute of a retained event with its parameters.
+	 */
+	private static final String ATTR_PARAMETERS = "parameters";
+	
 	
 	/* === FIELDS === */
 	
@@ -100,11 +145,27 @@ public class ConnectionDescriptor {
 	 */
 	private SemanticQuery semantic;
 	
+	/**
+	 * Sorted copy of the roster, made again only when the roster changes.
+	 */
+	private volatile RosterSnapshot rosterSnapshot;
+	
 	/**
 	 * Message resolver for incoming messages. 
 	 */
 	private MessageResolver messageResolver;
 	
+	/**
+	 * Responses to the requests for setting a property and starting an action, for their retries.
+	 */
+	private ResponseCache responseCache;
+	
+	/**
+	 * Spools of the event channels with {@link EventChannel#QOS_DURABLE durable QoS}, by event ID. They are opened 
+	 * when they are needed first.
+	 */
+	private Map<String, EventSpool> eventSpools;
+	
 	/**
 	 * The thing that communicates with an agent.
 	 */
@@ -126,10 +187,21 @@ public class ConnectionDescriptor {
 	private long lastConnectionTimerReset;
 	
 	/**
-	 * Message queue, FIFO structure for holding incoming messages. 
+	 * Message queue, FIFO structure for holding the ACKs of events, see {@link #expectedACKs expectedACKs}. 
 	 */
 	private BlockingQueue<NetworkMessage> messageQueue;
 	
+	/**
+	 * Request IDs of the events whose ACKs are being counted. Other responses that nobody waits for are dropped. 
+	 */
+	private Set<Integer> expectedACKs;
+	
+	/**
+	 * Responses that are expected to arrive, by the correlation request ID. The future is completed when the response
+	 * arrives, or with null when the timeout is reached. 
+	 */
+	private Map<Integer, CompletableFuture<NetworkMessageResponse>> pendingResponses;
+	
 	/**
 	 * The communication engine to use.
 	 */
@@ -184,8 +256,16 @@ public class ConnectionDescriptor {
 		
 		messageQueue = new LinkedTransferQueue<NetworkMessage>();
 		
+		expectedACKs = ConcurrentHashMap.newKeySet();
+		
+		pendingResponses = new ConcurrentHashMap<Integer, CompletableFuture<NetworkMessageResponse>>();
+		
 		messageResolver = new MessageResolver(config, logger);
 		
+		responseCache = new ResponseCache(config, logger);
+		
+		eventSpools = new HashMap<String, EventSpool>();
+		
 		jsonBuilderFactory = Json.createBuilderFactory(null);
 		
 		// build new connection
@@ -207,13 +287,20 @@ public class ConnectionDescriptor {
 
 	
 	/**
-	 * Verifies, whether the client using this descriptor is using correct password. 
+	 * Verifies, whether the client using this descriptor is using correct password. The comparison takes the same 
+	 * time no matter where the passwords differ.
 	 * 
 	 * @param passwordToVerify The password provided by client.
 	 * @return True if the password matches the one used by this connection.
 	 */
 	public boolean verifyPassword(String passwordToVerify) {
-		return passwordToVerify.equals(password);
+		
+		if (passwordToVerify == null || password == null) {
+			return false;
+		}
+		
+		return MessageDigest.isEqual(passwordToVerify.getBytes(StandardCharsets.UTF_8), 
+				password.getBytes(StandardCharsets.UTF_8));
 	}
 	
 	
@@ -230,11 +317,30 @@ public class ConnectionDescriptor {
 	}
 	
 	
+	/**
+	 * Tells whether the last {@link #connect() connect} failed because the network refused the credentials.
+	 * 
+	 * @return True if the credentials were refused, false if the connection failed for another reason or succeeded.
+	 */
+	public boolean wereCredentialsRejected(){
+		
+		return commEngine.wereCredentialsRejected();
+	}
+	
+	
 	/**
 	 * Disconnects the object from the network. 
 	 */
 	public void disconnect(){
 		commEngine.disconnect();
+		
+		synchronized (eventSpools) {
+			for (EventSpool eventSpool : eventSpools.values()) {
+				eventSpool.close();
+			}
+			
+			eventSpools.clear();
+		}
 	}
 
 
@@ -284,6 +390,26 @@ public class ConnectionDescriptor {
 	}
 	
 	
+	/**
+	 * Retrieves a sorted snapshot of the contact list for this object. The same snapshot is returned as long as the
+	 * contact list does not change, so it can be used for paging.
+	 * 
+	 * @return Snapshot of the roster.
+	 */
+	public RosterSnapshot getRosterSnapshot() {
+		
+		Set<String> roster = commEngine.getRoster();
+		RosterSnapshot snapshot = rosterSnapshot;
+		
+		if (snapshot == null || !snapshot.matches(roster)) {
+			snapshot = new RosterSnapshot(roster);
+			rosterSnapshot = snapshot;
+		}
+		
+		return snapshot;
+	}
+	
+	
 	/**
 	 * Starts an action on a remote object.
 	 * 
@@ -296,13 +422,30 @@ public class ConnectionDescriptor {
 	public StatusMessage startAction(String destinationOid, String actionId, String body, 
 			Map<String, String> parameters) {
 		
+		return startActionAsync(destinationOid, actionId, body, parameters).join();
+	}
+	
+	
+	/**
+	 * Starts an action on a remote object without blocking the calling thread. The returned future is completed 
+	 * when the response arrives or when the request times out.
+	 * 
+	 * @param destinationOid ID of the remote object.
+	 * @param actionId ID of the action.
+	 * @param body Body that will be transported to the object via its {@link eu.bavenir.ogwapi.commons.connectors.AgentConnector AgentConnector}.
+	 * @param parameters Parameters that will be transported along the body. 
+	 * @return Future status message.
+	 */
+	public CompletableFuture<StatusMessage> startActionAsync(String destinationOid, String actionId, String body, 
+			Map<String, String> parameters) {
+		
 		Map<String, String> attributes = new HashMap<String,String>();
 		attributes.put(NetworkMessageRequest.ATTR_AID, actionId);
 		
 		logger.info(this.objectId + ": Sending request to start action " + actionId + " on " + destinationOid 
 				+ " with parameters: \n" + parameters.toString() + "\nand body: \n" + body);
 		
-		return sendRequestForRemoteOperation(
+		return sendRequestForRemoteOperationAsync(
 				NetworkMessageRequest.OPERATION_STARTACTION, 
 				destinationOid, 
 				attributes, 
@@ -477,9 +620,13 @@ public class ConnectionDescriptor {
 					qos = Integer.parseInt(parameters.get("qos"));
 				}
 				
-				data.addProvidedEventChannel(new EventChannel(objectId, eventId, true, qos));
+				EventChannel newEventChannel = new EventChannel(objectId, eventId, true, qos);
+				setRetainedEvents(newEventChannel, parameters);
 				
-				statusCodeReason = new String("Created active event channel " + eventId + ". QoS = " + qos);
+				data.addProvidedEventChannel(newEventChannel);
+				
+				statusCodeReason = new String("Created active event channel " + eventId + ". QoS = " + qos 
+						+ ". Retained events = " + newEventChannel.getRetain());
 				logger.info(this.objectId + ": " + statusCodeReason);
 				
 				statusMessage = new StatusMessage(
@@ -510,6 +657,7 @@ public class ConnectionDescriptor {
 		
 		// this change of setting will not be written to the file (persistence)
 		eventChannel.setActive(active);
+		setRetainedEvents(eventChannel, parameters);
 		// write to the file manually (persistence)
 		data.saveData();
 		
@@ -581,6 +729,10 @@ public class ConnectionDescriptor {
 				jsonBuilder.add(EventChannel.ATTR_ACTIVE, eventChannel.isActive());
 				jsonBuilder.add(EventChannel.ATTR_SUBSCRIBED, false);
 				
+				if (parameters != null && Boolean.parseBoolean(parameters.get(EventChannel.ATTR_HISTORY))) {
+					jsonBuilder.add(EventChannel.ATTR_HISTORY, createEventHistoryJson(eventChannel));
+				}
+				
 				statusMessage.addMessageJson(jsonBuilder);
 				
 			}
@@ -805,6 +957,9 @@ public class ConnectionDescriptor {
 			return statusMessage;
 		}
 		
+		// keep it for the subscribers to come
+		eventChannel.retainEvent(body, parameters);
+		
 		// create the message
 		NetworkMessageEvent eventMessage = new NetworkMessageEvent(config, this.objectId, eventId, body, 
 				parameters, logger);
@@ -819,14 +974,62 @@ public class ConnectionDescriptor {
 		
 		// keep track of number of sent messages
 		int sentMessages = 0;
+		int spooledMessages = 0;
 		
-		// send them
 		Set<String> subscribers = eventChannel.getSubscribersSet();
+		
+		// durable channel => the event goes into the spool first and is delivered from there
+		EventSpool eventSpool = null;
+		long eventPosition = -1;
+		
+		if (eventChannel.getQoS() == EventChannel.QOS_DURABLE) {
+			eventSpool = getEventSpool(eventChannel);
+			eventPosition = spoolEvent(eventSpool, eventChannel, message);
+			
+			if (eventPosition < 0) {
+				eventSpool = null;
+			}
+		}
+		
+		// the ACKs can arrive as soon as the first event is sent
+		if (eventChannel.getQoS() == 2) {
+			expectedACKs.add(eventMessage.getRequestId());
+		}
+		
+		// send them in the data lane, so they don't hold up the control messages
+		MessageLanes messageLanes = commManager.getMessageLanes();
+		Map<String, CompletableFuture<Boolean>> sends = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+		
 		for (String destinationOid : subscribers) {
-			if(sendMessage(this.objectId, destinationOid, message)) {
+			
+			if (eventSpool != null && eventSpool.isBehind(destinationOid, eventPosition)) {
+				
+				// older events wait for it too, the publisher should not wait until all of them are sent
+				deliverSpooledEventsInBackground(eventSpool, destinationOid);
+				sends.put(destinationOid, CompletableFuture.completedFuture(false));
+				
+			} else if (eventSpool != null) {
+				EventSpool spool = eventSpool;
+				
+				sends.put(destinationOid, messageLanes.supplyAsync(MessageLanes.LANE_DATA, destinationOid, 
+						() -> spool.deliver(destinationOid, spooled -> sendSpooledEvent(destinationOid, spooled))));
+			} else {
+				sends.put(destinationOid, messageLanes.supplyAsync(MessageLanes.LANE_DATA, destinationOid, 
+						() -> sendMessage(this.objectId, destinationOid, message)));
+			}
+		}
+		
+		for (Map.Entry<String, CompletableFuture<Boolean>> send : sends.entrySet()) {
+			String destinationOid = send.getKey();
+			
+			if(send.getValue().join()) {
 				sentMessages++;
 				// Count event
 				messageCounter.addMessage(eventMessage.getRequestId(), MessageCounter.RECORDTYPE_INT_OK, this.objectId, destinationOid, true, "EVENTMESSAGE", sizeInBytes);
+			} else if (eventSpool != null) {
+				spooledMessages++;
+				logger.info(this.objectId + ": Event for " + destinationOid + " was not delivered yet, it is kept in "
+						+ "the spool.");
 			} else {
 				logger.warning(this.objectId + ": Destination object ID " + destinationOid 
 						+ " is not in the contact list during event distribution.");
@@ -837,11 +1040,21 @@ public class ConnectionDescriptor {
 				+ sentMessages + " out of " 
 				+ subscribers.size() + " subscribers. " );
 		
+		if (eventSpool != null) {
+			statusCodeReason += spooledMessages + " subscribers will get it later. ";
+		}
+		
 		// Quality of serice == 2 => wait for ACKs
 		if (eventChannel.getQoS() == 2) {
 			
 			// VIC-761
-			int ACKs = countOfArrivedACKsInTimeout(eventMessage.getRequestId(), sentMessages);
+			int ACKs;
+			
+			try {
+				ACKs = countOfArrivedACKsInTimeout(eventMessage.getRequestId(), sentMessages);
+			} finally {
+				expectedACKs.remove(eventMessage.getRequestId());
+			}
 			
 			statusCodeReason += ACKs + " acknowledgements arrived.";
 		}
@@ -857,6 +1070,34 @@ public class ConnectionDescriptor {
 		return statusMessage;
 	}
 	
+	/**
+	 * Delivers the events kept in the spools of durable {@link EventChannel event channels} to a subscriber that came 
+	 * back online. It is done in the background, this method does not wait for it. 
+	 * 
+	 * @param subscriberOid Object ID of the subscriber.
+	 */
+	public void deliverSpooledEvents(String subscriberOid) {
+		
+		for (EventChannel eventChannel : data.getProvidedEventChannels()) {
+			
+			if (eventChannel.getQoS() != EventChannel.QOS_DURABLE || !eventChannel.isSubscribed(subscriberOid)) {
+				continue;
+			}
+			
+			EventSpool eventSpool = getEventSpool(eventChannel);
+			
+			if (eventSpool == null || !eventSpool.hasBacklog(subscriberOid)) {
+				continue;
+			}
+			
+			logger.info(this.objectId + ": " + subscriberOid + " is back online, delivering spooled events of " 
+					+ eventChannel.getEventId() + ".");
+			
+			deliverSpooledEventsInBackground(eventSpool, subscriberOid);
+		}
+	}
+	
+	
 	/**
 	 * Returns the number of subscribers for the {@link EventChannel EventChannel} specified by its event ID. 
 	 * 
@@ -897,7 +1138,7 @@ public class ConnectionDescriptor {
 		logger.info(this.objectId + ": Sending request to get events of remote object " + destinationOid 
 				+ " with parameters: \n" + parameters.toString() + "\nand body: \n" + body);
 		
-		return sendRequestForRemoteOperation(
+		return getCapabilitiesOfRemoteObject(
 				NetworkMessageRequest.OPERATION_GETLISTOFEVENTS, 
 				destinationOid, 
 				attributes, 
@@ -923,7 +1164,7 @@ public class ConnectionDescriptor {
 		logger.info(this.objectId + ": Sending request to get actions of remote object " + destinationOid 
 				+ " with parameters: \n" + parameters.toString() + "\nand body: \n" + body);
 		
-		return sendRequestForRemoteOperation(
+		return getCapabilitiesOfRemoteObject(
 				NetworkMessageRequest.OPERATION_GETLISTOFACTIONS, 
 				destinationOid, 
 				attributes, 
@@ -949,7 +1190,7 @@ public class ConnectionDescriptor {
 		logger.info(this.objectId + ": Sending request to get thing description of remote object " + destinationOid 
 				+ " with parameters: \n" + parameters.toString() + "\nand body: \n" + body);
 		
-		return sendRequestForRemoteOperation(
+		return getCapabilitiesOfRemoteObject(
 				NetworkMessageRequest.OPERATION_GETTHINGDESCRIPTION, 
 				destinationOid, 
 				attributes, 
@@ -975,7 +1216,7 @@ public class ConnectionDescriptor {
 		logger.info(this.objectId + ": Sending request to get events of remote object " + destinationOid 
 				+ " with parameters: \n" + parameters.toString() + "\nand body: \n" + body);
 		
-		return sendRequestForRemoteOperation(
+		return getCapabilitiesOfRemoteObject(
 				NetworkMessageRequest.OPERATION_GETLISTOFPROPERTIES, 
 				destinationOid, 
 				attributes, 
@@ -996,25 +1237,206 @@ public class ConnectionDescriptor {
 	 */
 	public StatusMessage getPropertyOfRemoteObject(String destinationOid, String propertyId, 
 			Map<String, String> parameters, String body) {
-				
+		
+		return getPropertyOfRemoteObjectAsync(destinationOid, propertyId, parameters, body).join();
+	}
+	
+	
+	/**
+	 * Retrieves a property of a remote object without blocking the calling thread. The returned future is completed 
+	 * when the response arrives or when the request times out.
+	 * 
+	 * If the parameters contain {@link PropertyValueCache#PARAM_MAXAGE PARAM_MAXAGE}, a value retrieved by any local
+	 * object that is not older than the given number of seconds is served from the {@link PropertyValueCache 
+	 * PropertyValueCache} without sending the request.
+	 * 
+	 * @param destinationOid ID of the object that owns the property. 
+	 * @param propertyId ID of the property.
+	 * @param parameters Any parameters to be sent with the request (if needed).
+	 * @param body Body to be sent (if needed).
+	 * @return Future status message. 
+	 */
+	public CompletableFuture<StatusMessage> getPropertyOfRemoteObjectAsync(String destinationOid, String propertyId, 
+			Map<String, String> parameters, String body) {
+		
+		PropertyValueCache propertyCache = commManager.getPropertyValueCache();
+		
+		// the max age is for us, not for the remote object
+		Map<String, String> forwardedParameters = parameters == null ? 
+				new HashMap<String, String>() : new HashMap<String, String>(parameters);
+		long maxAge;
+		
+		try {
+			maxAge = propertyCache.takeMaxAge(forwardedParameters);
+		} catch (IllegalArgumentException e) {
+			
+			logger.warning(this.objectId + ": " + e.getMessage());
+			
+			return CompletableFuture.completedFuture(new StatusMessage(
+					true, 
+					CodesAndReasons.CODE_400_BADREQUEST, 
+					CodesAndReasons.REASON_400_BADREQUEST + e.getMessage(),
+					StatusMessage.CONTENTTYPE_APPLICATIONJSON));
+		}
+		
+		// an object that is not allowed to talk to the destination must not get the values read by somebody else
+		boolean cacheable = propertyCache.isEnabled() && maxAge > 0 && mayShareResponses(destinationOid);
+		
+		StatusMessage cachedValue = cacheable ? 
+				propertyCache.get(destinationOid, propertyId, forwardedParameters, body, maxAge) : null;
+		
+		if (cachedValue != null) {
+			logger.fine(this.objectId + ": Property " + propertyId + " of remote object " + destinationOid 
+					+ " served from cache.");
+			
+			return CompletableFuture.completedFuture(cachedValue);
+		}
 		
 		Map<String, String> attributes = new HashMap<String,String>();
 		attributes.put(NetworkMessageRequest.ATTR_PID, propertyId);
 		
 		logger.info(this.objectId + ": Sending request to get property " + propertyId + " of remote object " + destinationOid 
-				+ " with parameters: \n" + parameters.toString() + "\nand body: \n" + body);
+				+ " with parameters: \n" + forwardedParameters.toString() + "\nand body: \n" + body);
 		
-		return sendRequestForRemoteOperation(
+		return sendReadRequestAsync(
 				NetworkMessageRequest.OPERATION_GETPROPERTYVALUE, 
 				destinationOid, 
 				attributes, 
-				parameters, 
+				forwardedParameters, 
 				body,
-				"GETPROPERTYVALUE");
+				"GETPROPERTYVALUE",
+				statusMessage -> cacheable ? 
+						propertyCache.put(destinationOid, propertyId, forwardedParameters, body, statusMessage) 
+						: statusMessage);
 
 	}
 	
 	
+	/**
+	 * Retrieves several properties of the same remote object at once, without blocking the calling thread. Values 
+	 * that can be served from the {@link PropertyValueCache PropertyValueCache} are taken from there, the rest is 
+	 * requested in one request with {@link NetworkMessageRequest#OPERATION_MULTIPLE multiple operations}. The returned 
+	 * future is completed when all of them are known (or timed out).
+	 * 
+	 * @param destinationOid ID of the object that owns the properties. 
+	 * @param propertyIds IDs of the properties.
+	 * @param parameters Any parameters to be sent with the requests (if needed).
+	 * @return Future map of property IDs to their status messages, in the order of the IDs. 
+	 */
+	public CompletableFuture<Map<String, StatusMessage>> getPropertiesOfRemoteObjectAsync(String destinationOid, 
+			Collection<String> propertyIds, Map<String, String> parameters) {
+		
+		Set<String> uniquePropertyIds = new LinkedHashSet<String>(propertyIds);
+		
+		PropertyValueCache propertyCache = commManager.getPropertyValueCache();
+		Map<String, String> forwardedParameters = parameters == null ? 
+				new HashMap<String, String>() : new HashMap<String, String>(parameters);
+		long maxAge;
+		
+		// the timeout belongs to the request that carries all the operations
+		Map<String, String> requestParameters = new HashMap<String, String>();
+		if (forwardedParameters.containsKey(RequestTimeouts.PARAM_REQUESTTIMEOUT)) {
+			requestParameters.put(RequestTimeouts.PARAM_REQUESTTIMEOUT, 
+					forwardedParameters.remove(RequestTimeouts.PARAM_REQUESTTIMEOUT));
+		}
+		
+		try {
+			maxAge = propertyCache.takeMaxAge(forwardedParameters);
+		} catch (IllegalArgumentException e) {
+			
+			logger.warning(this.objectId + ": " + e.getMessage());
+			
+			Map<String, StatusMessage> statusMessages = new LinkedHashMap<String, StatusMessage>();
+			
+			for (String propertyId : uniquePropertyIds) {
+				statusMessages.put(propertyId, new StatusMessage(
+						true, 
+						CodesAndReasons.CODE_400_BADREQUEST, 
+						CodesAndReasons.REASON_400_BADREQUEST + e.getMessage(),
+						StatusMessage.CONTENTTYPE_APPLICATIONJSON));
+			}
+			
+			return CompletableFuture.completedFuture(statusMessages);
+		}
+		
+		Map<String, StatusMessage> cachedValues = new HashMap<String, StatusMessage>();
+		List<String> missingPropertyIds = new ArrayList<String>();
+		
+		// an object that is not allowed to talk to the destination must not get the values read by somebody else
+		boolean cacheable = propertyCache.isEnabled() && maxAge > 0 && mayShareResponses(destinationOid);
+		
+		for (String propertyId : uniquePropertyIds) {
+			
+			StatusMessage cachedValue = cacheable ? 
+					propertyCache.get(destinationOid, propertyId, forwardedParameters, null, maxAge) : null;
+			
+			if (cachedValue != null) {
+				cachedValues.put(propertyId, cachedValue);
+			} else {
+				missingPropertyIds.add(propertyId);
+			}
+		}
+		
+		CompletableFuture<Map<String, StatusMessage>> retrievedValues;
+		
+		if (missingPropertyIds.isEmpty()) {
+			retrievedValues = CompletableFuture.completedFuture(Collections.<String, StatusMessage>emptyMap());
+			
+		} else if (missingPropertyIds.size() == 1) {
+			
+			// a single property can join an identical request that is already on its way
+			String propertyId = missingPropertyIds.get(0);
+			
+			retrievedValues = getPropertyOfRemoteObjectAsync(destinationOid, propertyId, parameters, null)
+					.thenApply(statusMessage -> Collections.singletonMap(propertyId, statusMessage));
+			
+		} else {
+			
+			List<NetworkMessageRequest> operations = new ArrayList<NetworkMessageRequest>(missingPropertyIds.size());
+			
+			for (String propertyId : missingPropertyIds) {
+				
+				Map<String, String> attributes = new HashMap<String,String>();
+				attributes.put(NetworkMessageRequest.ATTR_PID, propertyId);
+				
+				NetworkMessageRequest operation = new NetworkMessageRequest(config, logger);
+				operation.setRequestOperation(NetworkMessageRequest.OPERATION_GETPROPERTYVALUE);
+				operation.setAttributes(attributes);
+				operation.setParameters(new HashMap<String, String>(forwardedParameters));
+				
+				operations.add(operation);
+			}
+			
+			retrievedValues = sendMultipleOperationsAsync(destinationOid, operations, requestParameters).thenApply(statusMessages -> {
+				
+				Map<String, StatusMessage> values = new HashMap<String, StatusMessage>();
+				
+				for (int i = 0; i < missingPropertyIds.size(); i++) {
+					String propertyId = missingPropertyIds.get(i);
+					
+					values.put(propertyId, cacheable ? 
+							propertyCache.put(destinationOid, propertyId, forwardedParameters, null, statusMessages.get(i)) 
+							: statusMessages.get(i));
+				}
+				
+				return values;
+			});
+		}
+		
+		return retrievedValues.thenApply(values -> {
+			
+			Map<String, StatusMessage> statusMessages = new LinkedHashMap<String, StatusMessage>();
+			
+			for (String propertyId : uniquePropertyIds) {
+				statusMessages.put(propertyId, 
+						cachedValues.containsKey(propertyId) ? cachedValues.get(propertyId) : values.get(propertyId));
+			}
+			
+			return statusMessages;
+		});
+	}
+	
+	
 	/**
 	 * Sets a new value of a property on a remote object. 
 	 * 
@@ -1026,7 +1448,23 @@ public class ConnectionDescriptor {
 	 */
 	public StatusMessage setPropertyOfRemoteObject(String destinationOid, String propertyId, String body,
 			Map<String, String> parameters) {
-				
+		
+		return setPropertyOfRemoteObjectAsync(destinationOid, propertyId, body, parameters).join();
+	}
+	
+	
+	/**
+	 * Sets a new value of a property on a remote object without blocking the calling thread. The returned future 
+	 * is completed when the response arrives or when the request times out.
+	 * 
+	 * @param destinationOid ID of the object that owns the property. 
+	 * @param propertyId ID of the property.
+	 * @param parameters Any parameters to be sent with the request (if needed).
+	 * @param body Body to be sent (a new value will probably be stored here).
+	 * @return Future status message. 
+	 */
+	public CompletableFuture<StatusMessage> setPropertyOfRemoteObjectAsync(String destinationOid, String propertyId, 
+			String body, Map<String, String> parameters) {
 		
 		Map<String, String> attributes = new HashMap<String,String>();
 		attributes.put(NetworkMessageRequest.ATTR_PID, propertyId);
@@ -1034,13 +1472,20 @@ public class ConnectionDescriptor {
 		logger.info(this.objectId + ": Sending request to set property " + propertyId + " of remote object " + destinationOid 
 				+ " with parameters: \n" + parameters.toString() + "\nand body: \n" + body);
 		
-		return sendRequestForRemoteOperation(
+		PropertyValueCache propertyCache = commManager.getPropertyValueCache();
+		
+		// once before, so nobody gets the old value while the new one is being set, and once after, in case a read 
+		// stored the old value in the meantime
+		propertyCache.invalidate(destinationOid, propertyId);
+		
+		return sendRequestForRemoteOperationAsync(
 				NetworkMessageRequest.OPERATION_SETPROPERTYVALUE, 
 				destinationOid, 
 				attributes, 
 				parameters, 
 				body,
-				"SETPROPERTYVALUE");
+				"SETPROPERTYVALUE")
+				.whenComplete((statusMessage, throwable) -> propertyCache.invalidate(destinationOid, propertyId));
 	}
 	
 	
@@ -1057,51 +1502,37 @@ public class ConnectionDescriptor {
 	 * 
 	 * NOTE: This method is to be called by the {@link CommunicationEngine engine } subclass instance.
 	 * 
+	 * Depending on the thread mode (see {@link WorkerThreads WorkerThreads}), the message is processed either in one 
+	 * of the {@link MessageLanes priority lanes} or on a new virtual thread. Responses are always handed over right 
+	 * away.
+	 * 
 	 * @param sourceOid Object ID of the sender.
 	 * @param messageString Received message.
 	 */
 	public void processIncommingMessage(String sourceOid, String messageString){
 		
-		logger.info(this.objectId + ": New message from " + sourceOid);
+		MessageLanes messageLanes = commManager.getMessageLanes();
 		
-		logger.fine(this.objectId + ": Message string: \n" + messageString + "\n");
+		if (!messageLanes.isEnabled()) {
+			commManager.getWorkerThreads().dispatch(() -> processIncommingMessageNow(sourceOid, messageString));
+			
+			return;
+		}
 		
-		// let's resolve the message 
-		NetworkMessage networkMessage = messageResolver.resolveNetworkMessage(messageString);
+		// the message needs to be resolved to know its lane, which is cheap compared to processing it
+		NetworkMessage networkMessage = resolveIncommingMessage(sourceOid, messageString);
 		
-		if (networkMessage != null){
-			
-			// just a check whether or not somebody was tampering the message (and forgot to do it properly)
-			if (!sourceOid.equals(networkMessage.getSourceOid())) {
-				logger.warning(this.objectId + ": The source OID "
-						+ sourceOid + " returned by communication engine "
-						+ "does not match the internal source OID in the message " + networkMessage.getSourceOid() 
-						+ ". Possible message tampering! Discarding the message and aborting.");
-				
-				return;
-			}
-
-			switch (networkMessage.getMessageType()){
-			
-			case NetworkMessageRequest.MESSAGE_TYPE:
-				logger.info(this.objectId + ": The message is a request. Processing...");
-				processMessageRequest(networkMessage);
-				break;
-				
-			case NetworkMessageResponse.MESSAGE_TYPE:
-				logger.info(this.objectId + ": This message is a response. Adding to incoming queue - message count: " 
-						+ messageQueue.size());
-				processMessageResponse(networkMessage);
-				break;
-				
-			case NetworkMessageEvent.MESSAGE_TYPE:
-				logger.info(this.objectId + ": This message is an event. Forwarding to agent...");
-				processMessageEvent(networkMessage);
-			}
-		} else {
-			logger.warning(this.objectId + ": Invalid message received from the network.");
+		if (networkMessage == null) {
+			return;
 		}
 		
+		int lane = MessageLanes.laneOf(networkMessage);
+		
+		if (lane < 0) {
+			processNetworkMessage(sourceOid, networkMessage);
+		} else {
+			messageLanes.execute(lane, sourceOid, () -> processNetworkMessage(sourceOid, networkMessage));
+		}
 	}
 	
 	
@@ -1132,9 +1563,12 @@ public class ConnectionDescriptor {
 	 * 
 	 * @param query Semantic query.
 	 * @param parameters Any parameters (if needed).
+	 * @param index Semantic interfaces of objects in the roster, see 
+	 * {@link eu.bavenir.ogwapi.commons.search.SemanticIndex SemanticIndex}.
 	 * @return JSON with results. 
 	 */
-	public String performSemanticQuery(String sourceObjectId, String query, Map<String, String> parameters, JsonArray tds) {
+	public String performSemanticQuery(String sourceObjectId, String query, Map<String, String> parameters, 
+			Map<String, Set<String>> index) {
 		
 		if (query == null) {
 			
@@ -1145,30 +1579,227 @@ public class ConnectionDescriptor {
 		
 		logger.info(this.objectId + ": Executing Semantic query: \n" + query + "\nwith parameters: \n" + parameters.toString());
 		
-		return semantic.performQuery(sourceObjectId, query, parameters, tds);
+		return semantic.performQuery(sourceObjectId, query, parameters, index);
 	}
 	
 	/* === PRIVATE METHODS === */
 	
 	
 	/**
-	 * Processing method for {@link NetworkMessageRequest request} type of {@link NetworkMessage NetworkMessage}.
+	 * Retrieves one of the capability documents of a remote object (thing description, list of properties, actions
+	 * or events). The document is taken from the {@link RemoteCapabilityCache RemoteCapabilityCache} if possible, 
+	 * otherwise the request is sent and the response is cached.
 	 * 
-	 * @param networkMessage Message parsed from the incoming message. 
+	 * @param operation Operation, see {@link NetworkMessageRequest NetworkMessageRequest}.
+	 * @param destinationOid ID of the remote object.
+	 * @param attributes Attributes of the request.
+	 * @param parameters Parameters of the request.
+	 * @param body Body of the request.
+	 * @param typeOfMessage Type of the message for the {@link MessageCounter MessageCounter}.
+	 * @return Status message.
 	 */
-	private void processMessageRequest(NetworkMessage networkMessage){
+	private StatusMessage getCapabilitiesOfRemoteObject(byte operation, String destinationOid, 
+			Map<String, String> attributes, Map<String, String> parameters, String body, String typeOfMessage) {
 		
-		String typeOfMessage = "Unknown";
-		// cast it to request message first (it is safe and also necessary)
-		NetworkMessageRequest requestMessage = (NetworkMessageRequest) networkMessage;
+		RemoteCapabilityCache capabilityCache = commManager.getRemoteCapabilityCache();
 		
-		// Calculate message size
-		byte[] byteArray = requestMessage.buildMessageString().getBytes();
-		int sizeInBytes = byteArray.length;
+		// an object that is not allowed to talk to the destination must not get the documents read by somebody else
+		if (!mayShareResponses(destinationOid)) {
+			return sendRequestForRemoteOperationAsync(operation, destinationOid, attributes, parameters, body, 
+					typeOfMessage).join();
+		}
 		
-		NetworkMessageResponse response = null;
+		StatusMessage statusMessage = capabilityCache.get(destinationOid, operation, parameters, body);
 		
-		if (objectIsInMyRoster(requestMessage.getSourceOid())) {
+		if (statusMessage != null) {
+			logger.fine(this.objectId + ": " + typeOfMessage + " of " + destinationOid + " served from cache.");
+			
+			return statusMessage;
+		}
+		
+		return sendReadRequestAsync(operation, destinationOid, attributes, parameters, body, typeOfMessage, 
+				response -> capabilityCache.put(destinationOid, operation, parameters, body, response, 
+						operation == NetworkMessageRequest.OPERATION_GETTHINGDESCRIPTION))
+				.join();
+	}
+	
+	
+	/**
+	 * Sends a request without side effects. If an identical request of any local object is already on its way, no 
+	 * new request is sent and the response of that one is shared, see {@link InFlightRequests InFlightRequests}.
+	 * 
+	 * @param operationId The ID of the operation, chosen from constants in {eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest NetworkMessageRequest}.
+	 * @param destinationOid Object ID of the destination.
+	 * @param attributes Attributes that are specific to given operation.
+	 * @param parameters Any parameters to be sent with the request. 
+	 * @param body Any body to be sent with the request. 
+	 * @param typeOfMessage Type of the message for monitoring.
+	 * @param responseHandler Applied to the response once, before it is shared (e.g. to cache it).
+	 * @return Future status message.
+	 */
+	private CompletableFuture<StatusMessage> sendReadRequestAsync(byte operationId, String destinationOid, 
+			Map<String, String> attributes, Map<String, String> parameters, String body, String typeOfMessage, 
+			UnaryOperator<StatusMessage> responseHandler) {
+		
+		Supplier<CompletableFuture<StatusMessage>> sender = () -> {
+			
+			CompletableFuture<StatusMessage> request = sendRequestForRemoteOperationAsync(operationId, destinationOid, 
+					attributes, parameters, body, typeOfMessage);
+			
+			return cancelTogether(request.thenApply(responseHandler), request);
+		};
+		
+		// an object that is not allowed to talk to the destination must not get the response of somebody else
+		if (!mayShareResponses(destinationOid)) {
+			return sender.get();
+		}
+		
+		return commManager.getInFlightRequests().join(destinationOid, operationId, attributes, parameters, body, 
+				sender);
+	}
+	
+	
+	/**
+	 * Checks whether this object may get responses of the destination that were requested by other local objects -
+	 * from the caches or shared in-flight requests. Only objects in the roster of the destination may, the others
+	 * would be refused by the remote OGWAPI.
+	 * 
+	 * @param destinationOid Object ID of the destination.
+	 * @return True if the responses can be shared with this object.
+	 */
+	private boolean mayShareResponses(String destinationOid) {
+		
+		return destinationOid != null && objectIsInMyRoster(destinationOid);
+	}
+	
+	
+	/**
+	 * Cancels the source future when the dependent one is cancelled, so the request behind them stops waiting.
+	 * 
+	 * @param dependent Future derived from the source.
+	 * @param source Future of the request.
+	 * @return The dependent future.
+	 */
+	private static <T> CompletableFuture<T> cancelTogether(CompletableFuture<T> dependent, CompletableFuture<?> source) {
+		
+		dependent.whenComplete((result, throwable) -> {
+			if (dependent.isCancelled()) {
+				source.cancel(false);
+			}
+		});
+		
+		return dependent;
+	}
+	
+	
+	/**
+	 * Does the actual processing of an incoming message, see {@link #processIncommingMessage(String, String)
+	 * processIncommingMessage}.
+	 * 
+	 * @param sourceOid Object ID of the sender.
+	 * @param messageString Received message.
+	 */
+	private void processIncommingMessageNow(String sourceOid, String messageString){
+		
+		NetworkMessage networkMessage = resolveIncommingMessage(sourceOid, messageString);
+		
+		if (networkMessage != null){
+			processNetworkMessage(sourceOid, networkMessage);
+		}
+	}
+	
+	
+	/**
+	 * Resolves an incoming message.
+	 * 
+	 * @param sourceOid Object ID of the sender.
+	 * @param messageString Received message.
+	 * @return The message, or null if it is not valid.
+	 */
+	private NetworkMessage resolveIncommingMessage(String sourceOid, String messageString){
+		
+		logger.info(this.objectId + ": New message from " + sourceOid);
+		
+		logger.fine(this.objectId + ": Message string: \n" + messageString + "\n");
+		
+		// let's resolve the message 
+		NetworkMessage networkMessage = messageResolver.resolveNetworkMessage(messageString);
+		
+		if (networkMessage == null){
+			logger.warning(this.objectId + ": Invalid message received from the network.");
+		}
+		
+		return networkMessage;
+	}
+	
+	
+	/**
+	 * Processes a resolved incoming message according to its type.
+	 * 
+	 * @param sourceOid Object ID of the sender, as reported by the communication engine.
+	 * @param networkMessage The message.
+	 */
+	private void processNetworkMessage(String sourceOid, NetworkMessage networkMessage){
+		
+		// just a check whether or not somebody was tampering the message (and forgot to do it properly)
+		if (!sourceOid.equals(networkMessage.getSourceOid())) {
+			logger.warning(this.objectId + ": The source OID "
+					+ sourceOid + " returned by communication engine "
+					+ "does not match the internal source OID in the message " + networkMessage.getSourceOid() 
+					+ ". Possible message tampering! Discarding the message and aborting.");
+			
+			return;
+		}
+
+		switch (networkMessage.getMessageType()){
+		
+		case NetworkMessageRequest.MESSAGE_TYPE:
+			logger.info(this.objectId + ": The message is a request. Processing...");
+			processMessageRequest(networkMessage);
+			break;
+			
+		case NetworkMessageResponse.MESSAGE_TYPE:
+			logger.info(this.objectId + ": This message is a response. Processing...");
+			processMessageResponse(networkMessage);
+			break;
+			
+		case NetworkMessageEvent.MESSAGE_TYPE:
+			logger.info(this.objectId + ": This message is an event. Forwarding to agent...");
+			processMessageEvent(networkMessage);
+		}
+		
+	}
+
+	
+	
+	/**
+	 * Processing method for {@link NetworkMessageRequest request} type of {@link NetworkMessage NetworkMessage}.
+	 * 
+	 * @param networkMessage Message parsed from the incoming message. 
+	 */
+	private void processMessageRequest(NetworkMessage networkMessage){
+		
+		String typeOfMessage = "Unknown";
+		// cast it to request message first (it is safe and also necessary)
+		NetworkMessageRequest requestMessage = (NetworkMessageRequest) networkMessage;
+		
+		// Calculate message size
+		byte[] byteArray = requestMessage.buildMessageString().getBytes();
+		int sizeInBytes = byteArray.length;
+		
+		NetworkMessageResponse response = null;
+		
+		if (requestMessage.isExpired()) {
+			
+			// the requester does not wait for it anymore, don't bother the agent
+			messageCounter.addMessage(requestMessage.getRequestId(), MessageCounter.RECORDTYPE_INT_EXPIRED, requestMessage.getSourceOid(), this.objectId, false, typeOfMessage, sizeInBytes);
+			logger.warning(this.objectId + ": The request " + requestMessage.getRequestId() + " from " 
+					+ requestMessage.getSourceOid() + " expired before it could be processed. Discarding.");
+			
+			return;
+		}
+		
+		if (objectIsInMyRoster(requestMessage.getSourceOid())) {
 			
 			// create response and send it back
 			switch (requestMessage.getRequestOperation()){
@@ -1227,14 +1858,14 @@ public class ConnectionDescriptor {
 				
 				logger.info(this.objectId + ": Request ID is " + requestMessage.getRequestId() + ", operation is SETPROPERTYVALUE.");
 				typeOfMessage = "SETPROPERTYVALUE";
-				response = respondToSetObjectProperty(requestMessage);
+				response = respondOnce(requestMessage, this::respondToSetObjectProperty);
 				break;
 				
 			case NetworkMessageRequest.OPERATION_STARTACTION:
 				
 				logger.info(this.objectId + ": Request ID is " + requestMessage.getRequestId() + ", operation is STARTACTION.");
 				typeOfMessage = "STARTACTION";
-				response = respondToStartActionRequest(requestMessage);
+				response = respondOnce(requestMessage, this::respondToStartActionRequest);
 				break;
 				
 			case NetworkMessageRequest.OPERATION_SUBSCRIBETOEVENTCHANNEL:
@@ -1257,6 +1888,13 @@ public class ConnectionDescriptor {
 				typeOfMessage = "GETTHINGDESCRIPTION";
 				response = respondToGetObjectThingDescription(requestMessage);
 				break;
+				
+			case NetworkMessageRequest.OPERATION_MULTIPLE:
+				
+				logger.info(this.objectId + ": Request ID is " + requestMessage.getRequestId() + ", operation is MULTIPLE.");
+				typeOfMessage = "MULTIPLE";
+				response = respondToMultipleOperations(requestMessage);
+				break;
 			}
 		
 			
@@ -1267,7 +1905,11 @@ public class ConnectionDescriptor {
 			}
 			
 			messageCounter.addMessage(requestMessage.getRequestId(), MessageCounter.RECORDTYPE_INT_OK, requestMessage.getSourceOid(), this.objectId, false, typeOfMessage, sizeInBytes);
-			sendMessage(this.objectId, requestMessage.getSourceOid(), response.buildMessageString());
+			
+			// no response means it will be sent when the original request is done
+			if (response != null) {
+				sendMessage(this.objectId, requestMessage.getSourceOid(), response.buildMessageString());
+			}
 			
 		} else {
 			
@@ -1281,10 +1923,93 @@ public class ConnectionDescriptor {
 	}
 	
 	
+	/**
+	 * Responds to a request that must not be executed twice. If the same request was already answered, the response 
+	 * is taken from the {@link ResponseCache ResponseCache} without calling the agent. If it is still being executed, 
+	 * the response will be sent when it is done.
+	 * 
+	 * @param requestMessage Request message.
+	 * @param responder Method that executes the request.
+	 * @return Response to be sent, or null if it will be sent later.
+	 */
+	private NetworkMessageResponse respondOnce(NetworkMessageRequest requestMessage, 
+			Function<NetworkMessageRequest, NetworkMessageResponse> responder) {
+		
+		CompletableFuture<NetworkMessageResponse> futureResponse = respondOnceAsync(requestMessage, responder);
+		
+		if (futureResponse.isDone()) {
+			return futureResponse.join();
+		}
+		
+		futureResponse.thenAccept(response -> {
+			
+			response.setSourceOid(objectId);
+			response.setDestinationOid(requestMessage.getSourceOid());
+			
+			sendMessage(this.objectId, requestMessage.getSourceOid(), response.buildMessageString());
+		});
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Executes a request that must not be executed twice, or takes the response to its original from the {@link 
+	 * ResponseCache ResponseCache}. If the original is still being executed, the returned future is completed when it
+	 * is done. If the original failed without a response, the retry gets an error response and can be tried again.
+	 * 
+	 * @param requestMessage Request message.
+	 * @param responder Method that executes the request.
+	 * @return Future response to the request.
+	 */
+	private CompletableFuture<NetworkMessageResponse> respondOnceAsync(NetworkMessageRequest requestMessage, 
+			Function<NetworkMessageRequest, NetworkMessageResponse> responder) {
+		
+		CompletableFuture<NetworkMessageResponse> original = responseCache.begin(requestMessage);
+		
+		if (original == null) {
+			
+			NetworkMessageResponse response = null;
+			
+			try {
+				response = responder.apply(requestMessage);
+			} finally {
+				responseCache.complete(requestMessage, response);
+			}
+			
+			return CompletableFuture.completedFuture(response);
+		}
+		
+		if (!original.isDone()) {
+			logger.info(this.objectId + ": Request " + requestMessage.getRequestId() + " from " 
+					+ requestMessage.getSourceOid() + " is a retry of a request still in progress, waiting for its response.");
+		}
+		
+		return original.thenApply(response -> {
+			
+			if (response != null) {
+				return responseCache.respondTo(response, requestMessage);
+			}
+			
+			logger.warning(this.objectId + ": The original of the request " + requestMessage.getRequestId() + " from " 
+					+ requestMessage.getSourceOid() + " failed without a response.");
+			
+			NetworkMessageResponse errorResponse = new NetworkMessageResponse(config, logger, true, 
+					CodesAndReasons.CODE_503_SERVICEUNAVAILABLE, CodesAndReasons.REASON_503_SERVICENAVAILABLE 
+					+ "The original request with the same " + ResponseCache.PARAM_IDEMPOTENCYKEY + " failed.", 
+					"application/json", null);
+			errorResponse.setRequestId(requestMessage.getRequestId());
+			
+			return errorResponse;
+		});
+	}
+	
+	
 	/**
 	 * Processing method for {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageResponse response} type of 
-	 * {@link eu.bavenir.ogwapi.commons.messages.NetworkMessage NetworkMessage}. It adds it to the message queue
-	 * where it will wait to be reaped (or expired).  
+	 * {@link eu.bavenir.ogwapi.commons.messages.NetworkMessage NetworkMessage}. If there is a request waiting for 
+	 * this response, it is handed over directly. An ACK of an event is added to the message queue, where it is 
+	 * counted. Any other response is discarded, nobody would ever take it from the queue.  
 	 * 
 	 * @param networkMessage Message parsed from the incoming message.
 	 */
@@ -1292,7 +2017,17 @@ public class ConnectionDescriptor {
 		
 		logger.info(this.objectId + ": This is a response to request ID " + networkMessage.getRequestId());
 		
-		messageQueue.add(networkMessage);
+		CompletableFuture<NetworkMessageResponse> pendingResponse = pendingResponses.remove(networkMessage.getRequestId());
+		
+		if (pendingResponse != null) {
+			pendingResponse.complete((NetworkMessageResponse) networkMessage);
+		} else if (expectedACKs.contains(networkMessage.getRequestId())) {
+			messageQueue.add(networkMessage);
+		} else {
+			// a late response after the timeout, or a copy of a resent request
+			logger.fine(this.objectId + ": Nobody waits for the response to request ID " + networkMessage.getRequestId() 
+					+ ", discarding.");
+		}
 	}
 	
 	
@@ -1393,6 +2128,135 @@ public class ConnectionDescriptor {
 		
 	}
 	
+	/**
+	 * Responds to a request with {@link NetworkMessageRequest#OPERATION_MULTIPLE multiple operations}. The operations
+	 * are executed in parallel (see {@link WorkerThreads#supplyAsync(java.util.function.Supplier) supplyAsync}) and 
+	 * their responses are sent back together in one {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageResponse
+	 * response}.
+	 * 
+	 * @param requestMessage A message that came from the network.
+	 * @return Response to be sent back.
+	 */
+	private NetworkMessageResponse respondToMultipleOperations(NetworkMessageRequest requestMessage) {
+		
+		List<NetworkMessageRequest> operations = requestMessage.getOperations();
+		
+		NetworkMessageResponse response = new NetworkMessageResponse(config, logger);
+		
+		// don't forget to set the correlation id so the other side can identify what 
+		// request does this response belong to
+		response.setRequestId(requestMessage.getRequestId());
+		
+		if (operations == null) {
+			
+			logger.warning(this.objectId + ": Invalid list of operations in request " + requestMessage.getRequestId() 
+					+ " from " + requestMessage.getSourceOid() + ".");
+			
+			response.setError(true);
+			response.setResponseCode(CodesAndReasons.CODE_400_BADREQUEST);
+			response.setResponseCodeReason(CodesAndReasons.REASON_400_BADREQUEST + "Invalid list of operations.");
+			response.setContentType("application/json");
+			
+			return response;
+		}
+		
+		WorkerThreads workerThreads = commManager.getWorkerThreads();
+		List<CompletableFuture<NetworkMessageResponse>> futures 
+				= new ArrayList<CompletableFuture<NetworkMessageResponse>>(operations.size());
+		
+		for (NetworkMessageRequest operation : operations) {
+			futures.add(workerThreads.supplyAsync(() -> respondToOperationOfMultiple(operation))
+					.exceptionally(throwable -> {
+						
+						logger.warning(this.objectId + ": Operation " + operation.getRequestOperation() 
+								+ " of request " + requestMessage.getRequestId() + " failed: " + throwable.getMessage());
+						
+						return new NetworkMessageResponse(config, logger, true, CodesAndReasons.CODE_503_SERVICEUNAVAILABLE, 
+								CodesAndReasons.REASON_503_SERVICENAVAILABLE + "Operation failed.", "application/json", 
+								null);
+					}));
+		}
+		
+		List<NetworkMessageResponse> responses = new ArrayList<NetworkMessageResponse>(operations.size());
+		
+		for (CompletableFuture<NetworkMessageResponse> future : futures) {
+			
+			NetworkMessageResponse operationResponse = future.join();
+			
+			operationResponse.setRequestId(requestMessage.getRequestId());
+			operationResponse.setSourceOid(objectId);
+			operationResponse.setDestinationOid(requestMessage.getSourceOid());
+			
+			responses.add(operationResponse);
+		}
+		
+		response.setResponses(responses);
+		response.setError(false);
+		response.setResponseCode(CodesAndReasons.CODE_200_OK);
+		response.setResponseCodeReason(CodesAndReasons.REASON_200_OK + operations.size() + " operations executed.");
+		
+		return response;
+	}
+	
+	
+	/**
+	 * Responds to one operation of a request with {@link NetworkMessageRequest#OPERATION_MULTIPLE multiple 
+	 * operations}. Only operations that don't change the subscriptions can be packed together. Operations that would
+	 * only start after the requester stopped waiting are not executed.
+	 * 
+	 * @param operation The operation, unpacked from the request.
+	 * @return Response to the operation.
+	 */
+	private NetworkMessageResponse respondToOperationOfMultiple(NetworkMessageRequest operation) {
+		
+		// the other operations may have taken all the time
+		if (operation.isExpired()) {
+			return new NetworkMessageResponse(config, logger, true, CodesAndReasons.CODE_408_REQUESTTIMEOUT, 
+					CodesAndReasons.REASON_408_REQUESTTIMEOUT + "The request expired before the operation could be "
+					+ "executed.", "application/json", null);
+		}
+		
+		switch (operation.getRequestOperation()) {
+		
+		case NetworkMessageRequest.OPERATION_GETPROPERTYVALUE:
+			return respondToGetObjectProperty(operation);
+			
+		case NetworkMessageRequest.OPERATION_SETPROPERTYVALUE:
+			// the worker thread can wait for the original request, the response is sent with the others anyway
+			return respondOnceAsync(operation, this::respondToSetObjectProperty).join();
+			
+		case NetworkMessageRequest.OPERATION_GETLISTOFPROPERTIES:
+			return respondToGetObjectProperties(operation);
+			
+		case NetworkMessageRequest.OPERATION_GETLISTOFACTIONS:
+			return respondToGetObjectActions(operation);
+			
+		case NetworkMessageRequest.OPERATION_GETLISTOFEVENTS:
+			return respondToGetObjectEvents(operation);
+			
+		case NetworkMessageRequest.OPERATION_GETTHINGDESCRIPTION:
+			return respondToGetObjectThingDescription(operation);
+			
+		case NetworkMessageRequest.OPERATION_STARTACTION:
+			return respondOnceAsync(operation, this::respondToStartActionRequest).join();
+			
+		case NetworkMessageRequest.OPERATION_GETTASKSTATUS:
+			return respondToGetTaskStatus(operation);
+			
+		case NetworkMessageRequest.OPERATION_CANCELTASK:
+			return respondToCancelRunningTask(operation);
+			
+		case NetworkMessageRequest.OPERATION_GETEVENTCHANNELSTATUS:
+			return respondToEventChannelStatusQuery(operation);
+			
+		default:
+			return new NetworkMessageResponse(config, logger, true, CodesAndReasons.CODE_400_BADREQUEST, 
+					CodesAndReasons.REASON_400_BADREQUEST + "Operation " + operation.getRequestOperation() 
+					+ " can't be requested together with other operations.", "application/json", null);
+		}
+	}
+	
+	
 	/**
 	 * Responds to a request for getting the object events. It creates a {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageResponse
 	 * response} that is then sent back to the requesting object.
@@ -1584,7 +2448,18 @@ public class ConnectionDescriptor {
 			response.setContentType("application/json");
 			response.setResponseCode(CodesAndReasons.CODE_200_OK);
 			response.setResponseCodeReason(CodesAndReasons.REASON_200_OK + "Event channel status retrieved.");
-			response.setResponseBody(createSimpleJsonString(EventChannel.ATTR_ACTIVE, eventChannel.isActive()));
+			
+			// the history is served from the channel, the agent is not asked
+			if (Boolean.parseBoolean(requestMessage.getParameters().get(EventChannel.ATTR_HISTORY))) {
+				
+				JsonObjectBuilder jsonBuilder = jsonBuilderFactory.createObjectBuilder();
+				jsonBuilder.add(EventChannel.ATTR_ACTIVE, eventChannel.isActive());
+				jsonBuilder.add(EventChannel.ATTR_HISTORY, createEventHistoryJson(eventChannel));
+				
+				response.setResponseBody(jsonBuilder.build().toString());
+			} else {
+				response.setResponseBody(createSimpleJsonString(EventChannel.ATTR_ACTIVE, eventChannel.isActive()));
+			}
 			
 		}
 
@@ -1636,6 +2511,15 @@ public class ConnectionDescriptor {
 			
 			eventChannel.addToSubscribers(requestMessage.getSourceOid());
 			
+			// a durable channel keeps the events for the new subscriber from now on
+			if (eventChannel.getQoS() == EventChannel.QOS_DURABLE) {
+				EventSpool eventSpool = getEventSpool(eventChannel);
+				
+				if (eventSpool != null) {
+					eventSpool.addSubscriber(requestMessage.getSourceOid());
+				}
+			}
+			
 			// manually save data to file because eventChannel was changed
 			data.saveData();
 			
@@ -1644,6 +2528,13 @@ public class ConnectionDescriptor {
 			response.setResponseCode(CodesAndReasons.CODE_200_OK);
 			response.setResponseCodeReason(CodesAndReasons.REASON_200_OK + "Subscribed. QoS = " + eventChannel.getQoS());
 			
+			// the new subscriber gets the retained events right away, it does not have to wait for the next one
+			if (eventChannel.getRetain() > 0) {
+				response.setResponseBody(jsonBuilderFactory.createObjectBuilder()
+						.add(EventChannel.ATTR_HISTORY, createEventHistoryJson(eventChannel))
+						.build().toString());
+			}
+			
 		}
 		
 		// set the correlation id so the other side can identify what request does this response belong to
@@ -1692,6 +2583,14 @@ public class ConnectionDescriptor {
 			
 			eventChannel.removeFromSubscribers(requestMessage.getSourceOid());
 			
+			if (eventChannel.getQoS() == EventChannel.QOS_DURABLE) {
+				EventSpool eventSpool = getEventSpool(eventChannel);
+				
+				if (eventSpool != null) {
+					eventSpool.removeSubscriber(requestMessage.getSourceOid());
+				}
+			}
+			
 			// manually save data (persistence) (htofix/VIC-749)
 			data.saveData();
 			
@@ -1945,36 +2844,222 @@ public class ConnectionDescriptor {
 	
 	
 	/**
-	 * Searches for {@link eu.bavenir.ogwapi.commons.EventChannel EventChannel} with provided eventID. 
+	 * Sets the number of events the channel retains from the {@link EventChannel#PARAM_RETAIN PARAM_RETAIN} 
+	 * parameter, if it is present. It can't be higher than {@link #CONFIG_PARAM_MAXRETAINEDEVENTS 
+	 * CONFIG_PARAM_MAXRETAINEDEVENTS}.
 	 * 
-	 * @param eventId ID of the event.
-	 * @return {@link eu.bavenir.ogwapi.commons.EventChannel EventChannel} with the ID, or null if no such channel exists. 
+	 * @param eventChannel The event channel.
+	 * @param parameters Parameters of the request that activates the channel.
 	 */
-	private EventChannel searchForEventChannel(String eventId) {
-		// search for given event channel
+	private void setRetainedEvents(EventChannel eventChannel, Map<String, String> parameters) {
 		
-		if (eventId == null) {
-			
-			logger.warning(this.objectId + ": Null event ID provided for search.");
-			
-			return null;
+		if (parameters == null || !parameters.containsKey(EventChannel.PARAM_RETAIN)) {
+			return;
 		}
 		
-		logger.finer(this.objectId + ": Searching for event channel " + eventId);
+		int retain;
 		
-		for (EventChannel eventChannel : data.getProvidedEventChannels()) {
-			if (eventChannel.getEventId().equals(eventId)) {
-				// found it
-				logger.finer(this.objectId + ": Event channel found.");
-				return eventChannel;
-			}
+		try {
+			retain = Integer.parseInt(parameters.get(EventChannel.PARAM_RETAIN));
+		} catch (NumberFormatException e) {
+			logger.warning(this.objectId + ": Wrong number of retained events for " + eventChannel.getEventId() 
+					+ ": " + parameters.get(EventChannel.PARAM_RETAIN) + ". Keeping " + eventChannel.getRetain() + ".");
+			return;
 		}
-
-		logger.finer(this.objectId + ": Event channel not found.");
-		return null;
-	}
-	
-	
+		
+		int maxRetainedEvents = config.getInt(CONFIG_PARAM_MAXRETAINEDEVENTS, CONFIG_DEF_MAXRETAINEDEVENTS);
+		
+		if (retain > maxRetainedEvents) {
+			logger.warning(this.objectId + ": Event channel " + eventChannel.getEventId() + " can't retain " + retain 
+					+ " events, retaining " + maxRetainedEvents + ".");
+			
+			retain = maxRetainedEvents;
+		}
+		
+		eventChannel.setRetain(retain);
+	}
+	
+	
+	/**
+	 * Creates a JSON array of the events retained by the channel, the oldest first. Bodies that are valid JSON are 
+	 * added as JSON, the rest as strings.
+	 * 
+	 * @param eventChannel The event channel.
+	 * @return JSON array builder.
+	 */
+	private JsonArrayBuilder createEventHistoryJson(EventChannel eventChannel) {
+		
+		JsonArrayBuilder arrayBuilder = jsonBuilderFactory.createArrayBuilder();
+		
+		for (EventChannel.RetainedEvent event : eventChannel.getRetainedEvents()) {
+			
+			JsonObjectBuilder eventBuilder = jsonBuilderFactory.createObjectBuilder();
+			eventBuilder.add(ATTR_TIMESTAMP, event.getTimeStamp());
+			
+			String body = event.getBody();
+			
+			if (body == null) {
+				eventBuilder.addNull(ATTR_EVENT);
+			} else {
+				try (JsonReader jsonReader = Json.createReader(new StringReader(body))) {
+					eventBuilder.add(ATTR_EVENT, jsonReader.read());
+				} catch (JsonException e) {
+					eventBuilder.add(ATTR_EVENT, body);
+				}
+			}
+			
+			if (!event.getParameters().isEmpty()) {
+				JsonObjectBuilder parametersBuilder = jsonBuilderFactory.createObjectBuilder();
+				
+				for (Map.Entry<String, String> parameter : event.getParameters().entrySet()) {
+					if (parameter.getValue() == null) {
+						parametersBuilder.addNull(parameter.getKey());
+					} else {
+						parametersBuilder.add(parameter.getKey(), parameter.getValue());
+					}
+				}
+				
+				eventBuilder.add(ATTR_PARAMETERS, parametersBuilder);
+			}
+			
+			arrayBuilder.add(eventBuilder);
+		}
+		
+		return arrayBuilder;
+	}
+	
+	
+	/**
+	 * Returns the {@link EventSpool EventSpool} of a durable event channel, opening it if it is not open yet.
+	 * 
+	 * @param eventChannel The event channel.
+	 * @return The spool, or null if it can't be opened.
+	 */
+	private EventSpool getEventSpool(EventChannel eventChannel) {
+		
+		synchronized (eventSpools) {
+			
+			EventSpool eventSpool = eventSpools.get(eventChannel.getEventId());
+			
+			if (eventSpool == null) {
+				try {
+					eventSpool = new EventSpool(objectId, eventChannel.getEventId(), config, logger);
+				} catch (IOException e) {
+					logger.warning(this.objectId + ": Event spool of " + eventChannel.getEventId() 
+							+ " can't be opened, events will not be kept for the subscribers that can't be reached. "
+							+ "Exception: " + e.getMessage());
+					
+					return null;
+				}
+				
+				eventSpools.put(eventChannel.getEventId(), eventSpool);
+			}
+			
+			return eventSpool;
+		}
+	}
+	
+	
+	/**
+	 * Appends an event into the spool of a durable event channel. The subscribers without a cursor in the spool (it 
+	 * was just created, or they subscribed before the channel was durable) get this event as the first one. 
+	 * 
+	 * @param eventSpool The spool of the channel, can be null.
+	 * @param eventChannel The event channel.
+	 * @param message The event message string.
+	 * @return Position of the event in the spool, or -1 if the event could not be appended. 
+	 */
+	private long spoolEvent(EventSpool eventSpool, EventChannel eventChannel, String message) {
+		
+		if (eventSpool == null) {
+			return -1;
+		}
+		
+		for (String subscriberOid : eventChannel.getSubscribersArray()) {
+			eventSpool.addSubscriber(subscriberOid);
+		}
+		
+		try {
+			return eventSpool.append(message);
+		} catch (IOException e) {
+			logger.warning(this.objectId + ": Event could not be appended to the spool of " 
+					+ eventChannel.getEventId() + ", sending it directly. Exception: " + e.getMessage());
+			
+			return -1;
+		}
+	}
+	
+	
+	/**
+	 * Delivers the events waiting in a spool for a subscriber on a worker thread, so the caller does not wait for 
+	 * a long backlog. 
+	 * 
+	 * @param eventSpool The spool.
+	 * @param subscriberOid Object ID of the subscriber.
+	 */
+	private void deliverSpooledEventsInBackground(EventSpool eventSpool, String subscriberOid) {
+		
+		commManager.getWorkerThreads().supplyAsync(
+				() -> eventSpool.deliver(subscriberOid, spooled -> sendSpooledEvent(subscriberOid, spooled)));
+	}
+	
+	
+	/**
+	 * Sends an event from a spool. Unlike {@link #sendMessage(String, String, String) sendMessage}, it fails when the 
+	 * subscriber is offline - the network would accept the message, but the subscriber would never get it, while its
+	 * cursor in the spool would move on.
+	 * 
+	 * @param subscriberOid Object ID of the subscriber.
+	 * @param message The event message string.
+	 * @return True if the event was sent to the subscriber.
+	 */
+	private boolean sendSpooledEvent(String subscriberOid, String message) {
+		
+		// a local object gets it right away
+		if (commManager.tryToSendLocalMessage(this.objectId, subscriberOid, message)) {
+			return true;
+		}
+		
+		if (!commEngine.isOnline(subscriberOid)) {
+			logger.fine(this.objectId + ": " + subscriberOid + " is offline, the event stays in the spool.");
+			return false;
+		}
+		
+		return sendMessage(this.objectId, subscriberOid, message);
+	}
+	
+	
+	/**
+	 * Searches for {@link eu.bavenir.ogwapi.commons.EventChannel EventChannel} with provided eventID. 
+	 * 
+	 * @param eventId ID of the event.
+	 * @return {@link eu.bavenir.ogwapi.commons.EventChannel EventChannel} with the ID, or null if no such channel exists. 
+	 */
+	private EventChannel searchForEventChannel(String eventId) {
+		// search for given event channel
+		
+		if (eventId == null) {
+			
+			logger.warning(this.objectId + ": Null event ID provided for search.");
+			
+			return null;
+		}
+		
+		logger.finer(this.objectId + ": Searching for event channel " + eventId);
+		
+		for (EventChannel eventChannel : data.getProvidedEventChannels()) {
+			if (eventChannel.getEventId().equals(eventId)) {
+				// found it
+				logger.finer(this.objectId + ": Event channel found.");
+				return eventChannel;
+			}
+		}
+
+		logger.finer(this.objectId + ": Event channel not found.");
+		return null;
+	}
+	
+	
 	/**
 	 * Searches for {@link eu.bavenir.ogwapi.commons.Action Action} with provided action ID.
 	 * 
@@ -2057,6 +3142,7 @@ public class ConnectionDescriptor {
 		
 		// retrieve the timeout from configuration
 		long startTime = System.currentTimeMillis();
+		long timeoutMillis = NetworkMessage.getRequestMessageTimeoutMillis(config) - 5000;
 		boolean timeoutReached = false;
 		
 		do {
@@ -2072,8 +3158,10 @@ public class ConnectionDescriptor {
 			if (helperMessage != null){
 				// we have a message now
 				if (helperMessage.getRequestId() != requestId){
-					// ... but is not our message. return it to queue
-					messageQueue.offer(helperMessage);
+					// ... but is not our message. return it to queue, unless nobody is going to take it
+					if (helperMessage.isValid() && expectedACKs.contains(helperMessage.getRequestId())) {
+						messageQueue.offer(helperMessage);
+					}
 					
 					// in order not to iterate thousand times a second over one single message, that don't belong
 					// to us (or anybody), let's sleep a little to optimise performance
@@ -2102,9 +3190,7 @@ public class ConnectionDescriptor {
 				}
 			}
 			
-			timeoutReached = ((System.currentTimeMillis() - startTime) 
-							> ((config.getInt(NetworkMessage.CONFIG_PARAM_REQUESTMESSAGETIMEOUT, 
-									NetworkMessage.CONFIG_DEF_REQUESTMESSAGETIMEOUT)-5)*1000));
+			timeoutReached = ((System.currentTimeMillis() - startTime) > timeoutMillis);
 			
 		// until we get all ACKs or the timeout expires
 		} while (arrivedACKs < countOfSentMessages && !timeoutReached);
@@ -2112,75 +3198,12 @@ public class ConnectionDescriptor {
 		return validACKs;	
 	}
 	
-	/**
-	 * Retrieves a {@link eu.bavenir.ogwapi.commons.messages.NetworkMessage NetworkMessage} from the queue of incoming 
-	 * messages based on the correlation request ID. It blocks the invoking thread if there is no message in the queue 
-	 * until it arrives or until timeout is reached. The check for timeout is scheduled every 
-	 * {@link #POLL_INTERRUPT_INTERVAL_MILLIS POLL_INTERRUPT_INTERVAL_MILLIS}.
-	 * 
-	 * @param requestId Correlation request ID. 
-	 * @return {@link NetworkMessage NetworkMessage} from the queue.
-	 */
-	private NetworkMessage retrieveMessage(int requestId){
-		
-		NetworkMessage message = null;
-		
-		// retrieve the timeout from configuration
-		long startTime = System.currentTimeMillis();
-		boolean timeoutReached = false;
-		
-		do {
-			NetworkMessage helperMessage = null;
-			try {
-				// take the first element or wait for one
-				helperMessage = messageQueue.poll(POLL_INTERRUPT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
-			} catch (InterruptedException e) {
-				// bail out
-				return null;
-			}
-			
-			if (helperMessage != null){
-				// we have a message now
-				if (helperMessage.getRequestId() != requestId){
-					// ... but is not our message. let's see whether it is still valid and if it is, return it to queue
-					if (helperMessage.isValid()) {
-						messageQueue.offer(helperMessage);
-					} else {
-						logger.fine("Discarding stale message: ID = " + helperMessage.getRequestId() 
-							+ "; Timestamp = " + helperMessage.getTimeStamp());
-					}
-					
-					// in order not to iterate thousand times a second over one single message, that don't belong
-					// to us (or anybody), let's sleep a little to optimise performance
-					if (messageQueue.size() == 1){
-						try {
-							Thread.sleep(THREAD_SLEEP_MILLIS);
-						} catch (InterruptedException e) {
-							return null;
-						}
-					}
-				} else {
-					// it is our message :-3
-					message = helperMessage;
-				}
-			}
-			
-			timeoutReached = ((System.currentTimeMillis() - startTime) 
-							> (config.getInt(NetworkMessage.CONFIG_PARAM_REQUESTMESSAGETIMEOUT, 
-									NetworkMessage.CONFIG_DEF_REQUESTMESSAGETIMEOUT)*1000));
-			
-		// until we get our message or the timeout expires
-		} while (message == null && !timeoutReached);
-	
-		return message;	
-	}
-	
-	
 	/**
 	 * This is common method for sending all request messages to remote objects. Respective methods, like 
 	 * {@link #getPropertyOfRemoteObject(String, String, Map, String) getPropertyOfRemoteObject} will 
 	 * just fill the appropriate operation ID. The operation ID is chosen from 
-	 * {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest NetworkMessageRequest} constants. 
+	 * {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest NetworkMessageRequest} constants. It blocks the 
+	 * invoking thread until the response arrives or until timeout is reached.
 	 * 
 	 * @param operationId The ID of the operation, chosen from constants in {eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest NetworkMessageRequest}.
 	 * @param destinationOid Object ID of the destination.
@@ -2195,14 +3218,146 @@ public class ConnectionDescriptor {
 	private StatusMessage sendRequestForRemoteOperation(byte operationId, String destinationOid, 
 			Map<String, String> attributes, Map<String, String> parameters, String body, String typeOfMessage) {
 		
+		return sendRequestForRemoteOperationAsync(operationId, destinationOid, attributes, parameters, body, 
+				typeOfMessage).join();
+	}
+	
+	
+	/**
+	 * Asynchronous version of {@link #sendRequestForRemoteOperation(byte, String, Map, Map, String, String) 
+	 * sendRequestForRemoteOperation}. The request is sent right away, but no thread waits for the response. 
+	 * Instead, the request is registered among pending responses and the returned future is completed either by 
+	 * {@link #processMessageResponse(NetworkMessage) processMessageResponse} when the response arrives, or by 
+	 * the timeout scheduler of the {@link CommunicationManager CommunicationManager} (with 408 status code). The future
+	 * never completes exceptionally. When the caller cancels it, the request stops waiting for the admission or for 
+	 * its response.
+	 * 
+	 * The request is only sent if this object and the destination don't have too many requests in progress, see 
+	 * {@link RequestAdmission RequestAdmission}. Otherwise it either waits (at most for its timeout, then it fails with 
+	 * 408 status code) or is refused with 429 status code.
+	 * 
+	 * @param operationId The ID of the operation, chosen from constants in {eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest NetworkMessageRequest}.
+	 * @param destinationOid Object ID of the destination.
+	 * @param attributes Attributes that are specific to given operation.
+	 * @param parameters Any parameters to be sent with the request. 
+	 * @param body Any body to be sent with the request. 
+	 * @return Future status message.
+	 */
+	private CompletableFuture<StatusMessage> sendRequestForRemoteOperationAsync(byte operationId, String destinationOid, 
+			Map<String, String> attributes, Map<String, String> parameters, String body, String typeOfMessage) {
+		
 		if (destinationOid == null) {
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
-
+		
+		// the timeout can be requested by the caller, which is not for the remote object to see
+		Map<String, String> forwardedParameters = parameters == null 
+				? new HashMap<String, String>() : new HashMap<String, String>(parameters);
+		long timeoutMillis = commManager.getRequestTimeouts().takeTimeout(destinationOid, operationId, forwardedParameters);
+		
+		RequestAdmission requestAdmission = commManager.getRequestAdmission();
+		CompletableFuture<Boolean> admission = requestAdmission.admit(this.objectId, destinationOid);
+		long admissionRequestedAt = System.currentTimeMillis();
+		
+		// a request refused right away is refused by the policy, a request that waited gave up on its timeout
+		boolean waitsForAdmission = !admission.isDone();
+		
+		if (waitsForAdmission) {
+			
+			logger.fine(this.objectId + ": Too many requests in progress, the request to " + destinationOid 
+					+ " has to wait.");
+			
+			ScheduledFuture<?> admissionTimeoutTask 
+					= commManager.scheduleTimeout(() -> requestAdmission.giveUp(admission), timeoutMillis);
+			admission.thenRun(() -> admissionTimeoutTask.cancel(false));
+		}
+		
+		AtomicReference<CompletableFuture<StatusMessage>> admittedRequest 
+				= new AtomicReference<CompletableFuture<StatusMessage>>();
+		
+		CompletableFuture<StatusMessage> request = admission.thenCompose(admitted -> {
+			
+			if (!admitted && waitsForAdmission) {
+				
+				String statusCodeReason = "The request to " + destinationOid + " waited " + timeoutMillis 
+						+ " ms for other requests of " + this.objectId + " or to " + destinationOid + " to finish.";
+				
+				logger.warning(this.objectId + ": " + statusCodeReason);
+				
+				return CompletableFuture.completedFuture(new StatusMessage(
+						true, 
+						CodesAndReasons.CODE_408_REQUESTTIMEOUT, 
+						CodesAndReasons.REASON_408_REQUESTTIMEOUT + statusCodeReason,
+						StatusMessage.CONTENTTYPE_APPLICATIONJSON));
+			}
+			
+			if (!admitted) {
+				
+				String statusCodeReason = "Too many requests of " + this.objectId + " or to " + destinationOid 
+						+ " in progress.";
+				
+				logger.warning(this.objectId + ": " + statusCodeReason);
+				
+				return CompletableFuture.completedFuture(new StatusMessage(
+						true, 
+						CodesAndReasons.CODE_429_TOOMANYREQUESTS, 
+						CodesAndReasons.REASON_429_TOOMANYREQUESTS + statusCodeReason,
+						StatusMessage.CONTENTTYPE_APPLICATIONJSON));
+			}
+			
+			// the time spent waiting for the admission is taken from the timeout
+			long remainingMillis = Math.max(1, timeoutMillis - (System.currentTimeMillis() - admissionRequestedAt));
+			
+			CompletableFuture<StatusMessage> sentRequest = sendAdmittedRequestAsync(operationId, destinationOid, 
+					attributes, forwardedParameters, body, typeOfMessage, remainingMillis);
+			admittedRequest.set(sentRequest);
+			
+			return sentRequest
+					.whenComplete((statusMessage, throwable) -> requestAdmission.release(this.objectId, destinationOid));
+		});
+		
+		request.whenComplete((statusMessage, throwable) -> {
+			
+			if (!request.isCancelled()) {
+				return;
+			}
+			
+			CompletableFuture<StatusMessage> sentRequest = admittedRequest.get();
+			
+			if (sentRequest != null) {
+				sentRequest.cancel(false);
+			} else {
+				requestAdmission.giveUp(admission);
+			}
+		});
+		
+		return request;
+	}
+	
+	
+	/**
+	 * Sends the request once it was admitted by {@link #sendRequestForRemoteOperationAsync(byte, String, Map, Map, 
+	 * String, String) sendRequestForRemoteOperationAsync}.
+	 * 
+	 * @param operationId The ID of the operation.
+	 * @param destinationOid Object ID of the destination.
+	 * @param attributes Attributes that are specific to given operation.
+	 * @param parameters Parameters to be sent with the request.
+	 * @param body Any body to be sent with the request.
+	 * @param typeOfMessage Name of the operation for monitoring.
+	 * @param timeoutMillis How long to wait for the response (ms).
+	 * @return Future status message.
+	 */
+	private CompletableFuture<StatusMessage> sendAdmittedRequestAsync(byte operationId, String destinationOid, 
+			Map<String, String> attributes, Map<String, String> parameters, String body, String typeOfMessage, 
+			long timeoutMillis) {
+		
 		// message to be returned
 		String statusCodeReason;
 		StatusMessage statusMessage;
 		
+		RequestTimeouts requestTimeouts = commManager.getRequestTimeouts();
+		
 		NetworkMessageRequest request = new NetworkMessageRequest(config, logger);
 		
 		// we will need this newly generated ID, so we keep it
@@ -2220,11 +3375,22 @@ public class ConnectionDescriptor {
 		
 		request.setRequestBody(body);
 		
+		// let the remote side know when we stop waiting
+		request.setTimeBudget(timeoutMillis);
+		
+		String requestString = request.buildMessageString();
+		
 		// Calculate message size
-		byte[] byteArray = request.buildMessageString().getBytes();
+		byte[] byteArray = requestString.getBytes();
 		int sizeInBytes = byteArray.length;
 		
-		if (!sendMessage(this.objectId, destinationOid, request.buildMessageString())){
+		// register the request before sending it - a locally routed message can be answered before sendMessage returns
+		CompletableFuture<NetworkMessageResponse> pendingResponse = new CompletableFuture<NetworkMessageResponse>();
+		pendingResponses.put(requestId, pendingResponse);
+		
+		if (!sendMessage(this.objectId, destinationOid, requestString)){
+			
+			pendingResponses.remove(requestId, pendingResponse);
 			
 			// monitoring 
 			messageCounter.addMessage(requestId, MessageCounter.RECORDTYPE_INT_NOT_POSSIBLE_TO_SEND, this.objectId, destinationOid, true, typeOfMessage, sizeInBytes);
@@ -2240,12 +3406,94 @@ public class ConnectionDescriptor {
 					CodesAndReasons.REASON_404_NOTFOUND + statusCodeReason,
 					StatusMessage.CONTENTTYPE_APPLICATIONJSON);
 			
-			return statusMessage;
+			return CompletableFuture.completedFuture(statusMessage);
 		}
 		
+		long sentAt = System.currentTimeMillis();
+		
+		// when the response does not arrive in time, complete the future with null
+		ScheduledFuture<?> timeoutTask = commManager.scheduleTimeout(() -> {
+			if (pendingResponses.remove(requestId, pendingResponse)) {
+				pendingResponse.complete(null);
+			}
+		}, timeoutMillis);
+		
+		// a request that can be executed twice is sent again with the same ID when its response is late, in case it 
+		// got lost - the remote side drops the copy if the original arrived
+		ScheduledFuture<?> hedgeTask = null;
+		long hedgeDelay = NetworkMessageRequest.isIdempotent(operationId) 
+				? requestTimeouts.getHedgeDelay(destinationOid, operationId) : -1;
+		
+		if (hedgeDelay > 0 && hedgeDelay < timeoutMillis) {
+			hedgeTask = commManager.scheduleTimeout(() -> {
+				
+				if (pendingResponse.isDone()) {
+					return;
+				}
+				
+				logger.info(this.objectId + ": No response to request " + requestId + " from " + destinationOid 
+						+ " after " + hedgeDelay + " ms. Sending it again.");
+				
+				// not on the scheduler thread, sending can block
+				commManager.getWorkerThreads().supplyAsync(
+						() -> sendMessage(this.objectId, destinationOid, requestString));
+			}, hedgeDelay);
+		}
+		
+		ScheduledFuture<?> hedgeTaskToCancel = hedgeTask;
+		
+		CompletableFuture<StatusMessage> futureStatusMessage = pendingResponse.thenApply(response -> {
+			
+			timeoutTask.cancel(false);
+			
+			if (hedgeTaskToCancel != null) {
+				hedgeTaskToCancel.cancel(false);
+			}
+			
+			if (response != null) {
+				requestTimeouts.recordLatency(destinationOid, operationId, System.currentTimeMillis() - sentAt);
+			} else {
+				requestTimeouts.recordTimeout(destinationOid, operationId, timeoutMillis);
+			}
+			
+			return createStatusMessageFromResponse(response, requestId, destinationOid, typeOfMessage, sizeInBytes);
+		});
+		
+		// the caller does not wait anymore, a response arriving later is discarded
+		futureStatusMessage.whenComplete((result, throwable) -> {
+			
+			if (futureStatusMessage.isCancelled() && pendingResponses.remove(requestId, pendingResponse)) {
+				
+				timeoutTask.cancel(false);
+				
+				if (hedgeTaskToCancel != null) {
+					hedgeTaskToCancel.cancel(false);
+				}
+				
+				pendingResponse.cancel(false);
+			}
+		});
 		
-		// this will wait for response
-		NetworkMessageResponse response = (NetworkMessageResponse) retrieveMessage(requestId);
+		return futureStatusMessage;
+	}
+	
+	
+	/**
+	 * Turns the response to a request sent by {@link #sendRequestForRemoteOperationAsync(byte, String, Map, Map, String, String) 
+	 * sendRequestForRemoteOperationAsync} into a status message and records it in the message counter.
+	 * 
+	 * @param response The response, or null if it did not arrive in time.
+	 * @param requestId Correlation request ID.
+	 * @param destinationOid Object ID of the destination.
+	 * @param typeOfMessage Type of the message for monitoring.
+	 * @param sizeInBytes Size of the request message for monitoring.
+	 * @return Status message.
+	 */
+	private StatusMessage createStatusMessageFromResponse(NetworkMessageResponse response, int requestId, 
+			String destinationOid, String typeOfMessage, int sizeInBytes) {
+		
+		String statusCodeReason;
+		StatusMessage statusMessage;
 		
 		// nothing came through
 		if (response == null){
@@ -2271,7 +3519,19 @@ public class ConnectionDescriptor {
 		messageCounter.addMessage(requestId, MessageCounter.RECORDTYPE_INT_OK, this.objectId, destinationOid, true, typeOfMessage, sizeInBytes);
 		
 		// response arrived
-		statusMessage = new StatusMessage(
+		return createStatusMessageFromResponse(response);
+	}
+	
+	
+	/**
+	 * Turns a response that arrived into a status message.
+	 * 
+	 * @param response The response.
+	 * @return Status message.
+	 */
+	private StatusMessage createStatusMessageFromResponse(NetworkMessageResponse response) {
+		
+		StatusMessage statusMessage = new StatusMessage(
 				response.isError(),
 				response.getResponseCode(),
 				response.getResponseCodeReason(),
@@ -2287,7 +3547,112 @@ public class ConnectionDescriptor {
 		}
 		
 		return statusMessage;
+	}
+	
+	
+	/**
+	 * Sends several operations to the same remote object in requests with {@link 
+	 * NetworkMessageRequest#OPERATION_MULTIPLE multiple operations} and waits for them without blocking the calling 
+	 * thread. The receiving side does not accept more than {@link NetworkMessageRequest#MAX_OPERATIONS MAX_OPERATIONS}
+	 * operations in one request, so a longer list is sent in several of them.
+	 * 
+	 * @param destinationOid Object ID of the destination.
+	 * @param operations Requests with the operations, their object IDs are filled in here.
+	 * @param parameters Parameters of the request itself (not of the operations).
+	 * @return Future list of status messages, one for each operation, in the same order.
+	 */
+	private CompletableFuture<List<StatusMessage>> sendMultipleOperationsAsync(String destinationOid, 
+			List<NetworkMessageRequest> operations, Map<String, String> parameters) {
+		
+		for (NetworkMessageRequest operation : operations) {
+			operation.setSourceOid(this.objectId);
+			operation.setDestinationOid(destinationOid);
+		}
+		
+		List<CompletableFuture<List<StatusMessage>>> futureChunks = new ArrayList<CompletableFuture<List<StatusMessage>>>();
+		
+		for (int from = 0; from < operations.size(); from += NetworkMessageRequest.MAX_OPERATIONS) {
+			
+			List<NetworkMessageRequest> chunk = 
+					operations.subList(from, Math.min(from + NetworkMessageRequest.MAX_OPERATIONS, operations.size()));
+			
+			logger.info(this.objectId + ": Sending request with " + chunk.size() + " operations to remote object " 
+					+ destinationOid);
+			
+			futureChunks.add(sendRequestForRemoteOperationAsync(
+					NetworkMessageRequest.OPERATION_MULTIPLE, 
+					destinationOid, 
+					new HashMap<String, String>(), 
+					parameters, 
+					NetworkMessageRequest.buildOperations(chunk), 
+					"MULTIPLE")
+					.thenApply(statusMessage -> splitMultipleResponse(statusMessage, chunk.size(), destinationOid)));
+		}
+		
+		return CompletableFuture.allOf(futureChunks.toArray(new CompletableFuture<?>[futureChunks.size()]))
+				.thenApply(nothing -> {
+					
+					List<StatusMessage> statusMessages = new ArrayList<StatusMessage>(operations.size());
+					
+					for (CompletableFuture<List<StatusMessage>> futureChunk : futureChunks) {
+						statusMessages.addAll(futureChunk.join());
+					}
+					
+					return statusMessages;
+				});
+	}
+	
+	
+	/**
+	 * Splits the status message with the response to a request with multiple operations into status messages of the 
+	 * single operations. If the whole request failed, each of them gets a copy of the error.
+	 * 
+	 * @param statusMessage Status message with the response.
+	 * @param count Number of operations in the request.
+	 * @param destinationOid Object ID of the destination.
+	 * @return List of status messages, one for each operation.
+	 */
+	private List<StatusMessage> splitMultipleResponse(StatusMessage statusMessage, int count, String destinationOid) {
+		
+		List<StatusMessage> statusMessages = new ArrayList<StatusMessage>(count);
+		List<NetworkMessageResponse> responses = null;
+		CachedStatusMessage failure = null;
+		
+		if (statusMessage != null && statusMessage.isError()) {
+			failure = new CachedStatusMessage(statusMessage);
+		} else if (statusMessage != null) {
+			
+			JsonArray messages = statusMessage.getCurrentMessageArray();
+			
+			if (!messages.isEmpty() && messages.get(0) instanceof JsonObject) {
+				responses = NetworkMessageResponse.readResponses(messages.getJsonObject(0), config, logger);
+			}
+		}
+		
+		for (int i = 0; i < count; i++) {
+			
+			if (failure != null) {
+				statusMessages.add(failure.toStatusMessage());
+				
+			} else if (responses == null || i >= responses.size() || !responses.get(i).isValid()) {
+				
+				String statusCodeReason = new String("Invalid response to operation " + i + " received from " 
+						+ destinationOid + ".");
+				
+				logger.warning(this.objectId + ": " + statusCodeReason);
+				
+				statusMessages.add(new StatusMessage(
+						true, 
+						CodesAndReasons.CODE_503_SERVICEUNAVAILABLE, 
+						CodesAndReasons.REASON_503_SERVICENAVAILABLE + statusCodeReason,
+						StatusMessage.CONTENTTYPE_APPLICATIONJSON));
+				
+			} else {
+				statusMessages.add(createStatusMessageFromResponse(responses.get(i)));
+			}
+		}
 		
+		return statusMessages;
 	}
 	
 	
@@ -1,8 +1,13 @@
 package eu.bavenir.ogwapi.commons;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -65,6 +70,22 @@ public class EventChannel implements Serializable {
 	 */
 	public transient static final String ATTR_SUBSCRIBED = "subscribed";
 	
+	/**
+	 * Quality of service, where the events are kept in an {@link EventSpool EventSpool} for the subscribers that 
+	 * can't be reached, and sent again when they are back. 
+	 */
+	public transient static final int QOS_DURABLE = 3;
+	
+	/**
+	 * Attribute and parameter for the history of the channel, see {@link #getRetainedEvents() getRetainedEvents}.
+	 */
+	public transient static final String ATTR_HISTORY = "history";
+	
+	/**
+	 * Parameter for the number of events the channel retains.
+	 */
+	public transient static final String PARAM_RETAIN = "retain";
+	
 	
 	/* === FIELDS === */
 	
@@ -104,11 +125,34 @@ public class EventChannel implements Serializable {
 	 * 
 	 * 1 => don't send ACK
 	 * 2 => send ACK
+	 * 3 => keep the events for subscribers that can't be reached, see {@link #QOS_DURABLE QOS_DURABLE}
 	 * 
 	 * @Serialize
 	 */
 	private int QoS;
 	
+	/**
+	 * Number of the last events retained for new subscribers and history queries. 0 means none.
+	 * 
+	 * @Serialize
+	 */
+	private int retain;
+	
+	/**
+	 * Ring buffer of the retained events, created with the first one. The events are not persisted.
+	 */
+	private transient RetainedEvent[] retainedEvents;
+	
+	/**
+	 * Number of events in the ring buffer.
+	 */
+	private transient int retainedCount;
+	
+	/**
+	 * Index in the ring buffer where the next event goes.
+	 */
+	private transient int retainedNext;
+	
 	
 	/* === PUBLIC METHODS === */
 	
@@ -261,6 +305,135 @@ public class EventChannel implements Serializable {
 		return QoS;
 	}
 	
+	
+	/**
+	 * Returns the number of the last events retained.
+	 * 
+	 * @return Number of events, 0 if the channel does not retain them.
+	 */
+	public synchronized int getRetain() {
+		return retain;
+	}
+	
+	
+	/**
+	 * Sets the number of the last events retained. If it is lower than before, the oldest events are dropped.
+	 * 
+	 * @param retain Number of events, 0 to not retain them.
+	 */
+	public synchronized void setRetain(int retain) {
+		
+		List<RetainedEvent> events = getRetainedEvents();
+		
+		this.retain = Math.max(0, retain);
+		
+		retainedEvents = null;
+		retainedCount = 0;
+		retainedNext = 0;
+		
+		for (RetainedEvent event : events.subList(Math.max(0, events.size() - this.retain), events.size())) {
+			addRetainedEvent(event);
+		}
+	}
+	
+	
+	/**
+	 * Retains an event sent through the channel, dropping the oldest one if there are already {@link #getRetain() 
+	 * retain} events. Nothing happens if the channel does not retain events.
+	 * 
+	 * @param body Body of the event.
+	 * @param parameters Parameters sent with the event.
+	 */
+	public synchronized void retainEvent(String body, Map<String, String> parameters) {
+		
+		if (retain == 0) {
+			return;
+		}
+		
+		addRetainedEvent(new RetainedEvent(System.currentTimeMillis(), body, parameters));
+	}
+	
+	
+	/**
+	 * Returns the retained events, the oldest first.
+	 * 
+	 * @return List of events, empty if there are none.
+	 */
+	public synchronized List<RetainedEvent> getRetainedEvents() {
+		
+		List<RetainedEvent> events = new ArrayList<RetainedEvent>(retainedCount);
+		
+		for (int i = retainedCount; i > 0; i--) {
+			events.add(retainedEvents[(retainedNext - i + retainedEvents.length) % retainedEvents.length]);
+		}
+		
+		return events;
+	}
+	
+	
+	/**
+	 * An event retained by the channel. The body is kept as UTF-8 bytes, which is about half the size of a string 
+	 * for the usual JSON bodies.
+	 */
+	public static class RetainedEvent {
+		
+		private final long timeStamp;
+		private final byte[] body;
+		private final Map<String, String> parameters;
+		
+		private RetainedEvent(long timeStamp, String body, Map<String, String> parameters) {
+			this.timeStamp = timeStamp;
+			this.body = body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+			this.parameters = parameters == null || parameters.isEmpty() ? 
+					null : Collections.unmodifiableMap(new HashMap<String, String>(parameters));
+		}
+		
+		/**
+		 * Returns the time the event was sent.
+		 * 
+		 * @return Time stamp (ms).
+		 */
+		public long getTimeStamp() {
+			return timeStamp;
+		}
+		
+		/**
+		 * Returns the body of the event.
+		 * 
+		 * @return Body, or null if the event had none.
+		 */
+		public String getBody() {
+			return body == null ? null : new String(body, StandardCharsets.UTF_8);
+		}
+		
+		/**
+		 * Returns the parameters sent with the event.
+		 * 
+		 * @return Parameters, empty if there were none.
+		 */
+		public Map<String, String> getParameters() {
+			return parameters == null ? Collections.<String, String>emptyMap() : parameters;
+		}
+	}
+	
+	
 	/* === PRIVATE METHODS === */
 	
+	/**
+	 * Puts the event into the ring buffer.
+	 */
+	private void addRetainedEvent(RetainedEvent event) {
+		
+		if (retainedEvents == null) {
+			retainedEvents = new RetainedEvent[retain];
+		}
+		
+		retainedEvents[retainedNext] = event;
+		retainedNext = (retainedNext + 1) % retainedEvents.length;
+		
+		if (retainedCount < retainedEvents.length) {
+			retainedCount++;
+		}
+	}
+	
 }
@@ -0,0 +1,778 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Durable spool of the events sent through an {@link EventChannel EventChannel} with
+ * {@link EventChannel#QOS_DURABLE durable QoS}. Every event is appended to a log on the disk before it is sent, and
+ * each subscriber has a cursor pointing to the first event it did not get yet. When a subscriber can't be reached,
+ * its cursor stays behind and the events wait in the spool, until they can be {@link #deliver(String, Predicate)
+ * delivered} - with the next event, or when the subscriber comes back online. The events are delivered in the
+ * order they were sent, at least once.
+ *
+ * The log is split into memory mapped segment files of {@link #CONFIG_PARAM_EVENTSPOOLSEGMENTSIZE
+ * CONFIG_PARAM_EVENTSPOOLSEGMENTSIZE} kB in the spool/[object ID]/[event ID] folder of the data directory. A segment
+ * is named after the position of its first event in the log. Each event is stored as its length, time stamp and the
+ * message string. Whole segments are deleted, the oldest first, when the spool grows over
+ * {@link #CONFIG_PARAM_EVENTSPOOLMAXSIZE CONFIG_PARAM_EVENTSPOOLMAXSIZE} MB or when all their events are older than
+ * {@link #CONFIG_PARAM_EVENTSPOOLMAXAGE CONFIG_PARAM_EVENTSPOOLMAXAGE} hours, even if some subscribers did not
+ * get them. The cursors are saved at most once a second and when the spool is closed, so a few events can be
+ * delivered twice after a crash.
+ *
+ * One instance per durable event channel is created by its {@link ConnectionDescriptor ConnectionDescriptor}.
+ *
+ * @author sulfo
+ *
+ */
+public class EventSpool {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the configuration parameter for the size of one segment of the spool (kB).
+	 */
+	private static final String CONFIG_PARAM_EVENTSPOOLSEGMENTSIZE = "general.eventSpoolSegmentSize";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_EVENTSPOOLSEGMENTSIZE CONFIG_PARAM_EVENTSPOOLSEGMENTSIZE} configuration
+	 * parameter.
+	 */
+	private static final int CONFIG_DEF_EVENTSPOOLSEGMENTSIZE = 1024;
+
+	/**
+	 * Name of the configuration parameter for the maximum size of the spool of one event channel (MB).
+	 */
+	private static final String CONFIG_PARAM_EVENTSPOOLMAXSIZE = "general.eventSpoolMaxSize";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_EVENTSPOOLMAXSIZE CONFIG_PARAM_EVENTSPOOLMAXSIZE} configuration
+	 * parameter.
+	 */
+	private static final int CONFIG_DEF_EVENTSPOOLMAXSIZE = 64;
+
+	/**
+	 * Name of the configuration parameter for the maximum age of the events in the spool (hours).
+	 */
+	private static final String CONFIG_PARAM_EVENTSPOOLMAXAGE = "general.eventSpoolMaxAge";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_EVENTSPOOLMAXAGE CONFIG_PARAM_EVENTSPOOLMAXAGE} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_EVENTSPOOLMAXAGE = 24;
+
+	/**
+	 * Name of the configuration parameter for the data directory, shared with the
+	 * {@link eu.bavenir.ogwapi.commons.persistence.PersistenceManager PersistenceManager}.
+	 */
+	private static final String CONFIG_PARAM_DATADIR = "general.dataDirectory";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_DATADIR CONFIG_PARAM_DATADIR} configuration parameter.
+	 */
+	private static final String CONFIG_DEF_DATADIR = "data/";
+
+	/**
+	 * Folder of the spools in the data directory.
+	 */
+	private static final String SPOOL_FOLDER = "spool";
+
+	/**
+	 * Extension of the segment files.
+	 */
+	private static final String SEGMENT_EXTENSION = ".segment";
+
+	/**
+	 * Name of the file with the cursors of the subscribers.
+	 */
+	private static final String CURSORS_FILE = "cursors.properties";
+
+	/**
+	 * Size of the header of an event in a segment - length of the message and the time stamp.
+	 */
+	private static final int RECORD_HEADER = Integer.BYTES + Long.BYTES;
+
+	/**
+	 * How often the cursors are saved at most (ms).
+	 */
+	private static final long CURSORS_SAVE_INTERVAL = 1000;
+
+
+	/* === FIELDS === */
+
+	/**
+	 * Folder with the segments and cursors.
+	 */
+	private File folder;
+
+	/**
+	 * Size of a new segment (bytes).
+	 */
+	private int segmentSize;
+
+	/**
+	 * Maximum size of all segments (bytes).
+	 */
+	private long maxSize;
+
+	/**
+	 * Maximum age of the events (ms).
+	 */
+	private long maxAge;
+
+	/**
+	 * Segments by the position of their first event.
+	 */
+	private TreeMap<Long, Segment> segments;
+
+	/**
+	 * Position of the next event to be appended.
+	 */
+	private long end;
+
+	/**
+	 * Positions of the next events to be delivered, by subscriber.
+	 */
+	private Map<String, Long> cursors;
+
+	/**
+	 * Whether the cursors changed since they were saved.
+	 */
+	private boolean cursorsChanged;
+
+	/**
+	 * When the cursors were saved.
+	 */
+	private long cursorsSavedAt;
+
+	/**
+	 * Whether the spool was closed.
+	 */
+	private boolean closed;
+
+	/**
+	 * Number of deliveries asked for, by subscriber. Only the first one delivers, the rest just makes it go on.
+	 */
+	private Map<String, AtomicInteger> deliveries;
+
+	/**
+	 * Event ID of the channel, for the logs.
+	 */
+	private String eventId;
+
+	/**
+	 * Logger of the OGWAPI.
+	 */
+	private Logger logger;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, opens the spool of the event channel, or creates a new one.
+	 *
+	 * @param objectId Object ID of the owner of the channel.
+	 * @param eventId Event ID of the channel.
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 * @throws IOException If the spool can't be opened.
+	 */
+	public EventSpool(String objectId, String eventId, XMLConfiguration config, Logger logger) throws IOException {
+
+		this.eventId = eventId;
+		this.logger = logger;
+
+		int segmentSizeKb = config.getInt(CONFIG_PARAM_EVENTSPOOLSEGMENTSIZE, CONFIG_DEF_EVENTSPOOLSEGMENTSIZE);
+		if (segmentSizeKb <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_EVENTSPOOLSEGMENTSIZE
+					+ " in the configuration file: " + segmentSizeKb + ". Setting to default: "
+					+ CONFIG_DEF_EVENTSPOOLSEGMENTSIZE);
+
+			segmentSizeKb = CONFIG_DEF_EVENTSPOOLSEGMENTSIZE;
+		}
+		segmentSize = segmentSizeKb * 1024;
+
+		int maxSizeMb = config.getInt(CONFIG_PARAM_EVENTSPOOLMAXSIZE, CONFIG_DEF_EVENTSPOOLMAXSIZE);
+		if (maxSizeMb <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_EVENTSPOOLMAXSIZE
+					+ " in the configuration file: " + maxSizeMb + ". Setting to default: "
+					+ CONFIG_DEF_EVENTSPOOLMAXSIZE);
+
+			maxSizeMb = CONFIG_DEF_EVENTSPOOLMAXSIZE;
+		}
+		maxSize = maxSizeMb * 1024L * 1024L;
+
+		int maxAgeHours = config.getInt(CONFIG_PARAM_EVENTSPOOLMAXAGE, CONFIG_DEF_EVENTSPOOLMAXAGE);
+		if (maxAgeHours <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_EVENTSPOOLMAXAGE
+					+ " in the configuration file: " + maxAgeHours + ". Setting to default: "
+					+ CONFIG_DEF_EVENTSPOOLMAXAGE);
+
+			maxAgeHours = CONFIG_DEF_EVENTSPOOLMAXAGE;
+		}
+		maxAge = maxAgeHours * 3600000L;
+
+		folder = new File(config.getString(CONFIG_PARAM_DATADIR, CONFIG_DEF_DATADIR), SPOOL_FOLDER
+				+ File.separator + toFileName(objectId) + File.separator + toFileName(eventId));
+
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Folder " + folder.getPath() + " can't be created.");
+		}
+
+		segments = new TreeMap<Long, Segment>();
+		cursors = new HashMap<String, Long>();
+		deliveries = new ConcurrentHashMap<String, AtomicInteger>();
+
+		openSegments();
+		loadCursors();
+
+		synchronized (this) {
+			dropOldSegments();
+		}
+
+		logger.config("Event spool of " + eventId + " opened with " + segments.size() + " segments in "
+				+ folder.getPath() + ".");
+	}
+
+
+	/**
+	 * Appends an event to the spool. It is delivered to the subscribers by {@link #deliver(String, Predicate)
+	 * deliver}.
+	 *
+	 * @param message The event message string.
+	 * @return Position of the event in the spool.
+	 * @throws IOException If a new segment can't be created, or the spool is closed.
+	 */
+	public synchronized long append(String message) throws IOException {
+
+		if (closed) {
+			throw new IOException("Event spool of " + eventId + " is closed.");
+		}
+
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		long now = System.currentTimeMillis();
+
+		Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+
+		// start a new segment when the last one is full, or too old to be ever deleted otherwise
+		if (segment == null || !segment.fits(bytes.length)
+				|| (segment.firstTimestamp > 0 && now - segment.firstTimestamp > maxAge)) {
+
+			segment = createSegment(end, Math.max(segmentSize, RECORD_HEADER + bytes.length));
+			dropOldSegments();
+		}
+
+		segment.write(bytes, now);
+
+		long position = end;
+		end += RECORD_HEADER + bytes.length;
+
+		return position;
+	}
+
+
+	/**
+	 * Adds a subscriber. It gets the events appended from now on.
+	 *
+	 * @param subscriberOid Object ID of the subscriber.
+	 */
+	public synchronized void addSubscriber(String subscriberOid) {
+
+		if (!closed && cursors.putIfAbsent(subscriberOid, end) == null) {
+			cursorsChanged();
+		}
+	}
+
+
+	/**
+	 * Removes a subscriber, the events it did not get yet are not delivered anymore.
+	 *
+	 * @param subscriberOid Object ID of the subscriber.
+	 */
+	public synchronized void removeSubscriber(String subscriberOid) {
+
+		if (!closed && cursors.remove(subscriberOid) != null) {
+			cursorsChanged();
+		}
+	}
+
+
+	/**
+	 * Checks whether the subscriber has events waiting in the spool.
+	 *
+	 * @param subscriberOid Object ID of the subscriber.
+	 * @return True if there are events it did not get yet.
+	 */
+	public synchronized boolean hasBacklog(String subscriberOid) {
+
+		Long cursor = cursors.get(subscriberOid);
+
+		return !closed && cursor != null && cursor < end;
+	}
+
+
+	/**
+	 * Checks whether the subscriber did not get some of the events appended before the given position yet.
+	 *
+	 * @param subscriberOid Object ID of the subscriber.
+	 * @param position Position of an event, as returned by {@link #append(String) append}.
+	 * @return True if there are older events it did not get.
+	 */
+	public synchronized boolean isBehind(String subscriberOid, long position) {
+
+		Long cursor = cursors.get(subscriberOid);
+
+		return !closed && cursor != null && cursor < position;
+	}
+
+
+	/**
+	 * Sends the subscriber the events it did not get yet, in the order they were appended, until all are sent or one
+	 * can't be sent. If a delivery to the subscriber is already in progress, it just makes it go on with the events
+	 * appended in the meantime.
+	 *
+	 * @param subscriberOid Object ID of the subscriber.
+	 * @param sender Sends a message string to the subscriber, returns true if it was sent.
+	 * @return True if the subscriber got all the events, false if some are still waiting, if the delivery is done by
+	 * another thread or if the spool is closed.
+	 */
+	public boolean deliver(String subscriberOid, Predicate<String> sender) {
+
+		AtomicInteger requested = deliveries.computeIfAbsent(subscriberOid, oid -> new AtomicInteger());
+
+		if (requested.getAndIncrement() > 0) {
+			return false;
+		}
+
+		boolean delivered;
+		int delivering = 1;
+
+		do {
+			delivered = deliverBacklog(subscriberOid, sender);
+			delivering = requested.addAndGet(-delivering);
+		} while (delivering > 0);
+
+		return delivered;
+	}
+
+
+	/**
+	 * Saves the cursors and releases the segments. Nothing is appended or delivered after that, a delivery in
+	 * progress stops.
+	 */
+	public synchronized void close() {
+
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+
+		saveCursors();
+
+		for (Segment segment : segments.values()) {
+			segment.close();
+		}
+
+		segments.clear();
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Sends the events from the cursor of the subscriber to the end of the spool.
+	 */
+	private boolean deliverBacklog(String subscriberOid, Predicate<String> sender) {
+
+		int sent = 0;
+
+		while (true) {
+
+			String message;
+			long next;
+
+			synchronized (this) {
+
+				// the channel might have been closed during the delivery
+				if (closed) {
+					return false;
+				}
+
+				Long cursor = cursors.get(subscriberOid);
+
+				if (cursor == null || cursor >= end) {
+					break;
+				}
+
+				// the events it did not get might have been deleted already
+				long first = segments.firstKey();
+				if (cursor < first) {
+					logger.warning("Event spool of " + eventId + ": " + (first - cursor) + " bytes of events for "
+							+ subscriberOid + " were deleted before they could be delivered.");
+
+					cursor = first;
+				}
+
+				Map.Entry<Long, Segment> entry = segments.floorEntry(cursor);
+				Segment segment = entry.getValue();
+				int offset = (int) (cursor - entry.getKey());
+
+				if (offset >= segment.writeOffset) {
+					// the rest of the segment is empty, go on in the next one
+					cursors.put(subscriberOid, segments.higherKey(entry.getKey()));
+					continue;
+				}
+
+				byte[] bytes = segment.read(offset);
+				message = new String(bytes, StandardCharsets.UTF_8);
+				next = cursor + RECORD_HEADER + bytes.length;
+			}
+
+			if (!sender.test(message)) {
+				logger.fine("Event spool of " + eventId + ": " + subscriberOid + " can't be reached, " + sent
+						+ " events were delivered.");
+
+				return false;
+			}
+
+			sent++;
+
+			synchronized (this) {
+				// the subscriber could have been removed in the meantime
+				if (!closed && cursors.replace(subscriberOid, next) != null) {
+					cursorsChanged();
+				}
+			}
+		}
+
+		if (sent > 1) {
+			logger.info("Event spool of " + eventId + ": " + sent + " events were delivered to " + subscriberOid + ".");
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Opens the segments found in the folder and finds the end of the last one.
+	 */
+	private void openSegments() throws IOException {
+
+		File[] files = folder.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+
+		if (files == null || files.length == 0) {
+			return;
+		}
+
+		Arrays.sort(files, (a, b) -> Long.compare(positionOf(a), positionOf(b)));
+
+		for (File file : files) {
+			long position = positionOf(file);
+
+			if (position < 0) {
+				logger.warning("Event spool of " + eventId + ": Ignoring unknown file " + file.getName() + ".");
+				continue;
+			}
+
+			// a segment that was never written to (crash right after it was created)
+			if (file.length() < RECORD_HEADER) {
+				if (!file.delete()) {
+					logger.warning("Event spool of " + eventId + ": Empty segment " + file.getName()
+							+ " can't be deleted.");
+				}
+				continue;
+			}
+
+			segments.put(position, new Segment(file, file.length()));
+		}
+
+		if (!segments.isEmpty()) {
+			Map.Entry<Long, Segment> last = segments.lastEntry();
+			end = last.getKey() + last.getValue().writeOffset;
+		}
+	}
+
+
+	/**
+	 * Creates a new segment starting at the position.
+	 */
+	private Segment createSegment(long position, int size) throws IOException {
+
+		Segment segment = new Segment(new File(folder, String.format("%020d", position) + SEGMENT_EXTENSION), size);
+
+		segments.put(position, segment);
+
+		return segment;
+	}
+
+
+	/**
+	 * Deletes the oldest segments while the spool is too large, or their events too old. The last segment always
+	 * stays. The cursors pointing to the deleted segments are moved when they are used next.
+	 */
+	private void dropOldSegments() {
+
+		long size = 0;
+		for (Segment segment : segments.values()) {
+			size += segment.size;
+		}
+
+		long now = System.currentTimeMillis();
+
+		while (segments.size() > 1) {
+
+			Segment oldest = segments.firstEntry().getValue();
+
+			if (size <= maxSize && now - oldest.lastTimestamp <= maxAge) {
+				break;
+			}
+
+			segments.pollFirstEntry();
+			size -= oldest.size;
+
+			oldest.close();
+
+			if (!oldest.file.delete()) {
+				logger.warning("Event spool of " + eventId + ": Segment " + oldest.file.getName()
+						+ " can't be deleted.");
+			}
+		}
+	}
+
+
+	/**
+	 * Reads the cursors saved with the spool.
+	 */
+	private void loadCursors() {
+
+		File file = new File(folder, CURSORS_FILE);
+
+		if (!file.exists()) {
+			return;
+		}
+
+		Properties properties = new Properties();
+
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		} catch (IOException e) {
+			logger.warning("Event spool of " + eventId + ": Cursors can't be loaded, all subscribers will start "
+					+ "with the next event. Exception: " + e.getMessage());
+			return;
+		}
+
+		for (String subscriberOid : properties.stringPropertyNames()) {
+			try {
+				cursors.put(subscriberOid, Math.min(end, Long.parseLong(properties.getProperty(subscriberOid))));
+			} catch (NumberFormatException e) {
+				logger.warning("Event spool of " + eventId + ": Wrong cursor of " + subscriberOid + " ignored.");
+			}
+		}
+	}
+
+
+	/**
+	 * Notes the cursors changed and saves them, if they were not saved for a while.
+	 */
+	private void cursorsChanged() {
+
+		cursorsChanged = true;
+
+		if (System.currentTimeMillis() - cursorsSavedAt >= CURSORS_SAVE_INTERVAL) {
+			saveCursors();
+		}
+	}
+
+
+	/**
+	 * Saves the cursors, if they changed. They are written into a new file first, so a crash does not leave them
+	 * half written.
+	 */
+	private void saveCursors() {
+
+		if (!cursorsChanged) {
+			return;
+		}
+
+		Properties properties = new Properties();
+		for (Map.Entry<String, Long> cursor : cursors.entrySet()) {
+			properties.setProperty(cursor.getKey(), String.valueOf(cursor.getValue()));
+		}
+
+		File file = new File(folder, CURSORS_FILE);
+		File newFile = new File(folder, CURSORS_FILE + ".new");
+
+		try (OutputStream out = new FileOutputStream(newFile)) {
+			properties.store(out, "Event spool cursors of " + eventId);
+		} catch (IOException e) {
+			logger.warning("Event spool of " + eventId + ": Cursors can't be saved. Exception: " + e.getMessage());
+			return;
+		}
+
+		if ((file.exists() && !file.delete()) || !newFile.renameTo(file)) {
+			logger.warning("Event spool of " + eventId + ": Cursors can't be saved into " + file.getPath() + ".");
+			return;
+		}
+
+		cursorsChanged = false;
+		cursorsSavedAt = System.currentTimeMillis();
+	}
+
+
+	/**
+	 * Returns the position of the first event in the segment file, or -1 if it is not a segment file.
+	 */
+	private static long positionOf(File file) {
+
+		String name = file.getName();
+
+		try {
+			return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+
+	/**
+	 * Makes a safe file name from an object or event ID.
+	 */
+	private static String toFileName(String id) {
+
+		try {
+			return URLEncoder.encode(id, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			return id;
+		}
+	}
+
+
+	/**
+	 * A memory mapped segment of the spool. Unused space at its end is zero, so the events can be found again
+	 * when it is opened.
+	 */
+	private static class Segment {
+
+		private final File file;
+		private final int size;
+		private final RandomAccessFile randomAccessFile;
+		private final MappedByteBuffer buffer;
+
+		private int writeOffset;
+		private long firstTimestamp;
+		private long lastTimestamp;
+
+		private Segment(File file, long size) throws IOException {
+
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Segment " + file.getName() + " is too large.");
+			}
+
+			this.file = file;
+			this.size = (int) size;
+
+			randomAccessFile = new RandomAccessFile(file, "rw");
+
+			try {
+				buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} catch (IOException e) {
+				randomAccessFile.close();
+				throw e;
+			}
+
+			// find the end of the events written before
+			while (writeOffset + RECORD_HEADER <= this.size) {
+
+				int length = buffer.getInt(writeOffset);
+
+				if (length <= 0 || writeOffset + RECORD_HEADER + length > this.size) {
+					break;
+				}
+
+				lastTimestamp = buffer.getLong(writeOffset + Integer.BYTES);
+				if (firstTimestamp == 0) {
+					firstTimestamp = lastTimestamp;
+				}
+
+				writeOffset += RECORD_HEADER + length;
+			}
+		}
+
+		private boolean fits(int length) {
+			return writeOffset + RECORD_HEADER + length <= size;
+		}
+
+		private void write(byte[] bytes, long timestamp) {
+
+			ByteBuffer target = buffer.duplicate();
+			target.position(writeOffset);
+
+			// the length goes last, so a half written event is not found again after a crash
+			target.putInt(0);
+			target.putLong(timestamp);
+			target.put(bytes);
+			buffer.putInt(writeOffset, bytes.length);
+
+			writeOffset += RECORD_HEADER + bytes.length;
+			lastTimestamp = timestamp;
+			if (firstTimestamp == 0) {
+				firstTimestamp = timestamp;
+			}
+		}
+
+		private byte[] read(int offset) {
+
+			ByteBuffer source = buffer.duplicate();
+			source.position(offset);
+
+			byte[] bytes = new byte[source.getInt()];
+			source.getLong();
+			source.get(bytes);
+
+			return bytes;
+		}
+
+		private void close() {
+
+			buffer.force();
+
+			try {
+				randomAccessFile.close();
+			} catch (IOException e) {
+				// nothing to be done, the mapping stays valid until it is garbage collected
+			}
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import eu.bavenir.ogwapi.commons.messages.StatusMessage;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Read requests to remote objects that are on their way. When several local objects ask the same remote object for
+ * the same thing at the same time (a property value, a thing description, a list of actions or events), only the first
+ * request is sent and the others wait for its response. Each of them then gets its own copy of the
+ * {@link StatusMessage StatusMessage}. A caller that is not interested in the response anymore can cancel its future.
+ * When all of them do, the request itself is cancelled.
+ *
+ * Only requests without side effects are to be joined this way. The number of requests that were joined (hits) and
+ * that had to be sent (misses) is counted.
+ *
+ * One instance is created by the {@link CommunicationManager CommunicationManager}.
+ *
+ * @author sulfo
+ *
+ */
+public class InFlightRequests {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the configuration parameter for turning the joining of identical requests on or off.
+	 */
+	private static final String CONFIG_PARAM_REQUESTCOALESCING = "general.requestCoalescing";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_REQUESTCOALESCING CONFIG_PARAM_REQUESTCOALESCING} configuration parameter.
+	 */
+	private static final boolean CONFIG_DEF_REQUESTCOALESCING = true;
+
+	/**
+	 * Separator of the parts of a request key. Object IDs don't contain it.
+	 */
+	private static final char KEY_SEPARATOR = '\n';
+
+
+	/* === FIELDS === */
+
+	/**
+	 * Whether identical requests are joined.
+	 */
+	private boolean enabled;
+
+	/**
+	 * Requests on their way, by key. A request is removed before its response is handed over, so nobody joins it
+	 * afterwards.
+	 */
+	private Map<String, Flight> requests;
+
+	/**
+	 * Number of requests that joined another one.
+	 */
+	private AtomicLong hits;
+
+	/**
+	 * Number of requests that were sent.
+	 */
+	private AtomicLong misses;
+
+	/**
+	 * Logger of the OGWAPI.
+	 */
+	private Logger logger;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public InFlightRequests(XMLConfiguration config, Logger logger) {
+
+		this.logger = logger;
+
+		enabled = config.getBoolean(CONFIG_PARAM_REQUESTCOALESCING, CONFIG_DEF_REQUESTCOALESCING);
+
+		requests = new ConcurrentHashMap<String, Flight>();
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+	}
+
+
+	/**
+	 * Joins an identical request that is on its way, or sends a new one.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operation Operation, see {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest
+	 * NetworkMessageRequest}.
+	 * @param attributes Attributes of the request.
+	 * @param parameters Parameters of the request.
+	 * @param body Body of the request.
+	 * @param sender Sends the request, called only if there is no identical request on its way.
+	 * @return Future status message, a copy for each caller. It can be cancelled.
+	 */
+	public CompletableFuture<StatusMessage> join(String destinationOid, byte operation, Map<String, String> attributes,
+			Map<String, String> parameters, String body, Supplier<CompletableFuture<StatusMessage>> sender) {
+
+		if (!enabled || destinationOid == null) {
+			return sender.get();
+		}
+
+		String key = makeKey(destinationOid, operation, attributes, parameters, body);
+
+		Flight flight = new Flight(key);
+		Flight existing;
+
+		while ((existing = requests.putIfAbsent(key, flight)) != null) {
+
+			if (existing.join()) {
+				long hitCount = hits.incrementAndGet();
+
+				logger.fine("Joined a request on its way to '" + destinationOid + "'. Joined requests: " + hitCount
+						+ ", sent requests: " + misses.get());
+
+				return existing.copy();
+			}
+
+			// everybody left the existing one, it is being cancelled
+			requests.remove(key, existing);
+		}
+
+		misses.incrementAndGet();
+
+		CompletableFuture<StatusMessage> response;
+
+		try {
+			response = sender.get();
+		} catch (RuntimeException e) {
+			requests.remove(key, flight);
+			flight.response.completeExceptionally(e);
+			throw e;
+		}
+
+		flight.sent = response;
+
+		response.whenComplete((statusMessage, throwable) -> {
+
+			requests.remove(key, flight);
+
+			if (throwable != null) {
+				flight.response.completeExceptionally(throwable);
+			} else {
+				flight.response.complete(statusMessage == null ? null : new CachedStatusMessage(statusMessage));
+			}
+		});
+
+		return flight.copy();
+	}
+
+
+	/**
+	 * Returns the number of requests that joined an identical request on its way.
+	 *
+	 * @return Number of hits.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+
+	/**
+	 * Returns the number of requests that had to be sent.
+	 *
+	 * @return Number of misses.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Makes a copy of the response for one caller.
+	 */
+	private static StatusMessage copyOf(CachedStatusMessage response) {
+		return response == null ? null : response.toStatusMessage();
+	}
+
+
+	/**
+	 * Makes the key of a request. The attributes and parameters are sorted, so their order does not matter.
+	 */
+	private String makeKey(String destinationOid, byte operation, Map<String, String> attributes,
+			Map<String, String> parameters, String body) {
+
+		StringBuilder builder = new StringBuilder(destinationOid);
+
+		builder.append(KEY_SEPARATOR).append(operation);
+		builder.append(KEY_SEPARATOR).append(attributes == null ? "" : new TreeMap<String, String>(attributes));
+		builder.append(KEY_SEPARATOR).append(parameters == null ? "" : new TreeMap<String, String>(parameters));
+		builder.append(KEY_SEPARATOR).append(body == null ? "" : body);
+
+		return builder.toString();
+	}
+
+
+	/**
+	 * A request on its way and the callers waiting for it.
+	 */
+	private class Flight {
+
+		private final String key;
+		private final CompletableFuture<CachedStatusMessage> response;
+		private volatile CompletableFuture<StatusMessage> sent;
+		private int waiters;
+
+		private Flight(String key) {
+			this.key = key;
+			this.response = new CompletableFuture<CachedStatusMessage>();
+			this.waiters = 1;
+		}
+
+		/**
+		 * Adds a caller, unless all the others left already.
+		 */
+		private synchronized boolean join() {
+
+			if (waiters == 0) {
+				return false;
+			}
+
+			waiters++;
+
+			return true;
+		}
+
+		/**
+		 * Makes the future of one caller. When it is cancelled, the caller leaves.
+		 */
+		private CompletableFuture<StatusMessage> copy() {
+
+			CompletableFuture<StatusMessage> copy = response.thenApply(InFlightRequests::copyOf);
+
+			copy.whenComplete((statusMessage, throwable) -> {
+				if (copy.isCancelled()) {
+					leave();
+				}
+			});
+
+			return copy;
+		}
+
+		/**
+		 * Removes a caller. The last one cancels the request.
+		 */
+		private void leave() {
+
+			synchronized (this) {
+				if (--waiters > 0) {
+					return;
+				}
+			}
+
+			requests.remove(key, this);
+
+			// the caller that sent it holds its place until it gets its copy, so it is set by now
+			sent.cancel(false);
+		}
+	}
+}
@@ -0,0 +1,471 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import eu.bavenir.ogwapi.commons.messages.NetworkMessage;
+import eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest;
+import eu.bavenir.ogwapi.commons.messages.NetworkMessageResponse;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Priority lanes for the traffic between objects. Without them, a flood of events and property reads holds up the
+ * control messages (subscriptions, task status polls, ...) that arrived after it, until they time out. The work is
+ * split into two lanes:
+ *
+ * control
+ *
+ * Requests that manage subscriptions, tasks or ask for the capabilities of an object. They are cheap and somebody
+ * usually waits for them.
+ *
+ *
+ * data
+ *
+ * Events and requests that need the agent - property values, actions, several operations at once. Outgoing events
+ * are sent in this lane too.
+ *
+ * Each lane is served by its own threads - {@link #CONFIG_PARAM_CONTROLLANETHREADS CONFIG_PARAM_CONTROLLANETHREADS}
+ * for the control lane and {@link #CONFIG_PARAM_LANETHREADS CONFIG_PARAM_LANETHREADS} for the data lane, so the
+ * control messages never wait for the data work, no matter which objects they belong to. The work of one object
+ * (the sender of an incoming message, or the subscriber of an outgoing event) always goes to the same thread of the
+ * lane, so within a lane it is done in the order it came in. Each data lane thread holds at most
+ * {@link #CONFIG_PARAM_DATALANECAPACITY CONFIG_PARAM_DATALANECAPACITY} tasks. When it is full, the caller waits until
+ * there is room, so a flood of events slows down its source instead of filling the memory. Responses don't go into any lane, they are handed over to the waiting requests right away. The time
+ * the work spent waiting in each lane is measured.
+ *
+ * The lanes are only used in the platform thread mode, see {@link WorkerThreads WorkerThreads}. In the virtual mode
+ * each message gets its own thread, so nothing waits anyway.
+ *
+ * One instance is created by the {@link CommunicationManager CommunicationManager}.
+ *
+ * @author sulfo
+ *
+ */
+public class MessageLanes {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * The lane of the control messages.
+	 */
+	public static final int LANE_CONTROL = 0;
+
+	/**
+	 * The lane of the data messages.
+	 */
+	public static final int LANE_DATA = 1;
+
+	/**
+	 * Names of the lanes, by their numbers.
+	 */
+	public static final String[] LANE_NAMES = {"control", "data"};
+
+	/**
+	 * Name of the configuration parameter for turning the lanes on.
+	 */
+	private static final String CONFIG_PARAM_PRIORITYLANES = "general.priorityLanes";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_PRIORITYLANES CONFIG_PARAM_PRIORITYLANES} configuration parameter.
+	 */
+	private static final boolean CONFIG_DEF_PRIORITYLANES = true;
+
+	/**
+	 * Name of the configuration parameter for the number of threads serving the data lane.
+	 */
+	private static final String CONFIG_PARAM_LANETHREADS = "general.laneThreads";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_LANETHREADS CONFIG_PARAM_LANETHREADS} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_LANETHREADS = 8;
+
+	/**
+	 * Name of the configuration parameter for the number of threads serving the control lane.
+	 */
+	private static final String CONFIG_PARAM_CONTROLLANETHREADS = "general.controlLaneThreads";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_CONTROLLANETHREADS CONFIG_PARAM_CONTROLLANETHREADS} configuration
+	 * parameter.
+	 */
+	private static final int CONFIG_DEF_CONTROLLANETHREADS = 2;
+
+	/**
+	 * Name of the configuration parameter for the number of data tasks that can wait for one lane thread.
+	 */
+	private static final String CONFIG_PARAM_DATALANECAPACITY = "general.dataLaneCapacity";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_DATALANECAPACITY CONFIG_PARAM_DATALANECAPACITY} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_DATALANECAPACITY = 1000;
+
+
+	/* === FIELDS === */
+
+	/**
+	 * Threads serving the lanes, by lane, null if the lanes are off.
+	 */
+	private LaneThread[][] threads;
+
+	/**
+	 * Amount of work waiting, by lane.
+	 */
+	private AtomicInteger[] waiting;
+
+	/**
+	 * Amount of work taken from the lane, by lane.
+	 */
+	private AtomicLong[] taken;
+
+	/**
+	 * Sum of the times the work waited (ms), by lane.
+	 */
+	private AtomicLong[] totalDelay;
+
+	/**
+	 * Longest time the work waited (ms), by lane.
+	 */
+	private LongAccumulator[] maxDelay;
+
+	/**
+	 * Logger of the OGWAPI.
+	 */
+	private Logger logger;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration and starts the threads if the lanes are on.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 * @param workerThreads Worker threads, the lanes are off in the virtual mode.
+	 */
+	public MessageLanes(XMLConfiguration config, Logger logger, WorkerThreads workerThreads) {
+
+		this.logger = logger;
+
+		waiting = new AtomicInteger[LANE_NAMES.length];
+		taken = new AtomicLong[LANE_NAMES.length];
+		totalDelay = new AtomicLong[LANE_NAMES.length];
+		maxDelay = new LongAccumulator[LANE_NAMES.length];
+
+		for (int lane = 0; lane < LANE_NAMES.length; lane++) {
+			waiting[lane] = new AtomicInteger();
+			taken[lane] = new AtomicLong();
+			totalDelay[lane] = new AtomicLong();
+			maxDelay[lane] = new LongAccumulator(Long::max, 0);
+		}
+
+		if (!config.getBoolean(CONFIG_PARAM_PRIORITYLANES, CONFIG_DEF_PRIORITYLANES)) {
+			logger.config("Priority lanes are disabled.");
+			return;
+		}
+
+		if (workerThreads.isVirtual()) {
+			logger.config("Priority lanes are not used in the virtual thread mode.");
+			return;
+		}
+
+		int laneThreads = config.getInt(CONFIG_PARAM_LANETHREADS, CONFIG_DEF_LANETHREADS);
+		if (laneThreads <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_LANETHREADS + " in the configuration file: "
+					+ laneThreads + ". Setting to default: " + CONFIG_DEF_LANETHREADS);
+
+			laneThreads = CONFIG_DEF_LANETHREADS;
+		}
+
+		int dataLaneCapacity = config.getInt(CONFIG_PARAM_DATALANECAPACITY, CONFIG_DEF_DATALANECAPACITY);
+		if (dataLaneCapacity <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_DATALANECAPACITY + " in the configuration file: "
+					+ dataLaneCapacity + ". Setting to default: " + CONFIG_DEF_DATALANECAPACITY);
+
+			dataLaneCapacity = CONFIG_DEF_DATALANECAPACITY;
+		}
+
+		int controlLaneThreads = config.getInt(CONFIG_PARAM_CONTROLLANETHREADS, CONFIG_DEF_CONTROLLANETHREADS);
+		if (controlLaneThreads <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_CONTROLLANETHREADS 
+					+ " in the configuration file: " + controlLaneThreads + ". Setting to default: " 
+					+ CONFIG_DEF_CONTROLLANETHREADS);
+
+			controlLaneThreads = CONFIG_DEF_CONTROLLANETHREADS;
+		}
+
+		threads = new LaneThread[LANE_NAMES.length][];
+		threads[LANE_CONTROL] = new LaneThread[controlLaneThreads];
+		threads[LANE_DATA] = new LaneThread[laneThreads];
+
+		for (int i = 0; i < controlLaneThreads; i++) {
+			threads[LANE_CONTROL][i] = new LaneThread(LANE_CONTROL, new LinkedBlockingQueue<LaneTask>());
+			threads[LANE_CONTROL][i].start();
+		}
+
+		for (int i = 0; i < laneThreads; i++) {
+			threads[LANE_DATA][i] = new LaneThread(LANE_DATA, new LinkedBlockingQueue<LaneTask>(dataLaneCapacity));
+			threads[LANE_DATA][i].start();
+		}
+
+		logger.config("Priority lanes are enabled with " + controlLaneThreads + " control threads and " + laneThreads 
+				+ " data threads, each taking up to " + dataLaneCapacity + " data tasks.");
+	}
+
+
+	/**
+	 * Whether the lanes are used.
+	 *
+	 * @return True if the work goes through the lanes.
+	 */
+	public boolean isEnabled() {
+		return threads != null;
+	}
+
+
+	/**
+	 * Decides the lane of an incoming message.
+	 *
+	 * @param networkMessage The message.
+	 * @return {@link #LANE_CONTROL LANE_CONTROL}, {@link #LANE_DATA LANE_DATA}, or -1 for a response, which does not
+	 * go into any lane.
+	 */
+	public static int laneOf(NetworkMessage networkMessage) {
+
+		if (networkMessage.getMessageType() == NetworkMessageResponse.MESSAGE_TYPE) {
+			return -1;
+		}
+
+		if (networkMessage.getMessageType() != NetworkMessageRequest.MESSAGE_TYPE) {
+			return LANE_DATA;
+		}
+
+		switch (((NetworkMessageRequest) networkMessage).getRequestOperation()) {
+
+		case NetworkMessageRequest.OPERATION_SUBSCRIBETOEVENTCHANNEL:
+		case NetworkMessageRequest.OPERATION_UNSUBSCRIBEFROMEVENTCHANNEL:
+		case NetworkMessageRequest.OPERATION_GETEVENTCHANNELSTATUS:
+		case NetworkMessageRequest.OPERATION_GETTASKSTATUS:
+		case NetworkMessageRequest.OPERATION_CANCELTASK:
+		case NetworkMessageRequest.OPERATION_GETLISTOFPROPERTIES:
+		case NetworkMessageRequest.OPERATION_GETLISTOFACTIONS:
+		case NetworkMessageRequest.OPERATION_GETLISTOFEVENTS:
+		case NetworkMessageRequest.OPERATION_GETTHINGDESCRIPTION:
+			return LANE_CONTROL;
+
+			default:
+				return LANE_DATA;
+		}
+	}
+
+
+	/**
+	 * Runs the task in the lane, after the tasks of the same object that are already waiting in it. If the lanes are
+	 * off, it runs right away on the calling thread. If the data lane is full, this method waits until there is room.
+	 *
+	 * @param lane {@link #LANE_CONTROL LANE_CONTROL} or {@link #LANE_DATA LANE_DATA}.
+	 * @param objectId Object ID the task belongs to - the sender of an incoming message or the destination of an
+	 * outgoing one.
+	 * @param task Task to be run.
+	 */
+	public void execute(int lane, String objectId, Runnable task) {
+
+		if (threads == null) {
+			task.run();
+			return;
+		}
+
+		LaneThread[] laneThreads = threads[lane];
+		LaneThread thread = laneThreads[(String.valueOf(objectId).hashCode() & Integer.MAX_VALUE) % laneThreads.length];
+		LaneTask laneTask = new LaneTask(lane, task);
+
+		waiting[lane].incrementAndGet();
+
+		// a lane thread waiting for room in a lane might wait for itself
+		if (Thread.currentThread() instanceof LaneThread) {
+
+			if (!thread.queue.offer(laneTask)) {
+				waiting[lane].decrementAndGet();
+
+				logger.fine("The " + LANE_NAMES[lane] + " lane is full, running the task on the calling lane thread.");
+				task.run();
+				return;
+			}
+
+		} else {
+
+			try {
+				thread.queue.put(laneTask);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				waiting[lane].decrementAndGet();
+
+				logger.fine("Interrupted while waiting for the " + LANE_NAMES[lane] + " lane, running the task on the "
+						+ "calling thread.");
+				task.run();
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Runs the task in the lane and returns its future result, see {@link #execute(int, String, Runnable) execute}.
+	 * If the lanes are off, it runs right away on the calling thread.
+	 *
+	 * @param lane {@link #LANE_CONTROL LANE_CONTROL} or {@link #LANE_DATA LANE_DATA}.
+	 * @param objectId Object ID the task belongs to.
+	 * @param task Task to be run.
+	 * @return Future result of the task.
+	 */
+	public <T> CompletableFuture<T> supplyAsync(int lane, String objectId, Supplier<T> task) {
+
+		CompletableFuture<T> future = new CompletableFuture<T>();
+
+		execute(lane, objectId, () -> {
+			try {
+				future.complete(task.get());
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		});
+
+		return future;
+	}
+
+
+	/**
+	 * Returns the amount of work waiting in the lane.
+	 *
+	 * @param lane The lane.
+	 * @return Number of tasks.
+	 */
+	public int getWaiting(int lane) {
+		return waiting[lane].get();
+	}
+
+
+	/**
+	 * Returns the amount of work taken from the lane since the start.
+	 *
+	 * @param lane The lane.
+	 * @return Number of tasks.
+	 */
+	public long getTaken(int lane) {
+		return taken[lane].get();
+	}
+
+
+	/**
+	 * Returns the average time the work waited in the lane since the start.
+	 *
+	 * @param lane The lane.
+	 * @return Average delay (ms).
+	 */
+	public long getAverageDelay(int lane) {
+
+		long count = taken[lane].get();
+
+		return count == 0 ? 0 : totalDelay[lane].get() / count;
+	}
+
+
+	/**
+	 * Returns the longest time the work waited in the lane since the start.
+	 *
+	 * @param lane The lane.
+	 * @return Maximum delay (ms).
+	 */
+	public long getMaxDelay(int lane) {
+		return maxDelay[lane].get();
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Thread serving one lane for a part of the objects, in the order of arrival.
+	 */
+	private class LaneThread extends Thread {
+
+		/**
+		 * Queue of the work. Only the data lane is bounded.
+		 */
+		private final BlockingQueue<LaneTask> queue;
+
+		private LaneThread(int lane, BlockingQueue<LaneTask> queue) {
+
+			super("ogwapi-lane-" + LANE_NAMES[lane]);
+			setDaemon(true);
+
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+
+			while (true) {
+
+				LaneTask laneTask;
+
+				try {
+					laneTask = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				laneTask.run();
+			}
+		}
+	}
+
+
+	/**
+	 * Work in a lane.
+	 */
+	private class LaneTask implements Runnable {
+
+		private final int lane;
+		private final long enqueuedAt;
+		private final Runnable task;
+
+		private LaneTask(int lane, Runnable task) {
+			this.lane = lane;
+			this.enqueuedAt = System.currentTimeMillis();
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+
+			long delay = System.currentTimeMillis() - enqueuedAt;
+
+			waiting[lane].decrementAndGet();
+			taken[lane].incrementAndGet();
+			totalDelay[lane].addAndGet(delay);
+			maxDelay[lane].accumulate(delay);
+
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.warning("Task in the " + LANE_NAMES[lane] + " lane failed: " + e.getMessage());
+			}
+		}
+	}
+}
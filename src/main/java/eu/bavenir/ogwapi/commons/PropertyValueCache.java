@@ -0,0 +1,280 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import eu.bavenir.ogwapi.commons.messages.StatusMessage;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Cache of property values of remote objects. When many local objects (or adapters) read the same remote property
+ * every few seconds, each read would otherwise travel over the network to the remote OGWAPI and its agent. The cache
+ * is shared by all {@link ConnectionDescriptor ConnectionDescriptors}.
+ *
+ * Property values change all the time, so a cached value is only served when the caller allows it - by sending the
+ * {@link #PARAM_MAXAGE PARAM_MAXAGE} parameter with the number of seconds the value can be old, or by a default set
+ * with {@link #CONFIG_PARAM_PROPERTYCACHEMAXAGE CONFIG_PARAM_PROPERTYCACHEMAXAGE}. Every successful read refreshes
+ * the record. Records of a property are thrown away when a local object sets it. When there are more than
+ * {@link #CONFIG_PARAM_PROPERTYCACHESIZE CONFIG_PARAM_PROPERTYCACHESIZE} records, the least recently used one is
+ * dropped.
+ *
+ * One instance is created by the {@link CommunicationManager CommunicationManager}.
+ *
+ * @author sulfo
+ *
+ */
+public class PropertyValueCache {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the request parameter with the maximum age (in seconds) of a cached value the caller accepts. It is not
+	 * forwarded to the remote object.
+	 */
+	public static final String PARAM_MAXAGE = "maxAge";
+
+	/**
+	 * Name of the configuration parameter for the maximum number of property values kept in the cache. Zero turns the
+	 * cache off.
+	 */
+	private static final String CONFIG_PARAM_PROPERTYCACHESIZE = "general.propertyCacheSize";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_PROPERTYCACHESIZE CONFIG_PARAM_PROPERTYCACHESIZE} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_PROPERTYCACHESIZE = 1000;
+
+	/**
+	 * Name of the configuration parameter for the maximum age (in seconds) of a cached value, used when the request
+	 * does not contain the {@link #PARAM_MAXAGE PARAM_MAXAGE} parameter. Zero means the values are only served to
+	 * requests that ask for it.
+	 */
+	private static final String CONFIG_PARAM_PROPERTYCACHEMAXAGE = "general.propertyCacheMaxAge";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_PROPERTYCACHEMAXAGE CONFIG_PARAM_PROPERTYCACHEMAXAGE} configuration
+	 * parameter.
+	 */
+	private static final int CONFIG_DEF_PROPERTYCACHEMAXAGE = 0;
+
+	/**
+	 * Separator of the parts of a record key. Object IDs and property IDs don't contain it.
+	 */
+	private static final char KEY_SEPARATOR = '\n';
+
+
+	/* === FIELDS === */
+
+	/**
+	 * Maximum number of records, zero if the cache is off.
+	 */
+	private int maxSize;
+
+	/**
+	 * Maximum age of a served value when the request does not say otherwise (ms).
+	 */
+	private long defaultMaxAge;
+
+	/**
+	 * Records in access order, the eldest gets removed when the size limit is exceeded.
+	 */
+	private Map<String, CachedStatusMessage> records;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public PropertyValueCache(XMLConfiguration config, Logger logger) {
+
+		maxSize = config.getInt(CONFIG_PARAM_PROPERTYCACHESIZE, CONFIG_DEF_PROPERTYCACHESIZE);
+		if (maxSize < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_PROPERTYCACHESIZE
+					+ " in the configuration file: " + maxSize + ". Setting to default: "
+					+ CONFIG_DEF_PROPERTYCACHESIZE);
+
+			maxSize = CONFIG_DEF_PROPERTYCACHESIZE;
+		}
+
+		int maxAgeSeconds = config.getInt(CONFIG_PARAM_PROPERTYCACHEMAXAGE, CONFIG_DEF_PROPERTYCACHEMAXAGE);
+		if (maxAgeSeconds < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_PROPERTYCACHEMAXAGE
+					+ " in the configuration file: " + maxAgeSeconds + ". Setting to default: "
+					+ CONFIG_DEF_PROPERTYCACHEMAXAGE);
+
+			maxAgeSeconds = CONFIG_DEF_PROPERTYCACHEMAXAGE;
+		}
+		defaultMaxAge = maxAgeSeconds * 1000L;
+
+		final int size = maxSize;
+
+		records = new LinkedHashMap<String, CachedStatusMessage>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedStatusMessage> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+
+	/**
+	 * Whether the cache is turned on.
+	 *
+	 * @return True if records are kept.
+	 */
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+
+	/**
+	 * Returns the maximum age of a cached value the caller accepts. The {@link #PARAM_MAXAGE PARAM_MAXAGE} parameter
+	 * is removed from the parameters, since it is meant for this OGWAPI only.
+	 *
+	 * @param parameters Parameters of the request, modified.
+	 * @return Maximum age (ms), zero if no cached value is to be served.
+	 * @throws IllegalArgumentException If the parameter is not a non-negative number.
+	 */
+	public long takeMaxAge(Map<String, String> parameters) {
+
+		if (parameters == null || !parameters.containsKey(PARAM_MAXAGE)) {
+			return defaultMaxAge;
+		}
+
+		String value = parameters.remove(PARAM_MAXAGE);
+		long maxAgeSeconds;
+
+		try {
+			maxAgeSeconds = Long.parseLong(value.trim());
+		} catch (NumberFormatException | NullPointerException e) {
+			throw new IllegalArgumentException("Invalid " + PARAM_MAXAGE + " parameter: " + value);
+		}
+
+		if (maxAgeSeconds < 0) {
+			throw new IllegalArgumentException("Invalid " + PARAM_MAXAGE + " parameter: " + value);
+		}
+
+		return Math.min(maxAgeSeconds, Long.MAX_VALUE / 1000) * 1000;
+	}
+
+
+	/**
+	 * Returns a new status message with the cached value, if it is not older than allowed.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param propertyId ID of the property.
+	 * @param parameters Parameters of the request.
+	 * @param body Body of the request.
+	 * @param maxAge Maximum age of the value (ms).
+	 * @return Status message, or null if there is no record young enough.
+	 */
+	public StatusMessage get(String destinationOid, String propertyId, Map<String, String> parameters, String body,
+			long maxAge) {
+
+		if (!isEnabled() || maxAge <= 0 || destinationOid == null || propertyId == null) {
+			return null;
+		}
+
+		CachedStatusMessage record;
+
+		synchronized (records) {
+			record = records.get(makeKey(destinationOid, propertyId, parameters, body));
+		}
+
+		if (record == null || System.currentTimeMillis() - record.getCreatedAt() > maxAge) {
+			return null;
+		}
+
+		return record.toStatusMessage();
+	}
+
+
+	/**
+	 * Stores the value and returns a status message with it, to be passed on instead of the original. Error responses
+	 * are not stored.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param propertyId ID of the property.
+	 * @param parameters Parameters of the request.
+	 * @param body Body of the request.
+	 * @param statusMessage Status message with the response. It can't be used afterwards.
+	 * @return Status message to be used instead.
+	 */
+	public StatusMessage put(String destinationOid, String propertyId, Map<String, String> parameters, String body,
+			StatusMessage statusMessage) {
+
+		if (!isEnabled() || destinationOid == null || propertyId == null || statusMessage == null
+				|| statusMessage.isError()) {
+			return statusMessage;
+		}
+
+		CachedStatusMessage record = new CachedStatusMessage(statusMessage);
+
+		synchronized (records) {
+			records.put(makeKey(destinationOid, propertyId, parameters, body), record);
+		}
+
+		return record.toStatusMessage();
+	}
+
+
+	/**
+	 * Throws away all cached values of the property, whatever the parameters of the requests were.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param propertyId ID of the property.
+	 */
+	public void invalidate(String destinationOid, String propertyId) {
+
+		if (!isEnabled() || destinationOid == null || propertyId == null) {
+			return;
+		}
+
+		String prefix = destinationOid + KEY_SEPARATOR + propertyId + KEY_SEPARATOR;
+
+		synchronized (records) {
+			Iterator<String> iterator = records.keySet().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().startsWith(prefix)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Makes the key of a record. The parameters are sorted, so their order does not matter.
+	 */
+	private String makeKey(String destinationOid, String propertyId, Map<String, String> parameters, String body) {
+
+		StringBuilder builder = new StringBuilder(destinationOid);
+
+		builder.append(KEY_SEPARATOR).append(propertyId);
+		builder.append(KEY_SEPARATOR).append(parameters == null ? "" : new TreeMap<String, String>(parameters));
+		builder.append(KEY_SEPARATOR).append(body == null ? "" : body);
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,283 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import eu.bavenir.ogwapi.commons.messages.StatusMessage;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Cache of the capability documents of remote objects - their thing descriptions and lists of properties, actions and
+ * events. These change rarely, yet adapters tend to ask for them over and over, each time causing a round trip
+ * through the network. The {@link ConnectionDescriptor ConnectionDescriptors} look here first and only send the request
+ * when there is no valid record.
+ *
+ * A record is identified by the destination object ID, the operation and the parameters and body of the request. Only
+ * successful responses are kept. Records expire after {@link #CONFIG_PARAM_CAPABILITYCACHEEXPIRATION
+ * CONFIG_PARAM_CAPABILITYCACHEEXPIRATION} seconds and when there are more than {@link #CONFIG_PARAM_CAPABILITYCACHESIZE
+ * CONFIG_PARAM_CAPABILITYCACHESIZE} records, the least recently used one is dropped. All records of an object are
+ * thrown away when a different version of its thing description is seen, either in a response of the object itself or
+ * from the Neighbourhood Manager.
+ *
+ * One instance is created by the {@link CommunicationManager CommunicationManager}.
+ *
+ * @author sulfo
+ *
+ */
+public class RemoteCapabilityCache {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the configuration parameter for the number of seconds a capability document is kept in the cache. Zero
+	 * turns the cache off.
+	 */
+	private static final String CONFIG_PARAM_CAPABILITYCACHEEXPIRATION = "general.remoteCapabilityCacheExpiration";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_CAPABILITYCACHEEXPIRATION CONFIG_PARAM_CAPABILITYCACHEEXPIRATION}
+	 * configuration parameter.
+	 */
+	private static final int CONFIG_DEF_CAPABILITYCACHEEXPIRATION = 60;
+
+	/**
+	 * Name of the configuration parameter for the maximum number of capability documents kept in the cache.
+	 */
+	private static final String CONFIG_PARAM_CAPABILITYCACHESIZE = "general.remoteCapabilityCacheSize";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_CAPABILITYCACHESIZE CONFIG_PARAM_CAPABILITYCACHESIZE} configuration
+	 * parameter.
+	 */
+	private static final int CONFIG_DEF_CAPABILITYCACHESIZE = 1000;
+
+	/**
+	 * Separator of the parts of a record key. Object IDs don't contain it.
+	 */
+	private static final char KEY_SEPARATOR = '\n';
+
+
+	/* === FIELDS === */
+
+	/**
+	 * How long a record is kept (ms).
+	 */
+	private long expiration;
+
+	/**
+	 * Records in access order, the eldest gets removed when the size limit is exceeded.
+	 */
+	private Map<String, Record> records;
+
+	/**
+	 * Logger of the OGWAPI.
+	 */
+	private Logger logger;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public RemoteCapabilityCache(XMLConfiguration config, Logger logger) {
+
+		this.logger = logger;
+
+		int expirationSeconds = config.getInt(CONFIG_PARAM_CAPABILITYCACHEEXPIRATION,
+				CONFIG_DEF_CAPABILITYCACHEEXPIRATION);
+		if (expirationSeconds < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_CAPABILITYCACHEEXPIRATION
+					+ " in the configuration file: " + expirationSeconds + ". Setting to default: "
+					+ CONFIG_DEF_CAPABILITYCACHEEXPIRATION);
+
+			expirationSeconds = CONFIG_DEF_CAPABILITYCACHEEXPIRATION;
+		}
+		expiration = expirationSeconds * 1000L;
+
+		int size = config.getInt(CONFIG_PARAM_CAPABILITYCACHESIZE, CONFIG_DEF_CAPABILITYCACHESIZE);
+		if (size <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_CAPABILITYCACHESIZE
+					+ " in the configuration file: " + size + ". Setting to default: "
+					+ CONFIG_DEF_CAPABILITYCACHESIZE);
+
+			size = CONFIG_DEF_CAPABILITYCACHESIZE;
+		}
+		final int maxSize = size;
+
+		records = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+
+	/**
+	 * Whether the cache is turned on.
+	 *
+	 * @return True if records are kept.
+	 */
+	public boolean isEnabled() {
+		return expiration > 0;
+	}
+
+
+	/**
+	 * Returns a new status message with the cached response.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operation Operation, see {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest
+	 * NetworkMessageRequest}.
+	 * @param parameters Parameters of the request.
+	 * @param body Body of the request.
+	 * @return Status message, or null if there is no valid record.
+	 */
+	public StatusMessage get(String destinationOid, byte operation, Map<String, String> parameters, String body) {
+
+		if (!isEnabled() || destinationOid == null) {
+			return null;
+		}
+
+		String key = makeKey(destinationOid, operation, parameters, body);
+		Record record;
+
+		synchronized (records) {
+			record = records.get(key);
+
+			if (record == null) {
+				return null;
+			}
+
+			if (record.expiresAt < System.currentTimeMillis()) {
+				// keep it for comparison with the next response, but don't serve it
+				return null;
+			}
+		}
+
+		return record.content.toStatusMessage();
+	}
+
+
+	/**
+	 * Stores the response and returns a status message with it, to be passed on instead of the original. Error
+	 * responses are not stored. If the response is a thing description that differs from the one cached before, all
+	 * records of the remote object are thrown away.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operation Operation, see {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest
+	 * NetworkMessageRequest}.
+	 * @param parameters Parameters of the request.
+	 * @param body Body of the request.
+	 * @param statusMessage Status message with the response. It can't be used afterwards.
+	 * @param isThingDescription Whether the response carries the thing description of the remote object.
+	 * @return Status message to be used instead.
+	 */
+	public StatusMessage put(String destinationOid, byte operation, Map<String, String> parameters, String body,
+			StatusMessage statusMessage, boolean isThingDescription) {
+
+		if (!isEnabled() || destinationOid == null || statusMessage == null || statusMessage.isError()) {
+			return statusMessage;
+		}
+
+		Record record = new Record(new CachedStatusMessage(statusMessage), System.currentTimeMillis() + expiration);
+		String key = makeKey(destinationOid, operation, parameters, body);
+
+		synchronized (records) {
+			Record previous = records.put(key, record);
+
+			if (isThingDescription && previous != null && !previous.content.hasSameMessages(record.content)) {
+				logger.fine("Thing description of '" + destinationOid + "' changed, dropping its cached documents.");
+
+				removeRecordsOf(destinationOid);
+				records.put(key, record);
+			}
+		}
+
+		return record.content.toStatusMessage();
+	}
+
+
+	/**
+	 * Throws away all records of the remote object.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 */
+	public void invalidate(String destinationOid) {
+
+		if (!isEnabled() || destinationOid == null) {
+			return;
+		}
+
+		synchronized (records) {
+			removeRecordsOf(destinationOid);
+		}
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Removes all records of the remote object. Must be called with the lock on records.
+	 */
+	private void removeRecordsOf(String destinationOid) {
+
+		String prefix = destinationOid + KEY_SEPARATOR;
+
+		Iterator<String> iterator = records.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().startsWith(prefix)) {
+				iterator.remove();
+			}
+		}
+	}
+
+
+	/**
+	 * Makes the key of a record. The parameters are sorted, so their order does not matter.
+	 */
+	private String makeKey(String destinationOid, byte operation, Map<String, String> parameters, String body) {
+
+		StringBuilder builder = new StringBuilder(destinationOid);
+
+		builder.append(KEY_SEPARATOR).append(operation);
+		builder.append(KEY_SEPARATOR).append(parameters == null ? "" : new TreeMap<String, String>(parameters));
+		builder.append(KEY_SEPARATOR).append(body == null ? "" : body);
+
+		return builder.toString();
+	}
+
+
+	/**
+	 * A record in the cache.
+	 */
+	private static class Record {
+
+		private final CachedStatusMessage content;
+		private final long expiresAt;
+
+		private Record(CachedStatusMessage content, long expiresAt) {
+			this.content = content;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Limits the number of requests to remote objects that are in progress at the same time. Without it, one misbehaving
+ * adapter can open hundreds of requests, each waiting for up to the request timeout, and take the API threads and the
+ * attention of remote objects from everybody else.
+ *
+ * There are two limits - the number of requests a local (source) object can have in progress,
+ * {@link #CONFIG_PARAM_MAXREQUESTSPERSOURCE CONFIG_PARAM_MAXREQUESTSPERSOURCE}, and the number of requests sent to
+ * one remote (destination) object by all the local objects together, {@link #CONFIG_PARAM_MAXREQUESTSPERDESTINATION
+ * CONFIG_PARAM_MAXREQUESTSPERDESTINATION}. A request that would exceed any of them is handled according to
+ * {@link #CONFIG_PARAM_ADMISSIONPOLICY CONFIG_PARAM_ADMISSIONPOLICY}:
+ *
+ * reject
+ *
+ * The request is refused right away and the caller gets 429 Too many requests.
+ *
+ *
+ * queue
+ *
+ * The request waits until the other requests finish, in the order of arrival. At most
+ * {@link #CONFIG_PARAM_ADMISSIONQUEUESIZE CONFIG_PARAM_ADMISSIONQUEUESIZE} requests of one source object can wait,
+ * the following ones are refused.
+ *
+ * One instance is created by the {@link CommunicationManager CommunicationManager}. The number of requests in
+ * progress and waiting can be read at any time, see {@link #getInProgress(String) getInProgress} and
+ * {@link #getWaiting(String) getWaiting}.
+ *
+ * @author sulfo
+ *
+ */
+public class RequestAdmission {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the configuration parameter for the maximum number of requests a local object can have in progress.
+	 * Zero means no limit.
+	 */
+	private static final String CONFIG_PARAM_MAXREQUESTSPERSOURCE = "general.maxRequestsPerSource";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_MAXREQUESTSPERSOURCE CONFIG_PARAM_MAXREQUESTSPERSOURCE} configuration
+	 * parameter.
+	 */
+	private static final int CONFIG_DEF_MAXREQUESTSPERSOURCE = 100;
+
+	/**
+	 * Name of the configuration parameter for the maximum number of requests in progress to one remote object. Zero
+	 * means no limit.
+	 */
+	private static final String CONFIG_PARAM_MAXREQUESTSPERDESTINATION = "general.maxRequestsPerDestination";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_MAXREQUESTSPERDESTINATION CONFIG_PARAM_MAXREQUESTSPERDESTINATION}
+	 * configuration parameter.
+	 */
+	private static final int CONFIG_DEF_MAXREQUESTSPERDESTINATION = 0;
+
+	/**
+	 * Name of the configuration parameter for what happens to a request over the limit.
+	 */
+	private static final String CONFIG_PARAM_ADMISSIONPOLICY = "general.admissionPolicy";
+
+	/**
+	 * String value of the policy that refuses the requests over the limit.
+	 */
+	private static final String ADMISSIONPOLICY_STRING_REJECT = "reject";
+
+	/**
+	 * String value of the policy that lets the requests over the limit wait.
+	 */
+	private static final String ADMISSIONPOLICY_STRING_QUEUE = "queue";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_ADMISSIONPOLICY CONFIG_PARAM_ADMISSIONPOLICY} configuration parameter.
+	 */
+	private static final String CONFIG_DEF_ADMISSIONPOLICY = ADMISSIONPOLICY_STRING_QUEUE;
+
+	/**
+	 * Name of the configuration parameter for the maximum number of waiting requests of one local object.
+	 */
+	private static final String CONFIG_PARAM_ADMISSIONQUEUESIZE = "general.admissionQueueSize";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_ADMISSIONQUEUESIZE CONFIG_PARAM_ADMISSIONQUEUESIZE} configuration
+	 * parameter.
+	 */
+	private static final int CONFIG_DEF_ADMISSIONQUEUESIZE = 1000;
+
+
+	/* === FIELDS === */
+
+	/**
+	 * Maximum number of requests of one source object in progress, 0 for no limit.
+	 */
+	private int maxPerSource;
+
+	/**
+	 * Maximum number of requests to one destination object in progress, 0 for no limit.
+	 */
+	private int maxPerDestination;
+
+	/**
+	 * Whether the requests over the limit wait, instead of being refused.
+	 */
+	private boolean queueing;
+
+	/**
+	 * Maximum number of waiting requests of one source object.
+	 */
+	private int queueSize;
+
+	/**
+	 * Usage by source object ID. Guarded by the lock on waiting.
+	 */
+	private Map<String, Usage> sources;
+
+	/**
+	 * Usage by destination object ID. Guarded by the lock on waiting.
+	 */
+	private Map<String, Usage> destinations;
+
+	/**
+	 * Waiting requests in the order of arrival.
+	 */
+	private List<Waiting> waiting;
+
+	/**
+	 * Threads that carry on with the requests admitted after waiting.
+	 */
+	private WorkerThreads workerThreads;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 * @param workerThreads Threads that carry on with the requests admitted after waiting.
+	 */
+	public RequestAdmission(XMLConfiguration config, Logger logger, WorkerThreads workerThreads) {
+
+		this.workerThreads = workerThreads;
+
+		maxPerSource = config.getInt(CONFIG_PARAM_MAXREQUESTSPERSOURCE, CONFIG_DEF_MAXREQUESTSPERSOURCE);
+		if (maxPerSource < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_MAXREQUESTSPERSOURCE
+					+ " in the configuration file: " + maxPerSource + ". Setting to default: "
+					+ CONFIG_DEF_MAXREQUESTSPERSOURCE);
+
+			maxPerSource = CONFIG_DEF_MAXREQUESTSPERSOURCE;
+		}
+
+		maxPerDestination = config.getInt(CONFIG_PARAM_MAXREQUESTSPERDESTINATION,
+				CONFIG_DEF_MAXREQUESTSPERDESTINATION);
+		if (maxPerDestination < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_MAXREQUESTSPERDESTINATION
+					+ " in the configuration file: " + maxPerDestination + ". Setting to default: "
+					+ CONFIG_DEF_MAXREQUESTSPERDESTINATION);
+
+			maxPerDestination = CONFIG_DEF_MAXREQUESTSPERDESTINATION;
+		}
+
+		String policy = config.getString(CONFIG_PARAM_ADMISSIONPOLICY, CONFIG_DEF_ADMISSIONPOLICY);
+		if (policy.equals(ADMISSIONPOLICY_STRING_QUEUE)) {
+			queueing = true;
+		} else if (policy.equals(ADMISSIONPOLICY_STRING_REJECT)) {
+			queueing = false;
+		} else {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_ADMISSIONPOLICY
+					+ " in the configuration file: " + policy + ". Setting to default: " + CONFIG_DEF_ADMISSIONPOLICY);
+
+			queueing = true;
+		}
+
+		queueSize = config.getInt(CONFIG_PARAM_ADMISSIONQUEUESIZE, CONFIG_DEF_ADMISSIONQUEUESIZE);
+		if (queueSize <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_ADMISSIONQUEUESIZE
+					+ " in the configuration file: " + queueSize + ". Setting to default: "
+					+ CONFIG_DEF_ADMISSIONQUEUESIZE);
+
+			queueSize = CONFIG_DEF_ADMISSIONQUEUESIZE;
+		}
+
+		sources = new HashMap<String, Usage>();
+		destinations = new HashMap<String, Usage>();
+		waiting = new LinkedList<Waiting>();
+	}
+
+
+	/**
+	 * Asks for a permission to send a request. If it is given, the caller has to {@link #release(String, String)
+	 * release} it when the request is finished.
+	 *
+	 * @param sourceOid ID of the local object that sends the request.
+	 * @param destinationOid ID of the remote object.
+	 * @return Future that is completed with true when the request can be sent, or with false if it was refused. It is
+	 * already completed unless the request has to wait.
+	 */
+	public CompletableFuture<Boolean> admit(String sourceOid, String destinationOid) {
+
+		synchronized (waiting) {
+
+			Usage source = sources.computeIfAbsent(sourceOid, key -> new Usage());
+			Usage destination = destinations.computeIfAbsent(destinationOid, key -> new Usage());
+
+			// nobody should overtake the requests that already wait
+			if (source.queued == 0 && destination.queued == 0 && hasRoom(source, destination)) {
+
+				source.inProgress++;
+				destination.inProgress++;
+
+				return CompletableFuture.completedFuture(true);
+			}
+
+			if (!queueing || source.queued >= queueSize) {
+
+				removeIfUnused(sourceOid, source, destinationOid, destination);
+
+				return CompletableFuture.completedFuture(false);
+			}
+
+			Waiting request = new Waiting(sourceOid, destinationOid);
+
+			source.queued++;
+			destination.queued++;
+			waiting.add(request);
+
+			return request.admission;
+		}
+	}
+
+
+	/**
+	 * Gives up waiting for the permission, e.g. because the caller does not wait for the response anymore. The future
+	 * returned by {@link #admit(String, String) admit} is completed with false, unless the request was admitted in the
+	 * meantime.
+	 *
+	 * @param admission The future returned by admit.
+	 */
+	public void giveUp(CompletableFuture<Boolean> admission) {
+
+		Waiting request = null;
+
+		synchronized (waiting) {
+
+			Iterator<Waiting> iterator = waiting.iterator();
+			while (iterator.hasNext()) {
+
+				Waiting next = iterator.next();
+
+				if (next.admission == admission) {
+					iterator.remove();
+					request = next;
+					break;
+				}
+			}
+
+			if (request == null) {
+				return;
+			}
+
+			Usage source = sources.get(request.sourceOid);
+			Usage destination = destinations.get(request.destinationOid);
+
+			source.queued--;
+			destination.queued--;
+
+			removeIfUnused(request.sourceOid, source, request.destinationOid, destination);
+		}
+
+		request.admission.complete(false);
+	}
+
+
+	/**
+	 * Releases the permission given by {@link #admit(String, String) admit} and lets the waiting requests, that fit
+	 * in the limits now, go.
+	 *
+	 * @param sourceOid ID of the local object that sent the request.
+	 * @param destinationOid ID of the remote object.
+	 */
+	public void release(String sourceOid, String destinationOid) {
+
+		List<Waiting> admitted = new ArrayList<Waiting>();
+
+		synchronized (waiting) {
+
+			Usage source = sources.get(sourceOid);
+			Usage destination = destinations.get(destinationOid);
+
+			if (source == null || destination == null) {
+				return;
+			}
+
+			source.inProgress--;
+			destination.inProgress--;
+
+			removeIfUnused(sourceOid, source, destinationOid, destination);
+
+			Iterator<Waiting> iterator = waiting.iterator();
+			while (iterator.hasNext()) {
+
+				Waiting next = iterator.next();
+
+				Usage nextSource = sources.get(next.sourceOid);
+				Usage nextDestination = destinations.get(next.destinationOid);
+
+				if (hasRoom(nextSource, nextDestination)) {
+
+					iterator.remove();
+
+					nextSource.queued--;
+					nextDestination.queued--;
+					nextSource.inProgress++;
+					nextDestination.inProgress++;
+
+					admitted.add(next);
+				}
+			}
+		}
+
+		// the requests go on other threads, this one is usually busy with processing of a response
+		for (Waiting request : admitted) {
+			workerThreads.supplyAsync(() -> request.admission.complete(true));
+		}
+	}
+
+
+	/**
+	 * Returns the number of requests of the local object in progress.
+	 *
+	 * @param sourceOid ID of the local object.
+	 * @return Number of requests.
+	 */
+	public int getInProgress(String sourceOid) {
+
+		synchronized (waiting) {
+			Usage source = sources.get(sourceOid);
+
+			return source == null ? 0 : source.inProgress;
+		}
+	}
+
+
+	/**
+	 * Returns the number of requests of the local object waiting to be sent.
+	 *
+	 * @param sourceOid ID of the local object.
+	 * @return Number of requests.
+	 */
+	public int getWaiting(String sourceOid) {
+
+		synchronized (waiting) {
+			Usage source = sources.get(sourceOid);
+
+			return source == null ? 0 : source.queued;
+		}
+	}
+
+
+	/**
+	 * Returns the number of requests of all local objects in progress.
+	 *
+	 * @return Number of requests.
+	 */
+	public int getInProgress() {
+
+		int inProgress = 0;
+
+		synchronized (waiting) {
+			for (Usage source : sources.values()) {
+				inProgress += source.inProgress;
+			}
+		}
+
+		return inProgress;
+	}
+
+
+	/**
+	 * Returns the number of requests of all local objects waiting to be sent.
+	 *
+	 * @return Number of requests.
+	 */
+	public int getWaiting() {
+
+		synchronized (waiting) {
+			return waiting.size();
+		}
+	}
+
+
+	/**
+	 * Returns the maximum number of requests a local object can have in progress.
+	 *
+	 * @return The limit, 0 if there is none.
+	 */
+	public int getMaxPerSource() {
+		return maxPerSource;
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Whether one more request fits in the limits of both objects.
+	 */
+	private boolean hasRoom(Usage source, Usage destination) {
+
+		return (maxPerSource == 0 || source.inProgress < maxPerSource)
+				&& (maxPerDestination == 0 || destination.inProgress < maxPerDestination);
+	}
+
+
+	/**
+	 * Forgets the objects with no requests, so the maps don't grow with every object ever contacted. Must be called
+	 * with the lock on waiting.
+	 */
+	private void removeIfUnused(String sourceOid, Usage source, String destinationOid, Usage destination) {
+
+		if (source.inProgress == 0 && source.queued == 0) {
+			sources.remove(sourceOid);
+		}
+
+		if (destination.inProgress == 0 && destination.queued == 0) {
+			destinations.remove(destinationOid);
+		}
+	}
+
+
+	/**
+	 * Number of requests of an object in progress and waiting.
+	 */
+	private static class Usage {
+
+		private int inProgress;
+		private int queued;
+	}
+
+
+	/**
+	 * A request waiting for admission.
+	 */
+	private static class Waiting {
+
+		private final String sourceOid;
+		private final String destinationOid;
+		private final CompletableFuture<Boolean> admission;
+
+		private Waiting(String sourceOid, String destinationOid) {
+			this.sourceOid = sourceOid;
+			this.destinationOid = destinationOid;
+			this.admission = new CompletableFuture<Boolean>();
+		}
+	}
+}
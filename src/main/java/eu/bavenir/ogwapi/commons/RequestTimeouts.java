@@ -0,0 +1,441 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import eu.bavenir.ogwapi.commons.messages.NetworkMessage;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Timeouts of requests sent to remote objects. With one timeout for everybody, a lost request to a fast object is
+ * only detected after the whole {@link NetworkMessage#CONFIG_PARAM_REQUESTMESSAGETIMEOUT
+ * CONFIG_PARAM_REQUESTMESSAGETIMEOUT}, while a slow object (e.g. battery powered) may need all of it. Instead, the
+ * latencies of the last responses of each destination object are kept and its timeout is set to
+ * {@link #TIMEOUT_FACTOR TIMEOUT_FACTOR} times their {@link #CONFIG_PARAM_TIMEOUTPERCENTILE
+ * CONFIG_PARAM_TIMEOUTPERCENTILE} percentile, kept between {@link #CONFIG_PARAM_TIMEOUTFLOOR CONFIG_PARAM_TIMEOUTFLOOR}
+ * and {@link #CONFIG_PARAM_TIMEOUTCEILING CONFIG_PARAM_TIMEOUTCEILING}. The latencies are kept separately for each
+ * operation, since e.g. reading a property value usually takes much less than starting an action on the same object.
+ *
+ * Until enough responses of a destination are known, the ceiling is used. A request that times out counts as enough
+ * responses that took as long as the timeout to move the percentile up to it, so each timeout at least doubles the
+ * timeout of the destination (up to the ceiling). A caller can also set the timeout of one request by the
+ * {@link #PARAM_REQUESTTIMEOUT PARAM_REQUESTTIMEOUT} parameter.
+ *
+ * The same latencies tell when a request that can safely be executed twice should be sent again, in case it got lost
+ * on the way, see {@link #getHedgeDelay(String) getHedgeDelay}.
+ *
+ * One instance is created by the {@link CommunicationManager CommunicationManager}.
+ *
+ * @author sulfo
+ *
+ */
+public class RequestTimeouts {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the request parameter with the timeout (in seconds) of one request. It is not forwarded to the remote
+	 * object.
+	 */
+	public static final String PARAM_REQUESTTIMEOUT = "requestTimeout";
+
+	/**
+	 * Name of the configuration parameter for turning the adaptive timeouts on. If off, all requests use the
+	 * ceiling.
+	 */
+	private static final String CONFIG_PARAM_ADAPTIVETIMEOUTS = "general.adaptiveTimeouts";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_ADAPTIVETIMEOUTS CONFIG_PARAM_ADAPTIVETIMEOUTS} configuration parameter.
+	 */
+	private static final boolean CONFIG_DEF_ADAPTIVETIMEOUTS = true;
+
+	/**
+	 * Name of the configuration parameter for the shortest timeout (in seconds).
+	 */
+	private static final String CONFIG_PARAM_TIMEOUTFLOOR = "general.requestTimeoutFloor";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_TIMEOUTFLOOR CONFIG_PARAM_TIMEOUTFLOOR} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_TIMEOUTFLOOR = 5;
+
+	/**
+	 * Name of the configuration parameter for the longest timeout (in seconds). By default it is the
+	 * {@link NetworkMessage#CONFIG_PARAM_REQUESTMESSAGETIMEOUT CONFIG_PARAM_REQUESTMESSAGETIMEOUT}.
+	 */
+	private static final String CONFIG_PARAM_TIMEOUTCEILING = "general.requestTimeoutCeiling";
+
+	/**
+	 * Name of the configuration parameter for the percentile of latencies the timeout is derived from.
+	 */
+	private static final String CONFIG_PARAM_TIMEOUTPERCENTILE = "general.requestTimeoutPercentile";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_TIMEOUTPERCENTILE CONFIG_PARAM_TIMEOUTPERCENTILE} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_TIMEOUTPERCENTILE = 99;
+
+	/**
+	 * Name of the configuration parameter for turning the repeated sending of idempotent requests on.
+	 */
+	private static final String CONFIG_PARAM_HEDGEDREQUESTS = "general.hedgedRequests";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_HEDGEDREQUESTS CONFIG_PARAM_HEDGEDREQUESTS} configuration parameter.
+	 */
+	private static final boolean CONFIG_DEF_HEDGEDREQUESTS = false;
+
+	/**
+	 * Percentile of latencies after which a request is sent again.
+	 */
+	private static final int HEDGE_PERCENTILE = 95;
+
+	/**
+	 * Shortest time after which a request is sent again (ms). Faster destinations, like the local ones, would just
+	 * get every slower request twice.
+	 */
+	private static final long MIN_HEDGE_DELAY = 100;
+
+	/**
+	 * The timeout is this many times the percentile of latencies, so an occasional slower response still makes it.
+	 */
+	private static final int TIMEOUT_FACTOR = 2;
+
+	/**
+	 * Number of latencies kept for each destination.
+	 */
+	private static final int SAMPLES = 100;
+
+	/**
+	 * Number of latencies needed before the timeout of a destination is derived from them.
+	 */
+	private static final int MIN_SAMPLES = 10;
+
+	/**
+	 * Maximum number of destinations and operations whose latencies are kept. The least recently used one is dropped.
+	 */
+	private static final int MAX_SERIES = 10000;
+
+
+	/* === FIELDS === */
+
+	/**
+	 * Whether the timeouts are derived from latencies.
+	 */
+	private boolean adaptive;
+
+	/**
+	 * Shortest timeout (ms).
+	 */
+	private long floor;
+
+	/**
+	 * Longest timeout (ms).
+	 */
+	private long ceiling;
+
+	/**
+	 * Percentile of latencies.
+	 */
+	private int percentile;
+
+	/**
+	 * Whether idempotent requests are sent again when their response is late.
+	 */
+	private boolean hedged;
+
+	/**
+	 * Latencies by destination object ID and operation, in access order.
+	 */
+	private Map<String, Latencies> destinations;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public RequestTimeouts(XMLConfiguration config, Logger logger) {
+
+		adaptive = config.getBoolean(CONFIG_PARAM_ADAPTIVETIMEOUTS, CONFIG_DEF_ADAPTIVETIMEOUTS);
+
+		int defaultCeiling = config.getInt(NetworkMessage.CONFIG_PARAM_REQUESTMESSAGETIMEOUT,
+				NetworkMessage.CONFIG_DEF_REQUESTMESSAGETIMEOUT);
+
+		int ceilingSeconds = config.getInt(CONFIG_PARAM_TIMEOUTCEILING, defaultCeiling);
+		if (ceilingSeconds <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_TIMEOUTCEILING
+					+ " in the configuration file: " + ceilingSeconds + ". Setting to default: " + defaultCeiling);
+
+			ceilingSeconds = defaultCeiling;
+		}
+		ceiling = ceilingSeconds * 1000L;
+
+		int floorSeconds = config.getInt(CONFIG_PARAM_TIMEOUTFLOOR, CONFIG_DEF_TIMEOUTFLOOR);
+		if (floorSeconds <= 0 || floorSeconds > ceilingSeconds) {
+			int defaultFloor = Math.min(CONFIG_DEF_TIMEOUTFLOOR, ceilingSeconds);
+
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_TIMEOUTFLOOR
+					+ " in the configuration file: " + floorSeconds + ". Setting to default: " + defaultFloor);
+
+			floorSeconds = defaultFloor;
+		}
+		floor = floorSeconds * 1000L;
+
+		percentile = config.getInt(CONFIG_PARAM_TIMEOUTPERCENTILE, CONFIG_DEF_TIMEOUTPERCENTILE);
+		if (percentile <= 0 || percentile > 100) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_TIMEOUTPERCENTILE
+					+ " in the configuration file: " + percentile + ". Setting to default: "
+					+ CONFIG_DEF_TIMEOUTPERCENTILE);
+
+			percentile = CONFIG_DEF_TIMEOUTPERCENTILE;
+		}
+
+		hedged = config.getBoolean(CONFIG_PARAM_HEDGEDREQUESTS, CONFIG_DEF_HEDGEDREQUESTS);
+		if (hedged && !adaptive) {
+			logger.warning(CONFIG_PARAM_HEDGEDREQUESTS + " needs " + CONFIG_PARAM_ADAPTIVETIMEOUTS
+					+ " to be enabled, requests will not be sent again.");
+		}
+
+		destinations = new LinkedHashMap<String, Latencies>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Latencies> eldest) {
+				return size() > MAX_SERIES;
+			}
+		};
+	}
+
+
+	/**
+	 * Returns the timeout of a request to the destination. If the parameters contain the
+	 * {@link #PARAM_REQUESTTIMEOUT PARAM_REQUESTTIMEOUT} parameter, it is removed from them and its value is used,
+	 * kept between one second and the ceiling.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operationId ID of the operation, see {@link eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest
+	 * NetworkMessageRequest}.
+	 * @param parameters Parameters of the request, modified.
+	 * @return Timeout (ms).
+	 */
+	public long takeTimeout(String destinationOid, byte operationId, Map<String, String> parameters) {
+
+		if (parameters != null && parameters.containsKey(PARAM_REQUESTTIMEOUT)) {
+
+			String value = parameters.remove(PARAM_REQUESTTIMEOUT);
+
+			try {
+				long requested = Long.parseLong(value.trim()) * 1000L;
+
+				return Math.max(1000L, Math.min(requested, ceiling));
+
+			} catch (NumberFormatException | NullPointerException e) {
+				// ignore it, as if it was not there
+			}
+		}
+
+		return getTimeout(destinationOid, operationId);
+	}
+
+
+	/**
+	 * Returns the timeout of a request to the destination, derived from the latencies of its previous responses to
+	 * the same operation.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operationId ID of the operation.
+	 * @return Timeout (ms).
+	 */
+	public long getTimeout(String destinationOid, byte operationId) {
+
+		if (!adaptive || destinationOid == null) {
+			return ceiling;
+		}
+
+		Latencies latencies;
+
+		synchronized (destinations) {
+			latencies = destinations.get(makeKey(destinationOid, operationId));
+		}
+
+		if (latencies == null) {
+			return ceiling;
+		}
+
+		long latency = latencies.getPercentile(percentile);
+
+		if (latency < 0) {
+			return ceiling;
+		}
+
+		return Math.max(floor, Math.min(latency * TIMEOUT_FACTOR, ceiling));
+	}
+
+
+	/**
+	 * Returns the time after which a request to the destination is sent again if its response did not arrive yet -
+	 * the {@link #HEDGE_PERCENTILE HEDGE_PERCENTILE} percentile of latencies of the destination. Only for requests 
+	 * that can safely be executed twice, the receiving OGWAPI drops the copy if the original arrived.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operationId ID of the operation.
+	 * @return Delay (ms), or -1 if the request should not be sent again.
+	 */
+	public long getHedgeDelay(String destinationOid, byte operationId) {
+
+		if (!hedged || !adaptive || destinationOid == null) {
+			return -1;
+		}
+
+		Latencies latencies;
+
+		synchronized (destinations) {
+			latencies = destinations.get(makeKey(destinationOid, operationId));
+		}
+
+		if (latencies == null) {
+			return -1;
+		}
+
+		long latency = latencies.getPercentile(HEDGE_PERCENTILE);
+
+		if (latency < 0) {
+			return -1;
+		}
+
+		return Math.max(MIN_HEDGE_DELAY, latency);
+	}
+
+
+	/**
+	 * Records the time it took the destination to respond.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operationId ID of the operation.
+	 * @param latency Time between sending the request and receiving the response (ms).
+	 */
+	public void recordLatency(String destinationOid, byte operationId, long latency) {
+
+		Latencies latencies = getLatencies(destinationOid, operationId);
+
+		if (latencies != null) {
+			latencies.add(Math.max(0, latency), 1);
+		}
+	}
+
+
+	/**
+	 * Records a request to the destination that timed out. We only know the response takes at least this long, so
+	 * the timeout is recorded as many times as needed to make it the {@link #CONFIG_PARAM_TIMEOUTPERCENTILE
+	 * CONFIG_PARAM_TIMEOUTPERCENTILE} percentile (or less) - a single timed out sample would be ignored by e.g. the
+	 * 99th percentile of 100 samples. The next timeout is then at least {@link #TIMEOUT_FACTOR TIMEOUT_FACTOR} times
+	 * longer.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operationId ID of the operation.
+	 * @param timeout The timeout of the request (ms).
+	 */
+	public void recordTimeout(String destinationOid, byte operationId, long timeout) {
+
+		Latencies latencies = getLatencies(destinationOid, operationId);
+
+		if (latencies != null) {
+			latencies.add(Math.max(0, timeout), SAMPLES * (100 - percentile) / 100 + 1);
+		}
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Returns the latencies of the destination and operation, creates them if needed.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operationId ID of the operation.
+	 * @return Latencies, or null if they are not kept.
+	 */
+	private Latencies getLatencies(String destinationOid, byte operationId) {
+
+		if (!adaptive || destinationOid == null) {
+			return null;
+		}
+
+		synchronized (destinations) {
+			return destinations.computeIfAbsent(makeKey(destinationOid, operationId), key -> new Latencies());
+		}
+	}
+
+
+	/**
+	 * Makes the key of latencies of one destination and operation.
+	 *
+	 * @param destinationOid ID of the remote object.
+	 * @param operationId ID of the operation.
+	 * @return Key.
+	 */
+	private static String makeKey(String destinationOid, byte operationId) {
+
+		return destinationOid + "/" + operationId;
+	}
+
+	/**
+	 * The last latencies of one destination.
+	 */
+	private static class Latencies {
+
+		private final long[] samples = new long[SAMPLES];
+		private int count;
+		private int next;
+
+		private synchronized void add(long latency, int times) {
+
+			for (int i = 0; i < Math.min(times, SAMPLES); i++) {
+				samples[next] = latency;
+				next = (next + 1) % SAMPLES;
+
+				if (count < SAMPLES) {
+					count++;
+				}
+			}
+		}
+
+		/**
+		 * Returns the percentile, or -1 if there are not enough samples.
+		 */
+		private long getPercentile(int percentile) {
+
+			long[] sorted;
+
+			synchronized (this) {
+				if (count < MIN_SAMPLES) {
+					return -1;
+				}
+
+				sorted = Arrays.copyOf(samples, count);
+			}
+
+			Arrays.sort(sorted);
+
+			int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+	}
+}
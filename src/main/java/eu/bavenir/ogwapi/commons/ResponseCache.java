@@ -0,0 +1,295 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest;
+import eu.bavenir.ogwapi.commons.messages.NetworkMessageResponse;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Cache of the responses to the requests that change something on a local object - setting a property and starting
+ * an action. Adapters retry such requests when the response does not arrive in time, and without the cache, the agent
+ * would set the property twice or a second task would be started. A retried request gets the response to the
+ * original one instead, or waits for it if the original is still being executed.
+ *
+ * A request is identified by its source object ID, operation, attributes (the property or action ID) and the {@link
+ * #PARAM_IDEMPOTENCYKEY PARAM_IDEMPOTENCYKEY} parameter set by the adapter. A retry made by the adapter is a new
+ * request with a new ID, so only the requests with the key are cached, the others are always executed. Error
+ * responses are not kept, so the request can be tried again.
+ *
+ * Records expire after {@link #CONFIG_PARAM_RESPONSECACHEEXPIRATION CONFIG_PARAM_RESPONSECACHEEXPIRATION} seconds and
+ * when there are more than {@link #CONFIG_PARAM_RESPONSECACHESIZE CONFIG_PARAM_RESPONSECACHESIZE} records, the least
+ * recently used one is dropped.
+ *
+ * Each {@link ConnectionDescriptor ConnectionDescriptor} has its own instance.
+ *
+ * @author sulfo
+ *
+ */
+public class ResponseCache {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the request parameter with the key that identifies the request and its retries.
+	 */
+	public static final String PARAM_IDEMPOTENCYKEY = "idempotencyKey";
+
+	/**
+	 * Name of the configuration parameter for the number of seconds a response is kept. Zero turns the cache off.
+	 */
+	private static final String CONFIG_PARAM_RESPONSECACHEEXPIRATION = "general.responseCacheExpiration";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_RESPONSECACHEEXPIRATION CONFIG_PARAM_RESPONSECACHEEXPIRATION}
+	 * configuration parameter.
+	 */
+	private static final int CONFIG_DEF_RESPONSECACHEEXPIRATION = 300;
+
+	/**
+	 * Name of the configuration parameter for the maximum number of responses kept for one object.
+	 */
+	private static final String CONFIG_PARAM_RESPONSECACHESIZE = "general.responseCacheSize";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_RESPONSECACHESIZE CONFIG_PARAM_RESPONSECACHESIZE} configuration
+	 * parameter.
+	 */
+	private static final int CONFIG_DEF_RESPONSECACHESIZE = 1000;
+
+	/**
+	 * Separator of the parts of a record key. Object IDs don't contain it.
+	 */
+	private static final char KEY_SEPARATOR = '\n';
+
+
+	/* === FIELDS === */
+
+	/**
+	 * How long a record is kept (ms).
+	 */
+	private long expiration;
+
+	/**
+	 * Records in access order, the eldest gets removed when the size limit is exceeded.
+	 */
+	private Map<String, Record> records;
+
+	/**
+	 * Configuration of the OGWAPI.
+	 */
+	private XMLConfiguration config;
+
+	/**
+	 * Logger of the OGWAPI.
+	 */
+	private Logger logger;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public ResponseCache(XMLConfiguration config, Logger logger) {
+
+		this.config = config;
+		this.logger = logger;
+
+		int expirationSeconds = config.getInt(CONFIG_PARAM_RESPONSECACHEEXPIRATION,
+				CONFIG_DEF_RESPONSECACHEEXPIRATION);
+		if (expirationSeconds < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_RESPONSECACHEEXPIRATION
+					+ " in the configuration file: " + expirationSeconds + ". Setting to default: "
+					+ CONFIG_DEF_RESPONSECACHEEXPIRATION);
+
+			expirationSeconds = CONFIG_DEF_RESPONSECACHEEXPIRATION;
+		}
+		expiration = expirationSeconds * 1000L;
+
+		int size = config.getInt(CONFIG_PARAM_RESPONSECACHESIZE, CONFIG_DEF_RESPONSECACHESIZE);
+		if (size <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_RESPONSECACHESIZE
+					+ " in the configuration file: " + size + ". Setting to default: "
+					+ CONFIG_DEF_RESPONSECACHESIZE);
+
+			size = CONFIG_DEF_RESPONSECACHESIZE;
+		}
+		final int maxSize = size;
+
+		records = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+
+	/**
+	 * Starts the execution of a request. If the same request was executed before (or is being executed), its future
+	 * response is returned and the request should not be executed again. Otherwise the request is recorded and the
+	 * caller has to {@link #complete(NetworkMessageRequest, NetworkMessageResponse) complete} it. The original
+	 * request may fail, then the future is completed with null.
+	 *
+	 * @param request The request.
+	 * @return Future response to the original request, or null if this request is to be executed.
+	 */
+	public CompletableFuture<NetworkMessageResponse> begin(NetworkMessageRequest request) {
+
+		String key = makeKey(request);
+
+		if (expiration == 0 || key == null) {
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+
+		synchronized (records) {
+
+			Record record = records.get(key);
+
+			if (record != null && record.expiresAt >= now) {
+				return record.response;
+			}
+
+			records.put(key, new Record(new CompletableFuture<NetworkMessageResponse>(), now + expiration));
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Records the response to a request started by {@link #begin(NetworkMessageRequest) begin} and hands it over to
+	 * the retries waiting for it. An error response, or null if the execution failed, is not kept.
+	 *
+	 * @param request The request.
+	 * @param response Its response.
+	 */
+	public void complete(NetworkMessageRequest request, NetworkMessageResponse response) {
+
+		String key = makeKey(request);
+
+		if (expiration == 0 || key == null) {
+			return;
+		}
+
+		Record record;
+
+		synchronized (records) {
+
+			record = records.get(key);
+
+			if (record == null) {
+				return;
+			}
+
+			if (response == null || response.isError()) {
+				records.remove(key);
+			}
+		}
+
+		record.response.complete(response == null ? null : copyOf(response));
+	}
+
+
+	/**
+	 * Makes a response to a retried request from the response to the original one.
+	 *
+	 * @param response Response to the original request.
+	 * @param request The retried request.
+	 * @return New response.
+	 */
+	public NetworkMessageResponse respondTo(NetworkMessageResponse response, NetworkMessageRequest request) {
+
+		NetworkMessageResponse copy = copyOf(response);
+		copy.setRequestId(request.getRequestId());
+
+		logger.fine("Responding to request " + request.getRequestId() + " from " + request.getSourceOid()
+				+ " with a cached response.");
+
+		return copy;
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Copies the content of the response, so it does not change with the original.
+	 */
+	private NetworkMessageResponse copyOf(NetworkMessageResponse response) {
+
+		NetworkMessageResponse copy = new NetworkMessageResponse(config, logger, response.isError(),
+				response.getResponseCode(), response.getResponseCodeReason(), response.getContentType(),
+				response.getResponseBody());
+
+		copy.setResponseBodySupplement(response.getResponseBodySupplement());
+
+		return copy;
+	}
+
+
+	/**
+	 * Makes the key of a record, or returns null if the request has no idempotency key and can't be cached. The
+	 * attributes are part of the key, so a key reused for another property or action does not get a wrong response.
+	 */
+	private String makeKey(NetworkMessageRequest request) {
+
+		Map<String, String> parameters = request.getParameters();
+		String idempotencyKey = parameters == null ? null : parameters.get(PARAM_IDEMPOTENCYKEY);
+
+		if (idempotencyKey == null) {
+			return null;
+		}
+
+		StringBuilder builder = new StringBuilder(String.valueOf(request.getSourceOid()));
+
+		builder.append(KEY_SEPARATOR).append(request.getRequestOperation());
+
+		if (request.getAttributes() != null) {
+			// sorted, so the key does not depend on the order the attributes came in
+			for (Map.Entry<String, String> attribute : new TreeMap<String, String>(request.getAttributes()).entrySet()) {
+				builder.append(KEY_SEPARATOR).append(attribute.getKey()).append('=').append(attribute.getValue());
+			}
+		}
+
+		builder.append(KEY_SEPARATOR).append(PARAM_IDEMPOTENCYKEY).append(KEY_SEPARATOR).append(idempotencyKey);
+
+		return builder.toString();
+	}
+
+
+	/**
+	 * A record in the cache.
+	 */
+	private static class Record {
+
+		private final CompletableFuture<NetworkMessageResponse> response;
+		private final long expiresAt;
+
+		private Record(CompletableFuture<NetworkMessageResponse> response, long expiresAt) {
+			this.response = response;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Immutable, sorted copy of a roster of an object. Paging over a roster directly does not work well, because the order
+ * of its entries is not stable between calls - a client would see some objects twice and miss others. A snapshot keeps
+ * the entries sorted, so pages can be sliced from it directly and a cursor (the last object ID on a page) remains valid
+ * even if the roster changes in the meantime.
+ *
+ * Each snapshot has a version. A new snapshot with a higher version is only made when the roster changes, see
+ * {@link ConnectionDescriptor#getRosterSnapshot() getRosterSnapshot}.
+ *
+ * @author sulfo
+ *
+ */
+public class RosterSnapshot {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Source of snapshot versions, shared by all snapshots so a version never repeats.
+	 */
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+
+	/* === FIELDS === */
+
+	/**
+	 * Version of the snapshot.
+	 */
+	private final long version;
+
+	/**
+	 * Sorted object IDs.
+	 */
+	private final List<String> entries;
+
+	/**
+	 * The same object IDs for fast comparison with a roster.
+	 */
+	private final Set<String> members;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, makes a sorted copy of the roster and assigns a new version to it.
+	 *
+	 * @param roster Roster of the object.
+	 */
+	public RosterSnapshot(Set<String> roster) {
+
+		members = roster == null ? Collections.<String>emptySet() : new HashSet<String>(roster);
+
+		List<String> sorted = new ArrayList<String>(members);
+		Collections.sort(sorted);
+
+		entries = Collections.unmodifiableList(sorted);
+		version = VERSIONS.incrementAndGet();
+	}
+
+
+	/**
+	 * Returns the version of the snapshot.
+	 *
+	 * @return Version.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+
+	/**
+	 * Returns all object IDs, sorted.
+	 *
+	 * @return Unmodifiable list of object IDs.
+	 */
+	public List<String> getEntries() {
+		return entries;
+	}
+
+
+	/**
+	 * Returns the number of object IDs in the snapshot.
+	 *
+	 * @return Size of the roster.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+
+	/**
+	 * Whether the snapshot still reflects the roster.
+	 *
+	 * @param roster Current roster.
+	 * @return True if it contains the same object IDs.
+	 */
+	public boolean matches(Set<String> roster) {
+
+		if (roster == null) {
+			return members.isEmpty();
+		}
+
+		return members.equals(roster);
+	}
+
+
+	/**
+	 * Returns a page of object IDs by its number.
+	 *
+	 * @param pageNumber Number of the page, starting with 0.
+	 * @param pageSize Number of object IDs on a page.
+	 * @return Unmodifiable list of object IDs, empty if there is no such page.
+	 */
+	public List<String> getPage(int pageNumber, int pageSize) {
+
+		if (pageNumber < 0 || pageSize <= 0) {
+			return Collections.emptyList();
+		}
+
+		long from = (long) pageNumber * pageSize;
+
+		if (from >= entries.size()) {
+			return Collections.emptyList();
+		}
+
+		return entries.subList((int) from, (int) Math.min(from + pageSize, entries.size()));
+	}
+
+
+	/**
+	 * Returns a page of object IDs that follow the cursor.
+	 *
+	 * @param cursor Cursor returned with the previous page, or null for the first page.
+	 * @param limit Maximum number of object IDs on the page.
+	 * @return Unmodifiable list of object IDs, empty if there are no more.
+	 * @throws IllegalArgumentException If the cursor can't be decoded.
+	 */
+	public List<String> getPageAfter(String cursor, int limit) {
+
+		if (limit <= 0) {
+			return Collections.emptyList();
+		}
+
+		int from = 0;
+
+		if (cursor != null && !cursor.isEmpty()) {
+			String lastObjectId = decodeCursor(cursor);
+
+			// the last object ID may not be there anymore, in which case the search tells where it would be
+			int index = Collections.binarySearch(entries, lastObjectId);
+			from = index >= 0 ? index + 1 : -index - 1;
+		}
+
+		if (from >= entries.size()) {
+			return Collections.emptyList();
+		}
+
+		return entries.subList(from, (int) Math.min((long) from + limit, entries.size()));
+	}
+
+
+	/**
+	 * Makes a cursor pointing behind the given page.
+	 *
+	 * @param page Page returned by {@link #getPageAfter(String, int) getPageAfter}.
+	 * @return Cursor, or null if this was the last page.
+	 */
+	public String getCursorAfter(List<String> page) {
+
+		if (page == null || page.isEmpty()) {
+			return null;
+		}
+
+		String lastObjectId = page.get(page.size() - 1);
+
+		if (lastObjectId.equals(entries.get(entries.size() - 1))) {
+			return null;
+		}
+
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(lastObjectId.getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Decodes the object ID from the cursor.
+	 *
+	 * @throws IllegalArgumentException If the cursor is not valid.
+	 */
+	private String decodeCursor(String cursor) {
+
+		return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,169 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import javax.json.JsonObject;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Cache of thing descriptions retrieved from the Neighbourhood Manager, by object ID. Rosters of objects connected
+ * through the same OGWAPI usually overlap, and the thing descriptions rarely change, so a thing description retrieved
+ * for one object can serve the others as well.
+ *
+ * A record expires after {@link #CONFIG_PARAM_TDCACHEEXPIRATION CONFIG_PARAM_TDCACHEEXPIRATION} seconds. All records
+ * are thrown away when the thing descriptions of local objects are registered, updated or deleted, see
+ * {@link CommunicationManager CommunicationManager}.
+ *
+ * @author sulfo
+ *
+ */
+public class ThingDescriptionCache {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the configuration parameter for the number of seconds a thing description is kept in the cache. Zero
+	 * turns the cache off.
+	 */
+	private static final String CONFIG_PARAM_TDCACHEEXPIRATION = "general.tdCacheExpiration";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_TDCACHEEXPIRATION CONFIG_PARAM_TDCACHEEXPIRATION} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_TDCACHEEXPIRATION = 60;
+
+
+	/* === FIELDS === */
+
+	/**
+	 * How long a thing description is kept (ms).
+	 */
+	private long expiration;
+
+	/**
+	 * Records by object ID.
+	 */
+	private Map<String, Record> records;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public ThingDescriptionCache(XMLConfiguration config, Logger logger) {
+
+		int expirationSeconds = config.getInt(CONFIG_PARAM_TDCACHEEXPIRATION, CONFIG_DEF_TDCACHEEXPIRATION);
+		if (expirationSeconds < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_TDCACHEEXPIRATION
+					+ " in the configuration file: " + expirationSeconds + ". Setting to default: "
+					+ CONFIG_DEF_TDCACHEEXPIRATION);
+
+			expirationSeconds = CONFIG_DEF_TDCACHEEXPIRATION;
+		}
+		expiration = expirationSeconds * 1000L;
+
+		records = new ConcurrentHashMap<String, Record>();
+	}
+
+
+	/**
+	 * Returns the cached thing description of the object.
+	 *
+	 * @param objectId ID of the object.
+	 * @return Thing description, or null if there is no valid record.
+	 */
+	public JsonObject get(String objectId) {
+
+		if (objectId == null) {
+			return null;
+		}
+
+		Record record = records.get(objectId);
+
+		if (record == null) {
+			return null;
+		}
+
+		if (record.expiresAt < System.currentTimeMillis()) {
+			// kept a while longer, so a change can be detected when the new version arrives
+			return null;
+		}
+
+		return record.thingDescription;
+	}
+
+
+	/**
+	 * Stores the thing description of the object.
+	 *
+	 * @param objectId ID of the object.
+	 * @param thingDescription Its thing description.
+	 * @return True if a different thing description of the object was cached before, i.e. it changed.
+	 */
+	public boolean put(String objectId, JsonObject thingDescription) {
+
+		if (expiration == 0 || objectId == null || thingDescription == null) {
+			return false;
+		}
+
+		Record previous = records.put(objectId, new Record(thingDescription, System.currentTimeMillis() + expiration));
+
+		return previous != null && !previous.thingDescription.equals(thingDescription);
+	}
+
+
+	/**
+	 * Removes the records that expired and were not replaced during another expiration period.
+	 */
+	public void removeExpired() {
+
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<String, Record> entry : records.entrySet()) {
+			if (entry.getValue().expiresAt + expiration < now) {
+				records.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+
+	/**
+	 * Throws away all records.
+	 */
+	public void invalidateAll() {
+
+		records.clear();
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * A record in the cache.
+	 */
+	private static class Record {
+
+		private final JsonObject thingDescription;
+		private final long expiresAt;
+
+		private Record(JsonObject thingDescription, long expiresAt) {
+			this.thingDescription = thingDescription;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
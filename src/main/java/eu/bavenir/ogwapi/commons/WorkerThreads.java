@@ -0,0 +1,230 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Decides on which threads the blocking work of the gateway runs - processing of incoming messages from the network,
+ * which includes the calls to the local agent. There are two modes, selected by {@link #CONFIG_PARAM_THREADMODE
+ * CONFIG_PARAM_THREADMODE}:
+ *
+ * platform
+ *
+ * The incoming messages are processed right on the thread of the communication engine that received them. This is
+ * how the OGWAPI always worked.
+ *
+ *
+ * virtual
+ *
+ * Each incoming message is processed on its own virtual thread, so a slow agent does not hold up the engine and
+ * thousands of waiting calls cost very little. Virtual threads need JDK 21 or newer. If the OGWAPI runs on an older
+ * JDK, it falls back to the platform mode.
+ *
+ * One instance of this class is created by the {@link CommunicationManager CommunicationManager} and shared by all
+ * the {@link ConnectionDescriptor ConnectionDescriptors}.
+ *
+ * @author sulfo
+ *
+ */
+public class WorkerThreads {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the configuration parameter for the thread mode.
+	 */
+	private static final String CONFIG_PARAM_THREADMODE = "general.threadMode";
+
+	/**
+	 * Thread mode string, one of the valid values that are to be entered in the configuration file.
+	 */
+	private static final String THREADMODE_STRING_PLATFORM = "platform";
+
+	/**
+	 * Thread mode string, one of the valid values that are to be entered in the configuration file.
+	 */
+	private static final String THREADMODE_STRING_VIRTUAL = "virtual";
+
+	/**
+	 * Default value for {@link #CONFIG_PARAM_THREADMODE CONFIG_PARAM_THREADMODE} parameter.
+	 */
+	private static final String CONFIG_DEF_THREADMODE = THREADMODE_STRING_PLATFORM;
+
+	/**
+	 * Name of the JDK factory method that creates an executor starting a new virtual thread for each task.
+	 */
+	private static final String VIRTUAL_EXECUTOR_FACTORY_METHOD = "newVirtualThreadPerTaskExecutor";
+
+	/**
+	 * Name of the configuration parameter for the number of threads that run parallel tasks in platform mode, see
+	 * {@link #supplyAsync(Supplier) supplyAsync}.
+	 */
+	private static final String CONFIG_PARAM_PARALLELTHREADS = "general.parallelThreads";
+
+	/**
+	 * Default value for {@link #CONFIG_PARAM_PARALLELTHREADS CONFIG_PARAM_PARALLELTHREADS} parameter.
+	 */
+	private static final int CONFIG_DEF_PARALLELTHREADS = 8;
+
+
+	/* === FIELDS === */
+
+	/**
+	 * Executor for the work. Null in platform mode, where the work is done on the calling thread.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Executor for parallel tasks in platform mode. In virtual mode they run on the executor for the work.
+	 */
+	private ExecutorService parallelExecutor;
+
+	/**
+	 * Logger of the OGWAPI.
+	 */
+	private Logger logger;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the thread mode from configuration and creates the executor if necessary.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public WorkerThreads(XMLConfiguration config, Logger logger) {
+
+		this.logger = logger;
+
+		String threadMode = config.getString(CONFIG_PARAM_THREADMODE, CONFIG_DEF_THREADMODE);
+
+		switch (threadMode) {
+		case THREADMODE_STRING_VIRTUAL:
+			executor = createVirtualThreadExecutor();
+
+			if (executor != null) {
+				logger.config("Thread mode is set to virtual.");
+			} else {
+				logger.warning("Virtual threads are not supported by this JVM (" + System.getProperty("java.version")
+						+ "). Thread mode is set to " + THREADMODE_STRING_PLATFORM + ".");
+			}
+			break;
+
+		case THREADMODE_STRING_PLATFORM:
+			logger.config("Thread mode is set to platform.");
+			break;
+
+			default:
+				logger.warning("Wrong parameter entered for " + CONFIG_PARAM_THREADMODE + " in the configuration file: "
+						+ threadMode + ". Setting to default: " + CONFIG_DEF_THREADMODE);
+		}
+
+		if (executor == null) {
+
+			int parallelThreads = config.getInt(CONFIG_PARAM_PARALLELTHREADS, CONFIG_DEF_PARALLELTHREADS);
+			if (parallelThreads <= 0) {
+				logger.warning("Wrong parameter entered for " + CONFIG_PARAM_PARALLELTHREADS
+						+ " in the configuration file: " + parallelThreads + ". Setting to default: "
+						+ CONFIG_DEF_PARALLELTHREADS);
+
+				parallelThreads = CONFIG_DEF_PARALLELTHREADS;
+			}
+
+			// threads are only started when needed and don't keep the OGWAPI running
+			parallelExecutor = Executors.newFixedThreadPool(parallelThreads, task -> {
+				Thread thread = new Thread(task, "ogwapi-parallel");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+
+	/**
+	 * Returns true if the work runs on virtual threads.
+	 *
+	 * @return True in virtual mode.
+	 */
+	public boolean isVirtual() {
+		return executor != null;
+	}
+
+
+	/**
+	 * Runs the task according to the thread mode - either right away on the calling thread, or on a new virtual
+	 * thread. If the executor does not accept the task (e.g. during shutdown), it runs on the calling thread.
+	 *
+	 * @param task Task to be run.
+	 */
+	public void dispatch(Runnable task) {
+
+		if (executor == null) {
+			task.run();
+			return;
+		}
+
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			logger.fine("Task rejected by the executor, running it on the calling thread.");
+			task.run();
+		}
+	}
+
+
+	/**
+	 * Runs a task that is meant to run in parallel with others, e.g. one of several calls to the local agent that
+	 * were requested at once. In virtual mode it runs on a new virtual thread, in platform mode on one of
+	 * {@link #CONFIG_PARAM_PARALLELTHREADS CONFIG_PARAM_PARALLELTHREADS} threads.
+	 *
+	 * @param task Task to be run.
+	 * @return Future result of the task.
+	 */
+	public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+
+		try {
+			return CompletableFuture.supplyAsync(task, executor != null ? executor : parallelExecutor);
+		} catch (RejectedExecutionException e) {
+			logger.fine("Task rejected by the executor, running it on the calling thread.");
+			return CompletableFuture.completedFuture(task.get());
+		}
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Creates the executor with virtual threads. The OGWAPI is built for older JDKs, so the factory method has to be
+	 * looked up at runtime.
+	 *
+	 * @return The executor, or null if the JVM does not support virtual threads.
+	 */
+	private ExecutorService createVirtualThreadExecutor() {
+
+		try {
+			Method factory = Executors.class.getMethod(VIRTUAL_EXECUTOR_FACTORY_METHOD);
+
+			return (ExecutorService) factory.invoke(null);
+
+		} catch (ReflectiveOperationException | SecurityException e) {
+
+			return null;
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package eu.bavenir.ogwapi.commons.connectors;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 import javax.json.Json;
@@ -10,9 +14,12 @@ import javax.json.JsonObjectBuilder;
 
 import org.apache.commons.configuration2.XMLConfiguration;
 import org.json.JSONObject;
+import org.restlet.Client;
+import org.restlet.Context;
 import org.restlet.data.ChallengeResponse;
 import org.restlet.data.ChallengeScheme;
 import org.restlet.data.MediaType;
+import org.restlet.data.Protocol;
 import org.restlet.ext.json.JsonRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.ClientResource;
@@ -30,9 +37,12 @@ import eu.bavenir.ogwapi.restapi.security.SecureServerComms;
 
 
 /**
- * Provides methods for communication with the Neighbourhood Manager. The methods and fields are mostly static in nature,
- * as this object is supposed to be shared among the {@link ConnectionDescriptor ConnectionDescriptors } to save 
- * resources. All methods are thread safe.
+ * Provides methods for communication with the Neighbourhood Manager. There is only one instance of this class in the
+ * OGWAPI, obtained by {@link #getInstance(XMLConfiguration, Logger) getInstance} and shared by all its parts that need 
+ * to talk to the NM, e.g. the {@link ConnectionDescriptor ConnectionDescriptors}. All methods are thread safe and they
+ * don't block each other - all requests go through one shared HTTP client and each NM service has its own limit of 
+ * requests in progress ({@link #CONFIG_PARAM_MAXCONCURRENTREQUESTS CONFIG_PARAM_MAXCONCURRENTREQUESTS}), so a burst 
+ * of calls to one service does not hold up the others.
  * 
  * @author sulfo
  *
@@ -154,11 +164,42 @@ public class NeighbourhoodManagerConnector {
 	 */
 	private static final Boolean CONFIG_DEF_PLATFORMSECURITY = false;
 	
+	/**
+	 * Name of the configuration parameter for the maximum number of requests to one NM service that can be in 
+	 * progress at the same time.
+	 */
+	private static final String CONFIG_PARAM_MAXCONCURRENTREQUESTS = "general.neighbourhoodManagerMaxConcurrentRequests";
+	
+	/**
+	 * Default value for {@link #CONFIG_PARAM_MAXCONCURRENTREQUESTS } parameter. 
+	 */
+	private static final int CONFIG_DEF_MAXCONCURRENTREQUESTS = 8;
+	
 	// === FIELDS ===
 	
+	/**
+	 * The only instance of the connector.
+	 */
+	private static NeighbourhoodManagerConnector instance;
+	
 	/** Class for secure comms with platform
 	 */
-	private static SecureServerComms secureComms;
+	private SecureServerComms secureComms;
+	
+	/**
+	 * HTTP client shared by all requests, so the connections can be reused.
+	 */
+	private Client client;
+	
+	/**
+	 * Limits of requests in progress, by NM service.
+	 */
+	private Map<String, Semaphore> serviceLimits;
+	
+	/**
+	 * Maximum number of requests to one NM service in progress.
+	 */
+	private int maxConcurrentRequests;
 	
 	/**
 	 * User name to be used when communicating with NM. 
@@ -198,12 +239,29 @@ public class NeighbourhoodManagerConnector {
 	// === PUBLIC METHODS ===
 	
 	/**
-	 * Constructor.
+	 * Returns the instance of the connector, creating it on the first call.
 	 * 
 	 * @param config Configuration of the OGWAPI.
 	 * @param logger Logger of the OGWAPI.
+	 * @return The connector.
 	 */
-	public NeighbourhoodManagerConnector(XMLConfiguration config, Logger logger) {
+	public static synchronized NeighbourhoodManagerConnector getInstance(XMLConfiguration config, Logger logger) {
+		
+		if (instance == null) {
+			instance = new NeighbourhoodManagerConnector(config, logger);
+		}
+		
+		return instance;
+	}
+	
+	
+	/**
+	 * Constructor. Use {@link #getInstance(XMLConfiguration, Logger) getInstance} to obtain the connector.
+	 * 
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	private NeighbourhoodManagerConnector(XMLConfiguration config, Logger logger) {
 		
 		this.logger = logger;
 		
@@ -217,6 +275,19 @@ public class NeighbourhoodManagerConnector {
 		securityEnabled = config.getBoolean(CONFIG_PARAM_PLATFORMSECURITY, CONFIG_DEF_PLATFORMSECURITY);
 
 		secureComms = new SecureServerComms(config, logger);
+		
+		maxConcurrentRequests = config.getInt(CONFIG_PARAM_MAXCONCURRENTREQUESTS, CONFIG_DEF_MAXCONCURRENTREQUESTS);
+		if (maxConcurrentRequests <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_MAXCONCURRENTREQUESTS 
+					+ " in the configuration file: " + maxConcurrentRequests + ". Setting to default: " 
+					+ CONFIG_DEF_MAXCONCURRENTREQUESTS);
+			
+			maxConcurrentRequests = CONFIG_DEF_MAXCONCURRENTREQUESTS;
+		}
+		
+		serviceLimits = new ConcurrentHashMap<String, Semaphore>();
+		
+		client = new Client(new Context(), Protocol.HTTPS);
 	}
 	
 	
@@ -226,15 +297,11 @@ public class NeighbourhoodManagerConnector {
 	 * @param agid The ID of the Agent in question.
 	 * @return All VICINITY identifiers of objects registered under specified agent.
 	 */
-	public synchronized Representation getAgentObjects(String agid){
+	public Representation getAgentObjects(String agid){
 		
 		String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + DISCOVERY_SERVICE_1 + agid + DISCOVERY_SERVICE_2;
 		
-		ClientResource clientResource = createRequest(endpointUrl);
-		
-		Representation representation = clientResource.get(MediaType.APPLICATION_JSON);
-		
-		return representation;
+		return send(DISCOVERY_SERVICE_1, endpointUrl, clientResource -> clientResource.get(MediaType.APPLICATION_JSON));
 	
 	}
 	
@@ -246,15 +313,11 @@ public class NeighbourhoodManagerConnector {
 	 * (from request).
 	 * @return All VICINITY identifiers of objects registered the Agent by this call.
 	 */
-	public synchronized Representation storeObjects(Representation json){
+	public Representation storeObjects(Representation json){
 		
 		String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + REGISTRATION_SERVICE;
 		
-		ClientResource clientResource = createRequest(endpointUrl);
-
-		Representation responseRepresentation = clientResource.post(json, MediaType.APPLICATION_JSON);
-		
-		return responseRepresentation;
+		return send(REGISTRATION_SERVICE, endpointUrl, clientResource -> clientResource.post(json, MediaType.APPLICATION_JSON));
 	}
 	
 	
@@ -267,15 +330,11 @@ public class NeighbourhoodManagerConnector {
 	 * @return The list of approved devices to be registered in agent configuration. Approved devices means only 
 	 * devices, that passed the validation in semantic repository and their instances were created. 
 	 */
-	public synchronized Representation heavyweightUpdate(Representation json){
+	public Representation heavyweightUpdate(Representation json){
 		
 		String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + HEAVYWEIGHTUPDATE_SERVICE;
 		
-		ClientResource clientResource = createRequest(endpointUrl);
-
-		Representation responseRepresentation = clientResource.put(json, MediaType.APPLICATION_JSON);
-		
-		return responseRepresentation;
+		return send(HEAVYWEIGHTUPDATE_SERVICE, endpointUrl, clientResource -> clientResource.put(json, MediaType.APPLICATION_JSON));
 	}
 	
 	
@@ -287,15 +346,11 @@ public class NeighbourhoodManagerConnector {
 	 * @return The list of approved devices to be registered in agent configuration. Approved devices means only 
 	 * devices, that passed the validation in semantic repository and their instances were created. 
 	 */
-	public synchronized Representation lightweightUpdate(Representation json){
+	public Representation lightweightUpdate(Representation json){
 		
 		String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + LIGHTWEIGHTUPDATE_SERVICE;
 		
-		ClientResource clientResource = createRequest(endpointUrl);
-
-		Representation responseRepresentation = clientResource.put(json, MediaType.APPLICATION_JSON);
-		
-		return responseRepresentation;
+		return send(LIGHTWEIGHTUPDATE_SERVICE, endpointUrl, clientResource -> clientResource.put(json, MediaType.APPLICATION_JSON));
 	}
 	
 	
@@ -306,15 +361,11 @@ public class NeighbourhoodManagerConnector {
 	 * (taken from request).
 	 * @return Notification of success or failure.
 	 */
-	public synchronized Representation deleteObjects(Representation json){
+	public Representation deleteObjects(Representation json){
 		
 		String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + DELETE_SERVICE;
 		
-		ClientResource clientResource = createRequest(endpointUrl);
-		
-		Representation responseRepresentation = clientResource.post(json, MediaType.APPLICATION_JSON);
-		
-		return responseRepresentation;
+		return send(DELETE_SERVICE, endpointUrl, clientResource -> clientResource.post(json, MediaType.APPLICATION_JSON));
 	}
 	
 	
@@ -324,15 +375,11 @@ public class NeighbourhoodManagerConnector {
 	 * @param Representation of the incoming JSON. List of OIDs
 	 * @return Thing descriptions of objects specified in payload.
 	 */
-	public synchronized Representation getThingDescriptions(Representation json){
+	public Representation getThingDescriptions(Representation json){
 		
 		String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + TD_SERVICE;
 		
-		ClientResource clientResource = createRequest(endpointUrl);
-		
-		Representation responseRepresentation = clientResource.post(json, MediaType.APPLICATION_JSON);
-		
-		return responseRepresentation;
+		return send(TD_SERVICE, endpointUrl, clientResource -> clientResource.post(json, MediaType.APPLICATION_JSON));
 		
 		/*
 		String ret;
@@ -355,12 +402,10 @@ public class NeighbourhoodManagerConnector {
 	 * @param Representation of the incoming JSON. List of OIDs
 	 * @return Thing descriptions of objects specified in payload.
 	 */
-	public synchronized Representation getThingDescription(String objectId){
+	public Representation getThingDescription(String objectId){
 		
 		String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + TD_SERVICE;
 		
-		ClientResource clientResource = createRequest(endpointUrl);
-		
 		JsonObjectBuilder mainObjectBuilder = Json.createObjectBuilder();
 		JsonArrayBuilder mainArrayBuilder = Json.createArrayBuilder();
 			
@@ -372,9 +417,8 @@ public class NeighbourhoodManagerConnector {
 		
 		JsonObject payload = mainObjectBuilder.build();
 		
-		Representation responseRepresentation = clientResource.post(new JsonRepresentation(payload.toString()), MediaType.APPLICATION_JSON);
-		
-		return responseRepresentation;
+		return send(TD_SERVICE, endpointUrl, 
+				clientResource -> clientResource.post(new JsonRepresentation(payload.toString()), MediaType.APPLICATION_JSON));
 		
 	}
 	
@@ -384,15 +428,12 @@ public class NeighbourhoodManagerConnector {
 	 * @param JSON containing array records with all the messages 
 	 * @return Server acknowledgment
 	 */
-	public synchronized Representation sendCounters(JsonObject payload){
+	public Representation sendCounters(JsonObject payload){
 		
 		String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + SEND_COUNTERS;
 		
-		ClientResource clientResource = createRequest(endpointUrl);
-		
-		Representation responseRepresentation = clientResource.post(new JsonRepresentation(payload.toString()), MediaType.APPLICATION_JSON);
-		
-		return responseRepresentation;
+		return send(SEND_COUNTERS, endpointUrl, 
+				clientResource -> clientResource.post(new JsonRepresentation(payload.toString()), MediaType.APPLICATION_JSON));
 		
 	}
 	
@@ -402,11 +443,11 @@ public class NeighbourhoodManagerConnector {
 	 * @param JSON containing array records with all the messages 
 	 * @return Server acknowledgment
 	 */
-	public synchronized void handshake(){
+	public void handshake(){
 		try {
 			String endpointUrl = SERVER_PROTOCOL + neighbourhoodManagerServer + ":" + port + API_PATH + HANDSHAKE;
-			ClientResource clientResource = createRequest(endpointUrl);
-			Representation responseRepresentation = clientResource.get(MediaType.APPLICATION_JSON);
+			Representation responseRepresentation = send(HANDSHAKE, endpointUrl, 
+					clientResource -> clientResource.get(MediaType.APPLICATION_JSON));
 			JSONObject jsonDocument = new JSONObject(responseRepresentation.getText());
 			logger.info(jsonDocument.getString("message"));
 		} catch(IOException i) {
@@ -421,8 +462,31 @@ public class NeighbourhoodManagerConnector {
 	
 	// === PRIVATE METHODS ===
 	
+	/**
+	 * Sends a request to the NM service, waiting until the number of requests to that service in progress drops
+	 * below the limit.
+	 * 
+	 * @param service NM service, used to look up its limit.
+	 * @param endpointUrl URL of the request.
+	 * @param call Call of the HTTP method on the prepared client resource.
+	 * @return Response of the NM.
+	 */
+	private Representation send(String service, String endpointUrl, Function<ClientResource, Representation> call) {
+		
+		Semaphore limit = serviceLimits.computeIfAbsent(service, key -> new Semaphore(maxConcurrentRequests));
+		
+		limit.acquireUninterruptibly();
+		try {
+			return call.apply(createRequest(endpointUrl));
+		} finally {
+			limit.release();
+		}
+	}
+	
+	
 	private ClientResource createRequest(String endpointUrl) {
 		ClientResource clientResource = new ClientResource(endpointUrl);
+		clientResource.setNext(client);
 		// Add auth token if security enabled
 		if(securityEnabled) {
 			String token = secureComms.getToken();
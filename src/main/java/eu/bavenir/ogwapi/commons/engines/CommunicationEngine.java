@@ -84,6 +84,12 @@ public abstract class CommunicationEngine {
 	 */
 	protected ConnectionDescriptor connectionDescriptor;
 	
+	/**
+	 * Whether the last {@link #connect() connect} failed because the network refused the credentials. Your 
+	 * implementation should set it, so a failure of the network is not mistaken for wrong credentials.
+	 */
+	protected boolean credentialsRejected;
+	
 	
 	/* === PUBLIC METHODS === */
 	
@@ -119,6 +125,17 @@ public abstract class CommunicationEngine {
 	 */
 	public abstract boolean connect();
 	
+	
+	/**
+	 * Tells whether the last {@link #connect() connect} attempt failed because the credentials were refused, as 
+	 * opposed to a failure of the network or the server. 
+	 * 
+	 * @return True if the credentials were refused.
+	 */
+	public boolean wereCredentialsRejected() {
+		return credentialsRejected;
+	}
+	
 
 	/**
 	 * This method will disconnect from the network. No contact of the network with the engine should be possible and
@@ -154,6 +171,16 @@ public abstract class CommunicationEngine {
 	 */
 	public abstract boolean sendMessage(String destinationObjectId, String message);
 	
+	
+	/**
+	 * Checks whether an object from the roster is online, i.e. a message sent to it now would be received, not only
+	 * accepted by the network. 
+	 * 
+	 * @param objectId Object ID in question.
+	 * @return True if the object is online, false otherwise.
+	 */
+	public abstract boolean isOnline(String objectId);
+	
 		
 	/* === PRIVATE METHODS === */
 }
@@ -3,11 +3,12 @@ package eu.bavenir.ogwapi.commons.engines.xmpp;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.apache.commons.configuration2.XMLConfiguration;
@@ -26,6 +27,7 @@ import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.roster.RosterEntry;
 import org.jivesoftware.smack.roster.RosterListener;
+import org.jivesoftware.smack.sasl.SASLErrorException;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
 import org.jxmpp.jid.EntityBareJid;
@@ -157,7 +159,7 @@ public class XmppMessageEngine extends CommunicationEngine {
 	/**
 	 * A list of opened chats.
 	 */
-	private HashMap<EntityBareJid, Chat> openedChats;
+	private Map<EntityBareJid, Chat> openedChats;
 	
 	
 	
@@ -182,7 +184,7 @@ public class XmppMessageEngine extends CommunicationEngine {
 		roster = null;
 		
 		// initialise map with opened chats
-		openedChats = new HashMap<EntityBareJid, Chat>();
+		openedChats = new ConcurrentHashMap<EntityBareJid, Chat>();
 		
 		// compute the random time in seconds after which a roster will be renewed
 		long timeForRosterRenewal = (long) ((Math.random() * ((ROSTER_RELOAD_TIME_MAX - ROSTER_RELOAD_TIME_MIN) + 1)) 
@@ -236,6 +238,8 @@ public class XmppMessageEngine extends CommunicationEngine {
 					+ ". Not attempting to build a new one.");
 		}
 		
+		credentialsRejected = false;
+		
 		// connect & login
 		try {
 			if (connection.connect() == null){
@@ -247,6 +251,14 @@ public class XmppMessageEngine extends CommunicationEngine {
 			
 			connection.login();
 			
+		} catch (SASLErrorException e) {
+			
+			logger.warning("XMPP server refused the credentials of '" + objectId + "'. Message: " + e.getMessage());
+			
+			credentialsRejected = true;
+			
+			return false;
+			
 		} catch (SmackException | IOException | XMPPException | InterruptedException e) {
 			
 			logger.warning("Exiting due to exception during establishing a connection to XMPP server. Message: " 
@@ -424,6 +436,33 @@ public class XmppMessageEngine extends CommunicationEngine {
 	}
 	
 	
+	/**
+	 * Checks the presence of a contact. The server accepts messages for contacts that are offline, but they don't
+	 * receive them.
+	 * 
+	 * @param objectId Object ID of the contact.
+	 * @return True if the contact is in the roster and available.
+	 */
+	@Override
+	public boolean isOnline(String objectId) {
+		
+		if (connection == null || !connection.isConnected() || objectId == null){
+			return false;
+		}
+		
+		EntityBareJid jid;
+		
+		try {
+			jid = JidCreate.entityBareFrom(objectId + "@" + config.getString(CONFIG_PARAM_XMPPDOMAIN, CONFIG_DEF_XMPPDOMAIN));
+		} catch (XmppStringprepException e) {
+			logger.warning("Contact can't be resolved. Exception: " + e.getMessage());
+			return false;
+		}
+		
+		return roster.contains(jid) && roster.getPresence(jid).isAvailable();
+	}
+	
+	
 	
 	
 
@@ -645,11 +684,18 @@ public class XmppMessageEngine extends CommunicationEngine {
 	/**
 	 * A callback method called when the presence of the current connection is changed.
 	 * 
-	 * In this implementation it serves nothing, but can be helpful when debugging.
+	 * When a contact becomes available, the events spooled for it are delivered, see 
+	 * {@link eu.bavenir.ogwapi.commons.ConnectionDescriptor#deliverSpooledEvents(String) deliverSpooledEvents}.
 	 * 
 	 * @param presence A new {@link org.jivesoftware.smack.packet.Presence presence}.
 	 */
 	private void processRosterPresenceChanged(Presence presence) {
 		//System.out.println("processRosterPresenceChanged - Presence changed: " + presence.getFrom() + " " + presence);
+		
+		if (!presence.isAvailable() || presence.getFrom() == null || presence.getFrom().getLocalpartOrNull() == null) {
+			return;
+		}
+		
+		connectionDescriptor.deliverSpooledEvents(presence.getFrom().getLocalpartOrNull().toString());
 	}
 }
@@ -80,6 +80,26 @@ public class CodesAndReasons {
 	 */
 	public static final String REASON_408_REQUESTTIMEOUT = "Request timeout. ";
 	
+	/**
+	 * Integer value for "Too many requests" code.
+	 */
+	public static final int CODE_429_TOOMANYREQUESTS = 429;
+	
+	/**
+	 * String for "Too many requests" code reason.
+	 */
+	public static final String REASON_429_TOOMANYREQUESTS = "Too many requests. ";
+	
+	/**
+	 * Integer value for "Internal server error" code.
+	 */
+	public static final int CODE_500_INTERNALSERVERERROR = 500;
+	
+	/**
+	 * String for "Internal server error" code reason.
+	 */
+	public static final String REASON_500_INTERNALSERVERERROR = "Internal server error. ";
+	
 	/**
 	 * Integer value for "Service unavailable" code.
 	 */
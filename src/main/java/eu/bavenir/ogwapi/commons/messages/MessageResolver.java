@@ -1,8 +1,9 @@
 package eu.bavenir.ogwapi.commons.messages;
 
 import java.io.StringReader;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.json.Json;
@@ -34,12 +35,16 @@ public class MessageResolver {
 	/* === CONSTANTS === */
 	
 	/**
-	 * Size of the array that keeps record of the request IDs. In other words, how many recent request IDs should
-	 * the OGWAPI keep in memory to effectively defend against the duplicated messages. This number should be big 
-	 * enough to cover at least 10 minutes of intensive traffic and small enough not to fill the RAM of a machine 
-	 * that has many objects connected to its OGWAPI.  
+	 * Maximum number of recent messages kept to defend against the duplicated messages. The messages are normally 
+	 * forgotten when they get {@link NetworkMessage#isValid() stale}, since a stale duplicate is discarded anyway, 
+	 * this only keeps the memory in check during intensive traffic.
 	 */
-	private static final int REQUEST_ID_ARRAY_SIZE = 6000;
+	private static final int MAX_RECENT_MESSAGES = 20000;
+	
+	/**
+	 * Separator of the parts of the key of a recent message. Object IDs don't contain it.
+	 */
+	private static final char KEY_SEPARATOR = '\n';
 	
 	/* === FIELDS === */
 	
@@ -54,10 +59,11 @@ public class MessageResolver {
 	private Logger logger;
 	
 	/**
-	 * Queue that keeps record of recent received request IDs, for protection the underlying infrastructure against
-	 * duplicated messages. 
+	 * Recent received messages with the time they were received, in the order of arrival, for protection the 
+	 * underlying infrastructure against duplicated messages. A message is identified by its type, source object ID 
+	 * and request ID.
 	 */
-	private Queue<Integer> requestIds;
+	private Map<String, Long> recentMessages;
 	
 	/* === PUBLIC METHODS === */
 	
@@ -71,7 +77,7 @@ public class MessageResolver {
 		this.config = config;
 		this.logger = logger;
 		
-		requestIds = new LinkedList<Integer>();
+		recentMessages = new LinkedHashMap<String, Long>();
 	}
 	
 	
@@ -103,17 +109,17 @@ public class MessageResolver {
 		
 		case NetworkMessageRequest.MESSAGE_TYPE:
 			// check for message duplication
-			//if (checkForDuplicates(json.getInt(NetworkMessage.ATTR_REQUESTID))) {
-			//	return null;
-			//}
+			if (checkForDuplicates(json)) {
+				return null;
+			}
 			
 			return new NetworkMessageRequest(json, config, logger);
 			
 		case NetworkMessageResponse.MESSAGE_TYPE:
 			// check for message duplication
-			//if (checkForDuplicates(json.getInt(NetworkMessage.ATTR_REQUESTID))) {
-			//	return null;
-			//}
+			if (checkForDuplicates(json)) {
+				return null;
+			}
 			
 			return new NetworkMessageResponse(json, config, logger);
 			
@@ -168,29 +174,55 @@ public class MessageResolver {
 	 * Duplicated messages were discovered when using XMPP engine, however they are not necessarily bound solely to 
 	 * XMPP and can possibly manifest themselves in other engines as well. The probable cause seems to be lost 
 	 * ACK packet on low quality lines, causing the server to re-send the last packet again, resulting in two
-	 * identical messages being received. This class keeps track of recent request IDs (the number is configurable by
-	 * {@link #REQUEST_ID_ARRAY_SIZE REQUEST_ID_ARRAY_SIZE} constant) and this method serves the purpose of verifying
-	 * whether or not a message with such request ID has already been recently received. 
+	 * identical messages being received. This class keeps track of recent messages (for the 
+	 * {@link NetworkMessage#CONFIG_PARAM_REQUESTMESSAGETIMEOUT CONFIG_PARAM_REQUESTMESSAGETIMEOUT}, but no more than 
+	 * {@link #MAX_RECENT_MESSAGES MAX_RECENT_MESSAGES} of them) and this method serves the purpose of verifying
+	 * whether or not the same message has already been recently received. 
+	 * 
+	 * The request IDs are only unique for one sender, so the message is identified by its type, source object ID and 
+	 * request ID (a response has the same request ID as its request).
 	 *   
-	 * @param requestId The request ID to be checked for duplicates.
-	 * @return True if there already was a message with such request ID received recently, false otherwise.
+	 * @param json The message to be checked for duplicates.
+	 * @return True if the same message was received recently, false otherwise.
 	 */
-	private boolean checkForDuplicates(int requestId) {
+	private boolean checkForDuplicates(JsonObject json) {
+		
+		String key;
 		
-		// if there is no such request ID existing in the queue, add it and watch for overflow
-		if (!requestIds.contains(requestId)) {
+		try {
+			key = new StringBuilder()
+					.append(json.getInt(NetworkMessage.ATTR_MESSAGETYPE)).append(KEY_SEPARATOR)
+					.append(json.get(NetworkMessage.ATTR_SOURCEOID)).append(KEY_SEPARATOR)
+					.append(json.getInt(NetworkMessage.ATTR_REQUESTID))
+					.toString();
+		} catch (RuntimeException e) {
+			// malformed, leave it to the parsing
+			return false;
+		}
+		
+		long now = System.currentTimeMillis();
+		long window = NetworkMessage.getRequestMessageTimeoutMillis(config);
+		
+		synchronized (recentMessages) {
 			
-			if (requestIds.size() >= REQUEST_ID_ARRAY_SIZE) {
+			// forget the messages that got stale, they are the oldest ones
+			Iterator<Long> iterator = recentMessages.values().iterator();
+			while (iterator.hasNext()) {
+				long receivedAt = iterator.next();
 				
-				requestIds.poll();
+				if (now - receivedAt <= window && recentMessages.size() < MAX_RECENT_MESSAGES) {
+					break;
+				}
+				
+				iterator.remove();
 			}
 			
-			requestIds.add(requestId);
-			
-			return false;
+			if (recentMessages.putIfAbsent(key, now) == null) {
+				return false;
+			}
 		}
 		
-		logger.fine("Duplicated message detected. Request ID: " + requestId);
+		logger.fine("Duplicated message detected. Request ID: " + json.getInt(NetworkMessage.ATTR_REQUESTID));
 		
 		return true;
 	}
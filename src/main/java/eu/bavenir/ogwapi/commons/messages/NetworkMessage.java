@@ -1,6 +1,7 @@
 package eu.bavenir.ogwapi.commons.messages;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.json.JsonObject;
@@ -96,6 +97,18 @@ public class NetworkMessage {
 	
 	/* === FIELDS === */
 	
+	/**
+	 * Source of request IDs, shared by all messages of this OGWAPI. It starts at a random number, so the IDs don't 
+	 * repeat after a restart and the IDs of different OGWAPIs are unlikely to match.
+	 */
+	private static final AtomicInteger REQUEST_IDS = new AtomicInteger(new Random().nextInt());
+	
+	/**
+	 * The {@link #CONFIG_PARAM_REQUESTMESSAGETIMEOUT CONFIG_PARAM_REQUESTMESSAGETIMEOUT} read from the configuration, 
+	 * so it does not have to be read for every message.
+	 */
+	private static volatile RequestMessageTimeout requestMessageTimeout;
+	
 	/**
 	 * Determines the type of this message. Each class that extends NetworkMessage should have its own constant of
 	 * MESSAGE_TYPE implemented. The decision tree can then be very easily created like:
@@ -191,7 +204,7 @@ public class NetworkMessage {
 	
 	
 	/**
-	 * Getter for the ID of the request. The request ID of the message is randomly generated when an instance of outgoing
+	 * Getter for the ID of the request. The request ID of the message is generated when an instance of outgoing
 	 * message is constructed. In case when incoming message is being parsed, the request ID is extracted from the
 	 * arriving message. 
 	 * 
@@ -273,8 +286,7 @@ public class NetworkMessage {
 	 */
 	public boolean isValid() {
 		
-		if ((System.currentTimeMillis() - timeStamp) 
-				> (config.getInt(CONFIG_PARAM_REQUESTMESSAGETIMEOUT, CONFIG_DEF_REQUESTMESSAGETIMEOUT)*1000)){
+		if ((System.currentTimeMillis() - timeStamp) > getRequestMessageTimeoutMillis(config)){
 			stale = true;
 		} else {
 			stale = false;
@@ -340,20 +352,53 @@ public class NetworkMessage {
 	
 	
 	/**
-	 * This will generate random request ID of the message. 
+	 * This will generate a new request ID of the message. The IDs are taken from a counter, so no two messages sent
+	 * by this OGWAPI get the same ID until the counter wraps around, which takes 2^31 messages.
 	 */
 	public void generateRequestId() {
 		
-		Random rand = new Random(); 
-		requestId = rand.nextInt(); 
+		// keep it non-negative, the way the IDs always were
+		requestId = REQUEST_IDS.incrementAndGet() & Integer.MAX_VALUE;
+	}
+	
+
+
+	/**
+	 * Returns the {@link #CONFIG_PARAM_REQUESTMESSAGETIMEOUT CONFIG_PARAM_REQUESTMESSAGETIMEOUT}. The value is read 
+	 * from the configuration only once.
+	 * 
+	 * @param config Configuration of the OGWAPI.
+	 * @return Timeout in milliseconds.
+	 */
+	public static long getRequestMessageTimeoutMillis(XMLConfiguration config) {
+		
+		RequestMessageTimeout timeout = requestMessageTimeout;
 		
-		if (requestId < 0){
-			requestId = requestId * (-1);
+		if (timeout == null || timeout.config != config) {
+			timeout = new RequestMessageTimeout(config, 
+					config.getInt(CONFIG_PARAM_REQUESTMESSAGETIMEOUT, CONFIG_DEF_REQUESTMESSAGETIMEOUT) * 1000L);
+			
+			requestMessageTimeout = timeout;
 		}
+		
+		return timeout.millis;
 	}
 	
 
 
 	/* === PRIVATE METHODS === */
 	
+	/**
+	 * Request message timeout together with the configuration it was read from.
+	 */
+	private static class RequestMessageTimeout {
+		
+		private final XMLConfiguration config;
+		private final long millis;
+		
+		private RequestMessageTimeout(XMLConfiguration config, long millis) {
+			this.config = config;
+			this.millis = millis;
+		}
+	}
 }
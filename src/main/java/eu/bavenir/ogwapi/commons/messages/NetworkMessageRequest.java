@@ -1,6 +1,9 @@
 package eu.bavenir.ogwapi.commons.messages;
 
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -8,9 +11,12 @@ import java.util.logging.Logger;
 import java.util.Map.Entry;
 
 import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonBuilderFactory;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
 import javax.json.JsonValue;
 
 import org.apache.commons.configuration2.XMLConfiguration;
@@ -85,6 +91,12 @@ public class NetworkMessageRequest extends NetworkMessage {
 	 */
 	private static final String ATTR_REQUESTBODY = "requestBody";
 	
+	/**
+	 * Name of the time budget attribute in the JSON. It is optional, so the messages from previous versions without 
+	 * it are still valid.
+	 */
+	private static final String ATTR_TIMEBUDGET = "timeBudget";
+	
 	
 	/**
 	 * How the property ID is to be marked in the message.
@@ -170,12 +182,24 @@ public class NetworkMessageRequest extends NetworkMessage {
 	 */
 	public static final byte OPERATION_GETTHINGDESCRIPTION = 0x0B;
 	
+	/**
+	 * Operation ID for several operations on the same object at once, see {@link #buildOperations(List) 
+	 * buildOperations}.
+	 */
+	public static final byte OPERATION_MULTIPLE = 0x0C;
+	
 	// IMPORTANT NOTE: If adding new operation codes, add them also to the verification method at the end 
 	// of this class - in the private methods section. 
 	
 
 	
 	
+	/**
+	 * Maximum number of operations in one request with {@link #OPERATION_MULTIPLE OPERATION_MULTIPLE} operation.
+	 */
+	public static final int MAX_OPERATIONS = 100;
+	
+
 	/* === FIELDS === */
 	
 	/**
@@ -199,6 +223,13 @@ public class NetworkMessageRequest extends NetworkMessage {
 	 */
 	private String requestBody;
 	
+	/**
+	 * Number of milliseconds the requester is going to wait for the response, or 0 if not known. It is a duration 
+	 * rather than a point in time, because the clocks of the two OGWAPIs can differ. The receiver counts it from 
+	 * the {@link #timeStamp time stamp} of the parsed message.
+	 */
+	private long timeBudget;
+	
 	
 	/* === PUBLIC METHODS === */
 	/**
@@ -349,6 +380,140 @@ public class NetworkMessageRequest extends NetworkMessage {
 		this.attributes = attributes;
 	}
 	
+	/**
+	 * Retrieves the number of milliseconds the requester is going to wait for the response.
+	 * 
+	 * @return Time budget (ms), or 0 if it is not known.
+	 */
+	public long getTimeBudget() {
+		return timeBudget;
+	}
+	
+	
+	/**
+	 * Sets the number of milliseconds the requester is going to wait for the response, so the receiver does not 
+	 * bother with the request after it. 
+	 * 
+	 * @param timeBudget Time budget (ms), 0 if not known.
+	 */
+	public void setTimeBudget(long timeBudget) {
+		this.timeBudget = Math.max(0, timeBudget);
+	}
+	
+	
+	/**
+	 * Whether the requester stopped waiting for the response already, so there is no point in executing the request.
+	 * Messages without time budget never expire this way (but they can still become {@link #isValid() stale}).
+	 * 
+	 * @return True if the time budget of the request is spent.
+	 */
+	public boolean isExpired() {
+		
+		return timeBudget > 0 && System.currentTimeMillis() - timeStamp > timeBudget;
+	}
+	
+	
+	/**
+	 * Whether the operation can be executed more than once with the same result, so a request with it can safely be
+	 * sent again.
+	 * 
+	 * @param requestOperation Request operation identifier.
+	 * @return True for operations that only read.
+	 */
+	public static boolean isIdempotent(byte requestOperation) {
+		
+		switch (requestOperation) {
+		
+		case OPERATION_GETPROPERTYVALUE:
+		case OPERATION_GETTASKSTATUS:
+		case OPERATION_GETTHINGDESCRIPTION:
+			return true;
+			
+			default:
+				return false;
+		}
+	}
+	
+	
+	/**
+	 * Builds the body of a request with {@link #OPERATION_MULTIPLE OPERATION_MULTIPLE} operation - a JSON array with 
+	 * the given requests. Each of them needs to have the operation, attributes, parameters, body and both object IDs 
+	 * set, just as if it was sent on its own. The remote object executes them all and answers with one response, see
+	 * {@link NetworkMessageResponse#setResponses(List) setResponses}.
+	 * 
+	 * @param operations Requests to be packed together.
+	 * @return Body of the request.
+	 */
+	public static String buildOperations(List<NetworkMessageRequest> operations) {
+		
+		JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+		
+		for (NetworkMessageRequest operation : operations) {
+			operation.buildMessageJson();
+			arrayBuilder.add(operation.jsonRepresentation);
+		}
+		
+		return arrayBuilder.build().toString();
+	}
+	
+	
+	/**
+	 * Unpacks the requests from the body of a request with {@link #OPERATION_MULTIPLE OPERATION_MULTIPLE} operation. 
+	 * The object IDs and request ID of each of them are taken over from this request, so they can't be used to 
+	 * pretend a different source. So is the time budget.
+	 * 
+	 * @return List of requests, or null if this is not a valid request with multiple operations.
+	 */
+	public List<NetworkMessageRequest> getOperations() {
+		
+		if (requestOperation != OPERATION_MULTIPLE || requestBody == null) {
+			return null;
+		}
+		
+		JsonArray operationsJson;
+		
+		try (JsonReader jsonReader = Json.createReader(new StringReader(requestBody))) {
+			operationsJson = jsonReader.readArray();
+		} catch (Exception e) {
+			logger.warning("NetworkMessageRequest: Invalid list of operations: " + e.getMessage());
+			
+			return null;
+		}
+		
+		if (operationsJson.isEmpty() || operationsJson.size() > MAX_OPERATIONS) {
+			logger.warning("NetworkMessageRequest: Invalid number of operations: " + operationsJson.size());
+			
+			return null;
+		}
+		
+		List<NetworkMessageRequest> operations = new ArrayList<NetworkMessageRequest>(operationsJson.size());
+		
+		for (JsonValue value : operationsJson) {
+			
+			if (!(value instanceof JsonObject)) {
+				return null;
+			}
+			
+			NetworkMessageRequest operation = new NetworkMessageRequest((JsonObject) value, config, logger);
+			
+			// no nesting
+			if (!operation.valid || operation.requestOperation == OPERATION_MULTIPLE) {
+				return null;
+			}
+			
+			operation.setSourceOid(sourceOid);
+			operation.setDestinationOid(destinationOid);
+			operation.setRequestId(requestId);
+			operation.timeStamp = timeStamp;
+			operation.timeBudget = timeBudget;
+			
+			operations.add(operation);
+		}
+		
+		return operations;
+	}
+	
+	
 	/**
 	 * Takes all the necessary fields, attributes and parameters and assembles a valid JSON that can be sent over the
 	 * network. 
@@ -402,6 +567,10 @@ public class NetworkMessageRequest extends NetworkMessage {
 		mainBuilder.add(ATTR_ATTRIBUTES, attributesBuilder)
 			.add(ATTR_PARAMETERS, parametersBuilder);
 		
+		if (timeBudget > 0) {
+			mainBuilder.add(ATTR_TIMEBUDGET, timeBudget);
+		}
+		
 		jsonRepresentation = mainBuilder.build();
 		
 	}
@@ -465,6 +634,11 @@ public class NetworkMessageRequest extends NetworkMessage {
 				requestBody = json.getString(ATTR_REQUESTBODY);
 			}
 			
+			// optional
+			if (json.containsKey(ATTR_TIMEBUDGET) && !json.isNull(ATTR_TIMEBUDGET)) {
+				setTimeBudget(json.getJsonNumber(ATTR_TIMEBUDGET).longValue());
+			}
+			
 		} catch (Exception e) {
 			logger.severe("NetworkMessageRequest: Exception while parsing NetworkMessageRequest: " + e.getMessage());
 			
@@ -562,6 +736,7 @@ public class NetworkMessageRequest extends NetworkMessage {
 				|| requestOperation == NetworkMessageRequest.OPERATION_SUBSCRIBETOEVENTCHANNEL
 				|| requestOperation == NetworkMessageRequest.OPERATION_UNSUBSCRIBEFROMEVENTCHANNEL
 				|| requestOperation == NetworkMessageRequest.OPERATION_GETTHINGDESCRIPTION
+				|| requestOperation == NetworkMessageRequest.OPERATION_MULTIPLE
 				
 				)
 			){
@@ -581,6 +756,7 @@ public class NetworkMessageRequest extends NetworkMessage {
 		attributes = new LinkedHashMap<String, String>();
 		parameters = new LinkedHashMap<String, String>();
 		requestBody = null;
+		timeBudget = 0;
 	}
 
 	
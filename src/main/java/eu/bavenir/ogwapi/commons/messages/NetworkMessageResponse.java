@@ -1,8 +1,12 @@
 package eu.bavenir.ogwapi.commons.messages;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonBuilderFactory;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
@@ -86,6 +90,12 @@ public class NetworkMessageResponse extends NetworkMessage {
 	 * one.
 	 */
 	private static final String ATTR_RESPONSEBODYSUPPLEMENT = "responseBodySupplement";
+	
+	/**
+	 * Name of the attribute with the list of responses in the body of a response to a request with 
+	 * {@link NetworkMessageRequest#OPERATION_MULTIPLE multiple operations}.
+	 */
+	public static final String ATTR_RESPONSES = "responses";
 
 	
 	/* === FIELDS === */
@@ -331,6 +341,69 @@ public class NetworkMessageResponse extends NetworkMessage {
 		return jsonRepresentation;
 	}
 	
+	
+	/**
+	 * Sets the body of a response to a request with {@link NetworkMessageRequest#OPERATION_MULTIPLE multiple 
+	 * operations}. The body is a JSON with the list of responses to the single operations, in the order of the 
+	 * request:
+	 * 
+	 * {
+	 *     "responses": [
+	 *         {response JSON 1}, {response JSON 2}, etc.
+	 *     ]
+	 * }
+	 * 
+	 * Each of the responses needs to have both object IDs set.
+	 * 
+	 * @param responses Responses to the single operations.
+	 */
+	public void setResponses(List<NetworkMessageResponse> responses) {
+		
+		JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+		
+		for (NetworkMessageResponse response : responses) {
+			response.buildMessageJson();
+			arrayBuilder.add(response.jsonRepresentation);
+		}
+		
+		responseBody = Json.createObjectBuilder().add(ATTR_RESPONSES, arrayBuilder).build().toString();
+		contentType = "application/json";
+	}
+	
+	
+	/**
+	 * Reads the list of responses from the body of a response to a request with {@link 
+	 * NetworkMessageRequest#OPERATION_MULTIPLE multiple operations}, see {@link #setResponses(List) setResponses}.
+	 * 
+	 * @param json Body of the response.
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 * @return Responses to the single operations, or null if the body does not contain them. Responses that could 
+	 * not be parsed are marked as invalid.
+	 */
+	public static List<NetworkMessageResponse> readResponses(JsonObject json, XMLConfiguration config, 
+			Logger logger) {
+		
+		if (json == null || !(json.get(ATTR_RESPONSES) instanceof JsonArray)) {
+			return null;
+		}
+		
+		List<NetworkMessageResponse> responses = new ArrayList<NetworkMessageResponse>();
+		
+		for (JsonValue value : json.getJsonArray(ATTR_RESPONSES)) {
+			
+			if (value instanceof JsonObject) {
+				responses.add(new NetworkMessageResponse((JsonObject) value, config, logger));
+			} else {
+				NetworkMessageResponse response = new NetworkMessageResponse(config, logger);
+				response.setValid(false);
+				responses.add(response);
+			}
+		}
+		
+		return responses;
+	}
+	
 	/* === PRIVATE METHODS === */
 	
 	/**
@@ -1,6 +1,8 @@
 package eu.bavenir.ogwapi.commons.monitoring;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import javax.json.Json;
@@ -63,6 +65,16 @@ public class MessageCounter {
 	 */
 	public static final String RECORDTYPE_STRING_OK = "OK";
 	
+	/**
+	 * Record type - request expired before it was processed
+	 */
+	public static final int RECORDTYPE_INT_EXPIRED = 4;
+	
+	/**
+	 * Record type - request expired before it was processed
+	 */
+	public static final String RECORDTYPE_STRING_EXPIRED = "Request message expired before it was processed";
+	
 	/* === FIELDS === */
 	
 	
@@ -101,6 +113,12 @@ public class MessageCounter {
 	 */
 	private Counters CountersPersistence;
 	
+	/**
+	 * Guards the records and the count. Messages are counted from many threads at once. A lock is used instead of 
+	 * synchronized blocks, so the virtual threads waiting for it do not pin their carrier threads.
+	 */
+	private ReentrantLock recordsLock;
+	
 	
 	/* === PUBLIC METHODS === */
 	
@@ -112,7 +130,9 @@ public class MessageCounter {
 		this.config = config;
 		this.logger = logger;
 		
-		nmConnector = new NeighbourhoodManagerConnector(config, logger);
+		recordsLock = new ReentrantLock();
+		
+		nmConnector = NeighbourhoodManagerConnector.getInstance(config, logger);
 		
 		logger.info("Trying to load counters from file...");
 		CountersPersistence = new Counters(config, logger);
@@ -130,7 +150,13 @@ public class MessageCounter {
 	 * Save messages in counters file
 	 */
 	public void saveCounters(){
-		CountersPersistence.saveCounters(records);
+		
+		recordsLock.lock();
+		try {
+			CountersPersistence.saveCounters(records);
+		} finally {
+			recordsLock.unlock();
+		}
 	}
 	
 	/**
@@ -167,25 +193,43 @@ public class MessageCounter {
 			// message status
 			recordObjectBuilder.add("messageStatus", RECORDTYPE_STRING_OK);
 			recordObjectBuilder.add("messageStatusCode", RECORDTYPE_INT_OK);
+			
+		} else if (recordType == RECORDTYPE_INT_EXPIRED) {
+			
+			// message status
+			recordObjectBuilder.add("messageStatus", RECORDTYPE_STRING_EXPIRED);
+			recordObjectBuilder.add("messageStatusCode", RECORDTYPE_INT_EXPIRED);
 		}
 		
-		records.add(recordObjectBuilder.build());
+		JsonObject record = recordObjectBuilder.build();
+		List<JsonObject> recordsToSend = null;
 		
-		if (++count >= countOfSendingRecords) {
-			
-			sendToNeighborhoodManager();
+		recordsLock.lock();
+		try {
+			records.add(record);
 			
-			records.clear();
-			count = 0;
+			if (++count >= countOfSendingRecords) {
+				
+				// hand the full batch over and start a new one, the sending is done outside of the lock
+				recordsToSend = records;
+				records = new ArrayList<JsonObject>();
+				count = 0;
+			}
+		} finally {
+			recordsLock.unlock();
+		}
+		
+		if (recordsToSend != null) {
+			sendToNeighborhoodManager(recordsToSend);
 		}
 	}
 	
 	/**
 	 * send JsonObject to the Neighborhood Manager
 	 */
-	private void sendToNeighborhoodManager() {
+	private void sendToNeighborhoodManager(List<JsonObject> recordsToSend) {
 		
-		JsonObject payload = createJsonFromRecords();
+		JsonObject payload = createJsonFromRecords(recordsToSend);
 //		Representation resp;
 //		String jsonStr;
 		
@@ -210,12 +254,12 @@ public class MessageCounter {
 	/**
 	 * create JsonObject from records
 	 */
-	private JsonObject createJsonFromRecords() {
+	private JsonObject createJsonFromRecords(List<JsonObject> recordsToSend) {
 		
 		// JsonArray outgoing message
 		JsonArrayBuilder recordsArrayBuilder = Json.createArrayBuilder();
 		// fill this array
-		records.stream().forEach(x -> recordsArrayBuilder.add(x));
+		recordsToSend.stream().forEach(x -> recordsArrayBuilder.add(x));
 		
 		// main JsonObject
 		JsonObjectBuilder mainObjectBuilder = Json.createObjectBuilder();
@@ -168,7 +168,7 @@ public class PersistenceManager {
 		thingDescriptionFile = config.getString(CONFIG_PARAM_DATADIR, CONFIG_DEF_PERSISTENCEFILE) + TD_FILENAME;
 		
 		// NM connector
-		nmConnectionManager = new NeighbourhoodManagerConnector(config, logger);
+		nmConnectionManager = NeighbourhoodManagerConnector.getInstance(config, logger);
 		
 		loadTDFromServer = config.getBoolean(CONFIG_PARAM_LOADTDFROMSERVER, CONFIG_DEF_LOADTDFROMSERVER);
 		
@@ -0,0 +1,242 @@
+package eu.bavenir.ogwapi.commons.search;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Index of semantic interfaces of the objects in the rosters of local objects. For each local (source) object it maps
+ * a semantic interface to the set of object IDs from its roster that implement it, so a semantic search only needs to
+ * probe the index with the interfaces returned by the Semantic Search API, instead of walking through all the thing
+ * descriptions.
+ *
+ * The index of a source object is built from its thing descriptions and is thrown away when:
+ *
+ * - the roster of the source object changes,
+ * - it gets older than {@link #CONFIG_PARAM_INDEXEXPIRATION CONFIG_PARAM_INDEXEXPIRATION} seconds (the thing
+ *   descriptions of remote objects can change without us knowing),
+ * - the thing descriptions of local objects are registered, updated or deleted,
+ * - the source object logs out.
+ *
+ * One instance is created by the {@link eu.bavenir.ogwapi.commons.CommunicationManager CommunicationManager}.
+ *
+ * @author sulfo
+ *
+ */
+public class SemanticIndex {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the configuration parameter for the number of seconds an index is kept. Zero turns the index off and
+	 * the thing descriptions are retrieved for each search.
+	 */
+	private static final String CONFIG_PARAM_INDEXEXPIRATION = "search.semantic.indexExpiration";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_INDEXEXPIRATION CONFIG_PARAM_INDEXEXPIRATION} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_INDEXEXPIRATION = 300;
+
+	/**
+	 * Name of the attribute with object ID in thing description.
+	 */
+	private static final String ATTR_OID = "oid";
+
+	/**
+	 * Name of the attribute with semantic interface in thing description.
+	 */
+	private static final String ATTR_SEMANTICINTERFACE = "semanticInterface";
+
+
+	/* === FIELDS === */
+
+	/**
+	 * How long an index is kept (ms).
+	 */
+	private long expiration;
+
+	/**
+	 * Indexes by source object ID.
+	 */
+	private Map<String, Entry> indexes;
+
+	/**
+	 * Logger of the OGWAPI.
+	 */
+	private Logger logger;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public SemanticIndex(XMLConfiguration config, Logger logger) {
+
+		this.logger = logger;
+
+		int expirationSeconds = config.getInt(CONFIG_PARAM_INDEXEXPIRATION, CONFIG_DEF_INDEXEXPIRATION);
+		if (expirationSeconds < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_INDEXEXPIRATION
+					+ " in the configuration file: " + expirationSeconds + ". Setting to default: "
+					+ CONFIG_DEF_INDEXEXPIRATION);
+
+			expirationSeconds = CONFIG_DEF_INDEXEXPIRATION;
+		}
+		expiration = expirationSeconds * 1000L;
+
+		indexes = new ConcurrentHashMap<String, Entry>();
+	}
+
+
+	/**
+	 * Returns the index of the source object, if it is still valid for the given roster.
+	 *
+	 * @param sourceObjectId ID of the source object.
+	 * @param roster Current roster of the source object.
+	 * @return Map of semantic interfaces to sets of object IDs, or null if the index needs to be built.
+	 */
+	public Map<String, Set<String>> get(String sourceObjectId, Set<String> roster) {
+
+		if (sourceObjectId == null || roster == null) {
+			return null;
+		}
+
+		Entry entry = indexes.get(sourceObjectId);
+
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.expiresAt < System.currentTimeMillis() || !entry.roster.equals(roster)) {
+			indexes.remove(sourceObjectId, entry);
+			logger.fine("Semantic index of '" + sourceObjectId + "' is no longer valid.");
+			return null;
+		}
+
+		return entry.interfaces;
+	}
+
+
+	/**
+	 * Builds the index of the source object from the thing descriptions of objects in its roster and stores it. Only
+	 * to be used with a complete set of thing descriptions, see {@link #build(JsonArray) build(JsonArray)} otherwise.
+	 *
+	 * @param sourceObjectId ID of the source object.
+	 * @param roster Roster of the source object, the thing descriptions were retrieved for.
+	 * @param thingDescriptions Thing descriptions of all objects in the roster.
+	 * @return Map of semantic interfaces to sets of object IDs, never null.
+	 */
+	public Map<String, Set<String>> build(String sourceObjectId, Set<String> roster, JsonArray thingDescriptions) {
+
+		Map<String, Set<String>> interfaces = build(thingDescriptions);
+
+		if (expiration > 0 && sourceObjectId != null && roster != null) {
+			indexes.put(sourceObjectId, new Entry(new HashSet<String>(roster), Collections.unmodifiableMap(interfaces),
+					System.currentTimeMillis() + expiration));
+
+			logger.fine("Semantic index of '" + sourceObjectId + "' built with " + interfaces.size()
+					+ " semantic interfaces.");
+		}
+
+		return interfaces;
+	}
+
+
+	/**
+	 * Builds an index from the given thing descriptions without storing it. To be used when the thing descriptions
+	 * could not be retrieved, or only some of them, so the index would miss objects until it expires.
+	 *
+	 * @param thingDescriptions Thing descriptions, can be null.
+	 * @return Map of semantic interfaces to sets of object IDs, never null.
+	 */
+	public Map<String, Set<String>> build(JsonArray thingDescriptions) {
+
+		Map<String, Set<String>> interfaces = new HashMap<String, Set<String>>();
+
+		if (thingDescriptions != null) {
+			for (JsonValue value : thingDescriptions) {
+
+				if (!(value instanceof JsonObject)) {
+					continue;
+				}
+
+				JsonObject td = (JsonObject) value;
+				String oid = td.getString(ATTR_OID, null);
+				String semanticInterface = td.getString(ATTR_SEMANTICINTERFACE, null);
+
+				if (oid == null || semanticInterface == null) {
+					continue;
+				}
+
+				interfaces.computeIfAbsent(semanticInterface, key -> new HashSet<String>()).add(oid);
+			}
+		}
+
+		return interfaces;
+	}
+
+
+	/**
+	 * Throws away the index of the source object.
+	 *
+	 * @param sourceObjectId ID of the source object.
+	 */
+	public void invalidate(String sourceObjectId) {
+
+		if (sourceObjectId != null) {
+			indexes.remove(sourceObjectId);
+		}
+	}
+
+
+	/**
+	 * Throws away all indexes. To be used when thing descriptions of local objects change, since they can be in
+	 * rosters of any other object.
+	 */
+	public void invalidateAll() {
+
+		indexes.clear();
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Index of one source object.
+	 */
+	private static class Entry {
+
+		private final Set<String> roster;
+		private final Map<String, Set<String>> interfaces;
+		private final long expiresAt;
+
+		private Entry(Set<String> roster, Map<String, Set<String>> interfaces, long expiresAt) {
+			this.roster = roster;
+			this.interfaces = interfaces;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
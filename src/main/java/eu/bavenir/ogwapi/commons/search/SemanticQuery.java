@@ -3,20 +3,17 @@ package eu.bavenir.ogwapi.commons.search;
 import java.io.StringReader;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.json.Json;
-import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonReader;
 
 import org.apache.commons.configuration2.XMLConfiguration;
-import org.json.JSONArray;
 
 import com.mashape.unirest.http.JsonNode;
 import com.mashape.unirest.http.Unirest;
@@ -63,7 +60,18 @@ public class SemanticQuery {
 		semanticSearchAPIURL = config.getString(CONFIG_PARAM_SEMANTICSEARCHAPI, CONFIG_DEF_SEMANTICSEARCHAPI);
 	}
 	
-	public String performQuery(String sourceObjectId, String query, Map<String, String> parameters, JsonArray tds) {
+	/**
+	 * Asks the Semantic Search API for the semantic interfaces matching the query and looks them up in the index 
+	 * of the source object.
+	 * 
+	 * @param sourceObjectId ID of the source object.
+	 * @param query Semantic query.
+	 * @param parameters Any parameters (if needed).
+	 * @param index Semantic interfaces of objects in the roster of the source object, see {@link SemanticIndex}.
+	 * @return JSON with results.
+	 */
+	public String performQuery(String sourceObjectId, String query, Map<String, String> parameters, 
+			Map<String, Set<String>> index) {
 		
 		JsonReader jsonReader = Json.createReader(new StringReader(query));
 		JsonObject json;
@@ -109,30 +117,29 @@ public class SemanticQuery {
 		
 		Set<String> arr = new HashSet<>();
 		
-		response.getArray().forEach(item -> {
-			arr.add((String) item);
-		});
+		if (response != null) {
+			response.getArray().forEach(item -> {
+				arr.add(item.toString());
+			});
+		}
 		
-		tds.forEach(item -> {
+		// one probe per returned interface
+		arr.forEach(item -> {
 			
-			String currentSemanticInterface = getSemanticInterface(Json.createObjectBuilder().add("td", item).build());
+			Set<String> oids = index.get(item);
 			
-			if (currentSemanticInterface != null) {
+			if (oids != null) {
 				
-				arr.forEach(item2 -> {
+				oids.forEach(oid -> {
 					
-					if (currentSemanticInterface.equals(item2.toString())) {
-						
-						JsonObjectBuilder innerObjectBuilder = Json.createObjectBuilder();
-						
-						innerObjectBuilder.add("oid", getOid(Json.createObjectBuilder().add("td", item).build()));
-						innerObjectBuilder.add("semanticInterface", item2.toString());
-						
-						mainArrayBuilder.add(innerObjectBuilder);
-					}
+					JsonObjectBuilder innerObjectBuilder = Json.createObjectBuilder();
+					
+					innerObjectBuilder.add("oid", oid);
+					innerObjectBuilder.add("semanticInterface", item);
+					
+					mainArrayBuilder.add(innerObjectBuilder);
 				});
 			}
-			
 		});
 
 		mainObjectBuilder.add("semanticInterfaces", mainArrayBuilder);
@@ -1,15 +1,17 @@
 package eu.bavenir.ogwapi.commons.search;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -25,6 +27,7 @@ import org.apache.jena.query.QueryFactory;
 import org.json.JSONObject;
 import org.restlet.resource.ResourceException;
 
+import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 
@@ -57,7 +60,70 @@ public class SparqlQuery {
 	
 	private static final int ARRAYINDEX_PID = 4;
 	
-	private static final int MAX_PARALLEL_REQUESTS = 300;
+	/**
+	 * Name of the configuration parameter for the maximum number of remote property requests that all SPARQL queries
+	 * running on this gateway can have in progress at the same time.
+	 */
+	private static final String CONFIG_PARAM_MAXPARALLELREQUESTS = "search.sparql.maxParallelRequests";
+	
+	/**
+	 * Default value of {@link #CONFIG_PARAM_MAXPARALLELREQUESTS CONFIG_PARAM_MAXPARALLELREQUESTS} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_MAXPARALLELREQUESTS = 300;
+	
+	/**
+	 * Name of the configuration parameter for the maximum number of remote property requests that a single SPARQL 
+	 * query can have in progress at the same time.
+	 */
+	private static final String CONFIG_PARAM_MAXREQUESTSPERQUERY = "search.sparql.maxRequestsPerQuery";
+	
+	/**
+	 * Default value of {@link #CONFIG_PARAM_MAXREQUESTSPERQUERY CONFIG_PARAM_MAXREQUESTSPERQUERY} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_MAXREQUESTSPERQUERY = 50;
+	
+	/**
+	 * Name of the configuration parameter for the number of seconds after which the retrieval of remote data for a 
+	 * query is stopped and the query is solved with whatever data arrived.
+	 */
+	private static final String CONFIG_PARAM_QUERYTIMEOUT = "search.sparql.queryTimeout";
+	
+	/**
+	 * Default value of {@link #CONFIG_PARAM_QUERYTIMEOUT CONFIG_PARAM_QUERYTIMEOUT} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_QUERYTIMEOUT = 100;
+	
+	/**
+	 * Name of the query parameter with which the caller can shorten the {@link #CONFIG_PARAM_QUERYTIMEOUT queryTimeout}
+	 * for its query (seconds). It is not forwarded to the remote objects.
+	 */
+	public static final String PARAM_QUERYTIMEOUT = "queryTimeout";
+	
+	/**
+	 * Name of the attribute in the response, true if some of the remote endpoints did not provide their data and the
+	 * results were computed without them.
+	 */
+	public static final String ATTR_PARTIAL = "partial";
+	
+	/**
+	 * Name of the attribute in the response with the list of remote endpoints that did not provide their data.
+	 */
+	public static final String ATTR_MISSINGENDPOINTS = "missingEndpoints";
+	
+	/**
+	 * Name of the attribute with object ID of a missing endpoint.
+	 */
+	public static final String ATTR_OID = "oid";
+	
+	/**
+	 * Name of the attribute with property ID of a missing endpoint.
+	 */
+	public static final String ATTR_PID = "pid";
+	
+	/**
+	 * Permits for remote property requests, shared by all SPARQL queries on this gateway.
+	 */
+	private static Semaphore federationPermits;
 
 	// this is necessary to send requests to all neighbours
 	private ConnectionDescriptor descriptor;
@@ -68,6 +134,12 @@ public class SparqlQuery {
 	
 	private String gwapiServicesUrl;
 	
+	private int maxRequestsPerQuery;
+	
+	private long queryTimeoutMillis;
+	
+	private TedCache tedCache;
+	
 	
 	public SparqlQuery(XMLConfiguration config, ConnectionDescriptor descriptor, Logger logger) {
 		this.descriptor = descriptor;
@@ -75,6 +147,43 @@ public class SparqlQuery {
 		
 		gwapiServicesUrl = config.getString(CONFIG_PARAM_GWAPISERVICESURL, CONFIG_DEF_GWAPISERVICESURL);
 		
+		maxRequestsPerQuery = config.getInt(CONFIG_PARAM_MAXREQUESTSPERQUERY, CONFIG_DEF_MAXREQUESTSPERQUERY);
+		if (maxRequestsPerQuery <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_MAXREQUESTSPERQUERY 
+					+ " in the configuration file: " + maxRequestsPerQuery + ". Setting to default: " 
+					+ CONFIG_DEF_MAXREQUESTSPERQUERY);
+			
+			maxRequestsPerQuery = CONFIG_DEF_MAXREQUESTSPERQUERY;
+		}
+		
+		int queryTimeout = config.getInt(CONFIG_PARAM_QUERYTIMEOUT, CONFIG_DEF_QUERYTIMEOUT);
+		if (queryTimeout <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_QUERYTIMEOUT + " in the configuration file: " 
+					+ queryTimeout + ". Setting to default: " + CONFIG_DEF_QUERYTIMEOUT);
+			
+			queryTimeout = CONFIG_DEF_QUERYTIMEOUT;
+		}
+		queryTimeoutMillis = queryTimeout * 1000L;
+		
+		// one pool of permits for the whole gateway
+		synchronized (SparqlQuery.class) {
+			if (federationPermits == null) {
+				
+				int maxParallelRequests = config.getInt(CONFIG_PARAM_MAXPARALLELREQUESTS, CONFIG_DEF_MAXPARALLELREQUESTS);
+				if (maxParallelRequests <= 0) {
+					logger.warning("Wrong parameter entered for " + CONFIG_PARAM_MAXPARALLELREQUESTS 
+							+ " in the configuration file: " + maxParallelRequests + ". Setting to default: " 
+							+ CONFIG_DEF_MAXPARALLELREQUESTS);
+					
+					maxParallelRequests = CONFIG_DEF_MAXPARALLELREQUESTS;
+				}
+				
+				federationPermits = new Semaphore(maxParallelRequests);
+			}
+		}
+		
+		tedCache = TedCache.getInstance(config, logger);
+		
 		jsonBuilderFactory = Json.createBuilderFactory(null);
 		
 		
@@ -96,42 +205,15 @@ public class SparqlQuery {
 		// 3. Retrieve remote data
 		List<Entry<String,String>> remoteEndpoints = client.getRelevantGatewayAPIAddresses();
 		logger.fine("Remote endpoints to retrieve data from "+remoteEndpoints.size());
-		// 3.1 Prepare Futures
-		ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS);
-        List<Future<String>> list = new ArrayList<Future<String>>();
-        for(int i = 0; i < remoteEndpoints.size(); i++) {
-			String remoteGatewayAddress = remoteEndpoints.get(i).getValue(); 
-			String accessIRI = remoteEndpoints.get(i).getKey();
-			// Transform into right request values
-			String[] splitArray = remoteGatewayAddress.split("/");		
-			String objectId = splitArray[ARRAYINDEX_OID];
-			String propertyId = splitArray[ARRAYINDEX_PID];
-        		Callable<String> callable = new Callable<String>() {
-                public String call() {
-                    return getPropertyOfRemoteObject(objectId, propertyId, parameters, accessIRI);
-                }
-            };
-            Future<String> future = executor.submit(callable);
-            list.add(future);
-        }
-        // 3.2 Execute Futures
-        for(Future<String> fut : list){
-            try {
-            		String jsonData = fut.get();
-            		if(jsonData!=null && !jsonData.contains("\"error\":") && isCorrectJSON(jsonData)) {
-            			JSONObject jsonDocument = new JSONObject(jsonData);
-            			if(jsonDocument.has("data")) {
-            				remoteEndpoints.get(list.indexOf(fut)).setValue(jsonDocument.getJSONObject("data").toString());
-            			}else {
-            				remoteEndpoints.get(list.indexOf(fut)).setValue(jsonData);
-            			}
-        			}
-            } catch (Exception  e) {
-                e.printStackTrace();
-            }
-        }
-        // 3.3 shut down the executor service now
-        executor.shutdown();
+		// 3.1 Send the requests and collect the responses in the order they arrive, no more than 
+		// maxRequestsPerQuery at a time and no longer than queryTimeout
+		Map<String, String> forwardedParameters = new HashMap<>();
+		if (parameters != null) {
+			forwardedParameters.putAll(parameters);
+		}
+		long deadline = System.currentTimeMillis() + getQueryTimeoutMillis(forwardedParameters.remove(PARAM_QUERYTIMEOUT));
+		List<Entry<String,String>> missingEndpoints = retrieveRemoteData(remoteEndpoints, forwardedParameters, deadline);
+		
         // 3.4 Filter those remote enpoints without json
         remoteEndpoints = remoteEndpoints.stream().filter(entry -> isCorrectJSON(entry.getValue())).collect(Collectors.toList());
         
@@ -165,6 +247,20 @@ public class SparqlQuery {
 		}
 		mainBuilder.add(StatusMessage.ATTR_MESSAGE, arrayBuilder);
 		
+		// 5. Tell the caller which endpoints are not reflected in the results
+		JsonArrayBuilder missingBuilder = jsonBuilderFactory.createArrayBuilder();
+		for (Entry<String, String> entry : missingEndpoints) {
+			String[] splitArray = entry.getValue().split("/");
+			JsonObjectBuilder innerBuilder = jsonBuilderFactory.createObjectBuilder();
+			innerBuilder.add(ATTR_OID, splitArray.length > ARRAYINDEX_OID ? splitArray[ARRAYINDEX_OID] : entry.getValue());
+			if (splitArray.length > ARRAYINDEX_PID) {
+				innerBuilder.add(ATTR_PID, splitArray[ARRAYINDEX_PID]);
+			}
+			missingBuilder.add(innerBuilder);
+		}
+		mainBuilder.add(ATTR_PARTIAL, !missingEndpoints.isEmpty());
+		mainBuilder.add(ATTR_MISSINGENDPOINTS, missingBuilder);
+		
 		String returnValue = mainBuilder.build().toString();
 		logger.fine("RETURN VALUE: \n" + returnValue);
 		
@@ -182,13 +278,28 @@ public class SparqlQuery {
 	}	
 	
 	private String retrieveTED(String query, Set<String> neighbours) {	
+		// the sorted roster serves both as the version for the cache and as the list of neighbours for the services
+		String rosterVersion = TedCache.rosterVersion(neighbours);
+		
+		String jsonTED = tedCache.get(query, rosterVersion);
+		if (jsonTED != null) {
+			logger.fine("TED found in cache");
+			return jsonTED;
+		}
+		
 		Unirest.setTimeouts(1800000, 1800000);
 		Map<String, String> headers = new HashMap<>();
 		headers.put("Accept", "application/ld+json");
 		headers.put("Content-Type", "application/ld+json");
-		String jsonTED= "{}";
+		jsonTED= "{}";
 		try {
-			jsonTED = Unirest.post(gwapiServicesUrl+"?neighbors="+neighbours.toString().replace("[", "").replace("]","").replace(" ", "")).headers(headers).body(query).asString().getBody();
+			HttpResponse<String> response = Unirest.post(gwapiServicesUrl+"?neighbors="+rosterVersion).headers(headers).body(query).asString();
+			jsonTED = response.getBody();
+			
+			// only successful answers are worth remembering
+			if (response.getStatus() / 100 == 2 && jsonTED != null) {
+				tedCache.put(query, rosterVersion, jsonTED);
+			}
 		} catch (UnirestException e) {
 			e.printStackTrace();
 		}
@@ -196,17 +307,190 @@ public class SparqlQuery {
 	}
 	
 		
-	private String getPropertyOfRemoteObject(String remoteObjectID, String propertyName, Map<String, String> parameters, String key) {
+	/**
+	 * Retrieves the data of remote endpoints and stores them as values of the entries. The requests do not occupy
+	 * any thread while waiting, the responses are processed in the order in which they arrive. Each query has at 
+	 * most {@link #CONFIG_PARAM_MAXREQUESTSPERQUERY maxRequestsPerQuery} requests in progress, the whole gateway at 
+	 * most {@link #CONFIG_PARAM_MAXPARALLELREQUESTS maxParallelRequests}. When the 
+	 * deadline passes, the requests still in progress are abandoned and their entries are left as they were.
+	 * 
+	 * @param remoteEndpoints Entries with access IRI as key and remote gateway address as value.
+	 * @param parameters Parameters of the query.
+	 * @param deadline Time (ms since epoch) after which no more data are awaited.
+	 * @return Entries of the endpoints whose data did not arrive, either because they failed or were too late.
+	 */
+	private List<Entry<String,String>> retrieveRemoteData(List<Entry<String,String>> remoteEndpoints, 
+			Map<String, String> parameters, long deadline) {
+		
+		BlockingQueue<Entry<Integer, String>> completed = new LinkedBlockingQueue<Entry<Integer, String>>();
+		List<CompletableFuture<StatusMessage>> requests = new ArrayList<CompletableFuture<StatusMessage>>();
+		
+		int total = remoteEndpoints.size();
+		int finished = 0;
+		boolean[] received = new boolean[total];
+		
+		try {
+			// fill the first window
+			while (requests.size() < Math.min(total, maxRequestsPerQuery)) {
+				if (!sendRemoteRequest(remoteEndpoints, requests.size(), parameters, requests, completed, deadline)) {
+					break;
+				}
+			}
+			
+			while (finished < requests.size()) {
+				
+				long remaining = deadline - System.currentTimeMillis();
+				Entry<Integer, String> result = remaining > 0 ? completed.poll(remaining, TimeUnit.MILLISECONDS) : null;
+				
+				if (result == null) {
+					logger.warning("SPARQL query timeout reached, " + (total - finished) + " of " + total 
+							+ " remote endpoints did not respond in time.");
+					break;
+				}
+				
+				finished++;
+				received[result.getKey()] = storeRemoteData(remoteEndpoints.get(result.getKey()), result.getValue());
+				
+				// a slot is free, send the next one
+				if (requests.size() < total) {
+					sendRemoteRequest(remoteEndpoints, requests.size(), parameters, requests, completed, deadline);
+				}
+			}
+			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warning("SPARQL query interrupted while retrieving remote data.");
+		}
+		
+		// nobody is interested in the stragglers anymore, cancelling them drops their pending responses too
+		for (CompletableFuture<StatusMessage> request : requests) {
+			request.cancel(false);
+		}
+		
+		List<Entry<String,String>> missingEndpoints = new ArrayList<>();
+		for (int i = 0; i < total; i++) {
+			if (!received[i]) {
+				missingEndpoints.add(remoteEndpoints.get(i));
+			}
+		}
+		
+		return missingEndpoints;
+	}
+	
+	
+	/**
+	 * Sends a request for the data of one remote endpoint. When it completes, the index of the endpoint and the data 
+	 * are put into the queue of completed requests.
+	 * 
+	 * @return False if there was no free permit before the deadline, true otherwise.
+	 */
+	private boolean sendRemoteRequest(List<Entry<String,String>> remoteEndpoints, int index, 
+			Map<String, String> parameters, List<CompletableFuture<StatusMessage>> requests, 
+			BlockingQueue<Entry<Integer, String>> completed, long deadline) throws InterruptedException {
+		
+		if (!federationPermits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+			logger.warning("No free slot for a remote request before the SPARQL query timeout.");
+			return false;
+		}
+		
+		// Transform into right request values
+		String[] splitArray = remoteEndpoints.get(index).getValue().split("/");
+		String objectId = splitArray[ARRAYINDEX_OID];
+		String propertyId = splitArray[ARRAYINDEX_PID];
+		
+		CompletableFuture<StatusMessage> request;
+		try {
+			request = descriptor.getPropertyOfRemoteObjectAsync(objectId, propertyId, parameters, null);
+		} catch (RuntimeException e) {
+			federationPermits.release();
+			throw e;
+		}
+		
+		requests.add(request);
+		
+		request.whenComplete((statusMessage, throwable) -> {
+			federationPermits.release();
+			
+			String jsonData = throwable == null ? getPropertyValue(statusMessage) : null;
+			completed.offer(new AbstractMap.SimpleEntry<Integer, String>(index, jsonData == null ? "" : jsonData));
+		});
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Stores the data retrieved from a remote endpoint into its entry, if they are valid.
+	 * 
+	 * @return True if the data were stored.
+	 */
+	private boolean storeRemoteData(Entry<String,String> remoteEndpoint, String jsonData) {
+		
+		try {
+			if(!jsonData.isEmpty() && !jsonData.contains("\"error\":") && isCorrectJSON(jsonData)) {
+				JSONObject jsonDocument = new JSONObject(jsonData);
+				if(jsonDocument.has("data")) {
+					remoteEndpoint.setValue(jsonDocument.getJSONObject("data").toString());
+				}else {
+					remoteEndpoint.setValue(jsonData);
+				}
+				return true;
+			}
+		} catch (Exception  e) {
+			e.printStackTrace();
+		}
 		
-		StatusMessage statusMessage = descriptor.getPropertyOfRemoteObject(remoteObjectID, propertyName, parameters, null);
+		return false;
+	}
+	
+	
+	/**
+	 * Returns the time budget for retrieval of remote data. The caller can ask for a shorter one than 
+	 * {@link #CONFIG_PARAM_QUERYTIMEOUT queryTimeout}, but not for a longer one.
+	 * 
+	 * @param requestedTimeout Value of the {@link #PARAM_QUERYTIMEOUT PARAM_QUERYTIMEOUT} parameter, can be null.
+	 * @return Time budget (ms).
+	 */
+	private long getQueryTimeoutMillis(String requestedTimeout) {
 		
-		if (statusMessage.isError()) {
+		if (requestedTimeout == null) {
+			return queryTimeoutMillis;
+		}
+		
+		try {
+			long requestedMillis = Long.parseLong(requestedTimeout.trim()) * 1000L;
+			if (requestedMillis > 0) {
+				return Math.min(requestedMillis, queryTimeoutMillis);
+			}
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		
+		logger.warning("Invalid " + PARAM_QUERYTIMEOUT + " parameter: " + requestedTimeout 
+				+ ". Using the configured value.");
+		
+		return queryTimeoutMillis;
+	}
+	
+	
+	/**
+	 * Extracts the property value from the status message returned by the remote object.
+	 * 
+	 * @return The value, or null if the request failed.
+	 */
+	private String getPropertyValue(StatusMessage statusMessage) {
+		
+		if (statusMessage == null || statusMessage.isError()) {
 			return null;
 		}
 		
 		JsonObject jsonObject  = statusMessage.buildMessage();
 		JsonArray jsonArray = jsonObject.getJsonArray(StatusMessage.ATTR_MESSAGE);
 		
+		if (jsonArray == null || jsonArray.isEmpty()) {
+			return null;
+		}
+		
 		logger.fine("JSON String: " + jsonArray.get(0).toString());
 		
 		return jsonArray.get(0).toString();
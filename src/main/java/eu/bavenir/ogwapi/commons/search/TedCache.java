@@ -0,0 +1,248 @@
+package eu.bavenir.ogwapi.commons.search;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+/*
+ * STRUCTURE:
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Cache of Thing Ecosystem Descriptions (TEDs) returned by the Gateway API Services for SPARQL queries. The same
+ * query sent by the same object with unchanged roster yields the same TED, so there is no need to ask the services
+ * again until the record gets old.
+ *
+ * A record is identified by the text of the query (without the white spaces around it) and by the version of the
+ * roster, which is the sorted list of neighbours. Records expire after {@link #CONFIG_PARAM_TEDCACHEEXPIRATION
+ * CONFIG_PARAM_TEDCACHEEXPIRATION} seconds and when there are more than {@link #CONFIG_PARAM_TEDCACHESIZE
+ * CONFIG_PARAM_TEDCACHESIZE} records, the least recently used one is dropped.
+ *
+ * One instance is shared by all the {@link SparqlQuery SparqlQuery} instances of the OGWAPI.
+ *
+ * @author sulfo
+ *
+ */
+public class TedCache {
+
+	/* === CONSTANTS === */
+
+	/**
+	 * Name of the configuration parameter for the number of seconds a TED is kept in the cache. Zero turns the
+	 * cache off.
+	 */
+	private static final String CONFIG_PARAM_TEDCACHEEXPIRATION = "search.sparql.tedCacheExpiration";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_TEDCACHEEXPIRATION CONFIG_PARAM_TEDCACHEEXPIRATION} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_TEDCACHEEXPIRATION = 60;
+
+	/**
+	 * Name of the configuration parameter for the maximum number of TEDs kept in the cache.
+	 */
+	private static final String CONFIG_PARAM_TEDCACHESIZE = "search.sparql.tedCacheSize";
+
+	/**
+	 * Default value of {@link #CONFIG_PARAM_TEDCACHESIZE CONFIG_PARAM_TEDCACHESIZE} configuration parameter.
+	 */
+	private static final int CONFIG_DEF_TEDCACHESIZE = 100;
+
+	/**
+	 * Separator of the neighbours in the roster version string. The same one is used in the request to the services.
+	 */
+	private static final String ROSTER_SEPARATOR = ",";
+
+
+	/* === FIELDS === */
+
+	/**
+	 * The shared instance.
+	 */
+	private static TedCache instance;
+
+	/**
+	 * How long a TED is kept (ms).
+	 */
+	private long expiration;
+
+	/**
+	 * Records in access order, the eldest gets removed when the size limit is exceeded.
+	 */
+	private Map<String, Record> records;
+
+	/**
+	 * Logger of the OGWAPI.
+	 */
+	private Logger logger;
+
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Returns the shared instance of the cache, creating it from the configuration on the first call.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 * @return The cache.
+	 */
+	public static synchronized TedCache getInstance(XMLConfiguration config, Logger logger) {
+
+		if (instance == null) {
+			instance = new TedCache(config, logger);
+		}
+
+		return instance;
+	}
+
+
+	/**
+	 * Makes the roster version string out of the neighbours - their IDs sorted and separated by commas. It can be used
+	 * right away as the list of neighbours for the Gateway API Services.
+	 *
+	 * @param neighbours Roster of the object.
+	 * @return Roster version.
+	 */
+	public static String rosterVersion(Collection<String> neighbours) {
+
+		if (neighbours == null) {
+			return "";
+		}
+
+		return String.join(ROSTER_SEPARATOR, new TreeSet<String>(neighbours));
+	}
+
+
+	/**
+	 * Returns the cached TED for given query and roster version.
+	 *
+	 * @param query SPARQL query.
+	 * @param rosterVersion Version of the roster, see {@link #rosterVersion(Collection) rosterVersion}.
+	 * @return The TED, or null if there is no valid record.
+	 */
+	public String get(String query, String rosterVersion) {
+
+		if (expiration == 0 || query == null) {
+			return null;
+		}
+
+		String key = makeKey(query, rosterVersion);
+
+		synchronized (records) {
+			Record record = records.get(key);
+
+			if (record == null) {
+				return null;
+			}
+
+			if (record.expiresAt < System.currentTimeMillis()) {
+				records.remove(key);
+				return null;
+			}
+
+			return record.ted;
+		}
+	}
+
+
+	/**
+	 * Stores the TED for given query and roster version.
+	 *
+	 * @param query SPARQL query.
+	 * @param rosterVersion Version of the roster, see {@link #rosterVersion(Collection) rosterVersion}.
+	 * @param ted TED returned by the services.
+	 */
+	public void put(String query, String rosterVersion, String ted) {
+
+		if (expiration == 0 || query == null || ted == null) {
+			return;
+		}
+
+		synchronized (records) {
+			records.put(makeKey(query, rosterVersion), new Record(ted, System.currentTimeMillis() + expiration));
+		}
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Constructor, reads the configuration.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	private TedCache(XMLConfiguration config, Logger logger) {
+
+		this.logger = logger;
+
+		int expirationSeconds = config.getInt(CONFIG_PARAM_TEDCACHEEXPIRATION, CONFIG_DEF_TEDCACHEEXPIRATION);
+		if (expirationSeconds < 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_TEDCACHEEXPIRATION
+					+ " in the configuration file: " + expirationSeconds + ". Setting to default: "
+					+ CONFIG_DEF_TEDCACHEEXPIRATION);
+
+			expirationSeconds = CONFIG_DEF_TEDCACHEEXPIRATION;
+		}
+		expiration = expirationSeconds * 1000L;
+
+		int size = config.getInt(CONFIG_PARAM_TEDCACHESIZE, CONFIG_DEF_TEDCACHESIZE);
+		if (size <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_TEDCACHESIZE
+					+ " in the configuration file: " + size + ". Setting to default: " + CONFIG_DEF_TEDCACHESIZE);
+
+			size = CONFIG_DEF_TEDCACHESIZE;
+		}
+		final int maxSize = size;
+
+		records = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+				return size() > maxSize;
+			}
+		};
+
+		if (expiration == 0) {
+			this.logger.config("SPARQL TED cache is disabled.");
+		} else {
+			this.logger.config("SPARQL TED cache keeps up to " + maxSize + " records for " + expirationSeconds
+					+ " seconds.");
+		}
+	}
+
+
+	/**
+	 * Makes the key of a record. Only the white spaces around the query are ignored, the ones inside can be part of
+	 * a literal.
+	 */
+	private String makeKey(String query, String rosterVersion) {
+
+		return query.trim() + '\n' + (rosterVersion == null ? "" : rosterVersion);
+	}
+
+
+	/**
+	 * A record in the cache.
+	 */
+	private static class Record {
+
+		private final String ted;
+		private final long expiresAt;
+
+		private Record(String ted, long expiresAt) {
+			this.ted = ted;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
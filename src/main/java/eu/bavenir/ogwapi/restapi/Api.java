@@ -11,6 +11,7 @@ import org.restlet.routing.Router;
 import org.restlet.security.ChallengeAuthenticator;
 
 import eu.bavenir.ogwapi.restapi.security.AuthenticationVerifier;
+import eu.bavenir.ogwapi.restapi.security.SessionTokenManager;
 import eu.bavenir.ogwapi.restapi.services.AgentsAgidObjects;
 import eu.bavenir.ogwapi.restapi.services.AgentsAgidObjectsDelete;
 import eu.bavenir.ogwapi.restapi.services.AgentsAgidObjectsUpdate;
@@ -26,6 +27,8 @@ import eu.bavenir.ogwapi.restapi.services.ObjectsOidEvents;
 import eu.bavenir.ogwapi.restapi.services.ObjectsOidEventsEid;
 import eu.bavenir.ogwapi.restapi.services.ObjectsOidProperties;
 import eu.bavenir.ogwapi.restapi.services.ObjectsOidPropertiesPid;
+import eu.bavenir.ogwapi.restapi.services.ObjectsProperties;
+import eu.bavenir.ogwapi.restapi.services.ObjectsRequests;
 import eu.bavenir.ogwapi.restapi.services.SearchSemantic;
 import eu.bavenir.ogwapi.restapi.services.SearchSparql;
 import eu.bavenir.ogwapi.commons.CommunicationManager;
@@ -71,6 +74,18 @@ public class Api extends Application {
 	 */
 	public static final String CONTEXT_COMMMANAGER = "communicationManager";
 	
+	/**
+	 * Contextual name of the {@link eu.bavenir.ogwapi.restapi.security.SessionTokenManager SessionTokenManager}, 
+	 * object inserted into the context.
+	 */
+	public static final String CONTEXT_SESSIONTOKENMANAGER = "sessionTokenManager";
+	
+	/**
+	 * Contextual name of the flag that says whether the services should respond asynchronously, inserted into the 
+	 * context.
+	 */
+	public static final String CONTEXT_ASYNCRESPONSES = "asyncResponses";
+	
 	/**
 	 * Name of the configuration parameter for setting the realm of RESTLET BEARER authentication method. 
 	 */
@@ -81,6 +96,12 @@ public class Api extends Application {
 	 */
 	private static final String CONF_PARAM_AUTHMETHOD = "api.authMetod";
 	
+	/**
+	 * Name of the configuration parameter for enabling asynchronous responses of services that wait for remote 
+	 * objects.
+	 */
+	private static final String CONF_PARAM_ASYNCRESPONSES = "api.asyncResponses";
+	
 	/**
 	 * Default value for setting the realm of RESTLET BEARER authentication schema.
 	 */
@@ -91,6 +112,11 @@ public class Api extends Application {
 	 */
 	private static final String CONF_DEF_AUTHMETHOD = "basic";
 	
+	/**
+	 * Default value for {@link #CONF_PARAM_ASYNCRESPONSES CONF_PARAM_ASYNCRESPONSES} parameter.
+	 */
+	private static final boolean CONF_DEF_ASYNCRESPONSES = false;
+	
 	
 	
 	
@@ -103,6 +129,9 @@ public class Api extends Application {
 	// communication node
 	private CommunicationManager communicationManager;
 	
+	// session tokens issued after login
+	private SessionTokenManager sessionTokenManager;
+	
 	// application context
 	private Context applicationContext;
 	
@@ -133,12 +162,22 @@ public class Api extends Application {
 		// this will initialise the CommunicationNode
 		communicationManager = new CommunicationManager(config, logger, messageCounter);
 		
+		sessionTokenManager = new SessionTokenManager(config, logger);
+		
 		// insert stuff into context
 		applicationContext = new Context();
 		
 		applicationContext.getAttributes().put(CONTEXT_CONFIG, config);
 		applicationContext.getAttributes().put(CONTEXT_LOGGER, logger);
 		applicationContext.getAttributes().put(CONTEXT_COMMMANAGER, communicationManager);
+		applicationContext.getAttributes().put(CONTEXT_SESSIONTOKENMANAGER, sessionTokenManager);
+		
+		boolean asyncResponses = config.getBoolean(CONF_PARAM_ASYNCRESPONSES, CONF_DEF_ASYNCRESPONSES);
+		applicationContext.getAttributes().put(CONTEXT_ASYNCRESPONSES, asyncResponses);
+		
+		if (asyncResponses) {
+			logger.config("Asynchronous responses of the API are enabled.");
+		}
 		
 		applicationContext.setLogger(logger);
 		
@@ -167,6 +206,8 @@ public class Api extends Application {
 		
 		
 		// CONSUMPTION
+		router.attach("/objects/properties", ObjectsProperties.class);
+		router.attach("/objects/requests", ObjectsRequests.class);
 		router.attach("/objects/{oid}/properties", ObjectsOidProperties.class);
 		router.attach("/objects/{oid}/properties/{pid}", ObjectsOidPropertiesPid.class);
 		router.attach("/objects/{oid}/actions", ObjectsOidActions.class);
@@ -229,7 +270,7 @@ public class Api extends Application {
 		
 		logger.config("Authentication realm: " + realm);
 		
-		AuthenticationVerifier authVerifier = new AuthenticationVerifier(communicationManager, logger);
+		AuthenticationVerifier authVerifier = new AuthenticationVerifier(communicationManager, logger, sessionTokenManager);
 
 		ChallengeAuthenticator auth = new ChallengeAuthenticator(
 								applicationContext, false, challengeScheme, realm, authVerifier);
@@ -0,0 +1,106 @@
+package eu.bavenir.ogwapi.restapi;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.restlet.Response;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.representation.Representation;
+
+import eu.bavenir.ogwapi.commons.messages.CodesAndReasons;
+import eu.bavenir.ogwapi.commons.messages.StatusMessage;
+
+
+/*
+ * STRUCTURE:
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Sends status messages of requests to remote objects back to the client, when asynchronous responses are enabled in
+ * the configuration file (see {@link Api#CONTEXT_ASYNCRESPONSES Api.CONTEXT_ASYNCRESPONSES}). The thread serving the
+ * request is released while waiting for the remote object and the response is committed when it arrives.
+ *
+ * Used by the {@link org.restlet.resource.ServerResource ServerResources} of remote properties and actions.
+ *
+ * @author sulfo
+ *
+ */
+public final class AsynchronousResponses {
+
+	/* === PUBLIC METHODS === */
+
+	/**
+	 * Sends the status message back to the client once the future is completed, without blocking the thread that
+	 * handles the request. If the status message is already available, it is returned right away. If the future
+	 * fails, the client receives a status message with an error and the failure is logged.
+	 *
+	 * @param response Response of the {@link org.restlet.resource.ServerResource ServerResource}.
+	 * @param futureStatusMessage Future status message.
+	 * @param logger Logger taken from Context.
+	 * @return Representation of the status message if it is already available, null otherwise (the response is then
+	 * committed later).
+	 */
+	public static Representation respond(Response response, CompletableFuture<StatusMessage> futureStatusMessage,
+			Logger logger) {
+
+		if (futureStatusMessage.isDone()) {
+			return futureStatusMessage.handle((statusMessage, throwable) ->
+					toRepresentation(statusMessage, throwable, logger)).join();
+		}
+
+		response.setAutoCommit(false);
+
+		futureStatusMessage.whenComplete((statusMessage, throwable) -> {
+
+			response.setStatus(Status.SUCCESS_OK);
+			response.setEntity(toRepresentation(statusMessage, throwable, logger));
+
+			response.commit();
+		});
+
+		return null;
+	}
+
+
+	/* === PRIVATE METHODS === */
+
+	/**
+	 * Constructor, not to be used.
+	 */
+	private AsynchronousResponses() {
+	}
+
+
+	/**
+	 * Returns the representation of the status message of a completed future, or of a status message with an error,
+	 * if the future failed.
+	 *
+	 * @param statusMessage Status message the future was completed with.
+	 * @param throwable Exception the future failed with, or null.
+	 * @param logger Logger.
+	 * @return Representation to be sent to the client.
+	 */
+	private static Representation toRepresentation(StatusMessage statusMessage, Throwable throwable, Logger logger) {
+
+		if (statusMessage == null) {
+
+			if (throwable instanceof CompletionException && throwable.getCause() != null) {
+				throwable = throwable.getCause();
+			}
+
+			String reason = throwable == null ? "No response was produced." : throwable.toString();
+
+			logger.log(Level.WARNING, "The request could not be processed: " + reason, throwable);
+
+			statusMessage = new StatusMessage(true, CodesAndReasons.CODE_500_INTERNALSERVERERROR,
+					CodesAndReasons.REASON_500_INTERNALSERVERERROR + reason, StatusMessage.CONTENTTYPE_APPLICATIONJSON);
+		}
+
+		return new JsonRepresentation(statusMessage.buildMessage().toString());
+	}
+}
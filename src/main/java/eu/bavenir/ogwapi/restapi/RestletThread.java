@@ -100,9 +100,14 @@ public class RestletThread extends Thread {
 	
 	
 	/**
-	 * Maximum number of threads the RESTLET will be allowed to spawn.
+	 * Name of the configuration parameter for maximum number of threads the RESTLET will be allowed to spawn.
 	 */
-	private static final String MAX_THREADS = "1000";
+	private static final String CONF_PARAM_MAXTHREADS = "api.maxThreads";
+	
+	/**
+	 * Default value for {@link #CONF_PARAM_MAXTHREADS CONF_PARAM_MAXTHREADS} parameter.
+	 */
+	private static final int CONF_DEF_MAXTHREADS = 1000;
 	
 	
 	/* === FIELDS === */
@@ -156,6 +161,11 @@ public class RestletThread extends Thread {
 	 */
 	private MessageCounter messageCounter;
 	
+	/**
+	 * Maximum number of threads the RESTLET will be allowed to spawn.
+	 */
+	private int maxThreads;
+	
 	/* === PUBLIC METHODS === */
 	
 	/**
@@ -191,6 +201,14 @@ public class RestletThread extends Thread {
 		
 		port = config.getInt(CONF_PARAM_APIPORT, CONF_DEF_APIPORT);
 		logger.config("Set to listen on port " + port);
+		
+		maxThreads = config.getInt(CONF_PARAM_MAXTHREADS, CONF_DEF_MAXTHREADS);
+		if (maxThreads <= 0) {
+			logger.warning("Wrong parameter entered for " + CONF_PARAM_MAXTHREADS + " in the configuration file: "  
+					+ maxThreads + ". Setting to default: " + CONF_DEF_MAXTHREADS);
+			maxThreads = CONF_DEF_MAXTHREADS;
+		}
+		logger.config("Maximum number of API threads: " + maxThreads);
 	}
 	
 	
@@ -236,8 +254,8 @@ public class RestletThread extends Thread {
 			serverType = "HTTP";
 		}
 		
-		server.getContext().getParameters().add("maxThreads", MAX_THREADS); 
-		server.getContext().getParameters().add("threadPool.maxThreads", MAX_THREADS); 
+		server.getContext().getParameters().add("maxThreads", String.valueOf(maxThreads)); 
+		server.getContext().getParameters().add("threadPool.maxThreads", String.valueOf(maxThreads)); 
 		
 		// attach the API application  
 		component.getDefaultHost().attach(API_URL_PATH, new Api(config, logger, messageCounter));  
@@ -5,6 +5,7 @@ import java.util.logging.Logger;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.data.ChallengeResponse;
+import org.restlet.data.ChallengeScheme;
 import org.restlet.security.Verifier;
 
 import eu.bavenir.ogwapi.commons.CommunicationManager;
@@ -30,6 +31,15 @@ import eu.bavenir.ogwapi.commons.messages.StatusMessage;
  *  	ConnectionDescriptor, after successful login, contains the password that was used to connect to the network 
  *  	as one of its fields. Credentials are then compared when this verifier is called.
  *  
+ *  Many requests of the same client can arrive before its connection is established. The 
+ *  {@link eu.bavenir.ogwapi.commons.CommunicationManager#establishConnection(String, String) establishConnection}
+ *  method makes sure they all wait for a single connection attempt, and refuses credentials that failed
+ *  recently without contacting the network again.
+ *  
+ *  If session tokens are enabled (see {@link SessionTokenManager SessionTokenManager}), a request can also carry
+ *  a token issued during login in the HTTP Bearer scheme. A valid token is accepted without touching the password, as
+ *  long as the object is still connected. Tokens of an object whose connection was terminated are revoked.
+ *  
  * @author sulfo
  *
  */
@@ -45,6 +55,11 @@ public class AuthenticationVerifier implements Verifier {
 	 */
 	private Logger logger;
 	
+	/**
+	 * {@link SessionTokenManager SessionTokenManager} used for verification of session tokens. Can be null.
+	 */
+	private SessionTokenManager sessionTokenManager;
+	
 	
 	/**
 	 * Constructor. It is necessary to provide all parameters. If null is provided in place of any of them, 
@@ -52,8 +67,19 @@ public class AuthenticationVerifier implements Verifier {
 	 * exceptions).
 	 */
 	public AuthenticationVerifier(CommunicationManager communicationNode, Logger logger){
+		this(communicationNode, logger, null);
+	}
+	
+	
+	/**
+	 * Constructor that also enables the verification of session tokens. The communication manager and logger are 
+	 * mandatory, session token manager can be null.
+	 */
+	public AuthenticationVerifier(CommunicationManager communicationNode, Logger logger, 
+																		SessionTokenManager sessionTokenManager){
 		this.communicationManager = communicationNode;
 		this.logger = logger;
+		this.sessionTokenManager = sessionTokenManager;
 	}
 	
 	
@@ -71,6 +97,44 @@ public class AuthenticationVerifier implements Verifier {
 			return Verifier.RESULT_MISSING;
 		}
 		
+		// session token first - no need to deal with passwords if it is valid
+		if (sessionTokenManager != null && sessionTokenManager.isEnabled() 
+				&& ChallengeScheme.HTTP_OAUTH_BEARER.equals(cr.getScheme())) {
+			
+			String tokenObjectId = sessionTokenManager.verifyToken(readBearerToken(cr));
+			
+			// the connection might have been terminated since the token was issued, without logging out
+			if (tokenObjectId != null && !communicationManager.isConnected(tokenObjectId)) {
+				
+				logger.info("Session token of object '" + tokenObjectId + "', which is not connected anymore, received "
+						+ "from a client with IP " + request.getClientInfo().getAddress() + ". Revoking its tokens.");
+				
+				sessionTokenManager.revokeTokens(tokenObjectId);
+				tokenObjectId = null;
+			}
+			
+			if (tokenObjectId != null) {
+				// services read the object ID from the challenge response
+				cr.setIdentifier(tokenObjectId);
+				
+				logger.fine("Valid session token received from a client with IP " 
+						+ request.getClientInfo().getAddress() + ".");
+				return Verifier.RESULT_VALID;
+			}
+			
+			if (cr.getIdentifier() == null) {
+				logger.info("Invalid or expired session token in request from a client with IP " 
+						+ request.getClientInfo().getAddress() + ".");
+				return Verifier.RESULT_INVALID;
+			}
+		}
+		
+		if (cr.getIdentifier() == null || cr.getSecret() == null) {
+			logger.info("Missing credentials in request from a client with IP " 
+										+ request.getClientInfo().getAddress() + ".");
+			return Verifier.RESULT_MISSING;
+		}
+		
 		String objectId = cr.getIdentifier();
 		String password = new String(cr.getSecret());
 		
@@ -94,4 +158,24 @@ public class AuthenticationVerifier implements Verifier {
 		logger.info("Valid credentials received from a client with IP " + request.getClientInfo().getAddress() + ".");
 		return Verifier.RESULT_VALID;
 	}
+	
+	
+	/**
+	 * Reads the token from a challenge response in HTTP Bearer scheme.
+	 * 
+	 * @param cr Challenge response.
+	 * @return The token, or null if there is none.
+	 */
+	private String readBearerToken(ChallengeResponse cr) {
+		
+		if (cr.getRawValue() != null) {
+			return cr.getRawValue().trim();
+		}
+		
+		if (cr.getSecret() != null) {
+			return new String(cr.getSecret());
+		}
+		
+		return null;
+	}
 }
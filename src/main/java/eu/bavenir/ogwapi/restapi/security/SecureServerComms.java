@@ -159,7 +159,8 @@ public class SecureServerComms {
 	
 	// Checks if token exists in memory, in file or needs to be generated
 	// Afterwards returns token
-	public String getToken() {
+	// Synchronized - the one instance is shared by all threads talking to the NM
+	public synchronized String getToken() {
 		File file = new File(path + CONFIG_DEF_TOKEN);
 		String token = "";
 		if(platform_token_expiration < System.currentTimeMillis()) {
@@ -180,7 +181,9 @@ public class SecureServerComms {
 		} else if(file.exists()) { 
 		// Check if in file
 		    logger.fine("Loading token from file");
-			return loadToken(file);
+		    // keep it in memory, so the file is not read on every request
+			platform_token = loadToken(file);
+			return platform_token;
 		} else {
 			// Otherwise regenerate
 			token = generateToken();
@@ -0,0 +1,313 @@
+package eu.bavenir.ogwapi.restapi.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+/*
+ * STRUCTURE
+ * - constants
+ * - fields
+ * - public methods
+ * - private methods
+ */
+
+/**
+ * Keeps a table of short-lived session tokens issued to objects after a successful login via
+ * {@link eu.bavenir.ogwapi.restapi.services.ObjectsLogin ObjectsLogin} service. An object can then authenticate its
+ * following requests with HTTP Bearer scheme and the token, instead of sending its credentials every time. Verifying a
+ * token is cheap - there is no password handling and no look up in the connection descriptor pool involved.
+ *
+ * A token has a form of [session ID].[secret]. The session ID is used to find the session in the table, the secret
+ * is only stored as a digest and compared in constant time.
+ *
+ * @author sulfo
+ *
+ */
+public class SessionTokenManager {
+
+	// === CONSTANTS ===
+
+	/**
+	 * Name of the configuration parameter for enabling the session tokens.
+	 */
+	private static final String CONFIG_PARAM_SESSIONTOKENS = "api.sessionTokens";
+
+	/**
+	 * Default value for {@link #CONFIG_PARAM_SESSIONTOKENS CONFIG_PARAM_SESSIONTOKENS} parameter.
+	 */
+	private static final boolean CONFIG_DEF_SESSIONTOKENS = false;
+
+	/**
+	 * Name of the configuration parameter for setting the number of seconds a session token is valid.
+	 */
+	private static final String CONFIG_PARAM_SESSIONTOKENEXPIRATION = "api.sessionTokenExpiration";
+
+	/**
+	 * Default value for {@link #CONFIG_PARAM_SESSIONTOKENEXPIRATION CONFIG_PARAM_SESSIONTOKENEXPIRATION} parameter.
+	 */
+	private static final int CONFIG_DEF_SESSIONTOKENEXPIRATION = 300;
+
+	/**
+	 * Number of random bytes in the session ID part of the token.
+	 */
+	private static final int SESSIONID_LENGTH = 16;
+
+	/**
+	 * Number of random bytes in the secret part of the token.
+	 */
+	private static final int SECRET_LENGTH = 32;
+
+	/**
+	 * Separator of the session ID and the secret in the token.
+	 */
+	private static final char TOKEN_SEPARATOR = '.';
+
+	/**
+	 * Algorithm used to make digests of the secrets.
+	 */
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+
+	// === FIELDS ===
+
+	/**
+	 * Whether the tokens are issued at all.
+	 */
+	private boolean enabled;
+
+	/**
+	 * How long the token is valid (ms).
+	 */
+	private long tokenExpiration;
+
+	/**
+	 * Table of sessions, by session ID.
+	 */
+	private Map<String, Session> sessions;
+
+	/**
+	 * Source of randomness for the tokens.
+	 */
+	private SecureRandom random;
+
+	/**
+	 * {@link Logger Logger} used for logging.
+	 */
+	private Logger logger;
+
+
+	// === PUBLIC METHODS ===
+
+	/**
+	 * Constructor.
+	 *
+	 * @param config Configuration of the OGWAPI.
+	 * @param logger Logger of the OGWAPI.
+	 */
+	public SessionTokenManager(XMLConfiguration config, Logger logger) {
+
+		this.logger = logger;
+
+		enabled = config.getBoolean(CONFIG_PARAM_SESSIONTOKENS, CONFIG_DEF_SESSIONTOKENS);
+
+		int tokenExpirationSeconds = config.getInt(CONFIG_PARAM_SESSIONTOKENEXPIRATION,
+				CONFIG_DEF_SESSIONTOKENEXPIRATION);
+
+		if (tokenExpirationSeconds <= 0) {
+			logger.warning("Wrong parameter entered for " + CONFIG_PARAM_SESSIONTOKENEXPIRATION
+					+ " in the configuration file: " + tokenExpirationSeconds + ". Setting to default: "
+					+ CONFIG_DEF_SESSIONTOKENEXPIRATION);
+
+			tokenExpirationSeconds = CONFIG_DEF_SESSIONTOKENEXPIRATION;
+		}
+
+		tokenExpiration = tokenExpirationSeconds * 1000L;
+
+		sessions = new ConcurrentHashMap<String, Session>();
+		random = new SecureRandom();
+
+		if (enabled) {
+			logger.config("API session tokens are enabled, they expire after " + tokenExpirationSeconds + " seconds.");
+		}
+	}
+
+
+	/**
+	 * Whether the session tokens are enabled in the configuration file.
+	 *
+	 * @return True if the tokens are issued.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+
+	/**
+	 * Returns the number of seconds an issued token is valid.
+	 *
+	 * @return Token expiration in seconds.
+	 */
+	public long getTokenExpirationSeconds() {
+		return tokenExpiration / 1000;
+	}
+
+
+	/**
+	 * Issues a new token for given object ID. Expired sessions are removed from the table along the way.
+	 *
+	 * @param objectId Object ID that logged in.
+	 * @return New token, or null if the tokens are disabled or the token could not be created.
+	 */
+	public String issueToken(String objectId) {
+
+		if (!enabled || objectId == null) {
+			return null;
+		}
+
+		removeExpiredSessions();
+
+		byte[] sessionIdBytes = new byte[SESSIONID_LENGTH];
+		byte[] secret = new byte[SECRET_LENGTH];
+
+		random.nextBytes(sessionIdBytes);
+		random.nextBytes(secret);
+
+		byte[] secretDigest = digest(secret);
+		if (secretDigest == null) {
+			return null;
+		}
+
+		String sessionId = Base64.getUrlEncoder().withoutPadding().encodeToString(sessionIdBytes);
+
+		sessions.put(sessionId, new Session(objectId, secretDigest, System.currentTimeMillis() + tokenExpiration));
+
+		logger.fine("Session token issued for '" + objectId + "'.");
+
+		return sessionId + TOKEN_SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(secret);
+	}
+
+
+	/**
+	 * Verifies the token and returns the object ID it was issued for.
+	 *
+	 * @param token Token received from the client.
+	 * @return Object ID, or null if the token is not valid or it expired.
+	 */
+	public String verifyToken(String token) {
+
+		if (!enabled || token == null) {
+			return null;
+		}
+
+		int separatorIndex = token.indexOf(TOKEN_SEPARATOR);
+		if (separatorIndex <= 0 || separatorIndex == token.length() - 1) {
+			return null;
+		}
+
+		String sessionId = token.substring(0, separatorIndex);
+
+		Session session = sessions.get(sessionId);
+		if (session == null) {
+			return null;
+		}
+
+		if (session.expiresAt < System.currentTimeMillis()) {
+			sessions.remove(sessionId, session);
+			return null;
+		}
+
+		byte[] secret;
+		try {
+			secret = Base64.getUrlDecoder().decode(token.substring(separatorIndex + 1)
+																			.getBytes(StandardCharsets.US_ASCII));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		byte[] secretDigest = digest(secret);
+		if (secretDigest == null || !MessageDigest.isEqual(secretDigest, session.secretDigest)) {
+			return null;
+		}
+
+		return session.objectId;
+	}
+
+
+	/**
+	 * Invalidates all tokens issued for given object ID. To be used when the object logs out.
+	 *
+	 * @param objectId Object ID.
+	 */
+	public void revokeTokens(String objectId) {
+
+		if (objectId == null || sessions.isEmpty()) {
+			return;
+		}
+
+		for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+			if (objectId.equals(entry.getValue().objectId)) {
+				sessions.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+
+	// === PRIVATE METHODS ===
+
+	/**
+	 * Removes the sessions whose tokens expired.
+	 */
+	private void removeExpiredSessions() {
+
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+			if (entry.getValue().expiresAt < now) {
+				sessions.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+
+	/**
+	 * Computes a digest of given bytes.
+	 *
+	 * @param bytes Bytes to digest.
+	 * @return The digest, or null if the algorithm is not available.
+	 */
+	private byte[] digest(byte[] bytes) {
+
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			logger.warning("Digest algorithm " + DIGEST_ALGORITHM + " is not available. Session tokens can't be used.");
+
+			return null;
+		}
+	}
+
+
+	/**
+	 * A record in the session table.
+	 */
+	private static class Session {
+
+		private final String objectId;
+		private final byte[] secretDigest;
+		private final long expiresAt;
+
+		private Session(String objectId, byte[] secretDigest, long expiresAt) {
+			this.objectId = objectId;
+			this.secretDigest = secretDigest;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
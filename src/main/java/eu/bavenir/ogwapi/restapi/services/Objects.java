@@ -2,6 +2,7 @@ package eu.bavenir.ogwapi.restapi.services;
 
 import java.io.StringReader;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -13,13 +14,16 @@ import javax.json.JsonObjectBuilder;
 import javax.json.JsonReader;
 import javax.json.JsonValue;
 
+import org.restlet.data.Status;
 import org.restlet.ext.json.JsonRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
+import org.restlet.resource.ResourceException;
 import org.restlet.resource.ServerResource;
 
 import eu.bavenir.ogwapi.restapi.Api;
 import eu.bavenir.ogwapi.commons.CommunicationManager;
+import eu.bavenir.ogwapi.commons.RosterSnapshot;
 import eu.bavenir.ogwapi.commons.messages.MessageResolver;
 
 /*
@@ -70,6 +74,32 @@ public class Objects extends ServerResource {
 	 */
 	private static final String ATTR_PAGE = "page";
 	
+	/**
+	 * Name of the cursor attribute. When present, the list of objects is returned page by page, the next page starts 
+	 * behind the cursor.
+	 */
+	private static final String ATTR_CURSOR = "cursor";
+	
+	/**
+	 * Name of the attribute with the maximum number of objects on a page. 
+	 */
+	private static final String ATTR_LIMIT = "limit";
+	
+	/**
+	 * Name of the attribute with the cursor for the next page.
+	 */
+	private static final String ATTR_NEXTCURSOR = "nextCursor";
+	
+	/**
+	 * Name of the attribute with the version of the roster the page was taken from.
+	 */
+	private static final String ATTR_ROSTERVERSION = "rosterVersion";
+	
+	/**
+	 * Number of objects on a page, if the limit is not specified.
+	 */
+	private static final int DEF_LIMIT = 100;
+	
 	// === OVERRIDEN HTTP METHODS ===
 	
 	/**
@@ -100,6 +130,8 @@ public class Objects extends ServerResource {
 		
 		if (attrObjectsWithTDs) {
 			return getObjectsTDs(attrPage);
+		} else if (queryParams.containsKey(ATTR_CURSOR)) {
+			return getObjectsPage(queryParams.get(ATTR_CURSOR), queryParams.get(ATTR_LIMIT));
 		} else {
 			return getObjects();	
 		}
@@ -138,6 +170,69 @@ public class Objects extends ServerResource {
 		return new JsonRepresentation(mainObjectBuilder.build().toString());
 	}
 	
+	/**
+	 * Creates a JSON from one page of the object's roster. The page is taken from a sorted snapshot of the roster,
+	 * so following the cursors the client gets each object exactly once, even if the roster changes in between (the
+	 * objects that are added or removed meanwhile may or may not appear, depending on where they fall).
+	 * 
+	 * @param cursor Cursor from the previous page, empty or null for the first page.
+	 * @param limit Maximum number of objects on the page, {@link #DEF_LIMIT DEF_LIMIT} if null.
+	 * @return JSON representation of the page.
+	 */
+	private Representation getObjectsPage(String cursor, String limit) {
+		
+		CommunicationManager communicationManager = (CommunicationManager) getContext().getAttributes().get(Api.CONTEXT_COMMMANAGER);
+		
+		int pageLimit = DEF_LIMIT;
+		
+		if (limit != null) {
+			try {
+				pageLimit = Integer.parseInt(limit);
+			} catch (NumberFormatException e) {
+				pageLimit = 0;
+			}
+			
+			if (pageLimit <= 0) {
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "Invalid limit: " + limit);
+			}
+		}
+		
+		RosterSnapshot snapshot = communicationManager.getRosterSnapshotForObject(
+							getRequest().getChallengeResponse().getIdentifier());
+		
+		JsonObjectBuilder mainObjectBuilder = Json.createObjectBuilder();
+		JsonArrayBuilder mainArrayBuilder = Json.createArrayBuilder();
+		
+		if (snapshot == null) {
+			mainObjectBuilder.add(ATTR_OBJECTS, mainArrayBuilder);
+			
+			return new JsonRepresentation(mainObjectBuilder.build().toString());
+		}
+		
+		List<String> page;
+		try {
+			page = snapshot.getPageAfter(cursor, pageLimit);
+		} catch (IllegalArgumentException e) {
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "Invalid cursor: " + cursor);
+		}
+		
+		for (String entry : page) {
+			mainArrayBuilder.add(
+						Json.createObjectBuilder().add(ATTR_OID, entry)
+					);
+		}
+		
+		mainObjectBuilder.add(ATTR_OBJECTS, mainArrayBuilder);
+		mainObjectBuilder.add(ATTR_ROSTERVERSION, snapshot.getVersion());
+		
+		String nextCursor = snapshot.getCursorAfter(page);
+		if (nextCursor != null) {
+			mainObjectBuilder.add(ATTR_NEXTCURSOR, nextCursor);
+		}
+		
+		return new JsonRepresentation(mainObjectBuilder.build().toString());
+	}
+	
 	/**
 	 * Goes through the object's roster and creates a JSON TDs from the visible records.
 	 * 
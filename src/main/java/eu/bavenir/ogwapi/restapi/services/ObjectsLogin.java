@@ -1,5 +1,8 @@
 package eu.bavenir.ogwapi.restapi.services;
 
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
 import org.restlet.ext.json.JsonRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
@@ -7,6 +10,8 @@ import org.restlet.resource.ServerResource;
 
 import eu.bavenir.ogwapi.commons.messages.CodesAndReasons;
 import eu.bavenir.ogwapi.commons.messages.StatusMessage;
+import eu.bavenir.ogwapi.restapi.Api;
+import eu.bavenir.ogwapi.restapi.security.SessionTokenManager;
 
 /*
  * STRUCTURE
@@ -26,6 +31,9 @@ import eu.bavenir.ogwapi.commons.messages.StatusMessage;
  * {@link eu.bavenir.ogwapi.restapi.security.AuthenticationVerifier AuthenticationVerifier} that is called
  * as a RESTLET guard in the API router.
  * 
+ * If session tokens are enabled in the configuration file, the response also contains a short-lived token, that
+ * can be used in HTTP Bearer scheme to authenticate the following requests of the object.
+ * 
  *   URL: 				[server]:[port]/api/objects/login
  *   METHODS: 			GET
  *   SPECIFICATION:		@see <a href="https://vicinityh2020.github.io/vicinity-gateway-api/#/">Gateway API</a>
@@ -37,7 +45,15 @@ public class ObjectsLogin extends ServerResource{
 
 	// === CONSTANTS ===
 	
-	// none
+	/**
+	 * Name of the attribute with the session token in the response.
+	 */
+	private static final String ATTR_TOKEN = "token";
+	
+	/**
+	 * Name of the attribute with the number of seconds the session token is valid.
+	 */
+	private static final String ATTR_EXPIRESIN = "expiresIn";
 	
 	
 	// === OVERRIDEN HTTP METHODS ===
@@ -56,10 +72,37 @@ public class ObjectsLogin extends ServerResource{
 		StatusMessage statusMessage = new StatusMessage(false, CodesAndReasons.CODE_200_OK, 
 				CodesAndReasons.REASON_200_OK + "Login successfull.", StatusMessage.CONTENTTYPE_APPLICATIONJSON);
 		
+		addSessionToken(statusMessage);
+		
 		return new JsonRepresentation(statusMessage.buildMessage().toString());
 	}
 	
 	// === PRIVATE METHODS ===
 	
-	// none
+	/**
+	 * Issues a session token for the calling object and adds it into the status message, if the session tokens are
+	 * enabled.
+	 * 
+	 * @param statusMessage Status message to be returned.
+	 */
+	private void addSessionToken(StatusMessage statusMessage) {
+		
+		SessionTokenManager sessionTokenManager = 
+				(SessionTokenManager) getContext().getAttributes().get(Api.CONTEXT_SESSIONTOKENMANAGER);
+		
+		if (sessionTokenManager == null || !sessionTokenManager.isEnabled() 
+				|| getRequest().getChallengeResponse() == null) {
+			return;
+		}
+		
+		String token = sessionTokenManager.issueToken(getRequest().getChallengeResponse().getIdentifier());
+		
+		if (token != null) {
+			JsonObjectBuilder tokenBuilder = Json.createObjectBuilder();
+			tokenBuilder.add(ATTR_TOKEN, token);
+			tokenBuilder.add(ATTR_EXPIRESIN, sessionTokenManager.getTokenExpirationSeconds());
+			
+			statusMessage.addMessageJson(tokenBuilder);
+		}
+	}
 }
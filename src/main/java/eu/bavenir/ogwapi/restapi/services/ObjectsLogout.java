@@ -8,6 +8,7 @@ import org.restlet.resource.ServerResource;
 import eu.bavenir.ogwapi.commons.messages.CodesAndReasons;
 import eu.bavenir.ogwapi.commons.messages.StatusMessage;
 import eu.bavenir.ogwapi.restapi.Api;
+import eu.bavenir.ogwapi.restapi.security.SessionTokenManager;
 import eu.bavenir.ogwapi.commons.CommunicationManager;
 
 
@@ -62,16 +63,23 @@ public class ObjectsLogout extends ServerResource{
 	// === PRIVATE METHODS ===
 	
 	/**
-	 * Destroys the connection descriptor for given object ID.
+	 * Destroys the connection descriptor for given object ID and revokes its session tokens.
 	 */
 	private void logoutObject() {
 		
 		CommunicationManager communicationManager = 
 						(CommunicationManager) getContext().getAttributes().get(Api.CONTEXT_COMMMANAGER);
 		
-		communicationManager.terminateConnection(
-				getRequest().getChallengeResponse().getIdentifier(), 
-				true);
+		SessionTokenManager sessionTokenManager = 
+						(SessionTokenManager) getContext().getAttributes().get(Api.CONTEXT_SESSIONTOKENMANAGER);
+		
+		String objectId = getRequest().getChallengeResponse().getIdentifier();
+		
+		if (sessionTokenManager != null) {
+			sessionTokenManager.revokeTokens(objectId);
+		}
+		
+		communicationManager.terminateConnection(objectId, true);
 	}
 	
 }
@@ -15,6 +15,7 @@ import org.restlet.resource.ServerResource;
 
 import eu.bavenir.ogwapi.commons.CommunicationManager;
 import eu.bavenir.ogwapi.restapi.Api;
+import eu.bavenir.ogwapi.restapi.AsynchronousResponses;
 
 /*
  * STRUCTURE
@@ -34,6 +35,9 @@ import eu.bavenir.ogwapi.restapi.Api;
  *   ATTRIBUTES:		oid - VICINITY identifier of the object (e.g. 0729a580-2240-11e6-9eb5-0002a5d5c51b).
  *   					aid - Action identifier (as in object description) (e.g. switch).
  *   
+ * When asynchronous responses are enabled in the configuration file, the thread serving the request to start an
+ * action is released while waiting for the remote object and the response is committed when it arrives.
+ *   
  * @author sulfo
  *
  */
@@ -142,6 +146,12 @@ public class ObjectsOidActionsAid extends ServerResource {
 
 		CommunicationManager communicationManager 
 				= (CommunicationManager) getContext().getAttributes().get(Api.CONTEXT_COMMMANAGER);
+		
+		if (Boolean.TRUE.equals(getContext().getAttributes().get(Api.CONTEXT_ASYNCRESPONSES))) {
+			return AsynchronousResponses.respond(getResponse(), communicationManager.startActionAsync(sourceOid, 
+					destinationOid, actionId, body, queryParams), 
+					(Logger) getContext().getAttributes().get(Api.CONTEXT_LOGGER));
+		}
 
 		return new JsonRepresentation(communicationManager.startAction(sourceOid, destinationOid, actionId, body, 
 				queryParams).buildMessage().toString());
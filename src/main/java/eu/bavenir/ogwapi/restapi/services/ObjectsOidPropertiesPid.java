@@ -14,6 +14,7 @@ import org.restlet.resource.ResourceException;
 import org.restlet.resource.ServerResource;
 
 import eu.bavenir.ogwapi.restapi.Api;
+import eu.bavenir.ogwapi.restapi.AsynchronousResponses;
 import eu.bavenir.ogwapi.commons.CommunicationManager;
 
 /*
@@ -33,6 +34,9 @@ import eu.bavenir.ogwapi.commons.CommunicationManager;
  *   ATTRIBUTES:		oid - VICINITY identifier of the object (e.g. 0729a580-2240-11e6-9eb5-0002a5d5c51b).
  *   					pid - Property identifier (as in object description) (e.g. temp1).
  *   
+ * When asynchronous responses are enabled in the configuration file, the thread serving the request is released
+ * while waiting for the remote object and the response is committed when it arrives.
+ *   
  * @author sulfo
  *
  */
@@ -127,6 +131,12 @@ public class ObjectsOidPropertiesPid extends ServerResource {
 		CommunicationManager communicationManager 
 								= (CommunicationManager) getContext().getAttributes().get(Api.CONTEXT_COMMMANAGER);
 		
+		if (Boolean.TRUE.equals(getContext().getAttributes().get(Api.CONTEXT_ASYNCRESPONSES))) {
+			return AsynchronousResponses.respond(getResponse(), communicationManager.setPropertyOfRemoteObjectAsync(
+					sourceOid, destinationOid, propertyId, body, queryParams), 
+					(Logger) getContext().getAttributes().get(Api.CONTEXT_LOGGER));
+		}
+		
 		return new JsonRepresentation(communicationManager.setPropertyOfRemoteObject(sourceOid, destinationOid, 
 				propertyId, body, queryParams).buildMessage().toString());
 		
@@ -148,6 +158,12 @@ public class ObjectsOidPropertiesPid extends ServerResource {
 		CommunicationManager communicationManager 
 			= (CommunicationManager) getContext().getAttributes().get(Api.CONTEXT_COMMMANAGER);
 		
+		if (Boolean.TRUE.equals(getContext().getAttributes().get(Api.CONTEXT_ASYNCRESPONSES))) {
+			return AsynchronousResponses.respond(getResponse(), communicationManager.getPropertyOfRemoteObjectAsync(
+					sourceOid, destinationOid, propertyId, body, queryParams), 
+					(Logger) getContext().getAttributes().get(Api.CONTEXT_LOGGER));
+		}
+		
 		return new JsonRepresentation(communicationManager.getPropertyOfRemoteObject(sourceOid, destinationOid, 
 				propertyId, body, queryParams).buildMessage().toString());
 	}
@@ -0,0 +1,193 @@
+package eu.bavenir.ogwapi.restapi.services;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Post;
+import org.restlet.resource.ResourceException;
+import org.restlet.resource.ServerResource;
+
+import eu.bavenir.ogwapi.restapi.Api;
+import eu.bavenir.ogwapi.restapi.AsynchronousResponses;
+import eu.bavenir.ogwapi.commons.CommunicationManager;
+import eu.bavenir.ogwapi.commons.messages.StatusMessage;
+
+/*
+ * STRUCTURE
+ * - constants
+ * - public methods overriding HTTP methods 
+ * - private methods
+ */
+
+/**
+ * This class implements a {@link org.restlet.resource.ServerResource ServerResource} interface for following
+ * Gateway API calls:
+ * 
+ *   URL: 				[server]:[port]/api/objects/properties
+ *   METHODS: 			POST
+ *   
+ * Retrieves a batch of property values of available IoT objects in one call. The body is a JSON array of the 
+ * properties:
+ * 
+ * [
+ *     {"oid": "0729a580-2240-11e6-9eb5-0002a5d5c51b", "pid": "temp1"},
+ *     {"oid": "0729a580-2240-11e6-9eb5-0002a5d5c51b", "pid": "humidity1"},
+ *     ...
+ * ]
+ * 
+ * The response carries one JSON for each property, in the same order, with its own status message (see 
+ * {@link eu.bavenir.ogwapi.commons.CommunicationManager#getPropertiesOfRemoteObjectsAsync(String, List, Map) 
+ * getPropertiesOfRemoteObjectsAsync}), so a failure to retrieve one property does not fail the others. Query 
+ * parameters are sent with each property request.
+ *   
+ * @author sulfo
+ *
+ */
+public class ObjectsProperties extends ServerResource {
+
+	// === CONSTANTS ===
+	
+	/**
+	 * Name of the Object ID attribute.
+	 */
+	private static final String ATTR_OID = "oid";
+	
+	/**
+	 * Name of the Property ID attribute.
+	 */
+	private static final String ATTR_PID = "pid";
+	
+	/**
+	 * Maximum number of properties in one batch.
+	 */
+	private static final int MAX_PROPERTIES = 500;
+	
+
+	// === OVERRIDEN HTTP METHODS ===
+	
+	/**
+	 * Gets the property values of available IoT objects.
+	 * 
+	 * @param entity Representation of the incoming JSON with the list of properties.
+	 * @return Status messages of all the properties.
+	 */
+	@Post("json")
+	public Representation accept(Representation entity) {
+		String callerOid = getRequest().getChallengeResponse().getIdentifier();
+		Map<String, String> queryParams = getQuery().getValuesMap();
+		
+		Logger logger = (Logger) getContext().getAttributes().get(Api.CONTEXT_LOGGER);
+		
+		List<Map.Entry<String, String>> properties = readProperties(entity, logger);
+		
+		return getObjectsProperties(callerOid, properties, queryParams);
+	}
+	
+	
+	// === PRIVATE METHODS ===
+	
+	/**
+	 * Retrieves the properties.
+	 * 
+	 * @param sourceOid Caller OID.
+	 * @param properties Pairs of object ID and property ID.
+	 * @param queryParams Parameters to be sent with each request.
+	 * @return Response text.
+	 */
+	private Representation getObjectsProperties(String sourceOid, List<Map.Entry<String, String>> properties, 
+			Map<String, String> queryParams){
+		
+		CommunicationManager communicationManager 
+			= (CommunicationManager) getContext().getAttributes().get(Api.CONTEXT_COMMMANAGER);
+		
+		CompletableFuture<StatusMessage> futureStatusMessage 
+			= communicationManager.getPropertiesOfRemoteObjectsAsync(sourceOid, properties, queryParams);
+		
+		if (Boolean.TRUE.equals(getContext().getAttributes().get(Api.CONTEXT_ASYNCRESPONSES))) {
+			return AsynchronousResponses.respond(getResponse(), futureStatusMessage, 
+					(Logger) getContext().getAttributes().get(Api.CONTEXT_LOGGER));
+		}
+		
+		StatusMessage statusMessage = futureStatusMessage.join();
+		
+		if (statusMessage == null) {
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL, "Properties could not be retrieved.");
+		}
+		
+		return new JsonRepresentation(statusMessage.buildMessage().toString());
+	}
+	
+	
+	/**
+	 * Reads the list of properties from the request body.
+	 * 
+	 * @param entity Entity to extract the body from.
+	 * @param logger Logger.
+	 * @return Pairs of object ID and property ID, in the order of the request.
+	 */
+	private List<Map.Entry<String, String>> readProperties(Representation entity, Logger logger) {
+		
+		if (entity == null || !MediaType.APPLICATION_JSON.equals(entity.getMediaType())){
+			logger.warning("Invalid request body - must be a valid JSON.");
+			
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, 
+					"Invalid request body - must be a valid JSON.");
+		}
+		
+		JsonArray json;
+		
+		try (JsonReader jsonReader = Json.createReader(new StringReader(entity.getText()))) {
+			json = jsonReader.readArray();
+		} catch (IOException | RuntimeException e) {
+			logger.info("Invalid list of properties: " + e.getMessage());
+			
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, 
+					"Invalid request body - must be a JSON array of properties.");
+		}
+		
+		if (json.isEmpty() || json.size() > MAX_PROPERTIES) {
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, 
+					"The number of properties must be between 1 and " + MAX_PROPERTIES + ".");
+		}
+		
+		List<Map.Entry<String, String>> properties = new ArrayList<Map.Entry<String, String>>(json.size());
+		
+		for (JsonValue value : json) {
+			
+			String oid = null;
+			String pid = null;
+			
+			if (value instanceof JsonObject) {
+				oid = ((JsonObject) value).getString(ATTR_OID, null);
+				pid = ((JsonObject) value).getString(ATTR_PID, null);
+			}
+			
+			if (oid == null || pid == null) {
+				logger.info("Invalid identifier in the list of properties: " + value);
+				
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, 
+						"Invalid identifier.");
+			}
+			
+			properties.add(new AbstractMap.SimpleEntry<String, String>(oid, pid));
+		}
+		
+		return properties;
+	}
+}
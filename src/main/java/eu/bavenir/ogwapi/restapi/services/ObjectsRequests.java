@@ -0,0 +1,64 @@
+package eu.bavenir.ogwapi.restapi.services;
+
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+import eu.bavenir.ogwapi.commons.CommunicationManager;
+import eu.bavenir.ogwapi.commons.messages.StatusMessage;
+import eu.bavenir.ogwapi.restapi.Api;
+
+/*
+ * STRUCTURE
+ * - constants
+ * - public methods overriding HTTP methods
+ * - private methods
+ */
+
+/**
+ * This class implements a {@link org.restlet.resource.ServerResource ServerResource} interface for following
+ * Gateway API calls:
+ *
+ *   URL: 				[server]:[port]/api/objects/requests
+ *   METHODS: 			GET
+ *
+ * Returns the number of requests to remote objects the calling object has in progress and waiting to be sent, the
+ * maximum it can have in progress, and the same numbers for the whole gateway:
+ *
+ * {
+ *     "oid": "0729a580-2240-11e6-9eb5-0002a5d5c51b",
+ *     "inProgress": 12,
+ *     "waiting": 0,
+ *     "limit": 100,
+ *     "gateway": {"inProgress": 40, "waiting": 0, "lanes": {...}}
+ * }
+ *
+ * An adapter can use it to slow down before its requests get refused with 429. The lanes are only present if the
+ * priority lanes are used, with the number of messages waiting in each, taken from it, and their average and maximum
+ * delay, see {@link eu.bavenir.ogwapi.commons.MessageLanes MessageLanes}.
+ *
+ * @author sulfo
+ *
+ */
+public class ObjectsRequests extends ServerResource {
+
+	// === OVERRIDEN HTTP METHODS ===
+
+	/**
+	 * Answers the GET call.
+	 *
+	 * @return A {@link StatusMessage StatusMessage} with the numbers of requests.
+	 */
+	@Get
+	public Representation represent() {
+		String callerOid = getRequest().getChallengeResponse().getIdentifier();
+
+		CommunicationManager communicationManager
+			= (CommunicationManager) getContext().getAttributes().get(Api.CONTEXT_COMMMANAGER);
+
+		StatusMessage statusMessage = communicationManager.getRequestsInProgress(callerOid);
+
+		return new JsonRepresentation(statusMessage.buildMessage().toString());
+	}
+}
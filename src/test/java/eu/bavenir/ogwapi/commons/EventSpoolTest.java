@@ -0,0 +1,263 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link EventSpool EventSpool} - segments, reopening and retention of the spool on the disk.
+ *
+ * @author sulfo
+ *
+ */
+public class EventSpoolTest extends TestCase {
+
+	private static final String OBJECT_ID = "publisher";
+
+	private static final String EVENT_ID = "event";
+
+	private static final String SUBSCRIBER = "subscriber";
+
+	/**
+	 * Size of the header of an event in a segment, see EventSpool.RECORD_HEADER.
+	 */
+	private static final int RECORD_HEADER = Integer.BYTES + Long.BYTES;
+
+	private File dataDirectory;
+
+	private List<EventSpool> spools;
+
+	private Logger logger;
+
+
+	@Override
+	protected void setUp() throws IOException {
+		dataDirectory = Files.createTempDirectory("ogwapi-spool").toFile();
+		spools = new ArrayList<EventSpool>();
+		logger = Logger.getLogger(EventSpoolTest.class.getName());
+	}
+
+
+	@Override
+	protected void tearDown() {
+		for (EventSpool spool : spools) {
+			spool.close();
+		}
+		delete(dataDirectory);
+	}
+
+
+	public void testEventsRollOverToNewSegments() throws IOException {
+
+		EventSpool spool = openSpool(1, 1);
+		spool.addSubscriber(SUBSCRIBER);
+
+		// three events fit in a segment of 1 kB
+		List<String> appended = new ArrayList<String>();
+		for (int i = 0; i < 10; i++) {
+			String message = event(i, 300);
+
+			assertEquals(i * (RECORD_HEADER + 300L), spool.append(message));
+			appended.add(message);
+		}
+
+		assertEquals(4, segmentFiles().length);
+		assertTrue(spool.hasBacklog(SUBSCRIBER));
+
+		List<String> delivered = new ArrayList<String>();
+		assertTrue(spool.deliver(SUBSCRIBER, message -> delivered.add(message)));
+
+		assertEquals(appended, delivered);
+		assertFalse(spool.hasBacklog(SUBSCRIBER));
+	}
+
+
+	public void testSpoolIsReopenedAfterCrash() throws IOException {
+
+		EventSpool crashed = openSpool(1, 1);
+		crashed.addSubscriber(SUBSCRIBER);
+
+		List<String> appended = new ArrayList<String>();
+		long end = 0;
+		for (int i = 0; i < 5; i++) {
+			String message = event(i, 100);
+
+			crashed.append(message);
+			appended.add(message);
+			end += RECORD_HEADER + 100;
+		}
+
+		// the first two events get through, then the subscriber goes offline
+		List<String> delivered = new ArrayList<String>();
+		assertFalse(crashed.deliver(SUBSCRIBER, message -> delivered.size() < 2 && delivered.add(message)));
+		assertEquals(appended.subList(0, 2), delivered);
+
+		// the crash left a half written event behind - its length is written last, so it stays zero
+		File lastSegment = segmentFiles()[segmentFiles().length - 1];
+		try (RandomAccessFile file = new RandomAccessFile(lastSegment, "rw")) {
+			file.seek(end);
+			file.writeInt(0);
+			file.writeLong(System.currentTimeMillis());
+			file.write(new byte[50]);
+		}
+
+		// not closed, as if the OGWAPI crashed
+		EventSpool reopened = openSpool(1, 1);
+
+		assertEquals(end, reopened.append(event(5, 100)));
+		appended.add(event(5, 100));
+
+		// the cursors are not saved after each event, so some events can come again, but none is lost
+		List<String> redelivered = new ArrayList<String>();
+		assertTrue(reopened.deliver(SUBSCRIBER, message -> redelivered.add(message)));
+
+		assertTrue(redelivered.size() >= 4);
+		assertEquals(appended.subList(appended.size() - redelivered.size(), appended.size()), redelivered);
+	}
+
+
+	public void testOldSegmentsAreDroppedUnderLaggingCursor() throws IOException {
+
+		// 64 events in a segment of 64 kB, 16 segments in 1 MB
+		EventSpool spool = openSpool(64, 1);
+		spool.addSubscriber(SUBSCRIBER);
+
+		int events = 20 * 64;
+		for (int i = 0; i < events; i++) {
+			spool.append(event(i, 1000));
+		}
+
+		assertEquals(16, segmentFiles().length);
+
+		// the subscriber did not get anything, the events of the dropped segments are skipped
+		List<String> delivered = new ArrayList<String>();
+		assertTrue(spool.deliver(SUBSCRIBER, message -> delivered.add(message)));
+
+		assertEquals(events - 4 * 64, delivered.size());
+		for (int i = 0; i < delivered.size(); i++) {
+			assertEquals(event(4 * 64 + i, 1000), delivered.get(i));
+		}
+	}
+
+
+	public void testDeliveryStopsWhenSpoolIsClosed() throws Exception {
+
+		EventSpool spool = openSpool(1, 1);
+		spool.addSubscriber(SUBSCRIBER);
+
+		for (int i = 0; i < 5; i++) {
+			spool.append(event(i, 100));
+		}
+
+		CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch closed = new CountDownLatch(1);
+		List<String> delivered = new ArrayList<String>();
+		AtomicBoolean result = new AtomicBoolean(true);
+
+		Thread delivery = new Thread(() -> result.set(spool.deliver(SUBSCRIBER, message -> {
+
+			delivered.add(message);
+			sending.countDown();
+
+			try {
+				closed.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			return true;
+		})));
+		delivery.start();
+
+		assertTrue(sending.await(5, TimeUnit.SECONDS));
+		spool.close();
+		closed.countDown();
+
+		delivery.join(5000);
+
+		assertFalse(delivery.isAlive());
+		assertFalse(result.get());
+		assertEquals(1, delivered.size());
+		assertFalse(spool.hasBacklog(SUBSCRIBER));
+
+		try {
+			spool.append(event(5, 100));
+			fail("Closed spool accepted an event.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+
+	/**
+	 * Opens the spool of the test channel with the given segment size (kB) and maximum size (MB).
+	 */
+	private EventSpool openSpool(int segmentSize, int maxSize) throws IOException {
+
+		XMLConfiguration config = new XMLConfiguration();
+		config.setProperty("general.dataDirectory", dataDirectory.getPath());
+		config.setProperty("general.eventSpoolSegmentSize", segmentSize);
+		config.setProperty("general.eventSpoolMaxSize", maxSize);
+
+		EventSpool spool = new EventSpool(OBJECT_ID, EVENT_ID, config, logger);
+		spools.add(spool);
+
+		return spool;
+	}
+
+
+	/**
+	 * Returns the segment files of the test channel, in the order of their positions.
+	 */
+	private File[] segmentFiles() {
+
+		File folder = new File(dataDirectory, "spool" + File.separator + OBJECT_ID + File.separator + EVENT_ID);
+		File[] files = folder.listFiles((dir, name) -> name.endsWith(".segment"));
+
+		Arrays.sort(files);
+
+		return files;
+	}
+
+
+	/**
+	 * Makes an event message of the given length with its number at the end.
+	 */
+	private static String event(int number, int length) {
+
+		StringBuilder builder = new StringBuilder();
+		String suffix = String.valueOf(number);
+
+		while (builder.length() < length - suffix.length()) {
+			builder.append('x');
+		}
+
+		return builder.append(suffix).toString();
+	}
+
+
+	private static void delete(File file) {
+
+		File[] children = file.listFiles();
+
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+
+		file.delete();
+	}
+}
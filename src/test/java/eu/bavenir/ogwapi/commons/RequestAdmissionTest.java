@@ -0,0 +1,135 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link RequestAdmission RequestAdmission} - limits, waiting and the order of admission.
+ *
+ * @author sulfo
+ *
+ */
+public class RequestAdmissionTest extends TestCase {
+
+	private static final String SOURCE = "source";
+
+	private static final String OTHER_SOURCE = "otherSource";
+
+	private static final String DESTINATION = "destination";
+
+	private static final String OTHER_DESTINATION = "otherDestination";
+
+
+	public void testRequestsOverLimitWaitAndGoInOrder() throws Exception {
+
+		RequestAdmission requestAdmission = createRequestAdmission("queue", 1, 0);
+
+		assertTrue(requestAdmission.admit(SOURCE, DESTINATION).getNow(false));
+
+		CompletableFuture<Boolean> second = requestAdmission.admit(SOURCE, DESTINATION);
+		CompletableFuture<Boolean> third = requestAdmission.admit(SOURCE, OTHER_DESTINATION);
+
+		assertFalse(second.isDone());
+		assertFalse(third.isDone());
+		assertEquals(1, requestAdmission.getInProgress(SOURCE));
+		assertEquals(2, requestAdmission.getWaiting(SOURCE));
+
+		requestAdmission.release(SOURCE, DESTINATION);
+
+		assertTrue(second.get(5, TimeUnit.SECONDS));
+		assertFalse(third.isDone());
+		assertEquals(1, requestAdmission.getWaiting(SOURCE));
+
+		requestAdmission.release(SOURCE, DESTINATION);
+
+		assertTrue(third.get(5, TimeUnit.SECONDS));
+		assertEquals(1, requestAdmission.getInProgress(SOURCE));
+		assertEquals(0, requestAdmission.getWaiting(SOURCE));
+
+		requestAdmission.release(SOURCE, OTHER_DESTINATION);
+
+		assertEquals(0, requestAdmission.getInProgress());
+		assertEquals(0, requestAdmission.getWaiting());
+	}
+
+
+	public void testNewRequestDoesNotOvertakeWaitingOnes() throws Exception {
+
+		RequestAdmission requestAdmission = createRequestAdmission("queue", 0, 1);
+
+		assertTrue(requestAdmission.admit(SOURCE, DESTINATION).getNow(false));
+
+		CompletableFuture<Boolean> waiting = requestAdmission.admit(OTHER_SOURCE, DESTINATION);
+		assertFalse(waiting.isDone());
+
+		requestAdmission.release(SOURCE, DESTINATION);
+
+		// the destination has room again, but the waiting request is first
+		CompletableFuture<Boolean> later = requestAdmission.admit(SOURCE, DESTINATION);
+
+		assertTrue(waiting.get(5, TimeUnit.SECONDS));
+		assertFalse(later.isDone());
+
+		requestAdmission.release(OTHER_SOURCE, DESTINATION);
+
+		assertTrue(later.get(5, TimeUnit.SECONDS));
+	}
+
+
+	public void testGivingUpLeavesTheQueue() throws Exception {
+
+		RequestAdmission requestAdmission = createRequestAdmission("queue", 1, 0);
+
+		assertTrue(requestAdmission.admit(SOURCE, DESTINATION).getNow(false));
+
+		CompletableFuture<Boolean> first = requestAdmission.admit(SOURCE, DESTINATION);
+		CompletableFuture<Boolean> second = requestAdmission.admit(SOURCE, DESTINATION);
+
+		requestAdmission.giveUp(first);
+
+		assertFalse(first.get(5, TimeUnit.SECONDS));
+		assertEquals(1, requestAdmission.getWaiting(SOURCE));
+
+		requestAdmission.release(SOURCE, DESTINATION);
+
+		assertTrue(second.get(5, TimeUnit.SECONDS));
+	}
+
+
+	public void testRequestsOverLimitAreRejected() {
+
+		RequestAdmission requestAdmission = createRequestAdmission("reject", 1, 0);
+
+		assertTrue(requestAdmission.admit(SOURCE, DESTINATION).getNow(false));
+
+		CompletableFuture<Boolean> rejected = requestAdmission.admit(SOURCE, DESTINATION);
+
+		assertTrue(rejected.isDone());
+		assertFalse(rejected.getNow(true));
+		assertEquals(0, requestAdmission.getWaiting(SOURCE));
+
+		// other sources have their own limit
+		assertTrue(requestAdmission.admit(OTHER_SOURCE, DESTINATION).getNow(false));
+	}
+
+
+	/**
+	 * Creates the admission with the given policy and limits.
+	 */
+	private static RequestAdmission createRequestAdmission(String policy, int maxPerSource, int maxPerDestination) {
+
+		XMLConfiguration config = new XMLConfiguration();
+		config.setProperty("general.admissionPolicy", policy);
+		config.setProperty("general.maxRequestsPerSource", maxPerSource);
+		config.setProperty("general.maxRequestsPerDestination", maxPerDestination);
+
+		Logger logger = Logger.getLogger(RequestAdmissionTest.class.getName());
+
+		return new RequestAdmission(config, logger, new WorkerThreads(config, logger));
+	}
+}
@@ -0,0 +1,130 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link RequestTimeouts RequestTimeouts} - percentiles of latencies and the limits of the timeouts.
+ *
+ * @author sulfo
+ *
+ */
+public class RequestTimeoutsTest extends TestCase {
+
+	private static final String DESTINATION = "destination";
+
+	private static final byte GET = NetworkMessageRequest.OPERATION_GETPROPERTYVALUE;
+
+	private static final byte ACTION = NetworkMessageRequest.OPERATION_STARTACTION;
+
+	private static final long FLOOR = 2000;
+
+	private static final long CEILING = 60000;
+
+	private RequestTimeouts requestTimeouts;
+
+
+	@Override
+	protected void setUp() {
+
+		XMLConfiguration config = new XMLConfiguration();
+		config.setProperty("general.adaptiveTimeouts", true);
+		config.setProperty("general.requestTimeoutFloor", FLOOR / 1000);
+		config.setProperty("general.requestTimeoutCeiling", CEILING / 1000);
+		config.setProperty("general.requestTimeoutPercentile", 99);
+
+		requestTimeouts = new RequestTimeouts(config, Logger.getLogger(RequestTimeoutsTest.class.getName()));
+	}
+
+
+	public void testCeilingIsUsedUntilEnoughLatenciesAreKnown() {
+
+		assertEquals(CEILING, requestTimeouts.getTimeout(DESTINATION, GET));
+
+		for (int i = 0; i < 9; i++) {
+			requestTimeouts.recordLatency(DESTINATION, GET, 1000);
+		}
+		assertEquals(CEILING, requestTimeouts.getTimeout(DESTINATION, GET));
+
+		requestTimeouts.recordLatency(DESTINATION, GET, 1000);
+		assertEquals(2000, requestTimeouts.getTimeout(DESTINATION, GET));
+	}
+
+
+	public void testTimeoutIsTwiceThePercentile() {
+
+		// 100, 200, ... 10000 ms, the 99th percentile is 9900 ms
+		for (int i = 100; i >= 1; i--) {
+			requestTimeouts.recordLatency(DESTINATION, GET, i * 100);
+		}
+
+		assertEquals(2 * 9900, requestTimeouts.getTimeout(DESTINATION, GET));
+	}
+
+
+	public void testTimeoutIsKeptBetweenFloorAndCeiling() {
+
+		for (int i = 0; i < 10; i++) {
+			requestTimeouts.recordLatency(DESTINATION, GET, 10);
+			requestTimeouts.recordLatency(DESTINATION, ACTION, 50000);
+		}
+
+		assertEquals(FLOOR, requestTimeouts.getTimeout(DESTINATION, GET));
+		assertEquals(CEILING, requestTimeouts.getTimeout(DESTINATION, ACTION));
+	}
+
+
+	public void testOperationsHaveTheirOwnLatencies() {
+
+		for (int i = 0; i < 100; i++) {
+			requestTimeouts.recordLatency(DESTINATION, GET, 1500);
+			requestTimeouts.recordLatency(DESTINATION, ACTION, 20000);
+		}
+
+		assertEquals(3000, requestTimeouts.getTimeout(DESTINATION, GET));
+		assertEquals(40000, requestTimeouts.getTimeout(DESTINATION, ACTION));
+		assertEquals(CEILING, requestTimeouts.getTimeout("other", GET));
+	}
+
+
+	public void testTimeoutGrowsWithEachTimedOutRequest() {
+
+		for (int i = 0; i < 100; i++) {
+			requestTimeouts.recordLatency(DESTINATION, GET, 1500);
+		}
+
+		long timeout = requestTimeouts.getTimeout(DESTINATION, GET);
+		assertEquals(3000, timeout);
+
+		requestTimeouts.recordTimeout(DESTINATION, GET, timeout);
+		timeout = requestTimeouts.getTimeout(DESTINATION, GET);
+		assertEquals(6000, timeout);
+
+		requestTimeouts.recordTimeout(DESTINATION, GET, timeout);
+		assertEquals(12000, requestTimeouts.getTimeout(DESTINATION, GET));
+	}
+
+
+	public void testRequestedTimeoutIsTakenFromParameters() {
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put(RequestTimeouts.PARAM_REQUESTTIMEOUT, "10");
+		parameters.put("other", "value");
+
+		assertEquals(10000, requestTimeouts.takeTimeout(DESTINATION, GET, parameters));
+		assertFalse(parameters.containsKey(RequestTimeouts.PARAM_REQUESTTIMEOUT));
+		assertEquals(1, parameters.size());
+
+		parameters.put(RequestTimeouts.PARAM_REQUESTTIMEOUT, "600");
+		assertEquals(CEILING, requestTimeouts.takeTimeout(DESTINATION, GET, parameters));
+
+		parameters.put(RequestTimeouts.PARAM_REQUESTTIMEOUT, "soon");
+		assertEquals(CEILING, requestTimeouts.takeTimeout(DESTINATION, GET, parameters));
+	}
+}
@@ -0,0 +1,150 @@
+package eu.bavenir.ogwapi.commons;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import eu.bavenir.ogwapi.commons.messages.CodesAndReasons;
+import eu.bavenir.ogwapi.commons.messages.NetworkMessageRequest;
+import eu.bavenir.ogwapi.commons.messages.NetworkMessageResponse;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link ResponseCache ResponseCache} - retried requests with the same idempotency key.
+ *
+ * @author sulfo
+ *
+ */
+public class ResponseCacheTest extends TestCase {
+
+	private static final String SOURCE = "source";
+
+	private static final String ATTR_PID = "pid";
+
+	private XMLConfiguration config;
+
+	private Logger logger;
+
+	private ResponseCache responseCache;
+
+
+	@Override
+	protected void setUp() {
+
+		config = new XMLConfiguration();
+		logger = Logger.getLogger(ResponseCacheTest.class.getName());
+
+		responseCache = new ResponseCache(config, logger);
+	}
+
+
+	public void testRetryGetsResponseOfOriginal() {
+
+		NetworkMessageRequest original = createRequest("temperature", "key-1");
+		NetworkMessageRequest retry = createRequest("temperature", "key-1");
+
+		assertNull(responseCache.begin(original));
+
+		// the original is still being executed, the retry waits for it
+		CompletableFuture<NetworkMessageResponse> pending = responseCache.begin(retry);
+		assertNotNull(pending);
+		assertFalse(pending.isDone());
+
+		responseCache.complete(original, createResponse(false, CodesAndReasons.CODE_200_OK, "set"));
+
+		NetworkMessageResponse response = responseCache.respondTo(pending.getNow(null), retry);
+		assertEquals(retry.getRequestId(), response.getRequestId());
+		assertEquals("set", response.getResponseBody());
+
+		// and a retry after that gets it right away
+		CompletableFuture<NetworkMessageResponse> completed = responseCache.begin(createRequest("temperature", "key-1"));
+		assertTrue(completed.isDone());
+		assertEquals("set", completed.getNow(null).getResponseBody());
+	}
+
+
+	public void testFailedOriginalIsNotKept() {
+
+		NetworkMessageRequest original = createRequest("temperature", "key-1");
+
+		assertNull(responseCache.begin(original));
+
+		CompletableFuture<NetworkMessageResponse> pending = responseCache.begin(createRequest("temperature", "key-1"));
+
+		// the execution failed, the waiting retry learns it and the next one is executed again
+		responseCache.complete(original, null);
+
+		assertTrue(pending.isDone());
+		assertNull(pending.getNow(null));
+		assertNull(responseCache.begin(createRequest("temperature", "key-1")));
+	}
+
+
+	public void testErrorResponseIsNotKept() {
+
+		NetworkMessageRequest original = createRequest("temperature", "key-1");
+
+		assertNull(responseCache.begin(original));
+
+		responseCache.complete(original, createResponse(true, CodesAndReasons.CODE_500_INTERNALSERVERERROR, "failed"));
+
+		assertNull(responseCache.begin(createRequest("temperature", "key-1")));
+	}
+
+
+	public void testOnlyRequestsWithSameKeyAndAttributesAreCollapsed() {
+
+		assertNull(responseCache.begin(createRequest("temperature", "key-1")));
+
+		assertNull(responseCache.begin(createRequest("temperature", "key-2")));
+		assertNull(responseCache.begin(createRequest("humidity", "key-1")));
+
+		// without a key, each request is executed
+		assertNull(responseCache.begin(createRequest("temperature", null)));
+		assertNull(responseCache.begin(createRequest("temperature", null)));
+	}
+
+
+	public void testCacheCanBeTurnedOff() {
+
+		config.setProperty("general.responseCacheExpiration", 0);
+		responseCache = new ResponseCache(config, logger);
+
+		assertNull(responseCache.begin(createRequest("temperature", "key-1")));
+		assertNull(responseCache.begin(createRequest("temperature", "key-1")));
+	}
+
+
+	/**
+	 * Creates a request to set the property, with the idempotency key if it is not null.
+	 */
+	private NetworkMessageRequest createRequest(String propertyId, String idempotencyKey) {
+
+		NetworkMessageRequest request = new NetworkMessageRequest(config, logger);
+
+		request.setSourceOid(SOURCE);
+		request.setDestinationOid("destination");
+		request.setRequestOperation(NetworkMessageRequest.OPERATION_SETPROPERTYVALUE);
+
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put(ATTR_PID, propertyId);
+		request.setAttributes(attributes);
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (idempotencyKey != null) {
+			parameters.put(ResponseCache.PARAM_IDEMPOTENCYKEY, idempotencyKey);
+		}
+		request.setParameters(parameters);
+
+		return request;
+	}
+
+
+	private NetworkMessageResponse createResponse(boolean error, int code, String body) {
+
+		return new NetworkMessageResponse(config, logger, error, code, null, "application/json", body);
+	}
+}
@@ -0,0 +1,96 @@
+package eu.bavenir.ogwapi.commons.messages;
+
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the duplicate detection of the {@link MessageResolver MessageResolver}.
+ *
+ * @author sulfo
+ *
+ */
+public class MessageResolverTest extends TestCase {
+
+	private XMLConfiguration config;
+
+	private Logger logger;
+
+	private MessageResolver messageResolver;
+
+
+	@Override
+	protected void setUp() {
+
+		config = new XMLConfiguration();
+
+		// the duplicates are remembered for the request message timeout
+		config.setProperty(NetworkMessage.CONFIG_PARAM_REQUESTMESSAGETIMEOUT, 1);
+
+		logger = Logger.getLogger(MessageResolverTest.class.getName());
+		messageResolver = new MessageResolver(config, logger);
+	}
+
+
+	public void testDuplicateIsDiscardedWithinWindow() {
+
+		String message = createRequest("source", 0).buildMessageString();
+
+		assertNotNull(messageResolver.resolveNetworkMessage(message));
+		assertNull(messageResolver.resolveNetworkMessage(message));
+	}
+
+
+	public void testDuplicateWindowExpires() throws InterruptedException {
+
+		String message = createRequest("source", 0).buildMessageString();
+
+		assertNotNull(messageResolver.resolveNetworkMessage(message));
+
+		Thread.sleep(1500);
+
+		// the first message was forgotten, so the same one is taken again
+		assertNotNull(messageResolver.resolveNetworkMessage(message));
+		assertNull(messageResolver.resolveNetworkMessage(message));
+	}
+
+
+	public void testSameRequestIdOfOtherSourceIsNotDuplicate() {
+
+		NetworkMessageRequest request = createRequest("source", 0);
+		NetworkMessageRequest other = createRequest("otherSource", request.getRequestId());
+
+		assertNotNull(messageResolver.resolveNetworkMessage(request.buildMessageString()));
+		assertNotNull(messageResolver.resolveNetworkMessage(other.buildMessageString()));
+
+		// a response has the ID of its request
+		NetworkMessageResponse response = new NetworkMessageResponse(config, logger, false,
+				CodesAndReasons.CODE_200_OK, null, "application/json", null);
+		response.setSourceOid("source");
+		response.setDestinationOid("destination");
+		response.setRequestId(request.getRequestId());
+
+		assertNotNull(messageResolver.resolveNetworkMessage(response.buildMessageString()));
+	}
+
+
+	/**
+	 * Creates a request from the source, with the given request ID, or a new one if it is 0.
+	 */
+	private NetworkMessageRequest createRequest(String sourceOid, int requestId) {
+
+		NetworkMessageRequest request = new NetworkMessageRequest(config, logger);
+
+		request.setSourceOid(sourceOid);
+		request.setDestinationOid("destination");
+		request.setRequestOperation(NetworkMessageRequest.OPERATION_GETPROPERTYVALUE);
+
+		if (requestId != 0) {
+			request.setRequestId(requestId);
+		}
+
+		return request;
+	}
+}